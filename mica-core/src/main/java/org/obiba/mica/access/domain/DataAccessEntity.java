@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 import org.joda.time.DateTime;
 import org.obiba.mica.core.domain.AbstractAuditableDocument;
 import org.obiba.mica.core.domain.SchemaFormContentAware;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 
 import javax.validation.constraints.NotNull;
 import java.util.List;
@@ -20,6 +21,7 @@ public abstract class DataAccessEntity extends AbstractAuditableDocument impleme
   /**
    * Json string containing the request data.
    */
+  @TextIndexed
   protected String content;
 
   protected DataAccessEntityStatus status = DataAccessEntityStatus.OPENED;
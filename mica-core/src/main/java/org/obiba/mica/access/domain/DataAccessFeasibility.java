@@ -1,9 +1,17 @@
 package org.obiba.mica.access.domain;
 
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotNull;
 
+@CompoundIndexes({
+  @CompoundIndex(name = "status_lastModifiedDate", def = "{'status': 1, 'lastModifiedDate': -1, '_id': -1}"),
+  @CompoundIndex(name = "applicant_lastModifiedDate", def = "{'applicant': 1, 'lastModifiedDate': -1, '_id': -1}"),
+  @CompoundIndex(name = "lastModifiedDate", def = "{'lastModifiedDate': -1, '_id': -1}"),
+  @CompoundIndex(name = "parentId_status", def = "{'parentId': 1, 'status': 1}")
+})
 @Document
 public class DataAccessFeasibility extends DataAccessEntity {
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.mica.access.domain;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.joda.time.DateTime;
+import org.obiba.mica.core.domain.AbstractAuditableDocument;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A pending notification of a status transition of a {@link DataAccessEntity}, until the corresponding emails are sent.
+ */
+@Document
+public class DataAccessNotification extends AbstractAuditableDocument {
+
+  private static final long serialVersionUID = 4511318096414235571L;
+
+  @NotNull
+  private String entityType;
+
+  @NotNull
+  private String entityId;
+
+  private DataAccessEntityStatus from;
+
+  @NotNull
+  private DataAccessEntityStatus to;
+
+  private int transition;
+
+  private int attempts = 0;
+
+  @Indexed
+  private DateTime nextAttempt = DateTime.now();
+
+  private String lastError;
+
+  public DataAccessNotification() {
+  }
+
+  public DataAccessNotification(DataAccessEntity entity, @Nullable DataAccessEntityStatus from) {
+    entityType = entity.getClass().getSimpleName();
+    entityId = entity.getId();
+    this.from = from;
+    to = entity.getStatus();
+    transition = entity.getStatusChangeHistory().size();
+  }
+
+  public String getEntityType() {
+    return entityType;
+  }
+
+  public void setEntityType(String entityType) {
+    this.entityType = entityType;
+  }
+
+  public String getEntityId() {
+    return entityId;
+  }
+
+  public void setEntityId(String entityId) {
+    this.entityId = entityId;
+  }
+
+  /**
+   * The status before the transition, null if the entity was created.
+   *
+   * @return
+   */
+  @Nullable
+  public DataAccessEntityStatus getFrom() {
+    return from;
+  }
+
+  public void setFrom(DataAccessEntityStatus from) {
+    this.from = from;
+  }
+
+  public DataAccessEntityStatus getTo() {
+    return to;
+  }
+
+  public void setTo(DataAccessEntityStatus to) {
+    this.to = to;
+  }
+
+  /**
+   * Rank of the transition in the status change history of the entity: tells a repeated transition from a duplicate
+   * notification of the same transition.
+   *
+   * @return
+   */
+  public int getTransition() {
+    return transition;
+  }
+
+  public void setTransition(int transition) {
+    this.transition = transition;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  public DateTime getNextAttempt() {
+    return nextAttempt;
+  }
+
+  public void setNextAttempt(DateTime nextAttempt) {
+    this.nextAttempt = nextAttempt;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+}
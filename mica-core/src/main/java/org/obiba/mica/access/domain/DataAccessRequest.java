@@ -16,6 +16,8 @@ import com.google.common.collect.Sets;
 import org.obiba.mica.core.domain.AttachmentAware;
 import org.obiba.mica.file.Attachment;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotNull;
@@ -25,6 +27,11 @@ import java.util.List;
 /**
  *
  */
+@CompoundIndexes({
+  @CompoundIndex(name = "status_lastModifiedDate", def = "{'status': 1, 'lastModifiedDate': -1, '_id': -1}"),
+  @CompoundIndex(name = "applicant_lastModifiedDate", def = "{'applicant': 1, 'lastModifiedDate': -1, '_id': -1}"),
+  @CompoundIndex(name = "lastModifiedDate", def = "{'lastModifiedDate': -1, '_id': -1}")
+})
 @Document
 public class DataAccessRequest extends DataAccessEntity implements AttachmentAware {
 
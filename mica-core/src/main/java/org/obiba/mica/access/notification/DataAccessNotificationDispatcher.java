@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.mica.access.notification;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.obiba.mica.access.DataAccessNotificationRepository;
+import org.obiba.mica.access.NoSuchDataAccessRequestException;
+import org.obiba.mica.access.domain.DataAccessEntity;
+import org.obiba.mica.access.domain.DataAccessEntityStatus;
+import org.obiba.mica.access.domain.DataAccessNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Outbox of the data access notifications: the status transitions are persisted and then drained by a bounded pool
+ * of workers, that send the notification emails. A notification that could not be sent is attempted again later,
+ * with an exponential back-off, until the max number of attempts is reached.
+ */
+@Component
+public class DataAccessNotificationDispatcher implements EnvironmentAware {
+
+  private static final Logger log = LoggerFactory.getLogger(DataAccessNotificationDispatcher.class);
+
+  private static final int DEFAULT_POOL_SIZE = 2;
+
+  private static final int DEFAULT_BATCH_SIZE = 50;
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+  private static final long DEFAULT_BACKOFF = 60000;
+
+  private static final long MAX_BACKOFF = 3600000;
+
+  @Inject
+  private DataAccessNotificationRepository dataAccessNotificationRepository;
+
+  @Inject
+  private MetricRegistry metricRegistry;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  private final Map<String, Consumer<DataAccessNotification>> handlers = new ConcurrentHashMap<>();
+
+  // notifications submitted to the workers and not completed yet
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong queueDepth = new AtomicLong();
+
+  private ThreadPoolTaskExecutor executor;
+
+  private Timer latency;
+
+  private int batchSize;
+
+  private int maxAttempts;
+
+  private long backoff;
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "dar.notifications.");
+  }
+
+  @PostConstruct
+  public void init() {
+    batchSize = propertyResolver.getProperty("batchSize", Integer.class, DEFAULT_BATCH_SIZE);
+    maxAttempts = propertyResolver.getProperty("maxAttempts", Integer.class, DEFAULT_MAX_ATTEMPTS);
+    backoff = propertyResolver.getProperty("backoff", Long.class, DEFAULT_BACKOFF);
+
+    int poolSize = propertyResolver.getProperty("poolSize", Integer.class, DEFAULT_POOL_SIZE);
+    executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    // no more than a batch is waiting for the workers, the rest is waiting in the outbox
+    executor.setQueueCapacity(batchSize);
+    executor.setThreadNamePrefix("mica-dar-notification-");
+    executor.initialize();
+
+    latency = metricRegistry.timer(MetricRegistry.name(DataAccessNotificationDispatcher.class, "latency"));
+    String depthName = MetricRegistry.name(DataAccessNotificationDispatcher.class, "queue");
+    metricRegistry.remove(depthName);
+    metricRegistry.register(depthName, (Gauge<Long>) queueDepth::get);
+  }
+
+  @PreDestroy
+  public void destroy() {
+    executor.shutdown();
+  }
+
+  /**
+   * Register the sender of the notifications of a type of {@link DataAccessEntity}.
+   *
+   * @param type
+   * @param handler sends the emails of a notification, fails if they could not be sent
+   */
+  public void register(Class<? extends DataAccessEntity> type, Consumer<DataAccessNotification> handler) {
+    handlers.put(type.getSimpleName(), handler);
+  }
+
+  /**
+   * Append the notification of a status transition to the outbox.
+   *
+   * @param entity
+   * @param from status before the transition, null if the entity was created
+   */
+  public void append(DataAccessEntity entity, @Nullable DataAccessEntityStatus from) {
+    dataAccessNotificationRepository.save(new DataAccessNotification(entity, from));
+    queueDepth.incrementAndGet();
+  }
+
+  /**
+   * Submit the due notifications to the workers, oldest first. The duplicate notifications of a status transition are
+   * sent once, a transition that is repeated later in the history of the entity is notified again.
+   */
+  @Scheduled(fixedDelayString = "${dar.notifications.interval:5000}")
+  public void drain() {
+    queueDepth.set(dataAccessNotificationRepository.count());
+    List<DataAccessNotification> due = dataAccessNotificationRepository.findByNextAttemptLessThanEqual(DateTime.now(),
+      new PageRequest(0, batchSize + inFlight.size(), new Sort(Sort.Direction.ASC, "createdDate")));
+
+    // transitions being sent are not sent again
+    Set<String> sending = due.stream().filter(notification -> inFlight.contains(notification.getId()))
+      .map(this::getTransitionKey).collect(Collectors.toSet());
+    Map<String, DataAccessNotification> transitions = Maps.newLinkedHashMap();
+    for (DataAccessNotification notification : due) {
+      if (inFlight.contains(notification.getId())) continue;
+      String key = getTransitionKey(notification);
+      if (sending.contains(key) || transitions.containsKey(key)) {
+        dataAccessNotificationRepository.delete(notification);
+        queueDepth.decrementAndGet();
+      } else transitions.put(key, notification);
+    }
+
+    for (DataAccessNotification notification : transitions.values()) {
+      inFlight.add(notification.getId());
+      try {
+        executor.execute(() -> dispatch(notification));
+      } catch (TaskRejectedException e) {
+        // workers are busy, next drain will take it
+        inFlight.remove(notification.getId());
+        break;
+      }
+    }
+  }
+
+  //
+  // Private methods
+  //
+
+  private String getTransitionKey(DataAccessNotification notification) {
+    return Joiner.on(":").useForNull("").join(notification.getEntityType(), notification.getEntityId(),
+      notification.getTransition(), notification.getFrom(), notification.getTo());
+  }
+
+  private void dispatch(DataAccessNotification notification) {
+    try {
+      Consumer<DataAccessNotification> handler = handlers.get(notification.getEntityType());
+      if (handler == null) {
+        log.warn("No sender of {} notifications, discarding {}", notification.getEntityType(), notification.getId());
+      } else {
+        handler.accept(notification);
+        latency.update(DateTime.now().getMillis() - notification.getCreatedDate().getMillis(), TimeUnit.MILLISECONDS);
+      }
+      dataAccessNotificationRepository.delete(notification);
+      queueDepth.decrementAndGet();
+    } catch (NoSuchDataAccessRequestException e) {
+      log.debug("{} {} was deleted, discarding its notification", notification.getEntityType(),
+        notification.getEntityId());
+      dataAccessNotificationRepository.delete(notification);
+      queueDepth.decrementAndGet();
+    } catch (Exception e) {
+      retry(notification, e);
+    } finally {
+      inFlight.remove(notification.getId());
+    }
+  }
+
+  private void retry(DataAccessNotification notification, Exception e) {
+    int attempts = notification.getAttempts() + 1;
+    if (attempts >= maxAttempts) {
+      log.error("Failed at sending {} {} notification email after {} attempts", notification.getEntityType(),
+        notification.getEntityId(), attempts, e);
+      dataAccessNotificationRepository.delete(notification);
+      queueDepth.decrementAndGet();
+      return;
+    }
+
+    log.warn("Failed at sending {} {} notification email, attempt {}: {}", notification.getEntityType(),
+      notification.getEntityId(), attempts, e.getMessage());
+    notification.setAttempts(attempts);
+    notification.setLastError(e.getMessage());
+    notification.setNextAttempt(DateTime.now().plus(Math.min(backoff << (attempts - 1), MAX_BACKOFF)));
+    dataAccessNotificationRepository.save(notification);
+  }
+}
@@ -54,6 +54,11 @@ public class DataAccessAmendmentService extends DataAccessEntityService<DataAcce
     return dataAmendmentRequestRepository;
   }
 
+  @Override
+  protected Class<DataAccessAmendment> getEntityClass() {
+    return DataAccessAmendment.class;
+  }
+
   @Override
   public DataAccessAmendment save(@NotNull DataAccessAmendment amendment) {
     DataAccessAmendment saved = amendment;
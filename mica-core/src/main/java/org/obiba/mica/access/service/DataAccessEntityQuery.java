@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.access.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import org.joda.time.DateTime;
+import org.obiba.mica.access.domain.DataAccessEntity;
+import org.obiba.mica.access.domain.DataAccessEntityStatus;
+
+/**
+ * Criteria of a listing of {@link DataAccessEntity}s, ordered by last modified first. A page of a listing starts after
+ * the entity identified by the cursor of the previous page.
+ */
+public class DataAccessEntityQuery {
+
+  private List<String> status = Lists.newArrayList();
+
+  private String applicant;
+
+  private String parentId;
+
+  private DateTime from;
+
+  private DateTime to;
+
+  private String text;
+
+  private Collection<String> ids;
+
+  private Cursor cursor;
+
+  private int limit = 0;
+
+  private DataAccessEntityQuery() {
+  }
+
+  /**
+   * Names of the {@link DataAccessEntityStatus}es, any if empty.
+   *
+   * @return
+   */
+  public List<String> getStatus() {
+    return status;
+  }
+
+  @Nullable
+  public String getApplicant() {
+    return applicant;
+  }
+
+  @Nullable
+  public String getParentId() {
+    return parentId;
+  }
+
+  /**
+   * Lower bound of the last modified date, inclusive.
+   *
+   * @return
+   */
+  @Nullable
+  public DateTime getFrom() {
+    return from;
+  }
+
+  /**
+   * Upper bound of the last modified date, inclusive.
+   *
+   * @return
+   */
+  @Nullable
+  public DateTime getTo() {
+    return to;
+  }
+
+  /**
+   * Text that starts the identifier or the applicant, or phrase to be found in the words of the content.
+   *
+   * @return
+   */
+  @Nullable
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Identifiers the listing is restricted to, any if null.
+   *
+   * @return
+   */
+  @Nullable
+  public Collection<String> getIds() {
+    return ids;
+  }
+
+  @Nullable
+  public Cursor getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Max number of entities, no limit if not positive.
+   *
+   * @return
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private final DataAccessEntityQuery query = new DataAccessEntityQuery();
+
+    public Builder status(@Nullable List<String> status) {
+      // unknown status names match nothing
+      if (status != null) query.status = status.stream().filter(s -> !Strings.isNullOrEmpty(s))
+        .collect(Collectors.toList());
+      return this;
+    }
+
+    public Builder applicant(@Nullable String applicant) {
+      query.applicant = Strings.emptyToNull(applicant);
+      return this;
+    }
+
+    public Builder parentId(@Nullable String parentId) {
+      query.parentId = Strings.emptyToNull(parentId);
+      return this;
+    }
+
+    public Builder from(@Nullable DateTime from) {
+      query.from = from;
+      return this;
+    }
+
+    public Builder to(@Nullable DateTime to) {
+      query.to = to;
+      return this;
+    }
+
+    public Builder text(@Nullable String text) {
+      query.text = Strings.emptyToNull(text);
+      return this;
+    }
+
+    public Builder ids(@Nullable Collection<String> ids) {
+      query.ids = ids == null ? null : ImmutableSet.copyOf(ids);
+      return this;
+    }
+
+    public Builder cursor(@Nullable String cursor) {
+      query.cursor = Strings.isNullOrEmpty(cursor) ? null : Cursor.decode(cursor);
+      return this;
+    }
+
+    public Builder limit(int limit) {
+      query.limit = limit;
+      return this;
+    }
+
+    public DataAccessEntityQuery build() {
+      return query;
+    }
+  }
+
+  /**
+   * Position of an entity in the listing: its last modified date and its identifier.
+   */
+  public static class Cursor {
+
+    private final DateTime lastModifiedDate;
+
+    private final String id;
+
+    Cursor(DataAccessEntity entity) {
+      lastModifiedDate = entity.getLastModifiedDate();
+      id = entity.getId();
+    }
+
+    private Cursor(DateTime lastModifiedDate, String id) {
+      this.lastModifiedDate = lastModifiedDate;
+      this.id = id;
+    }
+
+    public DateTime getLastModifiedDate() {
+      return lastModifiedDate;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String encode() {
+      return BaseEncoding.base64Url().omitPadding()
+        .encode((lastModifiedDate.getMillis() + ":" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Cursor decode(String cursor) {
+      try {
+        String value = new String(BaseEncoding.base64Url().omitPadding().decode(cursor), StandardCharsets.UTF_8);
+        int separator = value.indexOf(':');
+        return new Cursor(new DateTime(Long.parseLong(value.substring(0, separator))), value.substring(separator + 1));
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+    }
+  }
+}
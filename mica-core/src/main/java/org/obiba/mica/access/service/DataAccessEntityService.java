@@ -1,17 +1,19 @@
 package org.obiba.mica.access.service;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.EventBus;
 import com.itextpdf.text.DocumentException;
 import com.jayway.jsonpath.*;
+import com.mongodb.BasicDBObject;
 import org.apache.shiro.SecurityUtils;
 import org.obiba.mica.PdfUtils;
 import org.obiba.mica.access.DataAccessEntityRepository;
 import org.obiba.mica.access.DataAccessRequestGenerationException;
 import org.obiba.mica.access.NoSuchDataAccessRequestException;
 import org.obiba.mica.access.domain.*;
-import org.obiba.mica.core.domain.AbstractAuditableDocument;
+import org.obiba.mica.access.notification.DataAccessNotificationDispatcher;
 import org.obiba.mica.core.service.MailService;
 import org.obiba.mica.core.service.SchemaFormContentFileService;
 import org.obiba.mica.core.support.IdentifierGenerator;
@@ -22,16 +24,21 @@ import org.obiba.mica.micaConfig.service.MicaConfigService;
 import org.obiba.mica.security.Roles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static com.jayway.jsonpath.Configuration.defaultConfiguration;
@@ -62,10 +69,23 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
 
   private static final String EXCLUSION_IDS_YAML_RESOURCE_PATH = "config/data-access-form/data-access-request-exclusion-ids-list.yml";
 
+  @Inject
+  protected MongoTemplate mongoTemplate;
+
+  @Inject
+  protected DataAccessNotificationDispatcher dataAccessNotificationDispatcher;
+
   abstract protected DataAccessEntityRepository<T> getRepository();
 
+  abstract protected Class<T> getEntityClass();
+
   abstract public T save(@NotNull T request);
 
+  @PostConstruct
+  public void registerNotificationSender() {
+    dataAccessNotificationDispatcher.register(getEntityClass(), this::sendNotificationEmails);
+  }
+
   /**
    * Delete the {@link DataAccessEntity} matching the identifier.
    *
@@ -131,8 +151,7 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
    * @return
    */
   public List<T> findAll(@Nullable String applicant) {
-    if (Strings.isNullOrEmpty(applicant)) return applyDefaultSort(getRepository().findAll());
-    return applyDefaultSort(getRepository().findByApplicant(applicant));
+    return find(DataAccessEntityQuery.newBuilder().applicant(applicant).build()).getItems();
   }
 
   /**
@@ -142,30 +161,60 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
    * @return
    */
   public List<T> findByStatus(@Nullable List<String> status) {
-    List<T> list = getRepository().findAll();
-    if (status != null && !status.isEmpty()) {
-      list = list.stream().filter(dar -> status.contains(dar.getStatus().name())).collect(Collectors.toList());
-    }
-    return applyDefaultSort(list);
+    return find(DataAccessEntityQuery.newBuilder().status(status).build()).getItems();
   }
 
-  //
-  // Private methods
-  //
-
   /**
-   * Sort by last modified first.
+   * Get a page of the {@link DataAccessEntity}s matching the query, last modified first. The filters, the sort and the
+   * pagination are applied by the database.
    *
-   * @param list
+   * @param query
    * @return
    */
-  private List<T> applyDefaultSort(List<T> list) {
-    list.sort(Comparator.comparing(AbstractAuditableDocument::getLastModifiedDate).reversed());
-    return list;
+  public Page<T> find(@NotNull DataAccessEntityQuery query) {
+    List<Criteria> criterias = Lists.newArrayList();
+    if (!query.getStatus().isEmpty()) criterias.add(Criteria.where("status").in(query.getStatus()));
+    if (query.getApplicant() != null) criterias.add(Criteria.where("applicant").is(query.getApplicant()));
+    if (query.getParentId() != null) criterias.add(Criteria.where("parentId").is(query.getParentId()));
+    if (query.getFrom() != null) criterias.add(Criteria.where("lastModifiedDate").gte(query.getFrom().toDate()));
+    if (query.getTo() != null) criterias.add(Criteria.where("lastModifiedDate").lte(query.getTo().toDate()));
+    if (query.getIds() != null) criterias.add(Criteria.where("id").in(query.getIds()));
+    if (query.getText() != null) {
+      // anchored patterns and the text index, so that each clause is resolved from an index
+      Pattern prefix = Pattern.compile("^" + Pattern.quote(query.getText()));
+      criterias.add(new Criteria().orOperator(Criteria.where("id").regex(prefix),
+        Criteria.where("applicant").regex(prefix),
+        Criteria.where("$text").is(new BasicDBObject("$search", "\"" + query.getText().replace("\"", "") + "\""))));
+    }
+    if (query.getCursor() != null) {
+      Date lastModifiedDate = query.getCursor().getLastModifiedDate().toDate();
+      criterias.add(new Criteria().orOperator(Criteria.where("lastModifiedDate").lt(lastModifiedDate),
+        new Criteria().andOperator(Criteria.where("lastModifiedDate").is(lastModifiedDate),
+          Criteria.where("id").lt(query.getCursor().getId()))));
+    }
+
+    Query mongoQuery = criterias.isEmpty()
+      ? new Query()
+      : new Query(new Criteria().andOperator(criterias.toArray(new Criteria[criterias.size()])));
+    mongoQuery.with(new Sort(Sort.Direction.DESC, "lastModifiedDate", "id"));
+    // one more to know whether there is a next page
+    if (query.getLimit() > 0) mongoQuery.limit(query.getLimit() + 1);
+
+    List<T> items = mongoTemplate.find(mongoQuery, getEntityClass());
+    if (query.getLimit() > 0 && items.size() > query.getLimit()) {
+      items = items.subList(0, query.getLimit());
+      return new Page<>(items, new DataAccessEntityQuery.Cursor(items.get(items.size() - 1)).encode());
+    }
+
+    return new Page<>(items, null);
   }
 
+  //
+  // Private methods
+  //
+
   /**
-   * Send a notification email, depending on the status of the request.
+   * Queue the notification emails of the status transition of the request.
    *
    * @param request
    * @param from
@@ -174,36 +223,46 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
     // no notification when administrator operates, make sure to use a DAO account so that applicant get informed
     if (SecurityUtils.getSubject().hasRole(Roles.MICA_ADMIN) && !SecurityUtils.getSubject().hasRole(Roles.MICA_DAO)) return;
 
-    Executors.newCachedThreadPool().execute(() -> {
-      try {
-        if (from == null) { // check is new request
-          sendCreatedNotificationEmail(request);
-        } else if (request.getStatus() != from) { // check there is a transition
-          switch (request.getStatus()) {
-            case SUBMITTED:
-              sendSubmittedNotificationEmail(request);
-              break;
-            case REVIEWED:
-              sendReviewedNotificationEmail(request);
-              break;
-            case OPENED:
-              sendOpenedNotificationEmail(request);
-              break;
-            case CONDITIONALLY_APPROVED:
-              sendConditionallyApprovedEmail(request);
-              break;
-            case APPROVED:
-              sendApprovedNotificationEmail(request);
-              break;
-            case REJECTED:
-              sendRejectedNotificationEmail(request);
-              break;
-          }
-        }
-      } catch (Exception e) {
-        log.error("Failed at sending data access notification email", e);
-      }
-    });
+    // check is new request or there is a transition
+    if (from == null || request.getStatus() != from) dataAccessNotificationDispatcher.append(request, from);
+  }
+
+  /**
+   * Send the notification emails of a queued status transition, called by the {@link DataAccessNotificationDispatcher}.
+   * The emails are sent in the calling thread, so that the notification is attempted again if any could not be sent.
+   *
+   * @param notification
+   */
+  protected void sendNotificationEmails(DataAccessNotification notification) {
+    T request = findById(notification.getEntityId());
+    // notify the status of the transition, not a later one
+    request.setStatus(notification.getTo());
+
+    if (notification.getFrom() == null) {
+      sendCreatedNotificationEmail(request);
+      return;
+    }
+
+    switch (request.getStatus()) {
+      case SUBMITTED:
+        sendSubmittedNotificationEmail(request);
+        break;
+      case REVIEWED:
+        sendReviewedNotificationEmail(request);
+        break;
+      case OPENED:
+        sendOpenedNotificationEmail(request);
+        break;
+      case CONDITIONALLY_APPROVED:
+        sendConditionallyApprovedEmail(request);
+        break;
+      case APPROVED:
+        sendApprovedNotificationEmail(request);
+        break;
+      case REJECTED:
+        sendRejectedNotificationEmail(request);
+        break;
+    }
   }
 
   //
@@ -237,7 +296,7 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
     if (dataAccessForm.isNotifyCreated()) {
       Map<String, String> ctx = getNotificationEmailContext(request);
       if (ctx.get("parentId") == null) { // only original request, not amendments
-        mailService.sendEmailToGroups(mailService.getSubject(dataAccessForm.getCreatedSubject(), ctx,
+        mailService.sendEmailToGroupsSync(mailService.getSubject(dataAccessForm.getCreatedSubject(), ctx,
           DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), "dataAccessRequestCreatedDAOEmail", ctx,
           Roles.MICA_DAO);
       }
@@ -251,10 +310,10 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
 
       String prefix = getTemplatePrefix(ctx);
 
-      mailService.sendEmailToUsers(mailService.getSubject(dataAccessForm.getSubmittedSubject(), ctx,
+      mailService.sendEmailToUsersSync(mailService.getSubject(dataAccessForm.getSubmittedSubject(), ctx,
         DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), prefix + "SubmittedApplicantEmail", ctx,
         request.getApplicant());
-      mailService.sendEmailToGroups(mailService.getSubject(dataAccessForm.getSubmittedSubject(), ctx,
+      mailService.sendEmailToGroupsSync(mailService.getSubject(dataAccessForm.getSubmittedSubject(), ctx,
         DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), prefix + "SubmittedDAOEmail", ctx,
         Roles.MICA_DAO);
     }
@@ -267,7 +326,7 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
 
       String prefix = getTemplatePrefix(ctx);
 
-      mailService.sendEmailToUsers(mailService.getSubject(dataAccessForm.getConditionallyApprovedSubject(), ctx,
+      mailService.sendEmailToUsersSync(mailService.getSubject(dataAccessForm.getConditionallyApprovedSubject(), ctx,
         DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), prefix + "ConditionallyApprovedApplicantEmail", ctx,
         request.getApplicant());
     }
@@ -280,7 +339,7 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
 
       String prefix = getTemplatePrefix(ctx);
 
-      mailService.sendEmailToUsers(mailService.getSubject(dataAccessForm.getReviewedSubject(), ctx,
+      mailService.sendEmailToUsersSync(mailService.getSubject(dataAccessForm.getReviewedSubject(), ctx,
         DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), prefix + "ReviewedApplicantEmail", ctx,
         request.getApplicant());
     }
@@ -293,7 +352,7 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
 
       String prefix = getTemplatePrefix(ctx);
 
-      mailService.sendEmailToUsers(mailService.getSubject(dataAccessForm.getReopenedSubject(), ctx,
+      mailService.sendEmailToUsersSync(mailService.getSubject(dataAccessForm.getReopenedSubject(), ctx,
         DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), prefix + "ReopenedApplicantEmail", ctx,
         request.getApplicant());
     }
@@ -306,7 +365,7 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
 
       String prefix = getTemplatePrefix(ctx);
 
-      mailService.sendEmailToUsers(mailService.getSubject(dataAccessForm.getApprovedSubject(), ctx,
+      mailService.sendEmailToUsersSync(mailService.getSubject(dataAccessForm.getApprovedSubject(), ctx,
         DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), prefix + "ApprovedApplicantEmail", ctx,
         request.getApplicant());
     }
@@ -319,7 +378,7 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
 
       String prefix = getTemplatePrefix(ctx);
 
-      mailService.sendEmailToUsers(mailService.getSubject(dataAccessForm.getRejectedSubject(), ctx,
+      mailService.sendEmailToUsersSync(mailService.getSubject(dataAccessForm.getRejectedSubject(), ctx,
         DataAccessRequestUtilService.DEFAULT_NOTIFICATION_SUBJECT), prefix + "RejectedApplicantEmail", ctx,
         request.getApplicant());
     }
@@ -420,4 +479,32 @@ public abstract class DataAccessEntityService<T extends DataAccessEntity> {
   private boolean isDataAccessFeasibilityContext(Map<String, String> ctx) {
     return ctx.containsKey("type") && ctx.get("type").equals(DataAccessFeasibility.class.getSimpleName());
   }
+
+  /**
+   * Entities of a listing and the cursor of the next page, if any.
+   */
+  public static class Page<T extends DataAccessEntity> {
+
+    private final List<T> items;
+
+    private final String nextCursor;
+
+    Page(List<T> items, @Nullable String nextCursor) {
+      this.items = items;
+      this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+      return items;
+    }
+
+    public boolean hasNextCursor() {
+      return nextCursor != null;
+    }
+
+    @Nullable
+    public String getNextCursor() {
+      return nextCursor;
+    }
+  }
 }
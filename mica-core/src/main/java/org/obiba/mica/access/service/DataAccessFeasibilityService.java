@@ -49,6 +49,11 @@ public class DataAccessFeasibilityService extends DataAccessEntityService<DataAc
     return dataFeasibilityRequestRepository;
   }
 
+  @Override
+  protected Class<DataAccessFeasibility> getEntityClass() {
+    return DataAccessFeasibility.class;
+  }
+
   @Override
   public DataAccessFeasibility save(@NotNull DataAccessFeasibility feasibility) {
     DataAccessFeasibility saved = feasibility;
@@ -85,6 +85,11 @@ public class DataAccessRequestService extends DataAccessEntityService<DataAccess
     return dataAccessRequestRepository;
   }
 
+  @Override
+  protected Class<DataAccessRequest> getEntityClass() {
+    return DataAccessRequest.class;
+  }
+
   @Override
   public DataAccessRequest save(@NotNull DataAccessRequest request) {
     return save(request, DateTime.now());
@@ -10,24 +10,30 @@
 
 package org.obiba.mica.config;
 
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.obiba.mica.core.MicaAsyncTaskExecutor;
 import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Scope;
 import org.springframework.core.env.Environment;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
-
-import java.util.concurrent.Semaphore;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Configuration
 @EnableAsync
 @EnableScheduling
 public class EsConcurrencyConfiguration implements EnvironmentAware {
 
-  private static final int DEFAULT_MAX_CONCURRENT_MAX_JOIN_QUERIES = 4;
+  private static final int DEFAULT_JOIN_SUB_QUERIES_POOL_SIZE = 8;
+
+  private static final int DEFAULT_INDEXING_POOL_SIZE = 4;
+
+  private static final int DEFAULT_SUGGEST_POOL_SIZE = 8;
+
+  private static final int DEFAULT_EXPORT_POOL_SIZE = 4;
+
+  private static final int DEFAULT_READ_POOL_SIZE = 4;
 
   private RelaxedPropertyResolver propertyResolver;
 
@@ -36,9 +42,58 @@ public class EsConcurrencyConfiguration implements EnvironmentAware {
     propertyResolver = new RelaxedPropertyResolver(environment, "elasticsearch.");
   }
 
-  @Bean(name = "esJoinQueriesSemaphore")
-  @Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
-  public Semaphore getSemaphore() {
-    return new Semaphore(propertyResolver.getProperty("maxConcurrentJoinQueries", Integer.class, DEFAULT_MAX_CONCURRENT_MAX_JOIN_QUERIES));
+  @Bean(name = "esJoinSubQueriesExecutor")
+  public MicaAsyncTaskExecutor getJoinSubQueriesExecutor() {
+    Integer poolSize = propertyResolver.getProperty("joinSubQueriesPoolSize", Integer.class, DEFAULT_JOIN_SUB_QUERIES_POOL_SIZE);
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setThreadNamePrefix("mica-es-join-");
+    return new MicaAsyncTaskExecutor(executor);
+  }
+
+  @Bean(name = "esIndexingExecutor")
+  public MicaAsyncTaskExecutor getIndexingExecutor() {
+    Integer poolSize = propertyResolver.getProperty("indexing.poolSize", Integer.class, DEFAULT_INDEXING_POOL_SIZE);
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setThreadNamePrefix("mica-es-indexing-");
+    return new MicaAsyncTaskExecutor(executor);
+  }
+
+  @Bean(name = "esSuggestExecutor")
+  public MicaAsyncTaskExecutor getSuggestExecutor() {
+    Integer poolSize = propertyResolver.getProperty("suggest.poolSize", Integer.class, DEFAULT_SUGGEST_POOL_SIZE);
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setThreadNamePrefix("mica-es-suggest-");
+    return new MicaAsyncTaskExecutor(executor);
+  }
+
+  @Bean(name = "esExportExecutor")
+  public MicaAsyncTaskExecutor getExportExecutor() {
+    Integer poolSize = propertyResolver.getProperty("export.poolSize", Integer.class, DEFAULT_EXPORT_POOL_SIZE);
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setThreadNamePrefix("mica-es-export-");
+    return new MicaAsyncTaskExecutor(executor);
+  }
+
+  @Bean(name = "esReadExecutor")
+  public MicaAsyncTaskExecutor getReadExecutor() {
+    Integer poolSize = propertyResolver.getProperty("read.poolSize", Integer.class, DEFAULT_READ_POOL_SIZE);
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setThreadNamePrefix("mica-es-read-");
+    return new MicaAsyncTaskExecutor(executor);
   }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.obiba.mica.core.domain;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A revision of a {@link GitPersistable} that is not committed yet in its git repository: the serialized parts of the
+ * persistable at the time it was saved. A revision that could not be committed after a number of attempts is
+ * quarantined: it is kept for inspection, but not committed anymore.
+ */
+@Document
+public class GitJournalEntry extends AbstractAuditableDocument {
+
+  private static final long serialVersionUID = -2190783526315628736L;
+
+  @NotNull
+  @Indexed
+  private String repository;
+
+  @NotNull
+  private String pathPrefix;
+
+  @NotNull
+  private String entityId;
+
+  private Map<String, String> parts = Maps.newLinkedHashMap();
+
+  @NotNull
+  private String comment;
+
+  private String author;
+
+  private int attempts;
+
+  private String lastError;
+
+  private boolean quarantined;
+
+  public GitJournalEntry() {
+  }
+
+  public GitJournalEntry(GitIdentifier identifier, String comment, @Nullable String author) {
+    repository = getRepository(identifier);
+    pathPrefix = identifier.pathPrefix();
+    entityId = identifier.getId();
+    this.comment = comment;
+    this.author = author;
+  }
+
+  /**
+   * Key of the git repository of a {@link GitIdentifier}.
+   *
+   * @param identifier
+   * @return
+   */
+  public static String getRepository(GitIdentifier identifier) {
+    return identifier.pathPrefix() + "/" + identifier.getId();
+  }
+
+  public String getRepository() {
+    return repository;
+  }
+
+  public void setRepository(String repository) {
+    this.repository = repository;
+  }
+
+  public String getPathPrefix() {
+    return pathPrefix;
+  }
+
+  public void setPathPrefix(String pathPrefix) {
+    this.pathPrefix = pathPrefix;
+  }
+
+  public String getEntityId() {
+    return entityId;
+  }
+
+  public void setEntityId(String entityId) {
+    this.entityId = entityId;
+  }
+
+  /**
+   * JSON content of the parts, by part name.
+   *
+   * @return
+   */
+  public Map<String, String> getParts() {
+    return parts;
+  }
+
+  public void setParts(Map<String, String> parts) {
+    this.parts = parts;
+  }
+
+  public void addPart(String name, String json) {
+    parts.put(name, json);
+  }
+
+  public String getComment() {
+    return comment;
+  }
+
+  public void setComment(String comment) {
+    this.comment = comment;
+  }
+
+  /**
+   * Principal of the subject who saved the revision, null if unknown.
+   *
+   * @return
+   */
+  @Nullable
+  public String getAuthor() {
+    return author;
+  }
+
+  public void setAuthor(String author) {
+    this.author = author;
+  }
+
+  /**
+   * Number of failed attempts to commit the revision.
+   *
+   * @return
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  @Nullable
+  public String getLastError() {
+    return lastError;
+  }
+
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+
+  public boolean isQuarantined() {
+    return quarantined;
+  }
+
+  public void setQuarantined(boolean quarantined) {
+    this.quarantined = quarantined;
+  }
+
+  /**
+   * Record a failed attempt to commit the revision, which is quarantined after the given number of attempts.
+   *
+   * @param error
+   * @param maxAttempts
+   */
+  public void failed(String error, int maxAttempts) {
+    attempts++;
+    lastError = error;
+    quarantined = attempts >= maxAttempts;
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.obiba.mica.core.repository;
+
+import java.util.List;
+
+import org.obiba.mica.core.domain.GitJournalEntry;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * Spring Data MongoDB repository for the {@link GitJournalEntry} entity.
+ */
+public interface GitJournalEntryRepository extends MongoRepository<GitJournalEntry, String>,
+  GitJournalEntryRepositoryCustom {
+
+  List<GitJournalEntry> findByRepository(String repository, Sort sort);
+
+  List<GitJournalEntry> findByRepositoryAndQuarantinedFalse(String repository, Sort sort);
+
+  Page<GitJournalEntry> findByQuarantinedFalse(Pageable pageable);
+
+  long countByQuarantined(boolean quarantined);
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.core.repository;
+
+import java.util.List;
+
+public interface GitJournalEntryRepositoryCustom {
+
+  /**
+   * Repositories having revisions to be committed, without reading the revisions.
+   *
+   * @return
+   */
+  List<String> findPendingRepositories();
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.core.repository;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.obiba.mica.core.domain.GitJournalEntry;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.BasicDBObject;
+
+@Component
+public class GitJournalEntryRepositoryImpl implements GitJournalEntryRepositoryCustom {
+
+  @Inject
+  MongoTemplate mongoTemplate;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<String> findPendingRepositories() {
+    List<Object> repositories = mongoTemplate.getCollection(mongoTemplate.getCollectionName(GitJournalEntry.class))
+      .distinct("repository", new BasicDBObject("quarantined", false));
+    return repositories.stream().map(String::valueOf).collect(Collectors.toList());
+  }
+}
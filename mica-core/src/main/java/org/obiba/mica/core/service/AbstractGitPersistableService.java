@@ -15,6 +15,7 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.math3.util.Pair;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.session.UnknownSessionException;
@@ -69,6 +70,9 @@ public abstract class AbstractGitPersistableService<T extends EntityState, T1 ex
 
   private Cache<String, List<String>> idsCache = CacheBuilder.newBuilder().maximumSize(1000).expireAfterWrite(1, TimeUnit.MINUTES).build();
 
+  // revisions are immutable, keyed by entity id and commit id
+  private Cache<String, T1> revisionsCache = CacheBuilder.newBuilder().maximumSize(100).build();
+
   protected abstract EntityStateRepository<T> getEntityStateRepository();
 
   protected abstract Class<T1> getType();
@@ -94,6 +98,22 @@ public abstract class AbstractGitPersistableService<T extends EntityState, T1 ex
     }
   }
 
+  /**
+   * Get the revision of a commit, from a cache shared by the callers: the revision must not be modified.
+   *
+   * @param gitPersistable
+   * @param commitId
+   * @return
+   */
+  public T1 getRevision(@NotNull T1 gitPersistable, @NotNull String commitId) {
+    GitHistoryReader.checkCommitId(commitId);
+    try {
+      return revisionsCache.get(gitPersistable.getId() + ":" + commitId, () -> getFromCommit(gitPersistable, commitId));
+    } catch(ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
   public abstract void save(@NotNull @Valid T1 gitPersistable, String comments);
 
   @Nullable
@@ -14,6 +14,7 @@ import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
 
+import org.obiba.mica.core.support.FieldPathMatcher;
 import org.obiba.mica.core.support.RegexHashMap;
 
 import net.minidev.json.JSONArray;
@@ -49,7 +50,7 @@ public class DocumentDifferenceService {
     return map;
   }
 
-  public static Map<String, Object> withTranslations(MapDifference<String, Object> difference, RegexHashMap completeConfigTranslationMap) {
+  public static Map<String, Object> withTranslations(MapDifference<String, Object> difference, FieldPathMatcher completeConfigTranslationMap) {
     Map<String, Object> data = new HashMap<>();
 
     data.put("differing", fromEntriesDifferenceMap(difference.entriesDiffering(), completeConfigTranslationMap));
@@ -59,7 +60,7 @@ public class DocumentDifferenceService {
     return data;
   }
 
-  private static Map<String, List<Object>> fromEntriesDifferenceMap(Map<String, ValueDifference<Object>> entriesDiffering, RegexHashMap completeConfigTranslationMap) {
+  private static Map<String, List<Object>> fromEntriesDifferenceMap(Map<String, ValueDifference<Object>> entriesDiffering, FieldPathMatcher completeConfigTranslationMap) {
     Map<String, List<Object>> result = new HashMap<>();
 
     entriesDiffering.forEach((key, valueDifference) -> result.put(key, Arrays.asList(completeConfigTranslationMap.get(key), valueDifference.leftValue(), valueDifference.rightValue())));
@@ -67,7 +68,7 @@ public class DocumentDifferenceService {
     return result;
   }
 
-  private static Map<String, List<Object>> fromEntries(Map<String, Object> entries, RegexHashMap completeConfigTranslationMap) {
+  private static Map<String, List<Object>> fromEntries(Map<String, Object> entries, FieldPathMatcher completeConfigTranslationMap) {
     Map<String, List<Object>> result = new HashMap<>();
 
     entries.forEach((key, value) -> result.put(key, Arrays.asList(completeConfigTranslationMap.get(key), value)));
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.obiba.mica.core.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.obiba.git.CommitInfo;
+import org.obiba.git.GitException;
+
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Reads the history of a file straight from the object database of a bare repository, without a working clone. Commits
+ * are immutable, then the commit metadata, the file contents and the diffs are cached by repository and commit id, as
+ * well as the history of a file from a given head. Only full commit ids are accepted, as a branch, a tag or an
+ * abbreviated id could resolve to another commit later on.
+ */
+class GitHistoryReader {
+
+  private static final Pattern COMMIT_ID = Pattern.compile("[0-9a-f]{40}");
+
+  private final Cache<String, List<String>> logs;
+
+  private final Cache<String, Revision> revisions;
+
+  private final Cache<String, String> blobs;
+
+  private final Cache<String, List<String>> diffs;
+
+  GitHistoryReader(long maxCommits, long maxBytes) {
+    logs = CacheBuilder.newBuilder().maximumSize(maxCommits / 10 + 1).build();
+    revisions = CacheBuilder.newBuilder().maximumSize(maxCommits).build();
+    blobs = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+      .<String, String>weigher((key, blob) -> blob.length() * 2).build();
+    diffs = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+      .<String, List<String>>weigher((key, entries) -> entries.stream().mapToInt(entry -> entry.length() * 2).sum())
+      .build();
+  }
+
+  /**
+   * Commits that modified the file, most recent first.
+   *
+   * @param repositoryPath
+   * @param path
+   * @param excludeDeletedCommits exclude the commits in which the file was deleted
+   * @return
+   */
+  List<CommitInfo> getCommitsInfo(File repositoryPath, String path, boolean excludeDeletedCommits) {
+    return withRepository(repositoryPath, repository -> {
+      ObjectId head = repository.resolve(Constants.HEAD);
+      if(head == null) return Lists.newArrayList();
+
+      List<CommitInfo> commits = Lists.newArrayList();
+      for(String commitId : getLog(repository, head, path)) {
+        Revision revision = getRevision(repository, commitId, path);
+        if(excludeDeletedCommits && !revision.exists) continue;
+        commits.add(CommitInfo.Builder.createFromObject(revision.info).setHead(head.getName().equals(commitId))
+          .setCurrent(commits.isEmpty()).build());
+      }
+      return commits;
+    });
+  }
+
+  CommitInfo getCommitInfo(File repositoryPath, String path, String commitId) {
+    checkCommitId(commitId);
+    return withRepository(repositoryPath, repository -> {
+      ObjectId head = repository.resolve(Constants.HEAD);
+      List<String> log = head == null ? ImmutableList.of() : getLog(repository, head, path);
+      return CommitInfo.Builder.createFromObject(getRevision(repository, commitId, path).info)
+        .setHead(head != null && head.getName().equals(commitId))
+        .setCurrent(!log.isEmpty() && log.get(0).equals(commitId)).build();
+    });
+  }
+
+  String getBlob(File repositoryPath, String path, String commitId) {
+    checkCommitId(commitId);
+    return get(blobs, key(repositoryPath, commitId, path), () -> withRepository(repositoryPath, repository -> {
+      RevWalk walk = new RevWalk(repository);
+      try {
+        TreeWalk treeWalk = TreeWalk.forPath(repository, path, parseCommit(repository, walk, commitId).getTree());
+        if(treeWalk == null) throw new FileNotFoundException(path + " not found in commit " + commitId);
+        try {
+          return new String(repository.open(treeWalk.getObjectId(0)).getBytes(), StandardCharsets.UTF_8);
+        } finally {
+          treeWalk.release();
+        }
+      } finally {
+        walk.release();
+      }
+    }));
+  }
+
+  /**
+   * Differences of the file between a commit and a previous one, in the unified format.
+   *
+   * @param repositoryPath
+   * @param path
+   * @param commitId
+   * @param prevCommitId the parent of the commit if null
+   * @return
+   */
+  List<String> getDiffEntries(File repositoryPath, String path, String commitId, @Nullable String prevCommitId) {
+    checkCommitId(commitId);
+    if(prevCommitId != null) checkCommitId(prevCommitId);
+    return get(diffs, key(repositoryPath, commitId, prevCommitId, path), () -> withRepository(repositoryPath, repository -> {
+      RevWalk walk = new RevWalk(repository);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      DiffFormatter formatter = new DiffFormatter(output);
+      try {
+        RevCommit commit = parseCommit(repository, walk, commitId);
+        RevCommit previous = prevCommitId != null
+          ? parseCommit(repository, walk, prevCommitId)
+          : commit.getParentCount() > 0 ? walk.parseCommit(commit.getParent(0)) : null;
+
+        formatter.setRepository(repository);
+        formatter.setPathFilter(PathFilter.create(path));
+        List<String> entries = Lists.newArrayList();
+        for(DiffEntry entry : formatter.scan(previous == null ? null : previous.getTree(), commit.getTree())) {
+          output.reset();
+          formatter.format(entry);
+          formatter.flush();
+          entries.add(new String(output.toByteArray(), StandardCharsets.UTF_8));
+        }
+        return ImmutableList.copyOf(entries);
+      } finally {
+        formatter.release();
+        walk.release();
+      }
+    }));
+  }
+
+  /**
+   * Check that the commit id is a full commit id.
+   *
+   * @param commitId
+   * @throws IllegalArgumentException
+   */
+  static void checkCommitId(String commitId) {
+    if(commitId == null || !COMMIT_ID.matcher(commitId).matches()) {
+      throw new IllegalArgumentException("Not a valid commit id: " + commitId);
+    }
+  }
+
+  //
+  // Private methods
+  //
+
+  private static String key(File repositoryPath, String... parts) {
+    return repositoryPath.getAbsolutePath() + ":" + Joiner.on(":").useForNull("").join(parts);
+  }
+
+  private List<String> getLog(Repository repository, ObjectId head, String path) {
+    return get(logs, key(repository.getDirectory(), head.getName(), path), () -> {
+      RevWalk walk = new RevWalk(repository);
+      try {
+        walk.markStart(walk.parseCommit(head));
+        walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+        List<String> log = Lists.newArrayList();
+        for(RevCommit commit : walk) {
+          log.add(commit.getName());
+        }
+        return ImmutableList.copyOf(log);
+      } finally {
+        walk.release();
+      }
+    });
+  }
+
+  private Revision getRevision(Repository repository, String commitId, String path) {
+    return get(revisions, key(repository.getDirectory(), commitId, path), () -> {
+      RevWalk walk = new RevWalk(repository);
+      try {
+        RevCommit commit = parseCommit(repository, walk, commitId);
+        PersonIdent author = commit.getAuthorIdent();
+        CommitInfo info = new CommitInfo.Builder().authorName(author.getName()).authorEmail(author.getEmailAddress())
+          .date(author.getWhen()).comment(commit.getFullMessage()).commitId(commit.getName()).build();
+        TreeWalk treeWalk = TreeWalk.forPath(repository, path, commit.getTree());
+        if(treeWalk != null) treeWalk.release();
+        return new Revision(info, treeWalk != null);
+      } finally {
+        walk.release();
+      }
+    });
+  }
+
+  private RevCommit parseCommit(Repository repository, RevWalk walk, String commitId) throws IOException {
+    ObjectId id = repository.resolve(commitId);
+    if(id == null) throw new IOException("Commit not found: " + commitId);
+    return walk.parseCommit(id);
+  }
+
+  private <T> T withRepository(File repositoryPath, RepositoryCallback<T> callback) {
+    try {
+      Repository repository = new FileRepositoryBuilder().setGitDir(repositoryPath).setMustExist(true).build();
+      try {
+        return callback.doWithRepository(repository);
+      } finally {
+        repository.close();
+      }
+    } catch(IOException e) {
+      throw new GitException(e);
+    }
+  }
+
+  private static <T> T get(Cache<String, T> cache, String key, Callable<T> loader) {
+    try {
+      return cache.get(key, loader);
+    } catch(ExecutionException | UncheckedExecutionException e) {
+      if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new GitException(e.getCause());
+    }
+  }
+
+  private interface RepositoryCallback<T> {
+    T doWithRepository(Repository repository) throws IOException;
+  }
+
+  /**
+   * Metadata of a commit and whether the file exists in this commit.
+   */
+  private static class Revision {
+
+    private final CommitInfo info;
+
+    private final boolean exists;
+
+    private Revision(CommitInfo info, boolean exists) {
+      this.info = info;
+      this.exists = exists;
+    }
+  }
+}
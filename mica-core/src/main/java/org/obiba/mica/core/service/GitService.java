@@ -14,16 +14,29 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import org.apache.commons.math3.util.Pair;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.UnavailableSecurityManagerException;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -35,28 +48,48 @@ import org.obiba.git.GitException;
 import org.obiba.git.GitUtils;
 import org.obiba.git.command.AbstractGitWriteCommand;
 import org.obiba.git.command.AddDeleteFilesCommand;
-import org.obiba.git.command.CommitLogCommand;
-import org.obiba.git.command.DiffAsStringCommand;
-import org.obiba.git.command.FetchBlobCommand;
 import org.obiba.git.command.GitCommandHandler;
-import org.obiba.git.command.LogsCommand;
 import org.obiba.git.command.ReadFileCommand;
 import org.obiba.mica.core.domain.GitIdentifier;
+import org.obiba.mica.core.domain.GitJournalEntry;
 import org.obiba.mica.core.domain.GitPersistable;
+import org.obiba.mica.core.repository.GitJournalEntryRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Striped;
 
+/**
+ * Revisions of the {@link GitPersistable}s, in a git repository per persistable. A saved revision is appended to a
+ * journal, from which it is committed by a writer of the repository, in the background. The revisions of a repository
+ * that are still in the journal are committed before the repository is read or tagged, a revision that cannot be
+ * committed being retried a limited number of times. The history is read from the bare repository.
+ */
 @Component
 @Validated
-public class GitService {
+public class GitService implements EnvironmentAware {
 
   private static final Logger log = LoggerFactory.getLogger(GitService.class);
 
@@ -66,16 +99,62 @@ public class GitService {
 
   private static final String ATTACHMENTS_PATH = "attachments/";
 
+  private static final int DEFAULT_POOL_SIZE = 2;
+
+  private static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+  private static final long DEFAULT_HISTORY_CACHE_MAX_COMMITS = 10000;
+
+  private static final long DEFAULT_HISTORY_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+
+  private static final Sort JOURNAL_ORDER = new Sort(Sort.Direction.ASC, "createdDate", "id");
+
+  private static final String JOURNAL_REALM = "git-journal";
+
   @Inject
   private GitCommandHandler gitCommandHandler;
 
   @Inject
   private ObjectMapper objectMapper;
 
+  @Inject
+  private GitJournalEntryRepository gitJournalEntryRepository;
+
+  @Inject
+  private MetricRegistry metricRegistry;
+
+  private RelaxedPropertyResolver propertyResolver;
+
   private File repositoriesRoot;
 
   private File clonesRoot;
 
+  // a single writer per repository
+  private final Striped<Lock> repositoryLocks = Striped.lock(64);
+
+  // repositories having revisions in the journal, with the number of revisions saved since startup: a repository stays
+  // pending until its revisions are committed
+  private final ConcurrentMap<String, Long> pendingRepositories = new ConcurrentHashMap<>();
+
+  // repositories for which a writer is submitted
+  private final Set<String> scheduledRepositories = ConcurrentHashMap.newKeySet();
+
+  // no background writer when the pool is empty, the journal is then committed on sweep or on read
+  private ThreadPoolTaskExecutor executor;
+
+  private int maxAttempts;
+
+  private Timer commits;
+
+  private GitHistoryReader historyReader;
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "git.");
+  }
+
   @PostConstruct
   public void init() {
     if(repositoriesRoot == null) {
@@ -84,6 +163,44 @@ public class GitService {
     if(clonesRoot == null) {
       clonesRoot = new File(PATH_CLONES.replace("${MICA_HOME}", System.getProperty("MICA_HOME")));
     }
+
+    historyReader = new GitHistoryReader(
+      propertyResolver.getProperty("history.cacheMaxCommits", Long.class, DEFAULT_HISTORY_CACHE_MAX_COMMITS),
+      propertyResolver.getProperty("history.cacheMaxBytes", Long.class, DEFAULT_HISTORY_CACHE_MAX_BYTES));
+
+    int poolSize = propertyResolver.getProperty("journal.poolSize", Integer.class, DEFAULT_POOL_SIZE);
+    if(poolSize > 0) {
+      executor = new ThreadPoolTaskExecutor();
+      executor.setCorePoolSize(poolSize);
+      executor.setMaxPoolSize(poolSize);
+      executor.setQueueCapacity(
+        propertyResolver.getProperty("journal.queueCapacity", Integer.class, DEFAULT_QUEUE_CAPACITY));
+      executor.setThreadNamePrefix("mica-git-journal-");
+      executor.setWaitForTasksToCompleteOnShutdown(true);
+      executor.setAwaitTerminationSeconds(30);
+      executor.initialize();
+    }
+    maxAttempts = propertyResolver.getProperty("journal.maxAttempts", Integer.class, DEFAULT_MAX_ATTEMPTS);
+
+    // revisions left by a previous run
+    gitJournalEntryRepository.findPendingRepositories()
+      .forEach(repository -> pendingRepositories.putIfAbsent(repository, 0L));
+
+    commits = metricRegistry.timer(MetricRegistry.name(GitService.class, "journal", "commits"));
+    String pendingName = MetricRegistry.name(GitService.class, "journal", "pending");
+    metricRegistry.remove(pendingName);
+    metricRegistry.register(pendingName, (Gauge<Long>) () -> gitJournalEntryRepository.countByQuarantined(false));
+    String quarantinedName = MetricRegistry.name(GitService.class, "journal", "quarantined");
+    metricRegistry.remove(quarantinedName);
+    metricRegistry.register(quarantinedName, (Gauge<Long>) () -> gitJournalEntryRepository.countByQuarantined(true));
+    String lagName = MetricRegistry.name(GitService.class, "journal", "lag");
+    metricRegistry.remove(lagName);
+    metricRegistry.register(lagName, (Gauge<Long>) this::getJournalLag);
+  }
+
+  @PreDestroy
+  public void destroy() {
+    if(executor != null) executor.shutdown();
   }
 
   @VisibleForTesting
@@ -97,55 +214,45 @@ public class GitService {
   }
 
   public boolean hasGitRepository(GitIdentifier persistable) {
-    return getRepositoryPath(persistable).exists() || getCloneRepositoryPath(persistable).exists();
+    return pendingRepositories.containsKey(GitJournalEntry.getRepository(persistable)) ||
+      getRepositoryPath(persistable).exists() || getCloneRepositoryPath(persistable).exists();
   }
 
   public void deleteGitRepository(GitPersistable persistable) {
+    String repository = GitJournalEntry.getRepository(persistable);
+    Lock lock = repositoryLocks.get(repository);
+    lock.lock();
     try {
+      pendingRepositories.remove(repository);
+      gitJournalEntryRepository.delete(gitJournalEntryRepository.findByRepository(repository, JOURNAL_ORDER));
       FileUtil.delete(getRepositoryPath(persistable));
       FileUtil.delete(getCloneRepositoryPath(persistable));
     } catch(IOException e) {
       Throwables.propagate(e);
+    } finally {
+      lock.unlock();
     }
   }
 
   public Iterable<CommitInfo> getCommitsInfo(@NotNull @Valid GitPersistable persistable, Class clazz) {
-    return gitCommandHandler.execute( //
-      new LogsCommand.Builder(getRepositoryPath(persistable), new File(clonesRoot, persistable.pathPrefix())) //
-        .path(getJsonFileName(clazz.getSimpleName())) //
-        .excludeDeletedCommits(true) //
-        .build() //
-    ); //
+    flush(persistable);
+    File repositoryPath = getRepositoryPath(persistable);
+    if(!repositoryPath.exists()) return Lists.newArrayList();
+    return historyReader.getCommitsInfo(repositoryPath, getJsonFileName(clazz.getSimpleName()), true);
   }
 
   public CommitInfo getCommitInfo(@NotNull @Valid GitPersistable persistable, @NotNull String commitId, Class clazz) {
-    return gitCommandHandler.execute(
-      new CommitLogCommand.Builder(getRepositoryPath(persistable), new File(clonesRoot, persistable.pathPrefix()),
-        getJsonFileName(clazz.getSimpleName()), commitId).build());
+    return historyReader.getCommitInfo(getRepositoryPath(persistable), getJsonFileName(clazz.getSimpleName()), commitId);
   }
 
   public String getBlob(@NotNull @Valid GitPersistable persistable, @NotNull String commitId, Class clazz) {
-    return gitCommandHandler.execute( //
-      new FetchBlobCommand.Builder(getRepositoryPath(persistable), //
-        new File(clonesRoot, persistable.pathPrefix()), //
-        getJsonFileName(clazz.getSimpleName()) //
-      ) //
-        .commitId(commitId) //
-        .build() //
-    ); //
+    return historyReader.getBlob(getRepositoryPath(persistable), getJsonFileName(clazz.getSimpleName()), commitId);
   }
 
   public Iterable<String> getDiffEntries(@NotNull @Valid GitPersistable persistable, @NotNull String commitId,
     @Nullable String prevCommitId, Class clazz) {
-    return gitCommandHandler.execute( //
-      new DiffAsStringCommand.Builder(getRepositoryPath(persistable), //
-        new File(clonesRoot, persistable.pathPrefix()), //
-        commitId //
-      ).path(getJsonFileName(clazz.getSimpleName())) //
-        .previousCommitId(prevCommitId) //
-        .build() //
-    );
-
+    return historyReader.getDiffEntries(getRepositoryPath(persistable), getJsonFileName(clazz.getSimpleName()),
+      commitId, prevCommitId);
   }
 
   public void save(@NotNull @Valid GitPersistable persistable) {
@@ -157,24 +264,29 @@ public class GitService {
   }
 
   private void saveInternal(GitPersistable persistable, String comment) {
-    AddDeleteFilesCommand.Builder builder = new AddDeleteFilesCommand.Builder(getRepositoryPath(persistable),
-      new File(clonesRoot, persistable.pathPrefix()),
-      Strings.isNullOrEmpty(comment) ? persistable.isNew() ? "Created" : "Updated" : comment);
+    GitJournalEntry entry = new GitJournalEntry(persistable,
+      Strings.isNullOrEmpty(comment) ? persistable.isNew() ? "Created" : "Updated" : comment, getPrincipal());
 
     persistable.parts().entrySet().forEach(p -> {
       try {
-        builder.addFile(getJsonFileName(p.getKey()), serializePersistable(p.getValue()));
-        //noinspection ResultOfMethodCallIgnored
+        entry.addPart(p.getKey(), objectMapper.writeValueAsString(p.getValue()));
       } catch(IOException e) {
         throw new RuntimeException("Cannot persist " + persistable + " to " + persistable.getId() + " repo", e);
       }
     });
 
-    gitCommandHandler.execute(builder.build());
+    gitJournalEntryRepository.save(entry);
+    pendingRepositories.merge(entry.getRepository(), 1L, Long::sum);
+    schedule(entry.getRepository());
   }
 
-  private ByteArrayInputStream serializePersistable(Object persistable) throws IOException {
-    return new ByteArrayInputStream(objectMapper.writeValueAsBytes(persistable));
+  /**
+   * Submit a writer for each repository having revisions in the journal, in case they could not be submitted when
+   * saved.
+   */
+  @Scheduled(fixedDelayString = "${git.journal.interval:10000}")
+  public void sweep() {
+    pendingRepositories.keySet().forEach(this::schedule);
   }
 
   public <T> T readFromTag(GitIdentifier persistable, String tag, Class<T> clazz) {
@@ -182,6 +294,8 @@ public class GitService {
   }
 
   private <T> T read(GitIdentifier persistable, @Nullable String tag, Class<T> clazz) {
+    // a tag is created once the journal is committed, and does not move
+    if(tag == null) flush(persistable);
     try {
       try(InputStream inputStream = gitCommandHandler.execute(
         new ReadFileCommand.Builder(getRepositoryPath(persistable), getJsonFileName(clazz.getSimpleName())).tag(tag)
@@ -198,6 +312,7 @@ public class GitService {
   }
 
   private byte[] readFile(GitPersistable persistable, String fileId, @Nullable String tag) {
+    if(tag == null) flush(persistable);
     try {
       try(InputStream inputStream = gitCommandHandler
         .execute(new ReadFileCommand.Builder(getRepositoryPath(persistable), getPathInRepo(fileId)).tag(tag).build())) {
@@ -213,11 +328,19 @@ public class GitService {
   }
 
   public Pair<String, String> tag(GitIdentifier gitIdentifier) {
-    IncrementTagCommand command = new IncrementTagCommand(getRepositoryPath(gitIdentifier),
-      new File(clonesRoot, gitIdentifier.pathPrefix()));
-    gitCommandHandler.execute(command);
-
-    return Pair.create(String.valueOf(command.getNewTag()), command.getHeadCommitId());
+    // no revision can be committed between the flush and the tag
+    Lock lock = repositoryLocks.get(GitJournalEntry.getRepository(gitIdentifier));
+    lock.lock();
+    try {
+      flush(gitIdentifier);
+      IncrementTagCommand command = new IncrementTagCommand(getRepositoryPath(gitIdentifier),
+        new File(clonesRoot, gitIdentifier.pathPrefix()));
+      gitCommandHandler.execute(command);
+
+      return Pair.create(String.valueOf(command.getNewTag()), command.getHeadCommitId());
+    } finally {
+      lock.unlock();
+    }
   }
 
   public File getRepositoriesRoot() {
@@ -225,7 +348,11 @@ public class GitService {
   }
 
   private File getRepositoryPath(GitIdentifier persistable) {
-    return new File(repositoriesRoot, Paths.get(persistable.pathPrefix(), persistable.getId() + ".git").toString());
+    return getRepositoryPath(persistable.pathPrefix(), persistable.getId());
+  }
+
+  private File getRepositoryPath(String pathPrefix, String id) {
+    return new File(repositoriesRoot, Paths.get(pathPrefix, id + ".git").toString());
   }
 
   private File getCloneRepositoryPath(GitIdentifier persistable) {
@@ -236,6 +363,157 @@ public class GitService {
     return filename + ".json";
   }
 
+  //
+  // Journal
+  //
+
+  private void schedule(String repository) {
+    if(executor == null || !scheduledRepositories.add(repository)) return;
+    try {
+      executor.execute(() -> {
+        // revisions appended from now on need another writer
+        scheduledRepositories.remove(repository);
+        try {
+          write(repository);
+        } catch(RuntimeException e) {
+          log.error("Cannot commit the journal of {} repo", repository, e);
+        }
+      });
+    } catch(TaskRejectedException e) {
+      // writers are busy, next sweep or read will commit it
+      scheduledRepositories.remove(repository);
+    }
+  }
+
+  /**
+   * Commit the revisions of the repository that are in the journal, in the calling thread. A repository is pending
+   * until a writer has committed its revisions, so nothing is to be waited for when it is not pending. The revisions
+   * that cannot be committed are left in the journal, the last committed revision being read meanwhile.
+   *
+   * @param identifier
+   */
+  private void flush(GitIdentifier identifier) {
+    String repository = GitJournalEntry.getRepository(identifier);
+    if(!pendingRepositories.containsKey(repository)) return;
+    try {
+      write(repository);
+    } catch(RuntimeException e) {
+      log.error("Cannot commit the journal of {} repo", repository, e);
+    }
+  }
+
+  private void write(String repository) {
+    Lock lock = repositoryLocks.get(repository);
+    lock.lock();
+    try {
+      Long saved = pendingRepositories.get(repository);
+      List<GitJournalEntry> entries =
+        gitJournalEntryRepository.findByRepositoryAndQuarantinedFalse(repository, JOURNAL_ORDER);
+      // consecutive revisions of a same author are committed at once
+      int from = 0;
+      while(from < entries.size()) {
+        int to = from + 1;
+        while(to < entries.size() && Objects.equals(entries.get(from).getAuthor(), entries.get(to).getAuthor())) to++;
+        List<GitJournalEntry> revisions = entries.subList(from, to);
+        try {
+          commit(revisions);
+          gitJournalEntryRepository.delete(revisions);
+        } catch(RuntimeException e) {
+          if(!failed(repository, revisions, e)) throw e;
+        }
+        from = to;
+      }
+      // revisions saved in the meantime are still to be committed
+      if(saved != null) pendingRepositories.remove(repository, saved);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record a failed attempt to commit the revisions.
+   *
+   * @param repository
+   * @param revisions
+   * @param e
+   * @return true if the revisions are quarantined
+   */
+  private boolean failed(String repository, List<GitJournalEntry> revisions, RuntimeException e) {
+    revisions.forEach(entry -> entry.failed(Throwables.getRootCause(e).toString(), maxAttempts));
+    gitJournalEntryRepository.save(revisions);
+    boolean quarantined = revisions.get(0).isQuarantined();
+    if(quarantined) {
+      log.error("Revisions of {} repo quarantined after {} attempts: {}", repository, maxAttempts,
+        revisions.stream().map(GitJournalEntry::getId).collect(Collectors.toList()), e);
+    }
+    return quarantined;
+  }
+
+  private void commit(List<GitJournalEntry> entries) {
+    GitJournalEntry first = entries.get(0);
+    Map<String, String> parts = Maps.newLinkedHashMap();
+    Set<String> comments = Sets.newLinkedHashSet();
+    entries.forEach(entry -> {
+      parts.putAll(entry.getParts());
+      comments.add(entry.getComment());
+    });
+
+    AddDeleteFilesCommand.Builder builder = new AddDeleteFilesCommand.Builder(
+      getRepositoryPath(first.getPathPrefix(), first.getEntityId()), new File(clonesRoot, first.getPathPrefix()),
+      Joiner.on("; ").join(comments));
+    parts.forEach((name, json) -> builder.addFile(getJsonFileName(name),
+      new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+
+    Timer.Context context = commits.time();
+    try {
+      runAs(first.getAuthor(), () -> gitCommandHandler.execute(builder.build()));
+    } finally {
+      context.stop();
+    }
+  }
+
+  /**
+   * Run as the author of the revisions, so that the commit is signed by this author.
+   *
+   * @param author
+   * @param runnable
+   */
+  private void runAs(@Nullable String author, Runnable runnable) {
+    Subject subject = null;
+    if(author != null) {
+      try {
+        subject = new Subject.Builder().principals(new SimplePrincipalCollection(author, JOURNAL_REALM))
+          .authenticated(true).buildSubject();
+      } catch(UnavailableSecurityManagerException e) {
+        // no security context
+      }
+    }
+
+    if(subject == null) runnable.run();
+    else subject.execute(runnable);
+  }
+
+  @Nullable
+  private String getPrincipal() {
+    try {
+      Object principal = SecurityUtils.getSubject().getPrincipal();
+      return principal == null ? null : principal.toString();
+    } catch(UnavailableSecurityManagerException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Age of the oldest revision in the journal, in milliseconds.
+   *
+   * @return
+   */
+  private long getJournalLag() {
+    List<GitJournalEntry> oldest =
+      gitJournalEntryRepository.findByQuarantinedFalse(new PageRequest(0, 1, JOURNAL_ORDER)).getContent();
+    return oldest.isEmpty() ? 0 : System.currentTimeMillis() - oldest.get(0).getCreatedDate().getMillis();
+  }
+
   private static class IncrementTagCommand extends AbstractGitWriteCommand {
 
     private int newTag = 1;
@@ -26,6 +26,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -81,6 +82,32 @@ public class MailService extends AgateRestService {
       .join(Stream.of(groupsParam, usernameParam).filter(s -> !Strings.isNullOrEmpty(s)).collect(toList())));
   }
 
+  /**
+   * Send the e-mail to the users in the calling thread.
+   *
+   * @param subject
+   * @param template
+   * @param context
+   * @param usernames
+   * @throws RestClientException if the e-mail could not be sent
+   */
+  public void sendEmailToUsersSync(String subject, String template, Map<String, String> context, String... usernames) {
+    postEmail(subject, template, context, toRecipientFormParam("username", usernames));
+  }
+
+  /**
+   * Send the e-mail to the groups in the calling thread.
+   *
+   * @param subject
+   * @param template
+   * @param context
+   * @param groups
+   * @throws RestClientException if the e-mail could not be sent
+   */
+  public void sendEmailToGroupsSync(String subject, String template, Map<String, String> context, String... groups) {
+    postEmail(subject, template, context, toRecipientFormParam("group", groups));
+  }
+
   @Async
   public void sendEmailToUsers(String subject, String text, String... usernames) {
     sendEmail(subject, text, toRecipientFormParam("username", usernames));
@@ -122,33 +149,30 @@ public class MailService extends AgateRestService {
   private synchronized void sendEmail(String subject, String templateName, Map<String, String> context,
     String recipient) {
     try {
-      RestTemplate template = newRestTemplate();
-      HttpHeaders headers = new HttpHeaders();
-      headers.set(APPLICATION_AUTH_HEADER, getApplicationAuth());
-      headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+      postEmail(subject, templateName, context, recipient);
+    } catch(Exception e) {
+      log.error("Agate email service failure: {}", e.getMessage());
+    }
+  }
 
-      StringBuilder form = new StringBuilder(Strings.isNullOrEmpty(recipient) ? "" : recipient + "&");
-      form.append("subject=").append(encode(subject, "UTF-8")).append("&template=")
-        .append(encode(templateName, "UTF-8"));
-      context.forEach((k, v) -> {
-        try {
-          form.append("&").append(k).append("=").append(encode(v, "UTF-8"));
-        } catch(UnsupportedEncodingException ignored) {
-        }
-      });
-      log.info("Sending email with parameters: {}", form);
-      HttpEntity<String> entity = new HttpEntity<>(form.toString(), headers);
+  private void postEmail(String subject, String templateName, Map<String, String> context, String recipient) {
+    RestTemplate template = newRestTemplate();
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(APPLICATION_AUTH_HEADER, getApplicationAuth());
+    headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
 
-      ResponseEntity<String> response = template.exchange(getNotificationsUrl(), HttpMethod.POST, entity, String.class);
+    StringBuilder form = new StringBuilder(Strings.isNullOrEmpty(recipient) ? "" : recipient + "&");
+    form.append("subject=").append(urlEncode(subject)).append("&template=").append(urlEncode(templateName));
+    context.forEach((k, v) -> form.append("&").append(k).append("=").append(urlEncode(v)));
+    log.info("Sending email with parameters: {}", form);
+    HttpEntity<String> entity = new HttpEntity<>(form.toString(), headers);
 
-      if(response.getStatusCode().is2xxSuccessful()) {
-        log.info("Email sent via Agate");
-      } else {
-        log.error("Agate email service failure with status: {}", response.getStatusCode());
-      }
-    } catch(Exception e) {
-      log.error("Agate email service connection failure: {}", e.getMessage());
+    ResponseEntity<String> response = template.exchange(getNotificationsUrl(), HttpMethod.POST, entity, String.class);
+
+    if(!response.getStatusCode().is2xxSuccessful()) {
+      throw new RestClientException("Agate email service failure with status: " + response.getStatusCode());
     }
+    log.info("Email sent via Agate");
   }
 
   private synchronized void sendEmail(String subject, String text, String recipient) {
@@ -173,6 +197,14 @@ public class MailService extends AgateRestService {
     }
   }
 
+  private String urlEncode(String value) {
+    try {
+      return encode(value, "UTF-8");
+    } catch(UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   private String getNotificationsUrl() {
     return UriComponentsBuilder
       .fromHttpUrl(agateServerConfigService.getAgateUrl())
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.mica.core.support;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Values of the flattened document field paths (e.g. "populations[0].model.selectionCriteria.countriesIso"), looked
+ * up in a trie of path patterns, segment by segment. In a pattern, the "[*]" segment matches any array index. When
+ * several patterns match a path, the first one that was put applies.
+ */
+public class FieldPathMatcher {
+
+  public static final String ANY_INDEX = "[*]";
+
+  private final List<String> locales;
+
+  private final Node root = new Node();
+
+  private int size = 0;
+
+  public FieldPathMatcher(Collection<String> locales) {
+    this.locales = ImmutableList.copyOf(locales);
+  }
+
+  public FieldPathMatcher put(String pattern, Object value) {
+    return put(pattern, value, false, false);
+  }
+
+  /**
+   * Associate the value to the paths matching the pattern.
+   *
+   * @param pattern
+   * @param value
+   * @param withIndex also match the paths with a trailing array index
+   * @param withLocale also match the paths with a trailing locale
+   * @return
+   */
+  public FieldPathMatcher put(String pattern, Object value, boolean withIndex, boolean withLocale) {
+    if (value == null) return this;
+
+    Node node = root.append(tokenize(pattern), true);
+    List<Node> nodes = Lists.newArrayList(node);
+    if (withIndex) nodes.add(node.append(ANY_INDEX, true));
+    if (withLocale) {
+      for (Node n : Lists.newArrayList(nodes)) {
+        locales.forEach(locale -> nodes.add(n.append(locale, false)));
+      }
+    }
+
+    for (Node n : nodes) {
+      if (n.value == null) {
+        n.value = value;
+        size++;
+      }
+    }
+
+    return this;
+  }
+
+  @Nullable
+  public Object get(String path) {
+    if (path == null) return null;
+    return root.find(tokenize(path), 0);
+  }
+
+  /**
+   * Count of the matched paths, each pattern being expanded by the optional trailing index and locale.
+   *
+   * @return
+   */
+  public int size() {
+    return size;
+  }
+
+  //
+  // Private methods
+  //
+
+  /**
+   * Split a path in field names and array indices.
+   *
+   * @param path
+   * @return
+   */
+  private static List<String> tokenize(String path) {
+    List<String> tokens = Lists.newArrayList();
+    int start = 0;
+    boolean afterIndex = false;
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (c == '.') {
+        if (!afterIndex) tokens.add(path.substring(start, i));
+        start = i + 1;
+        afterIndex = false;
+      } else if (c == '[') {
+        if (i > start) tokens.add(path.substring(start, i));
+        int end = path.indexOf(']', i);
+        if (end < 0) end = path.length() - 1;
+        tokens.add(path.substring(i, end + 1));
+        start = end + 1;
+        i = end;
+        afterIndex = true;
+      } else {
+        afterIndex = false;
+      }
+    }
+    if (!afterIndex) tokens.add(path.substring(start));
+    return tokens;
+  }
+
+  private static boolean isIndex(String token) {
+    if (token.length() < 3 || token.charAt(0) != '[' || token.charAt(token.length() - 1) != ']') return false;
+    for (int i = 1; i < token.length() - 1; i++) {
+      if (!Character.isDigit(token.charAt(i))) return false;
+    }
+    return true;
+  }
+
+  private static class Node {
+
+    private final Map<String, Node> children = Maps.newHashMap();
+
+    private Node anyIndex;
+
+    private Object value;
+
+    Node append(List<String> tokens, boolean wildcards) {
+      Node node = this;
+      for (String token : tokens) node = node.append(token, wildcards);
+      return node;
+    }
+
+    Node append(String token, boolean wildcards) {
+      if (wildcards && ANY_INDEX.equals(token)) {
+        if (anyIndex == null) anyIndex = new Node();
+        return anyIndex;
+      }
+      return children.computeIfAbsent(token, t -> new Node());
+    }
+
+    Object find(List<String> tokens, int position) {
+      if (position == tokens.size()) return value;
+
+      String token = tokens.get(position);
+      Node child = children.get(token);
+      Object found = child == null ? null : child.find(tokens, position + 1);
+      if (found == null && anyIndex != null && isIndex(token)) found = anyIndex.find(tokens, position + 1);
+      return found;
+    }
+  }
+}
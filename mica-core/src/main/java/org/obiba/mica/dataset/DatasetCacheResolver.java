@@ -51,21 +51,31 @@ public class DatasetCacheResolver implements CacheResolver{
       .findFirst();
 
     if(dataset.isPresent()) {
-      String cacheName = "dataset-" + ((Dataset) dataset.get()).getId();
-      Cache datasetCache = springCacheManager.getCache(cacheName);
-
-      if (datasetCache == null) {
-        CacheConfiguration conf = cacheManager.getEhcache("dataset-variables").getCacheConfiguration().clone();
-        conf.setName(cacheName);
-        cacheManager.addCache(new net.sf.ehcache.Cache(conf));
-        net.sf.ehcache.Cache cache = cacheManager.getCache(cacheName);
-        cacheManager.replaceCacheWithDecoratedCache(cache, InstrumentedEhcache.instrument(metricRegistry, cache));
-        datasetCache = new EhCacheCache(cacheManager.getEhcache(cacheName));
-      }
-
-      res.add(datasetCache);
+      res.add(getCache((Dataset) dataset.get()));
     }
 
     return res;
   }
+
+  /**
+   * Get the variables cache of the dataset, create it if missing.
+   *
+   * @param dataset
+   * @return
+   */
+  public synchronized Cache getCache(Dataset dataset) {
+    String cacheName = "dataset-" + dataset.getId();
+    Cache datasetCache = springCacheManager.getCache(cacheName);
+
+    if (datasetCache == null) {
+      CacheConfiguration conf = cacheManager.getEhcache("dataset-variables").getCacheConfiguration().clone();
+      conf.setName(cacheName);
+      cacheManager.addCache(new net.sf.ehcache.Cache(conf));
+      net.sf.ehcache.Cache cache = cacheManager.getCache(cacheName);
+      cacheManager.replaceCacheWithDecoratedCache(cache, InstrumentedEhcache.instrument(metricRegistry, cache));
+      datasetCache = new EhCacheCache(cacheManager.getEhcache(cacheName));
+    }
+
+    return datasetCache;
+  }
 }
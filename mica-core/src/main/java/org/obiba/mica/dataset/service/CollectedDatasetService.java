@@ -11,6 +11,8 @@
 package org.obiba.mica.dataset.service;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
@@ -115,6 +117,10 @@ public class CollectedDatasetService extends DatasetService<StudyDataset, StudyD
   @Lazy
   private Helper helper;
 
+  @Inject
+  @Lazy
+  private DatasetVariablesCacheInvalidator datasetVariablesCacheInvalidator;
+
   public void save(@NotNull @Valid StudyDataset dataset) {
     saveInternal(dataset, null);
   }
@@ -215,16 +221,17 @@ public class CollectedDatasetService extends DatasetService<StudyDataset, StudyD
   @Caching(evict = { @CacheEvict(value = "aggregations-metadata", key = "'dataset'") })
   public void publish(@NotNull String id, boolean published, PublishCascadingScope cascadingScope) {
     StudyDataset dataset = findById(id);
-    helper.evictCache(dataset);
 
     if(published) {
       checkIsPublishable(dataset);
+      datasetVariablesCacheInvalidator.invalidate(dataset);
       Iterable<DatasetVariable> variables = wrappedGetDatasetVariables(dataset);
       publishState(id);
       prepareForIndex(dataset);
       eventBus.post(new DatasetPublishedEvent(dataset, variables, getCurrentUsername(), cascadingScope));
       //helper.asyncBuildDatasetVariablesCache(dataset, variables);
     } else {
+      helper.evictCache(dataset);
       unPublishState(id);
       eventBus.post(new DatasetUnpublishedEvent(dataset));
     }
@@ -374,9 +381,16 @@ public class CollectedDatasetService extends DatasetService<StudyDataset, StudyD
     }
   }
 
-  public List<DatasetVariable> processVariablesForStudyDataset(StudyDataset dataset, Iterable<DatasetVariable> variables) {
+  /**
+   * Set the population and data collection event weights of the variables, as they are iterated.
+   *
+   * @param dataset
+   * @param variables
+   * @return
+   */
+  public Iterable<DatasetVariable> processVariablesForStudyDataset(StudyDataset dataset, Iterable<DatasetVariable> variables) {
     if (!dataset.hasStudyTable()) {
-      return Lists.newArrayList(variables);
+      return variables;
     }
 
     StudyTable studyTable = dataset.getStudyTable();
@@ -385,7 +399,7 @@ public class CollectedDatasetService extends DatasetService<StudyDataset, StudyD
     Population population = study.findPopulation(studyTable.getPopulationId());
 
     if (population == null) {
-      return Lists.newArrayList(variables);
+      return variables;
     }
 
     int populationWeight = population.getWeight();
@@ -394,17 +408,17 @@ public class CollectedDatasetService extends DatasetService<StudyDataset, StudyD
       .findDataCollectionEvent(studyTable.getDataCollectionEventId());
 
     if (dataCollectionEvent == null) {
-      return Lists.newArrayList(variables);
+      return variables;
     }
 
     int dataCollectionEventWeight =  dataCollectionEvent.getWeight();
 
-    return StreamSupport.stream(variables.spliterator(), false).map(datasetVariable -> {
+    return Iterables.transform(variables, datasetVariable -> {
       datasetVariable.setPopulationWeight(populationWeight);
       datasetVariable.setDataCollectionEventWeight(dataCollectionEventWeight);
 
       return datasetVariable;
-    }).collect(toList());
+    });
   }
 
   @Override
@@ -570,7 +584,7 @@ public class CollectedDatasetService extends DatasetService<StudyDataset, StudyD
 
           if (publishedDatasets.contains(dataset)) {
             prepareForIndex(dataset);
-            Iterable<DatasetVariable> variables = mustIndexVariables && publishedDatasets.contains(dataset) ? wrappedGetDatasetVariables(dataset) : null;
+            Iterable<DatasetVariable> variables = mustIndexVariables ? getDatasetVariablesForIndexing(dataset) : null;
             eventBus.post(new DatasetPublishedEvent(dataset, variables, getCurrentUsername()));
           }
         } catch (Exception e) {
@@ -582,6 +596,20 @@ public class CollectedDatasetService extends DatasetService<StudyDataset, StudyD
     return unprocessedDatasets;
   }
 
+  /**
+   * The variables of the dataset are fetched from Opal only when iterated by the indexer, so that the variables of all
+   * the datasets being indexed are not held in memory at once while waiting in the event queue.
+   *
+   * @param dataset
+   * @return
+   */
+  private Iterable<DatasetVariable> getDatasetVariablesForIndexing(StudyDataset dataset) {
+    if (!dataset.hasStudyTable()) return Lists.newArrayList();
+
+    getTable(dataset); // fail early if the table is not reachable
+    return () -> Iterators.transform(getVariables(dataset).iterator(), input -> new DatasetVariable(dataset, input));
+  }
+
   @Override
   protected EntityStateRepository<StudyDatasetState> getEntityStateRepository() {
     return studyDatasetStateRepository;
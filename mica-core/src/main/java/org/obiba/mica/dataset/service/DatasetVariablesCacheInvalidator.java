@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import net.sf.ehcache.Ehcache;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.mica.core.domain.BaseStudyTable;
+import org.obiba.mica.dataset.DatasetCacheResolver;
+import org.obiba.mica.dataset.domain.Dataset;
+import org.obiba.mica.dataset.domain.HarmonizationDataset;
+import org.obiba.mica.dataset.domain.StudyDataset;
+import org.obiba.mica.micaConfig.service.OpalService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.stereotype.Component;
+
+/**
+ * When a dataset is published, invalidates only the cached variable summaries of the Opal tables that have changed. The
+ * last update timestamp of each table is stored in the dataset variables cache along with the summaries, keyed by the
+ * study, project and table names: a summary is stale when its table is not the one of the stored timestamps anymore,
+ * or when the timestamp of its table differs from the one stored. The stale summaries are then rebuilt in the
+ * background.
+ */
+@Component
+public class DatasetVariablesCacheInvalidator {
+
+  private static final Logger log = LoggerFactory.getLogger(DatasetVariablesCacheInvalidator.class);
+
+  private static final String VERSION_KEY_PREFIX = "_version";
+
+  @Inject
+  private DatasetCacheResolver datasetCacheResolver;
+
+  @Inject
+  private OpalService opalService;
+
+  @Inject
+  private DatasetVariablesCacheWarmer datasetVariablesCacheWarmer;
+
+  /**
+   * Evict the stale variable summaries of the dataset, to be called before the dataset is published so that the
+   * summaries of its previous tables are not served after the publication.
+   *
+   * @param dataset
+   */
+  public void invalidate(Dataset dataset) {
+    List<BaseStudyTable> tables = getTables(dataset);
+    if (tables.isEmpty()) return;
+
+    Cache cache = datasetCacheResolver.getCache(dataset);
+    Ehcache ehcache = (Ehcache) cache.getNativeCache();
+    Multimap<BaseStudyTable, String> staleVariables = ArrayListMultimap.create();
+
+    // forget the timestamps of the tables that are not in the dataset anymore
+    Set<String> versionKeys = tables.stream().map(this::getVersionKey).collect(Collectors.toSet());
+    for (Object key : ehcache.getKeys()) {
+      if (key.toString().startsWith(VERSION_KEY_PREFIX) && !versionKeys.contains(key.toString())) ehcache.remove(key);
+    }
+
+    for (BaseStudyTable table : tables) {
+      String suffix = DatasetVariablesCacheWarmer.getCacheKeySuffix(dataset, table);
+      String versionKey = getVersionKey(table);
+      String version = getVersion(table);
+
+      Cache.ValueWrapper cachedVersion = cache.get(versionKey);
+      if (version != null && cachedVersion != null && version.equals(cachedVersion.get())) continue;
+
+      for (Object key : ehcache.getKeys()) {
+        String entryKey = key.toString();
+        // the suffix of a collected dataset is empty: all its summaries are from its single table
+        if (entryKey.startsWith(VERSION_KEY_PREFIX) || !entryKey.endsWith(suffix)) continue;
+
+        ehcache.remove(key);
+        staleVariables.put(table, entryKey.substring(0, entryKey.length() - suffix.length()));
+      }
+
+      if (version == null) cache.evict(versionKey);
+      else cache.put(versionKey, version);
+    }
+
+    if (!staleVariables.isEmpty()) {
+      log.info("Invalidated {} variable summaries of dataset {}", staleVariables.size(), dataset.getId());
+      datasetVariablesCacheWarmer.refresh(dataset, staleVariables);
+    }
+  }
+
+  //
+  // Private methods
+  //
+
+  private String getVersionKey(BaseStudyTable table) {
+    return String.format("%s:%s:%s:%s", VERSION_KEY_PREFIX, table.getStudyId(), table.getProject(), table.getTable());
+  }
+
+  private List<BaseStudyTable> getTables(Dataset dataset) {
+    List<BaseStudyTable> tables = Lists.newArrayList();
+    if (dataset instanceof StudyDataset) {
+      if (((StudyDataset) dataset).hasStudyTable()) tables.add(((StudyDataset) dataset).getStudyTable());
+    } else if (dataset instanceof HarmonizationDataset) {
+      tables.addAll(((HarmonizationDataset) dataset).getBaseStudyTables());
+    }
+    return tables;
+  }
+
+  /**
+   * Get the last update timestamp of the Opal table.
+   *
+   * @param table
+   * @return null if the table could not be reached
+   */
+  private String getVersion(BaseStudyTable table) {
+    try {
+      ValueTable valueTable = opalService
+        .getDatasource(datasetVariablesCacheWarmer.getOpalUrl(table.getStudyId()), table.getProject())
+        .getValueTable(table.getTable());
+      Value lastUpdate = valueTable.getTimestamps().getLastUpdate();
+      return lastUpdate.isNull() ? null : lastUpdate.toString();
+    } catch (Exception e) {
+      log.warn("Unable to get the last update of Opal table {}.{}: {}", table.getProject(), table.getTable(),
+        e.getMessage());
+      return null;
+    }
+  }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.service;
+
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.common.util.concurrent.RateLimiter;
+import org.obiba.magma.NoSuchVariableException;
+import org.obiba.mica.core.domain.BaseStudyTable;
+import org.obiba.mica.core.domain.StudyTable;
+import org.obiba.mica.dataset.domain.Dataset;
+import org.obiba.mica.dataset.domain.DatasetVariable;
+import org.obiba.mica.dataset.domain.HarmonizationDataset;
+import org.obiba.mica.dataset.domain.StudyDataset;
+import org.obiba.mica.micaConfig.service.OpalService;
+import org.obiba.mica.study.service.StudyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Builds the variable summaries of the "dataset-variables" cache: the summaries are requested by a few workers per Opal
+ * server, at a limited rate, the most viewed variables first. The summaries that are already cached are skipped, so
+ * that an interrupted warm-up can be resumed by starting it again. The workers have their own threads, not to compete
+ * with the other Opal requests.
+ */
+@Component
+public class DatasetVariablesCacheWarmer implements EnvironmentAware {
+
+  private static final Logger log = LoggerFactory.getLogger(DatasetVariablesCacheWarmer.class);
+
+  private static final int DEFAULT_CONCURRENCY = 2;
+
+  private static final double DEFAULT_PERMITS_PER_SECOND = 10;
+
+  private static final int MAX_REPORTED_FAILURES = 100;
+
+  private static final int DEFAULT_POOL_SIZE = 4;
+
+  private static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+  @VisibleForTesting
+  static final int MAX_VIEWED_VARIABLES = 50000;
+
+  @Inject
+  private HarmonizedDatasetService harmonizedDatasetService;
+
+  @Inject
+  private CollectedDatasetService collectedDatasetService;
+
+  @Inject
+  private StudyService studyService;
+
+  @Inject
+  private OpalService opalService;
+
+  @Inject
+  private CacheManager cacheManager;
+
+  private ThreadPoolTaskExecutor executor;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  // the view counts are halved when too many variables are counted, the least viewed ones being then forgotten
+  private final AtomicLongMap<String> views = AtomicLongMap.create();
+
+  private final AtomicBoolean decaying = new AtomicBoolean();
+
+  // the rate of the summary requests is limited per Opal server, whatever the warm-up or refresh they are for
+  private final ConcurrentMap<String, RateLimiter> rateLimiters = Maps.newConcurrentMap();
+
+  private volatile Progress progress = new Progress();
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "opal.cacheWarmer.");
+  }
+
+  @PostConstruct
+  public void init() {
+    int poolSize = propertyResolver.getProperty("poolSize", Integer.class, DEFAULT_POOL_SIZE);
+    executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(propertyResolver.getProperty("queueCapacity", Integer.class, DEFAULT_QUEUE_CAPACITY));
+    executor.setThreadNamePrefix("mica-cache-warmer-");
+    executor.initialize();
+  }
+
+  @PreDestroy
+  public void destroy() {
+    executor.shutdown();
+  }
+
+  /**
+   * Count a view of a published variable, the most viewed variables are warmed up first.
+   *
+   * @param datasetId
+   * @param variableName
+   */
+  public void recordView(String datasetId, String variableName) {
+    views.incrementAndGet(datasetId + ":" + variableName);
+    if (views.size() > MAX_VIEWED_VARIABLES && decaying.compareAndSet(false, true)) {
+      try {
+        views.asMap().forEach((key, count) -> views.addAndGet(key, -(count - count / 2)));
+        views.removeAllZeros();
+      } finally {
+        decaying.set(false);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getViewedVariablesCount() {
+    return views.size();
+  }
+
+  @VisibleForTesting
+  long getViews(String datasetId, String variableName) {
+    return views.get(datasetId + ":" + variableName);
+  }
+
+  /**
+   * Start warming up the cache in the background, unless a warm-up is already running.
+   *
+   * @return false if a warm-up is already running or could not be started
+   */
+  public synchronized boolean start() {
+    if (progress.isRunning()) return false;
+
+    Progress current = new Progress();
+    current.state = State.PLANNING;
+    current.startTime = System.currentTimeMillis();
+    progress = current;
+    try {
+      executor.execute(() -> run(current));
+    } catch (TaskRejectedException e) {
+      log.warn("Unable to start the dataset variables cache warm-up", e);
+      current.fail("planning", e);
+      current.complete();
+      return false;
+    }
+
+    return true;
+  }
+
+  public Progress getProgress() {
+    return progress;
+  }
+
+  /**
+   * Rebuild in the background some variable summaries of a dataset, for instance the ones that were invalidated because
+   * their Opal table has changed.
+   *
+   * @param dataset
+   * @param variables variable names by study table
+   */
+  public void refresh(Dataset dataset, Multimap<BaseStudyTable, String> variables) {
+    if (variables.isEmpty()) return;
+
+    Progress current = new Progress();
+    current.startTime = System.currentTimeMillis();
+    try {
+      executor.execute(() -> {
+        Map<String, List<WarmUpTask>> tasksByOpal = Maps.newHashMap();
+        Map<String, String> opalUrls = Maps.newHashMap();
+        variables.forEach((table, variableName) -> addTask(tasksByOpal, new WarmUpTask(
+          opalUrls.computeIfAbsent(table.getStudyId(), this::getOpalUrl), dataset, variableName, table)));
+        log.info("Refreshing {} variable summaries of dataset {}", variables.size(), dataset.getId());
+        execute(current, tasksByOpal);
+      });
+    } catch (TaskRejectedException e) {
+      // the summaries will be built when requested
+      log.warn("Unable to refresh the variable summaries of dataset {}: {}", dataset.getId(), e.getMessage());
+    }
+  }
+
+  //
+  // Private methods
+  //
+
+  private void run(Progress current) {
+    Map<String, List<WarmUpTask>> tasksByOpal;
+    try {
+      tasksByOpal = plan(current);
+    } catch (Exception e) {
+      log.error("Unable to plan the dataset variables cache warm-up", e);
+      current.fail("planning", e);
+      current.complete();
+      return;
+    }
+
+    execute(current, tasksByOpal);
+  }
+
+  private void execute(Progress current, Map<String, List<WarmUpTask>> tasksByOpal) {
+    int concurrency = Math.max(propertyResolver.getProperty("concurrency", Integer.class, DEFAULT_CONCURRENCY), 1);
+    current.total.set(tasksByOpal.values().stream().mapToLong(List::size).sum());
+    current.workers.set(tasksByOpal.values().stream().mapToInt(tasks -> Math.min(concurrency, tasks.size())).sum());
+    current.state = State.RUNNING;
+    log.debug("Building {} dataset variable summaries from {} Opal servers", current.total.get(), tasksByOpal.size());
+
+    if (current.workers.get() == 0) {
+      current.complete();
+      return;
+    }
+
+    tasksByOpal.forEach((opalUrl, tasks) -> {
+      tasks.sort(Comparator.comparingLong((WarmUpTask task) -> task.views).reversed());
+      Queue<WarmUpTask> queue = new ConcurrentLinkedQueue<>(tasks);
+      RateLimiter rateLimiter = rateLimiters.computeIfAbsent(opalUrl, k -> RateLimiter
+        .create(propertyResolver.getProperty("permitsPerSecond", Double.class, DEFAULT_PERMITS_PER_SECOND)));
+      for (int i = 0; i < Math.min(concurrency, tasks.size()); i++) {
+        try {
+          executor.execute(() -> work(current, queue, rateLimiter));
+        } catch (TaskRejectedException e) {
+          log.warn("Unable to start a dataset variables cache worker for {}", opalUrl, e);
+          current.fail(opalUrl, e);
+          finish(current);
+        }
+      }
+    });
+  }
+
+  private Map<String, List<WarmUpTask>> plan(Progress current) {
+    Map<String, List<WarmUpTask>> tasksByOpal = Maps.newHashMap();
+    Map<String, String> opalUrls = Maps.newHashMap();
+
+    harmonizedDatasetService.findAllPublishedDatasets().forEach(dataset -> {
+      try {
+        List<DatasetVariable> variables = Lists.newArrayList(harmonizedDatasetService.getDatasetVariables(dataset));
+        dataset.getBaseStudyTables().forEach(st -> {
+          String opalUrl = opalUrls.computeIfAbsent(st.getStudyId(), this::getOpalUrl);
+          variables.forEach(v -> addTask(tasksByOpal, new WarmUpTask(opalUrl, dataset, v.getName(), st)));
+        });
+      } catch (Exception e) {
+        log.warn("Error listing the variables of harmonization dataset {}", dataset.getId(), e);
+        current.fail(dataset.getId(), e);
+      }
+    });
+
+    collectedDatasetService.findAllDatasets().stream().filter(StudyDataset::hasStudyTable).forEach(dataset -> {
+      try {
+        StudyTable studyTable = dataset.getStudyTable();
+        String opalUrl = opalUrls.computeIfAbsent(studyTable.getStudyId(), this::getOpalUrl);
+        collectedDatasetService.getDatasetVariables(dataset)
+          .forEach(v -> addTask(tasksByOpal, new WarmUpTask(opalUrl, dataset, v.getName(), studyTable)));
+      } catch (Exception e) {
+        log.warn("Error listing the variables of study dataset {}", dataset.getId(), e);
+        current.fail(dataset.getId(), e);
+      }
+    });
+
+    return tasksByOpal;
+  }
+
+  private void addTask(Map<String, List<WarmUpTask>> tasksByOpal, WarmUpTask task) {
+    tasksByOpal.computeIfAbsent(task.opalUrl, k -> Lists.newArrayList()).add(task);
+  }
+
+  String getOpalUrl(String studyId) {
+    String opalUrl = null;
+    try {
+      opalUrl = studyService.findDraft(studyId).getOpal();
+    } catch (Exception e) {
+      log.debug("Unable to find the Opal of study {}", studyId);
+    }
+
+    return Strings.isNullOrEmpty(opalUrl) ? opalService.getDefaultOpal() : opalUrl;
+  }
+
+  private void work(Progress current, Queue<WarmUpTask> queue, RateLimiter rateLimiter) {
+    try {
+      WarmUpTask task;
+      while ((task = queue.poll()) != null) {
+        if (isCached(task)) {
+          current.skipped.incrementAndGet();
+          continue;
+        }
+
+        rateLimiter.acquire();
+        try {
+          warmUp(task);
+          current.completed.incrementAndGet();
+        } catch (NoSuchVariableException e) {
+          current.skipped.incrementAndGet();
+        } catch (Exception e) {
+          log.warn("Error building dataset variable cache of {}", task, e);
+          current.fail(task.toString(), e);
+        }
+      }
+    } finally {
+      finish(current);
+    }
+  }
+
+  private void finish(Progress current) {
+    if (current.workers.decrementAndGet() == 0) {
+      current.complete();
+      log.info("Dataset variable summaries built: {} built, {} skipped, {} failed", current.completed.get(),
+        current.skipped.get(), current.failed.get());
+    }
+  }
+
+  private boolean isCached(WarmUpTask task) {
+    Cache cache = cacheManager.getCache("dataset-" + task.dataset.getId());
+    return cache != null && cache.get(task.getCacheKey()) != null;
+  }
+
+  private void warmUp(WarmUpTask task) {
+    if (task.dataset instanceof StudyDataset) {
+      collectedDatasetService.getVariableSummary((StudyDataset) task.dataset, task.variableName);
+    } else {
+      harmonizedDatasetService.getVariableSummary((HarmonizationDataset) task.dataset, task.variableName,
+        task.table.getStudyId(), task.table.getProject(), task.table.getTable());
+    }
+  }
+
+  /**
+   * The variable summaries of a dataset are cached with a key made of the variable name and of this suffix.
+   *
+   * @param dataset
+   * @param table
+   * @return
+   */
+  static String getCacheKeySuffix(Dataset dataset, BaseStudyTable table) {
+    return dataset instanceof StudyDataset
+      ? ""
+      : String.format(":%s:%s:%s", table.getStudyId(), table.getProject(), table.getTable());
+  }
+
+  public enum State {
+    IDLE, PLANNING, RUNNING, COMPLETED
+  }
+
+  /**
+   * Progress of the last warm-up.
+   */
+  public static class Progress {
+
+    private volatile State state = State.IDLE;
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicInteger workers = new AtomicInteger();
+
+    private final Deque<String> failures = Queues.newArrayDeque();
+
+    public State getState() {
+      return state;
+    }
+
+    public boolean isRunning() {
+      return state == State.PLANNING || state == State.RUNNING;
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+
+    public long getEndTime() {
+      return endTime;
+    }
+
+    public long getTotal() {
+      return total.get();
+    }
+
+    public long getCompleted() {
+      return completed.get();
+    }
+
+    public long getSkipped() {
+      return skipped.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    /**
+     * Estimated remaining time in milliseconds, extrapolated from the summaries processed so far.
+     *
+     * @return -1 if not running or nothing was processed yet
+     */
+    public long getEta() {
+      long processed = completed.get() + skipped.get() + failed.get();
+      if (state != State.RUNNING || processed == 0) return -1;
+
+      long elapsed = System.currentTimeMillis() - startTime;
+      return Math.max(total.get() - processed, 0) * elapsed / processed;
+    }
+
+    /**
+     * The last failure messages.
+     *
+     * @return
+     */
+    public synchronized List<String> getFailures() {
+      return Lists.newArrayList(failures);
+    }
+
+    private synchronized void fail(String what, Exception e) {
+      failed.incrementAndGet();
+      if (failures.size() == MAX_REPORTED_FAILURES) failures.removeFirst();
+      failures.addLast(what + ": " + e.getMessage());
+    }
+
+    private void complete() {
+      endTime = System.currentTimeMillis();
+      state = State.COMPLETED;
+    }
+  }
+
+  private class WarmUpTask {
+
+    private final String opalUrl;
+
+    private final Dataset dataset;
+
+    private final String variableName;
+
+    private final BaseStudyTable table;
+
+    private final long views;
+
+    WarmUpTask(String opalUrl, Dataset dataset, String variableName, BaseStudyTable table) {
+      this.opalUrl = opalUrl;
+      this.dataset = dataset;
+      this.variableName = variableName;
+      this.table = table;
+      this.views = DatasetVariablesCacheWarmer.this.views.get(dataset.getId() + ":" + variableName);
+    }
+
+    /**
+     * Same key as the {@link org.springframework.cache.annotation.Cacheable} variable summary methods.
+     *
+     * @return
+     */
+    private String getCacheKey() {
+      return variableName + getCacheKeySuffix(dataset, table);
+    }
+
+    @Override
+    public String toString() {
+      return dataset.getId() + ":" + getCacheKey();
+    }
+  }
+}
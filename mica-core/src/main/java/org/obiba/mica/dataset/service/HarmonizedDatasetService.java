@@ -53,6 +53,7 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
@@ -100,6 +101,10 @@ public class HarmonizedDatasetService extends DatasetService<HarmonizationDatase
 
   private final MicaConfigService micaConfigService;
 
+  @Inject
+  @Lazy
+  private DatasetVariablesCacheInvalidator datasetVariablesCacheInvalidator;
+
   @Inject
   public HarmonizedDatasetService(StudyService studyService, NetworkService networkService, OpalService opalService,
     HarmonizationDatasetRepository harmonizationDatasetRepository,
@@ -286,15 +291,16 @@ public class HarmonizedDatasetService extends DatasetService<HarmonizationDatase
   @Caching(evict = { @CacheEvict(value = "aggregations-metadata", key = "'dataset'") })
   public void publish(@NotNull String id, boolean published, PublishCascadingScope cascadingScope) {
     HarmonizationDataset dataset = findById(id);
-    helper.evictCache(dataset);
 
     if(published) {
       checkIsPublishable(dataset);
+      datasetVariablesCacheInvalidator.invalidate(dataset);
       publishState(id);
       eventBus.post(new DatasetPublishedEvent(dataset, wrappedGetDatasetVariables(dataset), null,
         getCurrentUsername(), cascadingScope));
       indexHarmonizedVariables(dataset);
     } else {
+      helper.evictCache(dataset);
       unPublishState(id);
       eventBus.post(new DatasetUnpublishedEvent(dataset));
     }
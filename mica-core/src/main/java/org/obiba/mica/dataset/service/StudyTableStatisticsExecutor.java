@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.obiba.mica.core.MicaAsyncTaskExecutor;
+import org.obiba.mica.core.domain.BaseStudyTable;
+import org.obiba.mica.micaConfig.service.OpalService;
+import org.obiba.mica.study.service.StudyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scatter-gather of the statistics requests of the study tables of a dataset: the requests are sent concurrently, in a
+ * bounded pool per Opal server, and their results are gathered as they arrive. The tables that have not answered
+ * within the timeout of their request are reported without result, so that a slow table does not hold back the ones
+ * queued behind it.
+ */
+@Component
+public class StudyTableStatisticsExecutor implements EnvironmentAware {
+
+  private static final Logger log = LoggerFactory.getLogger(StudyTableStatisticsExecutor.class);
+
+  private static final int DEFAULT_POOL_SIZE = 4;
+
+  private static final long DEFAULT_TIMEOUT = 30000;
+
+  @Inject
+  private StudyService studyService;
+
+  @Inject
+  private OpalService opalService;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  private final ConcurrentMap<String, MicaAsyncTaskExecutor> executors = Maps.newConcurrentMap();
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "opal.statistics.");
+  }
+
+  @PreDestroy
+  public void destroy() {
+    executors.values().forEach(executor -> {
+      try {
+        executor.destroy();
+      } catch (Exception e) {
+        log.warn("Unable to shutdown the statistics executor", e);
+      }
+    });
+  }
+
+  /**
+   * Request the statistics of each table and gather them in the calling thread, as soon as they arrive. Each table has
+   * its own timeout, that starts when its request is run.
+   *
+   * @param tables
+   * @param request the statistics request of a table, run in the pool of the Opal server of the table
+   * @param gather called with the table and its result, null when the request has timed out or could not be run
+   * @param <T>
+   * @param <R>
+   * @param <D>
+   * @return The gathered results, in the order of the tables
+   * @throws RuntimeException the failure of a request, the pending requests are then cancelled
+   */
+  public <T extends BaseStudyTable, R, D> List<D> scatterGather(List<T> tables, Function<T, R> request,
+    BiFunction<T, R, D> gather) {
+    long timeout = TimeUnit.MILLISECONDS.toNanos(propertyResolver.getProperty("timeout", Long.class, DEFAULT_TIMEOUT));
+    // in case a timed out request does not give its thread back to the pool
+    long limit = System.nanoTime() + timeout * tables.size();
+    // index of a completed request, or complement of the index of a started one
+    BlockingQueue<Integer> events = new LinkedBlockingQueue<>();
+    Map<Integer, Long> deadlines = Maps.newConcurrentMap();
+    Map<String, String> opalUrls = Maps.newHashMap();
+    List<FutureTask<R>> tasks = Lists.newArrayListWithCapacity(tables.size());
+    List<D> results = Lists.newArrayList();
+
+    for (int i = 0; i < tables.size(); i++) {
+      T table = tables.get(i);
+      int index = i;
+      FutureTask<R> task = new FutureTask<R>(() -> request.apply(table)) {
+        @Override
+        public void run() {
+          deadlines.put(index, System.nanoTime() + timeout);
+          events.offer(~index);
+          super.run();
+        }
+
+        @Override
+        protected void done() {
+          events.offer(index);
+        }
+      };
+      tasks.add(task);
+      results.add(null);
+
+      try {
+        getExecutor(opalUrls.computeIfAbsent(table.getStudyId(), this::getOpalUrl)).execute(task);
+      } catch (RuntimeException e) {
+        // not accepted by the pool: report the table as failed
+        task.cancel(false);
+      }
+    }
+
+    boolean[] gathered = new boolean[tables.size()];
+    try {
+      for (int pending = tables.size(); pending > 0; ) {
+        long now = System.nanoTime();
+        long wait = limit - now;
+        for (Map.Entry<Integer, Long> deadline : deadlines.entrySet()) {
+          int index = deadline.getKey();
+          if (gathered[index] || tasks.get(index).isDone()) continue;
+          if (deadline.getValue() - now <= 0) {
+            // the cancellation completes the request
+            cancel(tables.get(index), tasks.get(index));
+          } else {
+            wait = Math.min(wait, deadline.getValue() - now);
+          }
+        }
+        if (wait <= 0) break;
+
+        Integer index = events.poll(wait, TimeUnit.NANOSECONDS);
+        if (index == null || index < 0) continue;
+        gathered[index] = true;
+        pending--;
+        results.set(index, gather.apply(tables.get(index), getResult(tasks.get(index))));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      tasks.forEach(task -> task.cancel(true));
+    }
+
+    for (int i = 0; i < tables.size(); i++) {
+      if (gathered[i]) continue;
+      BaseStudyTable table = tables.get(i);
+      log.warn("Statistics of table {}.{} of study {} not received in time", table.getProject(), table.getTable(),
+        table.getStudyId());
+      results.set(i, gather.apply(table, null));
+    }
+
+    return results;
+  }
+
+  //
+  // Private methods
+  //
+
+  private void cancel(BaseStudyTable table, FutureTask<?> task) {
+    log.warn("Statistics of table {}.{} of study {} not received in time", table.getProject(), table.getTable(),
+      table.getStudyId());
+    task.cancel(true);
+  }
+
+  private <R> R getResult(FutureTask<R> task) throws InterruptedException {
+    if (task.isCancelled()) return null;
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private MicaAsyncTaskExecutor getExecutor(String opalUrl) {
+    return executors.computeIfAbsent(opalUrl, url -> {
+      int poolSize = propertyResolver.getProperty("poolSize", Integer.class, DEFAULT_POOL_SIZE);
+      ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+      executor.setCorePoolSize(poolSize);
+      executor.setMaxPoolSize(poolSize);
+      executor.setThreadNamePrefix("mica-opal-statistics-");
+      executor.initialize();
+      return new MicaAsyncTaskExecutor(executor);
+    });
+  }
+
+  private String getOpalUrl(String studyId) {
+    String opalUrl = null;
+    try {
+      opalUrl = studyService.findDraft(studyId).getOpal();
+    } catch (Exception e) {
+      log.debug("Unable to find the Opal of study {}", studyId);
+    }
+
+    return Strings.isNullOrEmpty(opalUrl) ? opalService.getDefaultOpal() : opalUrl;
+  }
+}
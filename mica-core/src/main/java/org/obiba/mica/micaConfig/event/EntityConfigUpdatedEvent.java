@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.micaConfig.event;
+
+import org.obiba.mica.micaConfig.domain.EntityConfig;
+
+public class EntityConfigUpdatedEvent {
+
+  private final EntityConfig config;
+
+  public EntityConfigUpdatedEvent(EntityConfig config) {
+    this.config = config;
+  }
+
+  public EntityConfig getConfig() {
+    return config;
+  }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.micaConfig.event;
+
+/**
+ * The credential to access an Opal server was created, updated or deleted.
+ */
+public class OpalCredentialUpdatedEvent {
+
+  private final String opalUrl;
+
+  public OpalCredentialUpdatedEvent(String opalUrl) {
+    this.opalUrl = opalUrl;
+  }
+
+  public String getOpalUrl() {
+    return opalUrl;
+  }
+}
@@ -12,15 +12,15 @@ package org.obiba.mica.micaConfig.service;
 
 import javax.inject.Inject;
 
-import org.obiba.magma.NoSuchVariableException;
 import org.obiba.mica.dataset.domain.Dataset;
 import org.obiba.mica.dataset.service.CollectedDatasetService;
+import org.obiba.mica.dataset.service.DatasetVariablesCacheWarmer;
 import org.obiba.mica.dataset.service.HarmonizedDatasetService;
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
 import org.obiba.mica.security.event.SubjectAclUpdatedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
 import com.google.common.eventbus.EventBus;
@@ -45,10 +45,16 @@ public class CacheService {
   @Inject
   private TaxonomyService taxonomyService;
 
+  @Inject
+  private AggregationMetaDataDictionary aggregationMetaDataDictionary;
+
+  @Inject
+  private DatasetVariablesCacheWarmer datasetVariablesCacheWarmer;
+
   @CacheEvict(value = "opal-taxonomies", allEntries = true, beforeInvocation = true)
   public void clearOpalTaxonomiesCache() {
     log.info("Clearing opal taxonomies cache");
-    taxonomyService.getOpalTaxonomies();
+    taxonomyService.refresh();
   }
 
   @CacheEvict(value = "micaConfig", allEntries = true)
@@ -60,6 +66,7 @@ public class CacheService {
   @CacheEvict(value = "aggregations-metadata", allEntries = true)
   public void clearAggregationsMetadataCache() {
     log.info("Clearing aggregations metadata cache");
+    aggregationMetaDataDictionary.invalidateAll();
   }
 
   public void clearDatasetVariablesCache() {
@@ -72,7 +79,11 @@ public class CacheService {
   }
 
   public void buildDatasetVariablesCache() {
-    helper.buildDatasetVariablesCache();
+    if (!datasetVariablesCacheWarmer.start()) log.info("Dataset variables cache warm-up is already running");
+  }
+
+  public DatasetVariablesCacheWarmer.Progress getDatasetVariablesCacheProgress() {
+    return datasetVariablesCacheWarmer.getProgress();
   }
 
   public void clearAllCaches() {
@@ -89,44 +100,9 @@ public class CacheService {
 
     private static final Logger log = LoggerFactory.getLogger(CacheService.Helper.class);
 
-    @Inject
-    private HarmonizedDatasetService harmonizedDatasetService;
-
-    @Inject
-    private CollectedDatasetService collectedDatasetService;
-
     @CacheEvict(value = "dataset-variables", cacheResolver = "datasetVariablesCacheResolver", allEntries = true, beforeInvocation = true)
     public void clearDatasetVariablesCache(Dataset dataset) {
       log.info("Clearing dataset variables cache dataset-{}", dataset.getId());
     }
-
-    @Async
-    public void buildDatasetVariablesCache() {
-      harmonizedDatasetService.findAllPublishedDatasets().forEach(
-        dataset -> harmonizedDatasetService.getDatasetVariables(dataset)
-          .forEach(v -> dataset.getBaseStudyTables().forEach(st -> {
-            String studyId = st.getStudyId();
-            try {
-              harmonizedDatasetService
-                .getVariableSummary(dataset, v.getName(), studyId, st.getProject(), st.getTable());
-            } catch(NoSuchVariableException ex) {
-              //ignore
-            } catch(Exception e) {
-              log.warn("Error building dataset variable cache of harmonization dataset {}: {} {}", dataset.getId(), st,
-                v, e);
-            }
-          })));
-
-      collectedDatasetService.findAllDatasets()
-        .forEach(dataset -> collectedDatasetService.getDatasetVariables(dataset).forEach(v -> {
-          try {
-            collectedDatasetService.getVariableSummary(dataset, v.getName());
-          } catch(NoSuchVariableException ex) {
-            //ignore
-          } catch(Exception e) {
-            log.warn("Error building dataset variable cache of study dataset {}: {}", dataset.getId(), v, e);
-          }
-        }));
-    }
   }
 }
@@ -1,16 +1,20 @@
 package org.obiba.mica.micaConfig.service;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
 
 import javax.inject.Inject;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
 
@@ -18,7 +22,7 @@ import org.obiba.core.translator.JsonTranslator;
 import org.obiba.core.translator.PrefixedValueTranslator;
 import org.obiba.core.translator.TranslationUtils;
 import org.obiba.core.translator.Translator;
-import org.obiba.mica.core.support.RegexHashMap;
+import org.obiba.mica.core.support.FieldPathMatcher;
 import org.obiba.mica.micaConfig.domain.DataCollectionEventConfig;
 import org.obiba.mica.micaConfig.domain.EntityConfig;
 import org.obiba.mica.micaConfig.domain.HarmonizationDatasetConfig;
@@ -29,6 +33,8 @@ import org.obiba.mica.micaConfig.domain.PopulationConfig;
 import org.obiba.mica.micaConfig.domain.ProjectConfig;
 import org.obiba.mica.micaConfig.domain.StudyConfig;
 import org.obiba.mica.micaConfig.domain.StudyDatasetConfig;
+import org.obiba.mica.micaConfig.event.EntityConfigUpdatedEvent;
+import org.obiba.mica.micaConfig.event.MicaConfigUpdatedEvent;
 import org.springframework.stereotype.Component;
 
 import net.minidev.json.JSONArray;
@@ -48,7 +54,52 @@ public class EntityConfigKeyTranslationService {
   private final ProjectConfigService projectConfigService;
   private final StudyDatasetConfigService studyDatasetConfigService;
 
-  private final Map<String, String> beanFieldToTranslationKeyMap;
+  private static final String ANY_POPULATION = "populations" + FieldPathMatcher.ANY_INDEX + ".";
+
+  private static final String ANY_DCE = ANY_POPULATION + "dataCollectionEvents" + FieldPathMatcher.ANY_INDEX + ".";
+
+  private static final Configuration PATH_LIST_CONFIGURATION = Configuration.builder()
+    .options(Option.AS_PATH_LIST, Option.ALWAYS_RETURN_LIST, Option.SUPPRESS_EXCEPTIONS).build();
+
+  private static final Map<String, String> BEAN_FIELD_TRANSLATION_KEYS = ImmutableMap.<String, String>builder()
+    // collected dataset
+    .put("studyTable.project", "dataset.project")
+    .put("studyTable.table", "dataset.table")
+    .put("studyTable.studyId", "study.label")
+    .put("studyTable.populationId", "study.population")
+    .put("studyTable.dataCollectionEventId", "study.data-collection-event")
+    // harmonized dataset
+    .put("studyTables[*].project", "dataset.project")
+    .put("studyTables[*].table", "dataset.table")
+    .put("studyTables[*].studyId", "study.label")
+    .put("studyTables[*].populationId", "study.population")
+    .put("studyTables[*].dataCollectionEventId", "study.data-collection-event")
+    .put("harmonizationTables[*].project", "dataset.project")
+    .put("harmonizationTables[*].table", "dataset.table")
+    .put("harmonizationTables[*].studyId", "study.label")
+    .put("harmonizationTables[*].populationId", "study.population")
+    .put("harmonizationTable.project", "dataset.project")
+    .put("harmonizationTable.table", "dataset.table")
+    .put("harmonizationTable.studyId", "study.label")
+    .put("harmonizationTable.populationId", "study.population")
+    // network
+    .put("studyIds[*]", "studies")
+    // study
+    .put(ANY_DCE + "start.yearMonth", "study.start")
+    .put(ANY_DCE + "end.yearMonth", "study.end")
+    .build();
+
+  private static final Map<String, String> LOCALIZED_BEAN_FIELD_TRANSLATION_KEYS = ImmutableMap.<String, String>builder()
+    .put("studyTable.name", "dataset.table-name")
+    .put("studyTable.description", "dataset.table-description")
+    .put("studyTables[*].name", "dataset.table-name")
+    .put("studyTables[*].description", "dataset.table-description")
+    .put("harmonizationTables[*].name", "dataset.table-name")
+    .put("harmonizationTables[*].description", "dataset.table-description")
+    .build();
+
+  // compiled per entity type and locale, until the forms or the translations are updated
+  private final Cache<String, FieldPathMatcher> translationMatchers = CacheBuilder.newBuilder().maximumSize(100).build();
 
   @Inject
   public EntityConfigKeyTranslationService(MicaConfigService micaConfigService,
@@ -71,54 +122,47 @@ public class EntityConfigKeyTranslationService {
     this.populationConfigService = populationConfigService;
     this.projectConfigService = projectConfigService;
     this.studyDatasetConfigService = studyDatasetConfigService;
+  }
 
-    String joinedLocales = getJoinedLocales();
-
-    beanFieldToTranslationKeyMap = new HashMap<>();
-    // collected dataset
-    beanFieldToTranslationKeyMap.put("studyTable\\.name" + "(" + joinedLocales + ")?", "dataset.table-name");
-    beanFieldToTranslationKeyMap.put("studyTable\\.description" + "(" + joinedLocales + ")?", "dataset.table-description");
-    beanFieldToTranslationKeyMap.put("studyTable\\.project", "dataset.project");
-    beanFieldToTranslationKeyMap.put("studyTable\\.table", "dataset.table");
-    beanFieldToTranslationKeyMap.put("studyTable\\.studyId", "study.label");
-    beanFieldToTranslationKeyMap.put("studyTable\\.populationId", "study.population");
-    beanFieldToTranslationKeyMap.put("studyTable\\.dataCollectionEventId", "study.data-collection-event");
-
-    // harmonized dataset
-    beanFieldToTranslationKeyMap.put("studyTables\\[\\d+\\]\\.name" + "(" + joinedLocales + ")?", "dataset.table-name");
-    beanFieldToTranslationKeyMap.put("studyTables\\[\\d+\\]\\.description" + "(" + joinedLocales + ")?", "dataset.table-description");
-    beanFieldToTranslationKeyMap.put("studyTables\\[\\d+\\]\\.project", "dataset.project");
-    beanFieldToTranslationKeyMap.put("studyTables\\[\\d+\\]\\.table", "dataset.table");
-    beanFieldToTranslationKeyMap.put("studyTables\\[\\d+\\]\\.studyId", "study.label");
-    beanFieldToTranslationKeyMap.put("studyTables\\[\\d+\\]\\.populationId", "study.population");
-    beanFieldToTranslationKeyMap.put("studyTables\\[\\d+\\]\\.dataCollectionEventId", "study.data-collection-event");
-
-    beanFieldToTranslationKeyMap.put("harmonizationTables\\[\\d+\\]\\.name" + "(" + joinedLocales + ")?", "dataset.table-name");
-    beanFieldToTranslationKeyMap.put("harmonizationTables\\[\\d+\\]\\.description" + "(" + joinedLocales + ")?", "dataset.table-description");
-    beanFieldToTranslationKeyMap.put("harmonizationTables\\[\\d+\\]\\.project", "dataset.project");
-    beanFieldToTranslationKeyMap.put("harmonizationTables\\[\\d+\\]\\.table", "dataset.table");
-    beanFieldToTranslationKeyMap.put("harmonizationTables\\[\\d+\\]\\.studyId", "study.label");
-    beanFieldToTranslationKeyMap.put("harmonizationTables\\[\\d+\\]\\.populationId", "study.population");
-
-    beanFieldToTranslationKeyMap.put("harmonizationTable\\.project", "dataset.project");
-    beanFieldToTranslationKeyMap.put("harmonizationTable\\.table", "dataset.table");
-    beanFieldToTranslationKeyMap.put("harmonizationTable\\.studyId", "study.label");
-    beanFieldToTranslationKeyMap.put("harmonizationTable\\.populationId", "study.population");
+  /**
+   * Get the translated labels of the document fields of the given entity type.
+   *
+   * @param serviceTypename
+   * @param locale
+   * @return
+   */
+  public FieldPathMatcher getCompleteConfigTranslationMap(String serviceTypename, String locale) {
+    try {
+      return translationMatchers.get(serviceTypename + ":" + locale,
+        () -> compileCompleteConfigTranslationMap(serviceTypename, locale));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
 
-    // network
-    beanFieldToTranslationKeyMap.put("studyIds\\[\\d+\\]", "studies");
+  @Subscribe
+  public void entityConfigUpdated(EntityConfigUpdatedEvent event) {
+    translationMatchers.invalidateAll();
+  }
 
-    // study
-    beanFieldToTranslationKeyMap.put("populations\\[\\d+\\].dataCollectionEvents\\[\\d+\\]\\.start\\.yearMonth", "study.start");
-    beanFieldToTranslationKeyMap.put("populations\\[\\d+\\].dataCollectionEvents\\[\\d+\\]\\.end\\.yearMonth", "study.end");
+  @Subscribe
+  public void micaConfigUpdated(MicaConfigUpdatedEvent event) {
+    // translations or locales
+    translationMatchers.invalidateAll();
   }
 
-  public RegexHashMap getCompleteConfigTranslationMap(String serviceTypename, String locale) {
-    RegexHashMap translationMap = new RegexHashMap();
+  //
+  // Private methods
+  //
+
+  private FieldPathMatcher compileCompleteConfigTranslationMap(String serviceTypename, String locale) {
+    FieldPathMatcher translationMap = new FieldPathMatcher(getLocales());
 
     Translator translator = JsonTranslator.buildSafeTranslator(() -> micaConfigService.getTranslations(locale, false));
 
-    beanFieldToTranslationKeyMap.forEach((key, translationKey) -> translationMap.put(key, translator.translate(translationKey)));
+    BEAN_FIELD_TRANSLATION_KEYS.forEach((key, translationKey) -> translationMap.put(key, translator.translate(translationKey)));
+    LOCALIZED_BEAN_FIELD_TRANSLATION_KEYS.forEach((key, translationKey) ->
+      translationMap.put(key, translator.translate(translationKey), false, true));
 
     switch (serviceTypename) {
       case "individual-study":
@@ -131,21 +175,21 @@ public class EntityConfigKeyTranslationService {
           StudyConfig individualStudySchemaForm = optionalIndividualStudySchemaForm.get();
           translateSchemaForm(translator, individualStudySchemaForm);
 
-          translationMap.putAll(getTranslationMap(individualStudySchemaForm, ""));
+          addTranslations(translationMap, individualStudySchemaForm, "");
         }
 
         if (optionalPopulationSchemaForm.isPresent()) {
           PopulationConfig populationSchemaForm = optionalPopulationSchemaForm.get();
           translateSchemaForm(translator, populationSchemaForm);
 
-          translationMap.putAll(getTranslationMap(populationSchemaForm, "^populations\\[\\d+\\]\\."));
+          addTranslations(translationMap, populationSchemaForm, ANY_POPULATION);
         }
 
         if (optionalDataCollectionEventSchemaForm.isPresent()) {
           DataCollectionEventConfig dataCollectionEventSchemaForm = optionalDataCollectionEventSchemaForm.get();
           translateSchemaForm(translator, dataCollectionEventSchemaForm);
 
-          translationMap.putAll(getTranslationMap(dataCollectionEventSchemaForm, "^populations\\[\\d+\\]\\.dataCollectionEvents\\[\\d+\\]\\."));
+          addTranslations(translationMap, dataCollectionEventSchemaForm, ANY_DCE);
         }
 
         break;
@@ -159,14 +203,14 @@ public class EntityConfigKeyTranslationService {
           HarmonizationStudyConfig harmonizationStudySchemaForm = optionalHarmonizationStudySchemaForm.get();
           translateSchemaForm(translator, harmonizationStudySchemaForm);
 
-          translationMap.putAll(getTranslationMap(harmonizationStudySchemaForm, ""));
+          addTranslations(translationMap, harmonizationStudySchemaForm, "");
         }
 
         if (optionalHarmonizationPopulationSchemaForm.isPresent()) {
           HarmonizationPopulationConfig harmonizationPopulationSchemaForm = optionalHarmonizationPopulationSchemaForm.get();
           translateSchemaForm(translator, harmonizationPopulationSchemaForm);
 
-          translationMap.putAll(getTranslationMap(harmonizationPopulationSchemaForm, "^populations\\[\\d+\\]\\."));
+          addTranslations(translationMap, harmonizationPopulationSchemaForm, ANY_POPULATION);
         }
 
         break;
@@ -178,7 +222,7 @@ public class EntityConfigKeyTranslationService {
           NetworkConfig networkSchemaForm = optionalNetworkSchemaForm.get();
           translateSchemaForm(translator, networkSchemaForm);
 
-          translationMap.putAll(getTranslationMap(networkSchemaForm, ""));
+          addTranslations(translationMap, networkSchemaForm, "");
         }
 
         break;
@@ -190,7 +234,7 @@ public class EntityConfigKeyTranslationService {
           StudyDatasetConfig studyDatasetSchemaForm = optionalStudyDatasetSchemaForm.get();
           translateSchemaForm(translator, studyDatasetSchemaForm);
 
-          translationMap.putAll(getTranslationMap(studyDatasetSchemaForm, ""));
+          addTranslations(translationMap, studyDatasetSchemaForm, "");
         }
 
         break;
@@ -202,7 +246,7 @@ public class EntityConfigKeyTranslationService {
           HarmonizationDatasetConfig harmonizationDatasetSchemaForm = optionalHarmonizationDatasetSchemaForm.get();
           translateSchemaForm(translator, harmonizationDatasetSchemaForm);
 
-          translationMap.putAll(getTranslationMap(harmonizationDatasetSchemaForm, ""));
+          addTranslations(translationMap, harmonizationDatasetSchemaForm, "");
         }
 
         break;
@@ -214,7 +258,7 @@ public class EntityConfigKeyTranslationService {
           ProjectConfig projectSchemaForm = optionalProjectSchemaForm.get();
           translateSchemaForm(translator, projectSchemaForm);
 
-          translationMap.putAll(getTranslationMap(projectSchemaForm, ""));
+          addTranslations(translationMap, projectSchemaForm, "");
         }
 
         break;
@@ -233,38 +277,34 @@ public class EntityConfigKeyTranslationService {
     config.setDefinition(translationUtils.translate(config.getDefinition(), prefixedValueTranslator));
   }
 
-  private String getJoinedLocales() {
+  private List<String> getLocales() {
     List<String> locales = micaConfigService.getLocales();
-    if (locales == null || locales.size() == 0) locales = Arrays.asList("en");
-    return locales.stream().map(locale -> "\\." + locale).collect(Collectors.joining("|"));
+    return locales == null || locales.size() == 0 ? Arrays.asList("en") : locales;
   }
 
-  private RegexHashMap getTranslationMap(EntityConfig config, String prefix) {
-    String string = config.getSchema();
-
-    JSONArray normalArray = JsonPath.using(Configuration.builder().options(Option.AS_PATH_LIST, Option.ALWAYS_RETURN_LIST, Option.SUPPRESS_EXCEPTIONS).build()).parse(string).read("$..*");
-    JSONArray itemsArray = JsonPath.using(Configuration.builder().options(Option.AS_PATH_LIST, Option.ALWAYS_RETURN_LIST, Option.SUPPRESS_EXCEPTIONS).build()).parse(string).read("$..items");
-
-    RegexHashMap map = new RegexHashMap();
+  private void addTranslations(FieldPathMatcher translationMap, EntityConfig config, String prefix) {
+    // the schema is parsed once for all the paths
+    DocumentContext schema = JsonPath.parse(config.getSchema());
+    Object document = schema.json();
+    List<String> normalPaths = JsonPath.using(PATH_LIST_CONFIGURATION).parse(document).read("$..*");
+    List<String> itemsPaths = JsonPath.using(PATH_LIST_CONFIGURATION).parse(document).read("$..items");
 
-    String joinedLocales = getJoinedLocales();
-
-    normalArray.stream().map(Object::toString)
+    normalPaths.stream().map(Object::toString)
     .filter(key -> key.endsWith("['title']"))
     .forEach(key -> {
-      Object read = JsonPath.parse(string).read(key);
+      Object read = schema.read(key);
       if (read != null) {
         String cleanKey = key.replaceAll("(\\$\\[')|('\\])", "").replaceAll("(\\[')", ".").replaceAll("\\.title$", "").replaceAll("^properties\\.", "").replaceAll("\\.properties", "");
 
-        String processedKey = (cleanKey.startsWith("_") ? prefix : prefix + "model\\.") + Pattern.quote((cleanKey.startsWith("_") ? cleanKey.substring(1) : cleanKey)) + "(\\[\\d+\\])?" + "(" + joinedLocales + ")?";
+        String processedKey = cleanKey.startsWith("_") ? prefix + cleanKey.substring(1) : prefix + "model." + cleanKey;
 
-        map.put(processedKey, read.toString());
+        translationMap.put(processedKey, read.toString(), true, true);
       }
     });
 
-    itemsArray.stream().map(Object::toString)
+    itemsPaths.stream().map(Object::toString)
     .forEach(itemkey -> {
-      Object read = JsonPath.parse(string).read(itemkey);
+      Object read = schema.read(itemkey);
       if (read != null && read instanceof List) {
         JSONArray array = (JSONArray) read;
         array.forEach(arrayItem -> {
@@ -276,15 +316,13 @@ public class EntityConfigKeyTranslationService {
 
             String cleanKey = itemkey.replaceAll("(\\$\\[')|('\\])", "").replaceAll("(\\[')", ".").replaceAll("\\.items$", "").replaceAll("^properties\\.", "").replaceAll("\\.properties", "") + "." + key.toString();
 
-            String processedKey = (cleanKey.startsWith("_") ? prefix : prefix + "model\\.") + Pattern.quote((cleanKey.startsWith("_") ? cleanKey.substring(1) : cleanKey));
+            String processedKey = cleanKey.startsWith("_") ? prefix + cleanKey.substring(1) : prefix + "model." + cleanKey;
 
-            map.put(processedKey, name);
+            translationMap.put(processedKey, name);
           }
         });
       }
     });
-
-    return map;
   }
 
-}
\ No newline at end of file
+}
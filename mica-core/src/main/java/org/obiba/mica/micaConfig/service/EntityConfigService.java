@@ -15,15 +15,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.obiba.mica.micaConfig.domain.EntityConfig;
+import org.obiba.mica.micaConfig.event.EntityConfigUpdatedEvent;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.util.StringUtils;
 
+import javax.inject.Inject;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
@@ -33,6 +36,9 @@ import java.util.Scanner;
 
 public abstract class EntityConfigService<T extends EntityConfig> {
 
+  @Inject
+  private EventBus eventBus;
+
   protected abstract MongoRepository<T, String> getRepository();
 
   protected abstract String getDefaultId();
@@ -40,6 +46,7 @@ public abstract class EntityConfigService<T extends EntityConfig> {
   public void createOrUpdate(T configuration) {
     validateForm(configuration);
     getRepository().save(configuration);
+    eventBus.post(new EntityConfigUpdatedEvent(configuration));
   }
 
   public Optional<T> findPartial() {
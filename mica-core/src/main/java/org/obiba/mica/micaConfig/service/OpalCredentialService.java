@@ -22,10 +22,13 @@ import org.obiba.mica.dataset.service.KeyStoreService;
 import org.obiba.mica.micaConfig.AuthType;
 import org.obiba.mica.micaConfig.NoSuchOpalCredential;
 import org.obiba.mica.micaConfig.domain.OpalCredential;
+import org.obiba.mica.micaConfig.event.OpalCredentialUpdatedEvent;
 import org.obiba.mica.micaConfig.repository.OpalCredentialRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 
+import com.google.common.eventbus.EventBus;
+
 import static java.util.stream.Collectors.toList;
 
 @Service
@@ -41,6 +44,9 @@ public class OpalCredentialService {
   @Inject
   private MicaConfigService micaConfigService;
 
+  @Inject
+  private EventBus eventBus;
+
   public boolean hasOpalCredential(String id) {
     return repository.findOne(id) != null;
   }
@@ -95,6 +101,7 @@ public class OpalCredentialService {
       .orElse(new OpalCredential(opalUrl, AuthType.USERNAME, username, micaConfigService.encrypt(password)));
 
     repository.save(credential);
+    eventBus.post(new OpalCredentialUpdatedEvent(opalUrl));
   }
 
   public void createOrUpdateOpalCredential(String opalUrl, String token) {
@@ -112,6 +119,7 @@ public class OpalCredentialService {
       .orElse(new OpalCredential(opalUrl, AuthType.TOKEN, micaConfigService.encrypt(token)));
 
     repository.save(credential);
+    eventBus.post(new OpalCredentialUpdatedEvent(opalUrl));
   }
 
   public void deleteOpalCredential(String opalUrl) {
@@ -124,6 +132,8 @@ public class OpalCredentialService {
     if(credential.getAuthType() == AuthType.CERTIFICATE) {
       keyStoreService.deleteKeyPair(OpalService.OPAL_KEYSTORE, opalUrl);
     }
+
+    eventBus.post(new OpalCredentialUpdatedEvent(opalUrl));
   }
 
   public void saveOrUpdateOpalCertificateCredential(String opalUrl) {
@@ -139,6 +149,7 @@ public class OpalCredentialService {
       .orElse(new OpalCredential(opalUrl, AuthType.CERTIFICATE));
 
     repository.save(credential);
+    eventBus.post(new OpalCredentialUpdatedEvent(opalUrl));
   }
 
   public String getCertificate(String opalUrl) {
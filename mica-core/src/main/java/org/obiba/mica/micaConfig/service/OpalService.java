@@ -10,14 +10,22 @@
 
 package org.obiba.mica.micaConfig.service;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.math3.util.Pair;
 import org.obiba.magma.support.Initialisables;
 import org.obiba.mica.dataset.service.KeyStoreService;
 import org.obiba.mica.micaConfig.AuthType;
 import org.obiba.mica.micaConfig.domain.OpalCredential;
+import org.obiba.mica.micaConfig.event.OpalCredentialUpdatedEvent;
 import org.obiba.mica.micaConfig.service.helper.OpalServiceHelper;
 import org.obiba.opal.core.cfg.NoSuchTaxonomyException;
 import org.obiba.opal.core.cfg.NoSuchVocabularyException;
@@ -40,10 +48,13 @@ import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Component
@@ -53,7 +64,23 @@ public class OpalService implements EnvironmentAware {
 
   private static final Logger log = LoggerFactory.getLogger(OpalService.class);
 
-  private Map<String, Pair<OpalCredential, RestDatasource>> cachedDatasources = new HashMap<>();
+  private static final long DEFAULT_DATASOURCES_MAX_SIZE = 100;
+
+  private static final long DEFAULT_DATASOURCES_IDLE_TIMEOUT = 30 * 60 * 1000;
+
+  private static final long CREDENTIALS_EXPIRE_TIMEOUT = 60 * 1000;
+
+  // rest datasources by project url, each one being initialized once by the first thread requesting it
+  private Cache<String, DatasourceEntry> cachedDatasources;
+
+  // opal credentials by opal url, saves the lookup and the decryption of the credential on each datasource access
+  private Cache<String, OpalCredential> cachedCredentials;
+
+  private Meter datasourceHits;
+
+  private Meter datasourceMisses;
+
+  private Timer datasourceInitializations;
 
   private RelaxedPropertyResolver opalPropertyResolver;
 
@@ -71,11 +98,40 @@ public class OpalService implements EnvironmentAware {
   @Inject
   private OpalServiceHelper opalServiceHelper;
 
+  @Inject
+  private MetricRegistry metricRegistry;
+
   @Override
   public void setEnvironment(Environment environment) {
     opalPropertyResolver = new RelaxedPropertyResolver(environment, "opal.");
   }
 
+  @PostConstruct
+  public void init() {
+    cachedDatasources = CacheBuilder.newBuilder()
+      .maximumSize(opalPropertyResolver.getProperty("datasources.maxSize", Long.class, DEFAULT_DATASOURCES_MAX_SIZE))
+      .expireAfterAccess(
+        opalPropertyResolver.getProperty("datasources.idleTimeout", Long.class, DEFAULT_DATASOURCES_IDLE_TIMEOUT),
+        TimeUnit.MILLISECONDS)
+      .build();
+    cachedCredentials = CacheBuilder.newBuilder()
+      .expireAfterWrite(CREDENTIALS_EXPIRE_TIMEOUT, TimeUnit.MILLISECONDS)
+      .build();
+
+    datasourceHits = metricRegistry.meter(MetricRegistry.name(OpalService.class, "datasources", "hits"));
+    datasourceMisses = metricRegistry.meter(MetricRegistry.name(OpalService.class, "datasources", "misses"));
+    datasourceInitializations = metricRegistry
+      .timer(MetricRegistry.name(OpalService.class, "datasources", "initializations"));
+  }
+
+  @Subscribe
+  public void opalCredentialUpdated(OpalCredentialUpdatedEvent event) {
+    String opalUrl = event.getOpalUrl();
+    log.debug("Opal credential updated, evicting rest datasources of {}", opalUrl);
+    cachedCredentials.invalidate(opalUrl);
+    cachedDatasources.asMap().values().removeIf(entry -> entry.opalUrl.equals(opalUrl));
+  }
+
   /**
    * Get the datasource from the provided Opal server url.
    *
@@ -83,32 +139,41 @@ public class OpalService implements EnvironmentAware {
    * @param project
    * @return
    */
-  public synchronized RestDatasource getDatasource(@Nullable String opalUrl, String project) {
+  public RestDatasource getDatasource(@Nullable String opalUrl, String project) {
     final String projectUrl = getOpalProjectUrl(opalUrl, project);
-    opalUrl = Strings.isNullOrEmpty(opalUrl) ? getDefaultOpal() : opalUrl;
-
-    OpalCredential opalCredential = getOpalCredential(opalUrl);
+    final String baseUrl = Strings.isNullOrEmpty(opalUrl) ? getDefaultOpal() : opalUrl;
 
-    if (cachedDatasources.containsKey(projectUrl)) {
-      Pair<OpalCredential, RestDatasource> p = cachedDatasources.get(projectUrl);
+    OpalCredential opalCredential = getOpalCredential(baseUrl);
 
-      if (p.getKey().equals(opalCredential)) {
-        log.debug("Using cached rest datasource to " + projectUrl);
-        return p.getValue();
+    DatasourceEntry entry = cachedDatasources.getIfPresent(projectUrl);
+    if (entry != null) {
+      if (entry.opalCredential.equals(opalCredential)) {
+        log.debug("Using cached rest datasource to {}", projectUrl);
+        datasourceHits.mark();
+        return entry.datasource;
       }
 
-      log.debug("Opal credential changed, evicting rest datasource for " + projectUrl);
+      log.debug("Opal credential changed, evicting rest datasource for {}", projectUrl);
 
-      cachedDatasources.remove(projectUrl); //opal credential changed
+      cachedDatasources.asMap().remove(projectUrl, entry); //opal credential changed
     }
 
-    RestDatasource datasource = createRestDatasource(opalCredential, projectUrl, opalUrl, project);
-    Initialisables.initialise(datasource);
-    cachedDatasources.put(projectUrl, Pair.create(opalCredential, datasource));
-
-    log.debug("Initialized rest datasource for " + projectUrl);
-
-    return datasource;
+    try {
+      return cachedDatasources.get(projectUrl, () -> {
+        datasourceMisses.mark();
+        Timer.Context context = datasourceInitializations.time();
+        try {
+          RestDatasource datasource = createRestDatasource(opalCredential, projectUrl, baseUrl, project);
+          Initialisables.initialise(datasource);
+          log.debug("Initialized rest datasource for {}", projectUrl);
+          return new DatasourceEntry(baseUrl, opalCredential, datasource);
+        } finally {
+          context.stop();
+        }
+      }).datasource;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
   }
 
   private RestDatasource createRestDatasource(OpalCredential opalCredential, String projectUrl, String opalUrl,
@@ -351,6 +416,14 @@ public class OpalService implements EnvironmentAware {
   }
 
   private OpalCredential getOpalCredential(String opalUrl) {
+    try {
+      return cachedCredentials.get(opalUrl, () -> findOpalCredential(opalUrl));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private OpalCredential findOpalCredential(String opalUrl) {
     Optional<OpalCredential> opalCredential = opalCredentialService.findOpalCredentialById(opalUrl);
     if (opalCredential.isPresent()) return opalCredential.get();
 
@@ -371,4 +444,19 @@ public class OpalService implements EnvironmentAware {
 
     return opalUrl;
   }
+
+  private static class DatasourceEntry {
+
+    private final String opalUrl;
+
+    private final OpalCredential opalCredential;
+
+    private final RestDatasource datasource;
+
+    private DatasourceEntry(String opalUrl, OpalCredential opalCredential, RestDatasource datasource) {
+      this.opalUrl = opalUrl;
+      this.opalCredential = opalCredential;
+      this.datasource = datasource;
+    }
+  }
 }
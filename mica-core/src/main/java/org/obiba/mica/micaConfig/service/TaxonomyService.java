@@ -10,11 +10,16 @@
 
 package org.obiba.mica.micaConfig.service;
 
-import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
 
@@ -22,6 +27,9 @@ import org.obiba.mica.core.event.DocumentSetUpdatedEvent;
 import org.obiba.mica.dataset.event.DatasetPublishedEvent;
 import org.obiba.mica.dataset.event.DatasetUnpublishedEvent;
 import org.obiba.mica.micaConfig.domain.MicaConfig;
+import org.obiba.mica.micaConfig.event.MicaConfigUpdatedEvent;
+import org.obiba.mica.micaConfig.event.OpalTaxonomiesUpdatedEvent;
+import org.obiba.mica.micaConfig.event.TaxonomiesUpdatedEvent;
 import org.obiba.mica.micaConfig.service.helper.*;
 import org.obiba.mica.network.event.NetworkPublishedEvent;
 import org.obiba.mica.network.event.NetworkUnpublishedEvent;
@@ -30,8 +38,12 @@ import org.obiba.mica.study.event.StudyUnpublishedEvent;
 import org.obiba.opal.core.domain.taxonomy.Taxonomy;
 import org.obiba.opal.core.domain.taxonomy.Term;
 import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Service;
 
 import com.google.common.eventbus.Subscribe;
@@ -39,6 +51,15 @@ import com.google.common.eventbus.Subscribe;
 @Service
 public class TaxonomyService {
 
+  private static final Logger log = LoggerFactory.getLogger(TaxonomyService.class);
+
+  private static final long OPAL_TAXONOMIES_RETRY_DELAY = 60000;
+
+  /**
+   * Publication events are followed by the indexing of the published entities, the rebuild waits for it.
+   */
+  private static final long INVALIDATION_DELAY = 2000;
+
   private OpalService opalService;
 
   private MicaConfigService micaConfigService;
@@ -55,15 +76,28 @@ public class TaxonomyService {
 
   private SetsAggregationMetaDataHelper setsHelper;
 
-  private Taxonomy taxonomyTaxonomy;
+  /**
+   * Published snapshot, never modified: readers do not lock.
+   */
+  private volatile TaxonomySnapshot snapshot;
 
-  private Taxonomy variableTaxonomy;
+  private final ReentrantLock rebuildLock = new ReentrantLock();
 
-  private Taxonomy datasetTaxonomy;
+  /**
+   * Count of the changes that require a new snapshot and count of the changes that the published snapshot covers.
+   */
+  private final AtomicLong refreshRequests = new AtomicLong(1);
+
+  private volatile long coveredRefreshRequests;
 
-  private Taxonomy studyTaxonomy;
+  private final AtomicLong lastOpalTaxonomiesAttempt = new AtomicLong();
 
-  private Taxonomy networkTaxonomy;
+  private final AtomicBoolean invalidationScheduled = new AtomicBoolean();
+
+  /**
+   * Single thread that rebuilds the snapshot and fetches the Opal taxonomies, out of the request threads.
+   */
+  private ThreadPoolTaskScheduler scheduler;
 
   @Inject
   public TaxonomyService(
@@ -85,84 +119,181 @@ public class TaxonomyService {
     this.setsHelper = setsHelper;
   }
 
+  @PostConstruct
+  public void init() {
+    scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setPoolSize(1);
+    scheduler.setThreadNamePrefix("mica-taxonomies-");
+    scheduler.initialize();
+  }
+
+  @PreDestroy
+  public void destroy() {
+    scheduler.shutdown();
+  }
+
+  /**
+   * Get the current state of the taxonomies, to be used when a consistent view of several taxonomies is needed. Only the
+   * very first call builds the snapshot, the next ones are served the last published snapshot while it is rebuilt in
+   * the background.
+   *
+   * @return
+   */
+  @NotNull
+  public TaxonomySnapshot getSnapshot() {
+    TaxonomySnapshot current = snapshot;
+    if(current == null) {
+      rebuild();
+      return snapshot;
+    }
+
+    if(!current.isOpalTaxonomiesLoaded()) retryOpalTaxonomies();
+    return current;
+  }
+
   @NotNull
   public Taxonomy getTaxonomyTaxonomy() {
-    initialize();
-    return taxonomyTaxonomy;
+    return getSnapshot().getTaxonomyTaxonomy();
   }
 
   public boolean metaTaxonomyContains(String taxonomy) {
-    for(Vocabulary target : getTaxonomyTaxonomy().getVocabularies()) {
-      if(hasTerm(target, taxonomy)) return true;
-    }
-    return false;
+    return getSnapshot().metaTaxonomyContains(taxonomy);
   }
 
   @NotNull
   public Taxonomy getNetworkTaxonomy() {
-    initialize();
-    return networkTaxonomy;
+    return getSnapshot().getNetworkTaxonomy();
   }
 
   @NotNull
   public Taxonomy getStudyTaxonomy() {
-    initialize();
-    return studyTaxonomy;
+    return getSnapshot().getStudyTaxonomy();
   }
 
   @NotNull
   public Taxonomy getDatasetTaxonomy() {
-    initialize();
-    return datasetTaxonomy;
+    return getSnapshot().getDatasetTaxonomy();
   }
 
   @NotNull
   public Taxonomy getVariableTaxonomy() {
-    initialize();
-    return variableTaxonomy;
+    return getSnapshot().getVariableTaxonomy();
   }
 
   @NotNull
   public List<Taxonomy> getVariableTaxonomies() {
-    return Stream.concat(getOpalTaxonomies().stream(), Stream.of(getVariableTaxonomy())).collect(Collectors.toList());
+    TaxonomySnapshot current = getSnapshot();
+    return Stream.concat(current.getOpalTaxonomies().stream(), Stream.of(current.getVariableTaxonomy()))
+      .collect(Collectors.toList());
   }
 
   @NotNull
-  public synchronized List<Taxonomy> getOpalTaxonomies() {
-    List<Taxonomy> taxonomies = null;
+  public List<Taxonomy> getOpalTaxonomies() {
+    return getSnapshot().getOpalTaxonomies();
+  }
 
+  /**
+   * Rebuild the taxonomies snapshot in the background, the previous one is served until the new one is published.
+   */
+  public void refresh() {
+    refreshRequests.incrementAndGet();
     try {
-      taxonomies = opalService.getTaxonomies();
-    } catch(Exception e) {
-      // ignore
+      scheduler.execute(this::rebuild);
+    } catch(TaskRejectedException e) {
+      log.warn("Unable to rebuild the taxonomies: {}", e.getMessage());
     }
-
-    return taxonomies == null ? Collections.emptyList() : taxonomies;
   }
 
-  public synchronized void refresh() {
-    taxonomyTaxonomy = null;
-    networkTaxonomy = null;
-    studyTaxonomy = null;
-    datasetTaxonomy = null;
-    variableTaxonomy = null;
+  /**
+   * Mark the snapshot as stale, it will be rebuilt in the background after a short delay so that the changes of a burst
+   * of publications are covered by a single rebuild.
+   */
+  public void invalidate() {
+    refreshRequests.incrementAndGet();
+    if(!invalidationScheduled.compareAndSet(false, true)) return;
+
+    try {
+      scheduler.schedule(() -> {
+        invalidationScheduled.set(false);
+        rebuild();
+      }, new Date(System.currentTimeMillis() + INVALIDATION_DELAY));
+    } catch(TaskRejectedException e) {
+      invalidationScheduled.set(false);
+      log.warn("Unable to rebuild the taxonomies: {}", e.getMessage());
+    }
   }
 
   //
   // Private methods
   //
 
-  private synchronized void initialize() {
-    initializeTaxonomyTaxonomy();
-    initializeNetworkTaxonomy();
-    initializeStudyTaxonomy();
-    initializeDatasetTaxonomy();
-    initializeVariableTaxonomy();
+  /**
+   * Rebuild the snapshot unless a rebuild that started after the last change request has already published it, so that
+   * concurrent requests are coalesced.
+   */
+  private void rebuild() {
+    long requested = refreshRequests.get();
+    rebuildLock.lock();
+    try {
+      if(snapshot != null && coveredRefreshRequests >= requested) return;
+      long covered = refreshRequests.get();
+      TaxonomySnapshot current = snapshot;
+      snapshot = buildSnapshot(current == null ? null : current.getOpalTaxonomies());
+      coveredRefreshRequests = covered;
+    } finally {
+      rebuildLock.unlock();
+    }
   }
 
-  private void initializeTaxonomyTaxonomy() {
-    if(taxonomyTaxonomy != null) return;
-    taxonomyTaxonomy = copy(micaConfigService.getTaxonomyTaxonomy());
+  private TaxonomySnapshot buildSnapshot(List<Taxonomy> previousOpalTaxonomies) {
+    List<Taxonomy> opalTaxonomies = fetchOpalTaxonomies();
+    return new TaxonomySnapshot(buildTaxonomyTaxonomy(), buildNetworkTaxonomy(), buildStudyTaxonomy(),
+      buildDatasetTaxonomy(), buildVariableTaxonomy(), opalTaxonomies == null ? previousOpalTaxonomies : opalTaxonomies);
+  }
+
+  /**
+   * Opal could not be reached when the snapshot was built: try again in the background, at most once per retry delay.
+   */
+  private void retryOpalTaxonomies() {
+    long last = lastOpalTaxonomiesAttempt.get();
+    long now = System.currentTimeMillis();
+    if(now - last < OPAL_TAXONOMIES_RETRY_DELAY || !lastOpalTaxonomiesAttempt.compareAndSet(last, now)) return;
+
+    try {
+      scheduler.execute(() -> {
+        List<Taxonomy> opalTaxonomies = fetchOpalTaxonomies();
+        if(opalTaxonomies != null) updateOpalTaxonomies(opalTaxonomies);
+      });
+    } catch(TaskRejectedException e) {
+      log.debug("Unable to fetch the Opal taxonomies: {}", e.getMessage());
+    }
+  }
+
+  private void updateOpalTaxonomies(List<Taxonomy> opalTaxonomies) {
+    rebuildLock.lock();
+    try {
+      TaxonomySnapshot current = snapshot;
+      if(current != null) snapshot = current.withOpalTaxonomies(opalTaxonomies);
+    } finally {
+      rebuildLock.unlock();
+    }
+  }
+
+  /**
+   * @return null if Opal could not be reached
+   */
+  private List<Taxonomy> fetchOpalTaxonomies() {
+    lastOpalTaxonomiesAttempt.set(System.currentTimeMillis());
+    try {
+      return opalService.getTaxonomies();
+    } catch(Exception e) {
+      log.debug("Unable to fetch the Opal taxonomies: {}", e.getMessage());
+      return null;
+    }
+  }
+
+  private Taxonomy buildTaxonomyTaxonomy() {
+    Taxonomy taxonomyTaxonomy = copy(micaConfigService.getTaxonomyTaxonomy());
     MicaConfig config = micaConfigService.getConfig();
     if(!config.isNetworkEnabled() || config.isSingleNetworkEnabled()) {
       taxonomyTaxonomy.removeVocabulary("network");
@@ -174,35 +305,36 @@ public class TaxonomyService {
     if(config.isSingleStudyEnabled() && !config.isHarmonizationDatasetEnabled()) {
       taxonomyTaxonomy.removeVocabulary("study");
     }
+    return taxonomyTaxonomy;
   }
 
-  private void initializeNetworkTaxonomy() {
-    if(networkTaxonomy != null) return;
-    networkTaxonomy = copy(micaConfigService.getNetworkTaxonomy());
+  private Taxonomy buildNetworkTaxonomy() {
+    Taxonomy networkTaxonomy = copy(micaConfigService.getNetworkTaxonomy());
     networkHelper.applyIdTerms(networkTaxonomy, "id");
     studyHelper.applyIdTerms(networkTaxonomy, "studyIds");
+    return networkTaxonomy;
   }
 
-  private void initializeStudyTaxonomy() {
-    if(studyTaxonomy != null) return;
-    studyTaxonomy = copy(micaConfigService.getStudyTaxonomy());
+  private Taxonomy buildStudyTaxonomy() {
+    Taxonomy studyTaxonomy = copy(micaConfigService.getStudyTaxonomy());
     studyHelper.applyIdTerms(studyTaxonomy, "id");
+    return studyTaxonomy;
   }
 
-  private void initializeDatasetTaxonomy() {
-    if(datasetTaxonomy != null) return;
-    datasetTaxonomy = copy(micaConfigService.getDatasetTaxonomy());
+  private Taxonomy buildDatasetTaxonomy() {
+    Taxonomy datasetTaxonomy = copy(micaConfigService.getDatasetTaxonomy());
     datasetHelper.applyIdTerms(datasetTaxonomy, "id");
+    return datasetTaxonomy;
   }
 
-  private void initializeVariableTaxonomy() {
-    if(variableTaxonomy != null) return;
-    variableTaxonomy = copy(micaConfigService.getVariableTaxonomy());
+  private Taxonomy buildVariableTaxonomy() {
+    Taxonomy variableTaxonomy = copy(micaConfigService.getVariableTaxonomy());
     studyHelper.applyIdTerms(variableTaxonomy, "studyId");
     datasetHelper.applyIdTerms(variableTaxonomy, "datasetId");
     populationHelper.applyIdTerms(variableTaxonomy, "populationId");
     dceHelper.applyIdTerms(variableTaxonomy, "dceId");
     setsHelper.applyIdTerms(variableTaxonomy, "sets");
+    return variableTaxonomy;
   }
 
   private Taxonomy copy(Taxonomy source) {
@@ -226,38 +358,6 @@ public class TaxonomyService {
     return target;
   }
 
-  /**
-   * Check if vocabulary has a term with the given name.
-   *
-   * @param vocabulary
-   * @param name
-   * @return
-   */
-  private boolean hasTerm(Vocabulary vocabulary, String name) {
-    if(!vocabulary.hasTerms()) return false;
-    if(vocabulary.hasTerm(name)) return true;
-    for(Term t : vocabulary.getTerms()) {
-      if(hasTerm(t, name)) return true;
-    }
-    return false;
-  }
-
-  /**
-   * Check if term has a term with the givane name.
-   *
-   * @param term
-   * @param name
-   * @return
-   */
-  private boolean hasTerm(Term term, String name) {
-    if(!term.hasTerms()) return false;
-    if(term.hasTerm(name)) return true;
-    for(Term t : term.getTerms()) {
-      if(hasTerm(t, name)) return true;
-    }
-    return false;
-  }
-
   //
   // Event handling
   //
@@ -265,53 +365,60 @@ public class TaxonomyService {
   @Async
   @Subscribe
   public void networkPublished(NetworkPublishedEvent event) {
-    refresh();
+    invalidate();
   }
 
   @Async
   @Subscribe
   public void networkUnpublished(NetworkUnpublishedEvent event) {
-    refresh();
+    invalidate();
   }
 
   @Async
   @Subscribe
   public void studyPublished(StudyPublishedEvent event) {
-    refresh();
+    invalidate();
   }
 
   @Async
   @Subscribe
   public void studyUnpublished(StudyUnpublishedEvent event) {
-    refresh();
+    invalidate();
   }
 
   @Async
   @Subscribe
   public void datasetPublished(DatasetPublishedEvent event) {
-    refresh();
+    invalidate();
   }
 
   @Async
   @Subscribe
   public void datasetUnpublished(DatasetUnpublishedEvent event) {
-    refresh();
+    invalidate();
   }
 
   @Async
   @Subscribe
   public void documentSetUpdated(DocumentSetUpdatedEvent event) {
+    invalidate();
+  }
+
+  @Async
+  @Subscribe
+  public void micaConfigUpdated(MicaConfigUpdatedEvent event) {
     refresh();
   }
 
-  public void refreshTaxonomyTaxonomyIfNeeded(MicaConfig currentConfig, MicaConfig newConfig) {
-    if (currentConfig.isSingleStudyEnabled() != newConfig.isSingleStudyEnabled()
-      || currentConfig.isNetworkEnabled() != newConfig.isNetworkEnabled()
-      || currentConfig.isSingleNetworkEnabled() != newConfig.isSingleNetworkEnabled()
-      || currentConfig.isStudyDatasetEnabled() != newConfig.isStudyDatasetEnabled()
-      || currentConfig.isHarmonizationDatasetEnabled() != newConfig.isHarmonizationDatasetEnabled()) {
+  @Async
+  @Subscribe
+  public void taxonomiesUpdated(TaxonomiesUpdatedEvent event) {
+    refresh();
+  }
 
-      taxonomyTaxonomy = null;
-    }
+  @Async
+  @Subscribe
+  public void opalTaxonomiesUpdated(OpalTaxonomiesUpdatedEvent event) {
+    if(event.hasOpalTaxonomies()) updateOpalTaxonomies(event.extractOpalTaxonomies());
   }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.micaConfig.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.obiba.opal.core.domain.taxonomy.Taxonomy;
+import org.obiba.opal.core.domain.taxonomy.Term;
+import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+
+/**
+ * Immutable state of the Mica and Opal taxonomies, with the lookups that are needed when building the search results.
+ * A snapshot is never modified once published: the taxonomies it holds must be considered as read-only.
+ */
+public class TaxonomySnapshot {
+
+  private final Taxonomy taxonomyTaxonomy;
+
+  private final Taxonomy networkTaxonomy;
+
+  private final Taxonomy studyTaxonomy;
+
+  private final Taxonomy datasetTaxonomy;
+
+  private final Taxonomy variableTaxonomy;
+
+  private final List<Taxonomy> opalTaxonomies;
+
+  private final boolean opalTaxonomiesLoaded;
+
+  private final Set<String> metaTaxonomyTermNames;
+
+  private final Map<Taxonomy, Lookup> lookups;
+
+  TaxonomySnapshot(Taxonomy taxonomyTaxonomy, Taxonomy networkTaxonomy, Taxonomy studyTaxonomy,
+    Taxonomy datasetTaxonomy, Taxonomy variableTaxonomy, @Nullable List<Taxonomy> opalTaxonomies) {
+    this.taxonomyTaxonomy = taxonomyTaxonomy;
+    this.networkTaxonomy = networkTaxonomy;
+    this.studyTaxonomy = studyTaxonomy;
+    this.datasetTaxonomy = datasetTaxonomy;
+    this.variableTaxonomy = variableTaxonomy;
+    this.opalTaxonomies = opalTaxonomies == null ? Collections.emptyList() : ImmutableList.copyOf(opalTaxonomies);
+    opalTaxonomiesLoaded = opalTaxonomies != null;
+
+    ImmutableSet.Builder<String> termNames = ImmutableSet.builder();
+    if (taxonomyTaxonomy.hasVocabularies()) {
+      taxonomyTaxonomy.getVocabularies().stream().filter(Vocabulary::hasTerms)
+        .forEach(vocabulary -> addTermNames(termNames, vocabulary.getTerms()));
+    }
+    metaTaxonomyTermNames = termNames.build();
+
+    // taxonomies are looked up by identity, the names of the Opal taxonomies could clash with the Mica ones
+    Map<Taxonomy, Lookup> lookupMap = Maps.newIdentityHashMap();
+    for (Taxonomy taxonomy : ImmutableList.<Taxonomy>builder()
+      .add(taxonomyTaxonomy, networkTaxonomy, studyTaxonomy, datasetTaxonomy, variableTaxonomy)
+      .addAll(this.opalTaxonomies).build()) {
+      lookupMap.put(taxonomy, new Lookup(taxonomy));
+    }
+    lookups = Collections.unmodifiableMap(lookupMap);
+  }
+
+  /**
+   * Copy of this snapshot with other Opal taxonomies, the Mica taxonomies are shared.
+   *
+   * @param opalTaxonomies
+   * @return
+   */
+  TaxonomySnapshot withOpalTaxonomies(@Nullable List<Taxonomy> opalTaxonomies) {
+    return new TaxonomySnapshot(taxonomyTaxonomy, networkTaxonomy, studyTaxonomy, datasetTaxonomy, variableTaxonomy,
+      opalTaxonomies);
+  }
+
+  @NotNull
+  public Taxonomy getTaxonomyTaxonomy() {
+    return taxonomyTaxonomy;
+  }
+
+  @NotNull
+  public Taxonomy getNetworkTaxonomy() {
+    return networkTaxonomy;
+  }
+
+  @NotNull
+  public Taxonomy getStudyTaxonomy() {
+    return studyTaxonomy;
+  }
+
+  @NotNull
+  public Taxonomy getDatasetTaxonomy() {
+    return datasetTaxonomy;
+  }
+
+  @NotNull
+  public Taxonomy getVariableTaxonomy() {
+    return variableTaxonomy;
+  }
+
+  @NotNull
+  public List<Taxonomy> getOpalTaxonomies() {
+    return opalTaxonomies;
+  }
+
+  /**
+   * Whether the Opal taxonomies could be fetched when this snapshot was built.
+   *
+   * @return
+   */
+  public boolean isOpalTaxonomiesLoaded() {
+    return opalTaxonomiesLoaded;
+  }
+
+  /**
+   * Check if the taxonomy of taxonomies has a term (at any level) with the given name.
+   *
+   * @param name
+   * @return
+   */
+  public boolean metaTaxonomyContains(String name) {
+    return metaTaxonomyTermNames.contains(name);
+  }
+
+  /**
+   * Get the vocabulary of the taxonomy that is aggregated under the given name, i.e. the vocabulary with this alias or,
+   * if none, with this name.
+   *
+   * @param taxonomy
+   * @param aggregation
+   * @return null if not found
+   */
+  @Nullable
+  public Vocabulary getVocabulary(Taxonomy taxonomy, String aggregation) {
+    if (aggregation == null) return null;
+    return getLookup(taxonomy).vocabulariesByAggregation.get(aggregation);
+  }
+
+  /**
+   * Get the term of the vocabulary that is aggregated under the given name.
+   *
+   * @param taxonomy
+   * @param aggregation
+   * @param termKey
+   * @return null if not found
+   */
+  @Nullable
+  public Term getTerm(Taxonomy taxonomy, String aggregation, String termKey) {
+    if (aggregation == null || termKey == null) return null;
+    Map<String, Term> terms = getLookup(taxonomy).termsByAggregation.get(aggregation);
+    return terms == null ? null : terms.get(termKey);
+  }
+
+  /**
+   * Get the name under which the vocabulary is aggregated: its alias if any, otherwise its name.
+   *
+   * @param vocabulary
+   * @return
+   */
+  public static String getAggregationName(Vocabulary vocabulary) {
+    String alias = vocabulary.getAttributeValue("alias");
+    return Strings.isNullOrEmpty(alias) ? vocabulary.getName() : alias;
+  }
+
+  //
+  // Private methods
+  //
+
+  private Lookup getLookup(Taxonomy taxonomy) {
+    Lookup lookup = lookups.get(taxonomy);
+    // taxonomy from another snapshot
+    return lookup == null ? new Lookup(taxonomy) : lookup;
+  }
+
+  private static void addTermNames(ImmutableSet.Builder<String> termNames, List<Term> terms) {
+    terms.forEach(term -> {
+      termNames.add(term.getName());
+      if (term.hasTerms()) addTermNames(termNames, term.getTerms());
+    });
+  }
+
+  private static class Lookup {
+
+    private final Map<String, Vocabulary> vocabulariesByAggregation;
+
+    private final Map<String, Map<String, Term>> termsByAggregation;
+
+    Lookup(Taxonomy taxonomy) {
+      Map<String, Vocabulary> vocabularies = Maps.newHashMap();
+      Map<String, Map<String, Term>> terms = Maps.newHashMap();
+
+      if (taxonomy.hasVocabularies()) {
+        taxonomy.getVocabularies().forEach(vocabulary -> {
+          String aggregation = getAggregationName(vocabulary);
+          // first vocabulary wins, as when scanning the vocabularies
+          if (vocabularies.containsKey(aggregation)) return;
+          vocabularies.put(aggregation, vocabulary);
+
+          Map<String, Term> vocabularyTerms = Maps.newHashMap();
+          if (vocabulary.hasTerms()) vocabulary.getTerms().forEach(term -> vocabularyTerms.putIfAbsent(term.getName(), term));
+          terms.put(aggregation, ImmutableMap.copyOf(vocabularyTerms));
+        });
+      }
+
+      vocabulariesByAggregation = ImmutableMap.copyOf(vocabularies);
+      termsByAggregation = ImmutableMap.copyOf(terms);
+    }
+  }
+}
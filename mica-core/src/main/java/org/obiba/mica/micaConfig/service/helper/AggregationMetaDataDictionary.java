@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.micaConfig.service.helper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+import org.obiba.mica.core.domain.LocalizedString;
+import org.obiba.mica.core.event.DocumentSetDeletedEvent;
+import org.obiba.mica.core.event.DocumentSetUpdatedEvent;
+import org.obiba.mica.micaConfig.event.MicaConfigUpdatedEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dictionary of the metadata of the published entities terms (study, population, data collection event, dataset,
+ * network and sets), shared by all the queries. The metadata of an aggregation are built once, with a title map per
+ * locale, and are rebuilt only when the corresponding entities have changed.
+ */
+@Component
+public class AggregationMetaDataDictionary {
+
+  public static final String STUDY = "studyIds";
+
+  public static final String POPULATION = "populationId";
+
+  public static final String DCE = "dceId";
+
+  public static final String DATASET = "datasetId";
+
+  public static final String NETWORK = "networkId";
+
+  public static final String SETS = "sets";
+
+  private static final String CACHE_NAME = "aggregations-metadata";
+
+  @Inject
+  private StudyIdAggregationMetaDataHelper studyHelper;
+
+  @Inject
+  private PopulationIdAggregationMetaDataHelper populationHelper;
+
+  @Inject
+  private DceIdAggregationMetaDataHelper dceHelper;
+
+  @Inject
+  private DatasetIdAggregationMetaDataHelper datasetHelper;
+
+  @Inject
+  private NetworkIdAggregationMetaDataHelper networkHelper;
+
+  @Inject
+  private SetsAggregationMetaDataHelper setsHelper;
+
+  @Inject
+  private CacheManager cacheManager;
+
+  private final ConcurrentMap<String, Entry> entries = Maps.newConcurrentMap();
+
+  /**
+   * Get the metadata of a term of one of the aggregations of this dictionary.
+   *
+   * @param aggregation
+   * @param termKey
+   * @param locale
+   * @return null if the aggregation or the term is unknown
+   */
+  @Nullable
+  public AggregationMetaDataProvider.MetaData getMetaData(String aggregation, String termKey, String locale) {
+    if (termKey == null) return null;
+    Entry entry = entries.computeIfAbsent(aggregation, this::newEntry);
+    return entry == null ? null : entry.get(termKey, locale);
+  }
+
+  /**
+   * Rebuild the metadata of the given aggregations from the published entities, on next use. To be called once the
+   * published entities are searchable.
+   *
+   * @param aggregations
+   */
+  public void invalidate(String... aggregations) {
+    Cache cache = cacheManager.getCache(CACHE_NAME);
+    for (String aggregation : aggregations) {
+      String cacheKey = getCacheKey(aggregation);
+      // the cached map could have been computed before the entities were indexed
+      if (cache != null && cacheKey != null) cache.evict(cacheKey);
+      entries.remove(aggregation);
+    }
+  }
+
+  public void invalidateAll() {
+    invalidate(STUDY, POPULATION, DCE, DATASET, NETWORK, SETS);
+  }
+
+  @Subscribe
+  public void documentSetUpdated(DocumentSetUpdatedEvent event) {
+    entries.remove(SETS);
+  }
+
+  @Subscribe
+  public void documentSetDeleted(DocumentSetDeletedEvent event) {
+    entries.remove(SETS);
+  }
+
+  @Subscribe
+  public void micaConfigUpdated(MicaConfigUpdatedEvent event) {
+    // set titles are translated
+    entries.remove(SETS);
+  }
+
+  //
+  // Private methods
+  //
+
+  @Nullable
+  private Entry newEntry(String aggregation) {
+    Supplier<Map<String, AggregationMetaDataProvider.LocalizedMetaData>> source = getSource(aggregation);
+    return source == null ? null : new Entry(source.get());
+  }
+
+  @Nullable
+  private Supplier<Map<String, AggregationMetaDataProvider.LocalizedMetaData>> getSource(String aggregation) {
+    switch (aggregation) {
+      case STUDY:
+        return studyHelper::getStudies;
+      case POPULATION:
+        return populationHelper::getPopulations;
+      case DCE:
+        return dceHelper::getDces;
+      case DATASET:
+        return datasetHelper::getDatasets;
+      case NETWORK:
+        return networkHelper::getNetworks;
+      case SETS:
+        return setsHelper::getSetIds;
+      default:
+        return null;
+    }
+  }
+
+  @Nullable
+  private static String getCacheKey(String aggregation) {
+    switch (aggregation) {
+      case STUDY:
+        return "study";
+      case POPULATION:
+        return "population";
+      case DCE:
+        return "dce";
+      case DATASET:
+        return "dataset";
+      case NETWORK:
+        return "network";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Metadata of the terms of an aggregation, resolved per locale when first requested.
+   */
+  private static class Entry {
+
+    private final Map<String, AggregationMetaDataProvider.LocalizedMetaData> localizedMetaData;
+
+    private final ConcurrentMap<String, Map<String, AggregationMetaDataProvider.MetaData>> metaDataByLocale =
+      Maps.newConcurrentMap();
+
+    Entry(Map<String, AggregationMetaDataProvider.LocalizedMetaData> localizedMetaData) {
+      this.localizedMetaData = ImmutableMap.copyOf(localizedMetaData);
+    }
+
+    AggregationMetaDataProvider.MetaData get(String termKey, String locale) {
+      return metaDataByLocale.computeIfAbsent(Strings.nullToEmpty(locale), this::resolve).get(termKey);
+    }
+
+    private Map<String, AggregationMetaDataProvider.MetaData> resolve(String localeKey) {
+      String locale = Strings.emptyToNull(localeKey);
+      ImmutableMap.Builder<String, AggregationMetaDataProvider.MetaData> builder = ImmutableMap.builder();
+      localizedMetaData.forEach((termKey, md) -> {
+        // entities without title are not described
+        if (md.getTitle() == null) return;
+        builder.put(termKey, AggregationMetaDataProvider.MetaData.newBuilder()
+          .title(get(md.getTitle(), locale))
+          .description(get(md.getDescription(), locale))
+          .className(md.getClassName())
+          .start(md.getStart())
+          .end(md.getEnd())
+          .sortField(md.getSortField())
+          .build());
+      });
+      return builder.build();
+    }
+
+    private static String get(LocalizedString string, String locale) {
+      return string == null || locale == null ? null : string.get(locale);
+    }
+  }
+}
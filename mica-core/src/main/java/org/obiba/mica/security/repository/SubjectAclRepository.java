@@ -30,6 +30,10 @@ public interface SubjectAclRepository extends MongoRepository<SubjectAcl, String
 
   List<SubjectAcl> findByResourceStartingWith(String regex);
 
+  List<SubjectAcl> findByType(SubjectAcl.Type type);
+
+  List<SubjectAcl> findByResourceAndType(String resource, SubjectAcl.Type type);
+
   List<SubjectAcl> findByPrincipalAndTypeAndResourceAndInstance(String principal, SubjectAcl.Type type, String resource, String instance);
 
 }
@@ -14,6 +14,7 @@ import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import org.apache.shiro.SecurityUtils;
@@ -51,9 +52,11 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -77,6 +80,9 @@ public class SubjectAclService {
 
   private Cache<String, Boolean> permissionCache = CacheBuilder.newBuilder().maximumSize(1000).expireAfterWrite(10, TimeUnit.SECONDS).build();
 
+  // principals of the groups having permissions
+  private Cache<SubjectAcl.Type, Set<String>> principalCache = CacheBuilder.newBuilder().build();
+
   /**
    * Apply permissions to the provided subject.
    *
@@ -130,6 +136,29 @@ public class SubjectAclService {
       .anyMatch(SecurityUtils.getSubject()::hasRole);
   }
 
+  /**
+   * Get a key of what the current user can access: its principal, the Mica roles it has and the groups having
+   * permissions it belongs to. The key changes when the user is given or removed a role or a group, so that it can be
+   * used to cache the permitted items.
+   *
+   * @return
+   */
+  public String getSubjectKey() {
+    Subject subject = SecurityUtils.getSubject();
+    Object principal = subject.getPrincipal();
+    if (principal == null) return "_anonymous";
+
+    String roles = Stream.concat(
+      Stream.of(Roles.MICA_DAO, Roles.MICA_ADMIN, Roles.MICA_EDITOR, Roles.MICA_REVIEWER, Roles.MICA_USER),
+      getAclGroups().stream())
+      .distinct()
+      .filter(subject::hasRole)
+      .sorted()
+      .collect(Collectors.joining(","));
+
+    return principal + ":" + roles;
+  }
+
   /**
    * Return if the permission applies to the current user.
    *
@@ -163,6 +192,35 @@ public class SubjectAclService {
     }
   }
 
+  /**
+   * Get the instances of the resource on which the action is permitted to the current user, so that a listing can be
+   * restricted to them by the database.
+   *
+   * @param resource
+   * @param action
+   * @return null if the action is permitted on any instance
+   */
+  @Nullable
+  public Set<String> findPermittedInstances(@NotNull String resource, @NotNull String action) {
+    if (isPermitted(resource, action)) return null;
+
+    Subject subject = SecurityUtils.getSubject();
+    Stream<SubjectAcl> acls = Stream.concat(findBySubject("*", SubjectAcl.Type.USER).stream(),
+      subjectAclRepository.findByResourceAndType(resource, SubjectAcl.Type.GROUP).stream()
+        .filter(acl -> "*".equals(acl.getPrincipal()) || subject.hasRole(acl.getPrincipal())));
+    if (subject.getPrincipal() != null)
+      acls = Stream.concat(acls, findBySubject(subject.getPrincipal().toString(), SubjectAcl.Type.USER).stream());
+
+    Set<String> instances = Sets.newHashSet();
+    for (SubjectAcl acl : (Iterable<SubjectAcl>) acls::iterator) {
+      if (!resource.equals(acl.getResource()) || (acl.hasActions() && !acl.hasAction(action))) continue;
+      if (Strings.isNullOrEmpty(acl.getInstance()) || "*".equals(acl.getInstance())) return null;
+      instances.add(FileUtils.decode(acl.getInstance()));
+    }
+
+    return instances;
+  }
+
   @Timed
   public void checkPermission(@NotNull String resource, @NotNull String action) throws AuthorizationException {
     checkPermission(resource, action, null);
@@ -552,10 +610,26 @@ public class SubjectAclService {
   private void broadcastSubjectAclUpdateEvent(SubjectAcl.Type type, String principal) {
     permissionCache.invalidateAll();
     permissionCache.cleanUp();
+    principalCache.invalidateAll();
 
     eventBus.post(new SubjectAclUpdatedEvent(type.subjectFor(principal)));
   }
 
+  private Set<String> getAclGroups() {
+    try {
+      return principalCache.get(SubjectAcl.Type.GROUP, this::findAclGroups);
+    } catch (ExecutionException e) {
+      return findAclGroups();
+    }
+  }
+
+  private Set<String> findAclGroups() {
+    return subjectAclRepository.findByType(SubjectAcl.Type.GROUP).stream()
+      .map(SubjectAcl::getPrincipal)
+      .filter(group -> !"*".equals(group))
+      .collect(Collectors.toSet());
+  }
+
   private String encode(String instance) {
     return FileUtils.encode(instance);
   }
@@ -10,6 +10,7 @@
 
 package org.obiba.mica.study.service;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -28,4 +29,13 @@ public interface StudyPackageImportService {
    */
   void importZip(InputStream inputStream, boolean publish) throws IOException;
 
+  /**
+   * Import a study package from a zip file on disk, which entries are read in any order without spooling the
+   * attachments.
+   * @param file
+   * @param publish
+   * @throws IOException
+   */
+  void importZip(File file, boolean publish) throws IOException;
+
 }
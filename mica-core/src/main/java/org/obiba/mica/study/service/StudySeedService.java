@@ -97,7 +97,7 @@ public class StudySeedService {
     try {
       if(lock.exists() || !lock.createNewFile()) return;
 
-      studyPackageImportService.importZip(new FileInputStream(zip), true);
+      studyPackageImportService.importZip(zip, true);
     } catch (IOException e) {
       log.error("Failed importing study package seed: {}", zip.getAbsolutePath(), e);
     } finally {
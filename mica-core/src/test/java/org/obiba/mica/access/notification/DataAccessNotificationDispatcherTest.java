@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.access.notification;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.access.DataAccessNotificationRepository;
+import org.obiba.mica.access.domain.DataAccessEntityStatus;
+import org.obiba.mica.access.domain.DataAccessNotification;
+import org.obiba.mica.access.domain.DataAccessRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DataAccessNotificationDispatcherTest {
+
+  private static final long BACKOFF = 60000;
+
+  @InjectMocks
+  private DataAccessNotificationDispatcher dispatcher;
+
+  @Mock
+  private DataAccessNotificationRepository dataAccessNotificationRepository;
+
+  @Spy
+  private MetricRegistry metricRegistry = new MetricRegistry();
+
+  private final List<String> sent = Lists.newArrayList();
+
+  @Before
+  public void setUp() {
+    dispatcher.setEnvironment(new MockEnvironment().withProperty("dar.notifications.maxAttempts", "3")
+      .withProperty("dar.notifications.backoff", String.valueOf(BACKOFF)));
+    dispatcher.init();
+    // the workers run in the draining thread
+    ((ThreadPoolTaskExecutor) ReflectionTestUtils.getField(dispatcher, "executor")).shutdown();
+    ThreadPoolTaskExecutor executor = mock(ThreadPoolTaskExecutor.class);
+    doAnswer(invocation -> {
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(executor).execute(any(Runnable.class));
+    ReflectionTestUtils.setField(dispatcher, "executor", executor);
+    dispatcher.register(DataAccessRequest.class, notification -> sent.add(notification.getId()));
+  }
+
+  @After
+  public void tearDown() {
+    dispatcher.destroy();
+  }
+
+  @Test
+  public void test_drain_sends_repeated_transitions_and_drops_duplicates() {
+    DataAccessNotification submitted = newNotification("n1", DataAccessEntityStatus.OPENED,
+      DataAccessEntityStatus.SUBMITTED, 1);
+    DataAccessNotification duplicate = newNotification("n2", DataAccessEntityStatus.OPENED,
+      DataAccessEntityStatus.SUBMITTED, 1);
+    DataAccessNotification reopened = newNotification("n3", DataAccessEntityStatus.SUBMITTED,
+      DataAccessEntityStatus.OPENED, 2);
+    DataAccessNotification resubmitted = newNotification("n4", DataAccessEntityStatus.OPENED,
+      DataAccessEntityStatus.SUBMITTED, 3);
+    whenDue(submitted, duplicate, reopened, resubmitted);
+
+    dispatcher.drain();
+
+    assertThat(sent).containsExactly("n1", "n3", "n4");
+    verify(dataAccessNotificationRepository).delete(duplicate);
+    verify(dataAccessNotificationRepository).delete(submitted);
+    verify(dataAccessNotificationRepository).delete(reopened);
+    verify(dataAccessNotificationRepository).delete(resubmitted);
+  }
+
+  @Test
+  public void test_failed_notification_is_retried_with_backoff() {
+    dispatcher.register(DataAccessRequest.class, notification -> {
+      throw new IllegalStateException("mail server is down");
+    });
+    DataAccessNotification notification = newNotification("n1", DataAccessEntityStatus.OPENED,
+      DataAccessEntityStatus.SUBMITTED, 1);
+    whenDue(notification);
+
+    long start = DateTime.now().getMillis();
+    dispatcher.drain();
+    verify(dataAccessNotificationRepository).save(notification);
+    assertThat(notification.getAttempts()).isEqualTo(1);
+    assertThat(notification.getLastError()).isEqualTo("mail server is down");
+    assertThat(notification.getNextAttempt().getMillis()).isGreaterThanOrEqualTo(start + BACKOFF);
+
+    // back-off is doubled
+    start = DateTime.now().getMillis();
+    dispatcher.drain();
+    verify(dataAccessNotificationRepository, times(2)).save(notification);
+    assertThat(notification.getAttempts()).isEqualTo(2);
+    assertThat(notification.getNextAttempt().getMillis()).isGreaterThanOrEqualTo(start + 2 * BACKOFF);
+
+    // max attempts reached
+    dispatcher.drain();
+    verify(dataAccessNotificationRepository).delete(notification);
+    verify(dataAccessNotificationRepository, times(2)).save(notification);
+  }
+
+  @Test
+  public void test_notification_without_sender_is_discarded() {
+    DataAccessNotification notification = newNotification("n1", null, DataAccessEntityStatus.OPENED, 0);
+    notification.setEntityType("DataAccessAmendment");
+    whenDue(notification);
+
+    dispatcher.drain();
+
+    verify(dataAccessNotificationRepository).delete(notification);
+    verify(dataAccessNotificationRepository, never()).save(any(DataAccessNotification.class));
+    assertThat(sent).isEmpty();
+  }
+
+  private void whenDue(DataAccessNotification... notifications) {
+    when(dataAccessNotificationRepository.findByNextAttemptLessThanEqual(any(DateTime.class), any(Pageable.class)))
+      .thenReturn(Arrays.asList(notifications));
+  }
+
+  private DataAccessNotification newNotification(String id, DataAccessEntityStatus from, DataAccessEntityStatus to,
+    int transition) {
+    DataAccessNotification notification = new DataAccessNotification();
+    notification.setId(id);
+    notification.setCreatedDate(DateTime.now());
+    notification.setEntityType(DataAccessRequest.class.getSimpleName());
+    notification.setEntityId("dar1");
+    notification.setFrom(from);
+    notification.setTo(to);
+    notification.setTransition(transition);
+    return notification;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.access.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.access.domain.DataAccessEntityStatus;
+import org.obiba.mica.access.domain.DataAccessRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.tests.MongodForTestsFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DataAccessRequestServiceTest {
+
+  private static final DateTime NOW = DateTime.now().withMillisOfSecond(0);
+
+  private static MongodForTestsFactory factory;
+
+  private static MongoTemplate mongoTemplate;
+
+  @InjectMocks
+  private DataAccessRequestService dataAccessRequestService;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    factory = MongodForTestsFactory.with(Version.Main.PRODUCTION);
+    mongoTemplate = new MongoTemplate(factory.newMongo(), "mica-test");
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    factory.shutdown();
+  }
+
+  @Before
+  public void setUp() {
+    // the indexes are kept
+    mongoTemplate.remove(new Query(), DataAccessRequest.class);
+    ReflectionTestUtils.setField(dataAccessRequestService, "mongoTemplate", mongoTemplate);
+
+    save("dar1", "alice", DataAccessEntityStatus.OPENED, NOW.minusDays(3), "{\"title\":\"Diabetes and diet\"}");
+    save("dar2", "bob", DataAccessEntityStatus.SUBMITTED, NOW.minusDays(2), "{\"title\":\"Sleep quality\"}");
+    save("dar3", "alice", DataAccessEntityStatus.SUBMITTED, NOW.minusDays(1), "{\"title\":\"Diet of the elderly\"}");
+    // same last modified date, ordered by identifier
+    save("dar4", "carol", DataAccessEntityStatus.APPROVED, NOW, "{\"title\":\"Air pollution\"}");
+    save("dar5", "bob", DataAccessEntityStatus.OPENED, NOW, "{\"title\":\"Physical activity\"}");
+  }
+
+  @Test
+  public void test_cursor_pages() {
+    List<String> ids = Lists.newArrayList();
+    String cursor = null;
+    int pages = 0;
+    do {
+      DataAccessEntityService.Page<DataAccessRequest> page = dataAccessRequestService
+        .find(DataAccessEntityQuery.newBuilder().cursor(cursor).limit(2).build());
+      assertThat(page.getItems().size()).isLessThanOrEqualTo(2);
+      page.getItems().forEach(request -> ids.add(request.getId()));
+      cursor = page.getNextCursor();
+      pages++;
+    } while (cursor != null);
+
+    assertThat(pages).isEqualTo(3);
+    assertThat(ids).containsExactly("dar5", "dar4", "dar3", "dar2", "dar1");
+  }
+
+  @Test
+  public void test_last_page_has_no_cursor() {
+    DataAccessEntityService.Page<DataAccessRequest> page = dataAccessRequestService
+      .find(DataAccessEntityQuery.newBuilder().limit(5).build());
+
+    assertThat(page.getItems()).hasSize(5);
+    assertThat(page.hasNextCursor()).isFalse();
+  }
+
+  @Test
+  public void test_filters() {
+    assertThat(find(DataAccessEntityQuery.newBuilder().applicant("alice"))).containsExactly("dar3", "dar1");
+    assertThat(find(DataAccessEntityQuery.newBuilder().status(Lists.newArrayList("SUBMITTED", "APPROVED"))))
+      .containsExactly("dar4", "dar3", "dar2");
+    assertThat(find(DataAccessEntityQuery.newBuilder().from(NOW.minusDays(2)).to(NOW.minusDays(1))))
+      .containsExactly("dar3", "dar2");
+    assertThat(find(DataAccessEntityQuery.newBuilder().ids(Sets.newHashSet("dar1", "dar4", "dar9"))))
+      .containsExactly("dar4", "dar1");
+  }
+
+  @Test
+  public void test_text() {
+    assertThat(find(DataAccessEntityQuery.newBuilder().text("dar2"))).containsExactly("dar2");
+    assertThat(find(DataAccessEntityQuery.newBuilder().text("car"))).containsExactly("dar4");
+    assertThat(find(DataAccessEntityQuery.newBuilder().text("diet"))).containsExactly("dar3", "dar1");
+    assertThat(find(DataAccessEntityQuery.newBuilder().text("air pollution"))).containsExactly("dar4");
+  }
+
+  private List<String> find(DataAccessEntityQuery.Builder query) {
+    return dataAccessRequestService.find(query.build()).getItems().stream().map(DataAccessRequest::getId)
+      .collect(Collectors.toList());
+  }
+
+  private void save(String id, String applicant, DataAccessEntityStatus status, DateTime lastModifiedDate,
+    String content) {
+    DataAccessRequest request = new DataAccessRequest();
+    request.setId(id);
+    request.setApplicant(applicant);
+    request.setStatus(status);
+    request.setContent(content);
+    request.setLastModifiedDate(lastModifiedDate);
+    mongoTemplate.insert(request);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.obiba.mica.core.service;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.core.util.FileUtil;
+import org.obiba.git.CommitInfo;
+
+import com.google.common.io.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GitHistoryReaderTest {
+
+  private File root;
+
+  private File bare;
+
+  private Git clone;
+
+  private final GitHistoryReader reader = new GitHistoryReader(100, 1024 * 1024);
+
+  @Before
+  public void setUp() throws Exception {
+    root = Files.createTempDir();
+    bare = new File(root, "study.git");
+    Git.init().setBare(true).setDirectory(bare).call();
+    clone = Git.cloneRepository().setURI(bare.toURI().toString()).setDirectory(new File(root, "study")).call();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtil.delete(root);
+  }
+
+  @Test
+  public void test_history_of_a_file() throws Exception {
+    String first = commit("Study.json", "{\"acronym\":\"S1\"}", "Created");
+    commit("Other.json", "{}", "Other");
+    String second = commit("Study.json", "{\"acronym\":\"S2\"}", "Updated");
+
+    List<CommitInfo> commits = reader.getCommitsInfo(bare, "Study.json", true);
+    assertThat(commits.stream().map(CommitInfo::getCommitId).collect(Collectors.toList()))
+      .containsExactly(second, first);
+    assertThat(commits.get(0).isHead()).isTrue();
+    assertThat(commits.get(1).getComment()).isEqualTo("Created");
+
+    assertThat(reader.getBlob(bare, "Study.json", first)).isEqualTo("{\"acronym\":\"S1\"}");
+    assertThat(reader.getCommitInfo(bare, "Study.json", first).getCommitId()).isEqualTo(first);
+
+    List<String> diffEntries = reader.getDiffEntries(bare, "Study.json", second, null);
+    assertThat(diffEntries).hasSize(1);
+    assertThat(diffEntries.get(0)).contains("-{\"acronym\":\"S1\"}").contains("+{\"acronym\":\"S2\"}");
+    assertThat(reader.getDiffEntries(bare, "Study.json", second, first)).isEqualTo(diffEntries);
+  }
+
+  @Test
+  public void test_history_from_new_head() throws Exception {
+    commit("Study.json", "{\"acronym\":\"S1\"}", "Created");
+    assertThat(reader.getCommitsInfo(bare, "Study.json", true)).hasSize(1);
+
+    commit("Study.json", "{\"acronym\":\"S2\"}", "Updated");
+    assertThat(reader.getCommitsInfo(bare, "Study.json", true)).hasSize(2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_abbreviated_commit_id_is_rejected() throws Exception {
+    String first = commit("Study.json", "{\"acronym\":\"S1\"}", "Created");
+    reader.getBlob(bare, "Study.json", first.substring(0, 7));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_ref_name_is_rejected() throws Exception {
+    commit("Study.json", "{\"acronym\":\"S1\"}", "Created");
+    reader.getBlob(bare, "Study.json", "HEAD");
+  }
+
+  private String commit(String path, String content, String comment) throws Exception {
+    Files.write(content, new File(clone.getRepository().getWorkTree(), path), StandardCharsets.UTF_8);
+    clone.add().addFilepattern(path).call();
+    String commitId = clone.commit().setMessage(comment).call().getName();
+    clone.push().setRemote("origin").call();
+    return commitId;
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.core.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.commons.math3.util.Pair;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.obiba.core.util.FileUtil;
+import org.obiba.git.CommitInfo;
+import org.obiba.git.command.GitCommandHandler;
+import org.obiba.mica.config.JsonConfiguration;
+import org.obiba.mica.config.MongoDbConfiguration;
+import org.obiba.mica.core.domain.GitJournalEntry;
+import org.obiba.mica.core.repository.GitJournalEntryRepository;
+import org.obiba.mica.network.domain.Network;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.data.mongodb.config.AbstractMongoConfiguration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.CustomConversions;
+import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.mongodb.Mongo;
+
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.tests.MongodForTestsFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.obiba.mica.core.domain.LocalizedString.en;
+
+/**
+ * The journal is committed on read only, there is no background writer.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners(DependencyInjectionTestExecutionListener.class)
+@ContextConfiguration(classes = { GitServiceTest.Config.class, JsonConfiguration.class })
+@TestPropertySource(properties = { "git.journal.poolSize=0", "git.journal.maxAttempts=2" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class GitServiceTest {
+
+  @Inject
+  private GitService gitService;
+
+  @Inject
+  private GitJournalEntryRepository gitJournalEntryRepository;
+
+  @Inject
+  private MongoTemplate mongoTemplate;
+
+  @BeforeClass
+  public static void init() {
+    SecurityUtils.setSecurityManager(new DefaultSecurityManager());
+  }
+
+  @Before
+  public void clearDatabase() {
+    mongoTemplate.getDb().dropDatabase();
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    FileUtil.delete(Config.BASE_REPO);
+    FileUtil.delete(Config.BASE_CLONE);
+    Config.BASE_REPO.mkdirs();
+    Config.BASE_CLONE.mkdirs();
+  }
+
+  @Test
+  public void test_revisions_of_an_author_are_committed_at_once_and_tagged() {
+    Network network = newNetwork();
+    runAs("alice", () -> gitService.save(network, "First"));
+    network.setName(en("second"));
+    runAs("alice", () -> gitService.save(network, "Second"));
+    assertThat(gitJournalEntryRepository.findAll()).hasSize(2);
+
+    List<CommitInfo> commits = Lists.newArrayList(gitService.getCommitsInfo(network, Network.class));
+    assertThat(commits).hasSize(1);
+    assertThat(commits.get(0).getAuthorName()).isEqualTo("alice");
+    assertThat(commits.get(0).getComment()).isEqualTo("First; Second");
+    assertThat(gitJournalEntryRepository.findAll()).isEmpty();
+
+    network.setName(en("third"));
+    runAs("bob", () -> gitService.save(network, "Third"));
+    Pair<String, String> tag = gitService.tag(network);
+
+    commits = Lists.newArrayList(gitService.getCommitsInfo(network, Network.class));
+    assertThat(commits).hasSize(2);
+    assertThat(commits.get(0).getAuthorName()).isEqualTo("bob");
+    assertThat(tag.getSecond()).isEqualTo(commits.get(0).getCommitId());
+    assertThat(gitService.readFromTag(network, tag.getFirst(), Network.class).getName().get("en")).isEqualTo("third");
+  }
+
+  @Test
+  public void test_revision_is_quarantined_after_failed_attempts() throws IOException {
+    // the repository cannot be created
+    File networks = new File(Config.BASE_REPO, "networks");
+    assertThat(networks.createNewFile()).isTrue();
+
+    Network network = newNetwork();
+    runAs("alice", () -> gitService.save(network, "First"));
+    assertThat(gitJournalEntryRepository.findPendingRepositories()).containsExactly("networks/" + network.getId());
+
+    // read paths do not fail
+    assertThat(gitService.getCommitsInfo(network, Network.class)).isEmpty();
+    assertThat(gitService.getCommitsInfo(network, Network.class)).isEmpty();
+
+    List<GitJournalEntry> entries = gitJournalEntryRepository.findAll();
+    assertThat(entries).hasSize(1);
+    assertThat(entries.get(0).getAttempts()).isEqualTo(2);
+    assertThat(entries.get(0).isQuarantined()).isTrue();
+    assertThat(entries.get(0).getLastError()).isNotEmpty();
+    assertThat(gitJournalEntryRepository.findPendingRepositories()).isEmpty();
+  }
+
+  private Network newNetwork() {
+    Network network = new Network();
+    network.setId("net");
+    network.setName(en("first"));
+    return network;
+  }
+
+  private void runAs(String principal, Runnable runnable) {
+    Subject subject = new Subject.Builder().principals(new SimplePrincipalCollection(principal, "test"))
+      .authenticated(true).buildSubject();
+    subject.execute(runnable);
+  }
+
+  @Configuration
+  @EnableMongoRepositories("org.obiba.mica.core.repository")
+  static class Config extends AbstractMongoConfiguration {
+
+    static final File BASE_REPO = Files.createTempDir();
+
+    static final File BASE_CLONE = Files.createTempDir();
+
+    static {
+      BASE_REPO.deleteOnExit();
+      BASE_CLONE.deleteOnExit();
+    }
+
+    @Bean
+    public PropertySourcesPlaceholderConfigurer placeHolderConfigurer() {
+      return new PropertySourcesPlaceholderConfigurer();
+    }
+
+    @Bean
+    public GitService gitService() throws IOException {
+      GitService gitService = new GitService();
+      gitService.setRepositoriesRoot(BASE_REPO);
+      gitService.setClonesRoot(BASE_CLONE);
+      return gitService;
+    }
+
+    @Bean
+    public GitCommandHandler gitCommandHandler() throws IOException {
+      return new GitCommandHandler();
+    }
+
+    @Bean
+    public MetricRegistry metricRegistry() {
+      return new MetricRegistry();
+    }
+
+    @Override
+    protected String getDatabaseName() {
+      return "mica-test";
+    }
+
+    @Override
+    public Mongo mongo() throws IOException {
+      return MongodForTestsFactory.with(Version.Main.PRODUCTION).newMongo();
+    }
+
+    @Override
+    @Bean
+    public CustomConversions customConversions() {
+      return new CustomConversions(
+        Lists.newArrayList(new MongoDbConfiguration.LocalizedStringWriteConverter(),
+          new MongoDbConfiguration.LocalizedStringReadConverter()));
+    }
+
+    @Override
+    protected String getMappingBasePackage() {
+      return "org.obiba.mica";
+    }
+  }
+}
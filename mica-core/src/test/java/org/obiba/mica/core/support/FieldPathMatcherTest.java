@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.mica.core.support;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FieldPathMatcherTest {
+
+  @Test
+  public void literalPathTest() {
+    FieldPathMatcher matcher = new FieldPathMatcher(Collections.singletonList("en"));
+
+    matcher.put("populations[2].model.selectionCriteria.criteria", "criteria");
+    matcher.put("model.objectives", "objectives");
+
+    Assert.assertEquals("criteria", matcher.get("populations[2].model.selectionCriteria.criteria"));
+    Assert.assertEquals(null, matcher.get("populations[1].model.selectionCriteria.criteria"));
+    Assert.assertEquals(null, matcher.get("populations2.model.selectionCriteria.criteria"));
+    Assert.assertEquals("objectives", matcher.get("model.objectives"));
+    Assert.assertEquals(null, matcher.get("model"));
+  }
+
+  @Test
+  public void anyIndexTest() {
+    FieldPathMatcher matcher = new FieldPathMatcher(Collections.singletonList("en"));
+
+    matcher.put("populations[*].model.selectionCriteria.criteria", "criteria");
+    matcher.put("populations[*].dataCollectionEvents[*].model.startDate", "startDate");
+
+    Assert.assertEquals("criteria", matcher.get("populations[12].model.selectionCriteria.criteria"));
+    Assert.assertEquals("startDate", matcher.get("populations[14].dataCollectionEvents[3].model.startDate"));
+    Assert.assertEquals(null, matcher.get("populations[4].dataCollectionEvents[-2].model.startDate"));
+    Assert.assertEquals(null, matcher.get("populations[4].dataCollectionEvents.model.startDate"));
+  }
+
+  @Test
+  public void trailingIndexAndLocaleTest() {
+    FieldPathMatcher matcher = new FieldPathMatcher(Arrays.asList("fr", "en"));
+
+    matcher.put("model.objectives", "objectives", false, true);
+    matcher.put("model.keywords", "keywords", true, true);
+
+    Assert.assertEquals("objectives", matcher.get("model.objectives"));
+    Assert.assertEquals("objectives", matcher.get("model.objectives.fr"));
+    Assert.assertEquals(null, matcher.get("model.objectives.de"));
+    Assert.assertEquals(null, matcher.get("model.objectives."));
+    Assert.assertEquals(null, matcher.get("model.objectives[0]"));
+    Assert.assertEquals("keywords", matcher.get("model.keywords[3]"));
+    Assert.assertEquals("keywords", matcher.get("model.keywords[3].en"));
+  }
+
+  @Test
+  public void firstPatternWinsTest() {
+    FieldPathMatcher matcher = new FieldPathMatcher(Collections.singletonList("en"));
+
+    matcher.put("studyTables[*].name", "first", false, true);
+    matcher.put("studyTables[0].name", "literal");
+    matcher.put("studyTables[*].name.en", "second");
+
+    Assert.assertEquals("first", matcher.get("studyTables[1].name.en"));
+    Assert.assertEquals("literal", matcher.get("studyTables[0].name"));
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.service;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.magma.Timestamps;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.type.TextType;
+import org.obiba.mica.core.domain.BaseStudyTable;
+import org.obiba.mica.core.domain.StudyTable;
+import org.obiba.mica.dataset.DatasetCacheResolver;
+import org.obiba.mica.dataset.domain.Dataset;
+import org.obiba.mica.dataset.domain.HarmonizationDataset;
+import org.obiba.mica.dataset.domain.StudyDataset;
+import org.obiba.mica.micaConfig.service.OpalService;
+import org.obiba.opal.rest.client.magma.RestDatasource;
+import org.springframework.cache.Cache;
+import org.springframework.cache.ehcache.EhCacheCache;
+
+import com.google.common.collect.Multimap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DatasetVariablesCacheInvalidatorTest {
+
+  @InjectMocks
+  private DatasetVariablesCacheInvalidator invalidator;
+
+  @Mock
+  private DatasetCacheResolver datasetCacheResolver;
+
+  @Mock
+  private OpalService opalService;
+
+  @Mock
+  private DatasetVariablesCacheWarmer datasetVariablesCacheWarmer;
+
+  @Mock
+  private RestDatasource datasource;
+
+  private CacheManager cacheManager;
+
+  private Cache cache;
+
+  @Before
+  public void setUp() {
+    cacheManager = new CacheManager(new Configuration().name("dataset-variables-test"));
+    net.sf.ehcache.Cache ehcache = new net.sf.ehcache.Cache(new CacheConfiguration("dataset-ds1", 1000));
+    cacheManager.addCache(ehcache);
+    cache = new EhCacheCache(ehcache);
+    when(datasetCacheResolver.getCache(any(Dataset.class))).thenReturn(cache);
+    when(opalService.getDatasource(anyString(), anyString())).thenReturn(datasource);
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.shutdown();
+  }
+
+  @Test
+  public void test_only_the_summaries_of_the_changed_table_are_invalidated() {
+    StudyTable table1 = newTable("s1", "t1");
+    StudyTable table2 = newTable("s2", "t2");
+    HarmonizationDataset dataset = new HarmonizationDataset();
+    dataset.setId("ds1");
+    dataset.addStudyTable(table1);
+    dataset.addStudyTable(table2);
+    setVersion("t1", "v1");
+    setVersion("t2", "v1");
+    invalidator.invalidate(dataset);
+    cache.put("var1:s1:prj:t1", "summary1");
+    cache.put("var1:s2:prj:t2", "summary2");
+
+    setVersion("t2", "v2");
+    invalidator.invalidate(dataset);
+
+    // the summaries are evicted before the method returns, i.e. before the dataset is published
+    assertThat(cache.get("var1:s1:prj:t1")).isNotNull();
+    assertThat(cache.get("var1:s2:prj:t2")).isNull();
+    Multimap<BaseStudyTable, String> staleVariables = captureRefresh(dataset);
+    assertThat(staleVariables.keySet()).containsExactly(table2);
+    assertThat(staleVariables.get(table2)).containsExactly("var1");
+  }
+
+  @Test
+  public void test_unchanged_tables_are_not_invalidated() {
+    StudyDataset dataset = newStudyDataset(newTable("s1", "t1"));
+    setVersion("t1", "v1");
+    invalidator.invalidate(dataset);
+    cache.put("var1", "summary1");
+
+    invalidator.invalidate(dataset);
+
+    assertThat(cache.get("var1")).isNotNull();
+    verify(datasetVariablesCacheWarmer, never()).refresh(any(Dataset.class), any(Multimap.class));
+  }
+
+  @Test
+  public void test_table_change_invalidates_the_collected_dataset() {
+    StudyDataset dataset = newStudyDataset(newTable("s1", "t1"));
+    setVersion("t1", "v1");
+    setVersion("t2", "v1");
+    invalidator.invalidate(dataset);
+    cache.put("var1", "summary1");
+
+    // same timestamp, other table
+    dataset.setStudyTable(newTable("s1", "t2"));
+    invalidator.invalidate(dataset);
+
+    assertThat(cache.get("var1")).isNull();
+    assertThat(cache.get("_version:s1:prj:t1")).isNull();
+    assertThat(cache.get("_version:s1:prj:t2").get()).isEqualTo("v1");
+  }
+
+  @Test
+  public void test_unreachable_table_is_invalidated() {
+    StudyDataset dataset = newStudyDataset(newTable("s1", "t1"));
+    setVersion("t1", "v1");
+    invalidator.invalidate(dataset);
+    cache.put("var1", "summary1");
+
+    when(datasource.getValueTable("t1")).thenThrow(new RuntimeException("Opal is down"));
+    invalidator.invalidate(dataset);
+
+    assertThat(cache.get("var1")).isNull();
+    assertThat(cache.get("_version:s1:prj:t1")).isNull();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Multimap<BaseStudyTable, String> captureRefresh(Dataset dataset) {
+    ArgumentCaptor<Multimap> captor = ArgumentCaptor.forClass(Multimap.class);
+    verify(datasetVariablesCacheWarmer).refresh(eq(dataset), captor.capture());
+    return captor.getValue();
+  }
+
+  private void setVersion(String table, String version) {
+    ValueTable valueTable = mock(ValueTable.class);
+    Timestamps timestamps = mock(Timestamps.class);
+    when(timestamps.getLastUpdate()).thenReturn(TextType.get().valueOf(version));
+    when(valueTable.getTimestamps()).thenReturn(timestamps);
+    when(datasource.getValueTable(table)).thenReturn(valueTable);
+  }
+
+  private StudyDataset newStudyDataset(StudyTable table) {
+    StudyDataset dataset = new StudyDataset();
+    dataset.setId("ds1");
+    dataset.setStudyTable(table);
+    return dataset;
+  }
+
+  private StudyTable newTable(String studyId, String table) {
+    StudyTable studyTable = new StudyTable();
+    studyTable.setStudyId(studyId);
+    studyTable.setProject("prj");
+    studyTable.setTable(table);
+    return studyTable;
+  }
+}
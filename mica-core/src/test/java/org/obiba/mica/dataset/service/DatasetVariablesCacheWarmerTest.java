@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.core.domain.StudyTable;
+import org.obiba.mica.dataset.domain.DatasetVariable;
+import org.obiba.mica.dataset.domain.StudyDataset;
+import org.obiba.mica.micaConfig.service.OpalService;
+import org.obiba.mica.study.service.StudyService;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DatasetVariablesCacheWarmerTest {
+
+  @InjectMocks
+  private DatasetVariablesCacheWarmer warmer;
+
+  @Mock
+  private HarmonizedDatasetService harmonizedDatasetService;
+
+  @Mock
+  private CollectedDatasetService collectedDatasetService;
+
+  @Mock
+  private StudyService studyService;
+
+  @Mock
+  private OpalService opalService;
+
+  @Spy
+  private CacheManager cacheManager = new ConcurrentMapCacheManager();
+
+  private StudyDataset dataset;
+
+  @Before
+  public void setUp() {
+    warmer.setEnvironment(new MockEnvironment());
+    warmer.init();
+
+    StudyTable studyTable = new StudyTable();
+    studyTable.setStudyId("study");
+    dataset = new StudyDataset();
+    dataset.setId("dataset");
+    dataset.setStudyTable(studyTable);
+
+    List<DatasetVariable> variables = Arrays.asList(newVariable("V1"), newVariable("V2"), newVariable("V3"));
+    when(collectedDatasetService.findAllDatasets()).thenReturn(Collections.singletonList(dataset));
+    when(collectedDatasetService.getDatasetVariables(dataset)).thenReturn(variables);
+    when(studyService.findDraft(anyString())).thenThrow(new IllegalStateException("no study"));
+    when(opalService.getDefaultOpal()).thenReturn("https://opal.example.org");
+  }
+
+  @After
+  public void tearDown() {
+    warmer.destroy();
+  }
+
+  @Test
+  public void test_warm_up_builds_the_summaries() throws Exception {
+    assertThat(warmer.start()).isTrue();
+    await().atMost(10, TimeUnit.SECONDS).until(() -> !warmer.getProgress().isRunning());
+
+    DatasetVariablesCacheWarmer.Progress progress = warmer.getProgress();
+    assertThat(progress.getState()).isEqualTo(DatasetVariablesCacheWarmer.State.COMPLETED);
+    assertThat(progress.getTotal()).isEqualTo(3);
+    assertThat(progress.getCompleted()).isEqualTo(3);
+    verify(collectedDatasetService, times(3)).getVariableSummary(any(StudyDataset.class), anyString());
+  }
+
+  @Test
+  public void test_rejected_warm_up_is_not_left_running() throws Exception {
+    ThreadPoolTaskExecutor executor = (ThreadPoolTaskExecutor) ReflectionTestUtils.getField(warmer, "executor");
+    ThreadPoolTaskExecutor rejecting = mock(ThreadPoolTaskExecutor.class);
+    doThrow(new TaskRejectedException("busy")).when(rejecting).execute(any(Runnable.class));
+    ReflectionTestUtils.setField(warmer, "executor", rejecting);
+
+    assertThat(warmer.start()).isFalse();
+    assertThat(warmer.getProgress().getState()).isEqualTo(DatasetVariablesCacheWarmer.State.COMPLETED);
+    assertThat(warmer.getProgress().getFailed()).isEqualTo(1);
+
+    // can be started again
+    ReflectionTestUtils.setField(warmer, "executor", executor);
+    assertThat(warmer.start()).isTrue();
+    await().atMost(10, TimeUnit.SECONDS).until(() -> !warmer.getProgress().isRunning());
+    assertThat(warmer.getProgress().getCompleted()).isEqualTo(3);
+  }
+
+  @Test
+  public void test_rejected_workers_complete_the_warm_up() {
+    // the planning runs, the workers are rejected
+    AtomicInteger submitted = new AtomicInteger();
+    ThreadPoolTaskExecutor rejecting = mock(ThreadPoolTaskExecutor.class);
+    doAnswer(invocation -> {
+      if (submitted.getAndIncrement() > 0) throw new TaskRejectedException("busy");
+      ((Runnable) invocation.getArguments()[0]).run();
+      return null;
+    }).when(rejecting).execute(any(Runnable.class));
+    ReflectionTestUtils.setField(warmer, "executor", rejecting);
+
+    assertThat(warmer.start()).isTrue();
+
+    DatasetVariablesCacheWarmer.Progress progress = warmer.getProgress();
+    assertThat(progress.isRunning()).isFalse();
+    assertThat(progress.getFailed()).isEqualTo(2);
+    assertThat(progress.getFailures()).hasSize(2);
+  }
+
+  @Test
+  public void test_views_are_bounded() {
+    for (int i = 0; i < 10; i++) {
+      warmer.recordView("dataset", "popular");
+    }
+    for (int i = 0; i <= DatasetVariablesCacheWarmer.MAX_VIEWED_VARIABLES; i++) {
+      warmer.recordView("dataset", "V" + i);
+    }
+
+    assertThat(warmer.getViewedVariablesCount()).isLessThanOrEqualTo(DatasetVariablesCacheWarmer.MAX_VIEWED_VARIABLES);
+    assertThat(warmer.getViews("dataset", "popular")).isEqualTo(5);
+  }
+
+  private DatasetVariable newVariable(String name) {
+    DatasetVariable variable = mock(DatasetVariable.class);
+    when(variable.getName()).thenReturn(name);
+    return variable;
+  }
+}
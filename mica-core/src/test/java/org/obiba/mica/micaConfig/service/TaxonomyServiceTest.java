@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.micaConfig.service;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.micaConfig.domain.MicaConfig;
+import org.obiba.mica.micaConfig.service.helper.DatasetIdAggregationMetaDataHelper;
+import org.obiba.mica.micaConfig.service.helper.DceIdAggregationMetaDataHelper;
+import org.obiba.mica.micaConfig.service.helper.NetworkIdAggregationMetaDataHelper;
+import org.obiba.mica.micaConfig.service.helper.PopulationIdAggregationMetaDataHelper;
+import org.obiba.mica.micaConfig.service.helper.SetsAggregationMetaDataHelper;
+import org.obiba.mica.micaConfig.service.helper.StudyIdAggregationMetaDataHelper;
+import org.obiba.opal.core.domain.taxonomy.Taxonomy;
+import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TaxonomyServiceTest {
+
+  @Mock
+  private OpalService opalService;
+
+  @Mock
+  private MicaConfigService micaConfigService;
+
+  @Mock
+  private StudyIdAggregationMetaDataHelper studyHelper;
+
+  @Mock
+  private DatasetIdAggregationMetaDataHelper datasetHelper;
+
+  @Mock
+  private NetworkIdAggregationMetaDataHelper networkHelper;
+
+  @Mock
+  private PopulationIdAggregationMetaDataHelper populationHelper;
+
+  @Mock
+  private DceIdAggregationMetaDataHelper dceHelper;
+
+  @Mock
+  private SetsAggregationMetaDataHelper setsHelper;
+
+  private TaxonomyService taxonomyService;
+
+  @Before
+  public void setUp() {
+    taxonomyService = new TaxonomyService(opalService, micaConfigService, studyHelper, datasetHelper, networkHelper,
+      populationHelper, dceHelper, setsHelper);
+    taxonomyService.init();
+
+    when(micaConfigService.getConfig()).thenReturn(new MicaConfig());
+    when(micaConfigService.getTaxonomyTaxonomy()).thenReturn(newTaxonomyTaxonomy());
+    when(micaConfigService.getNetworkTaxonomy()).thenReturn(new Taxonomy("Mica_network"));
+    when(micaConfigService.getStudyTaxonomy()).thenReturn(new Taxonomy("Mica_study"));
+    when(micaConfigService.getDatasetTaxonomy()).thenReturn(new Taxonomy("Mica_dataset"));
+    when(micaConfigService.getVariableTaxonomy()).thenReturn(new Taxonomy("Mica_variable"));
+    when(opalService.getTaxonomies()).thenReturn(Collections.singletonList(new Taxonomy("Mlstr_area")));
+  }
+
+  @After
+  public void tearDown() {
+    taxonomyService.destroy();
+  }
+
+  @Test
+  public void test_first_read_builds_the_snapshot() {
+    TaxonomySnapshot snapshot = taxonomyService.getSnapshot();
+
+    assertThat(snapshot.getStudyTaxonomy().getName()).isEqualTo("Mica_study");
+    assertThat(snapshot.isOpalTaxonomiesLoaded()).isTrue();
+    assertThat(taxonomyService.getSnapshot()).isSameAs(snapshot);
+    verify(opalService, times(1)).getTaxonomies();
+  }
+
+  @Test
+  public void test_readers_are_served_the_previous_snapshot_during_a_rebuild() throws Exception {
+    TaxonomySnapshot previous = taxonomyService.getSnapshot();
+
+    CountDownLatch building = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(micaConfigService.getStudyTaxonomy()).thenAnswer(invocation -> {
+      building.countDown();
+      release.await();
+      return new Taxonomy("Mica_study");
+    });
+    taxonomyService.refresh();
+    assertThat(building.await(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(taxonomyService.getSnapshot()).isSameAs(previous);
+
+    release.countDown();
+    await().atMost(10, TimeUnit.SECONDS).until(() -> taxonomyService.getSnapshot() != previous);
+  }
+
+  @Test
+  public void test_invalidations_are_coalesced() {
+    TaxonomySnapshot previous = taxonomyService.getSnapshot();
+
+    taxonomyService.invalidate();
+    taxonomyService.invalidate();
+    taxonomyService.invalidate();
+    assertThat(taxonomyService.getSnapshot()).isSameAs(previous);
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> taxonomyService.getSnapshot() != previous);
+    verify(micaConfigService, times(2)).getStudyTaxonomy();
+  }
+
+  @Test
+  public void test_opal_taxonomies_are_kept_when_opal_is_unreachable() {
+    TaxonomySnapshot previous = taxonomyService.getSnapshot();
+    when(opalService.getTaxonomies()).thenThrow(new RuntimeException("Opal is down"));
+
+    taxonomyService.refresh();
+    await().atMost(10, TimeUnit.SECONDS).until(() -> taxonomyService.getSnapshot() != previous);
+
+    assertThat(taxonomyService.getOpalTaxonomies()).extracting("name").containsExactly("Mlstr_area");
+  }
+
+  private Taxonomy newTaxonomyTaxonomy() {
+    Taxonomy taxonomyTaxonomy = new Taxonomy("Mica_taxonomy");
+    for(String name : new String[] { "network", "study", "dataset", "variable" }) {
+      taxonomyTaxonomy.addVocabulary(new Vocabulary(name));
+    }
+    return taxonomyTaxonomy;
+  }
+}
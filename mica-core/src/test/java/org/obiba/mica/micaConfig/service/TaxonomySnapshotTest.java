@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.micaConfig.service;
+
+import org.junit.Test;
+import org.obiba.opal.core.domain.taxonomy.Taxonomy;
+import org.obiba.opal.core.domain.taxonomy.Term;
+import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaxonomySnapshotTest {
+
+  @Test
+  public void test_vocabulary_by_alias_or_name() {
+    Taxonomy variableTaxonomy = new Taxonomy("Mica_variable");
+    variableTaxonomy.addVocabulary(createVocabulary("studyId", "studyIds", "s1", "s2"));
+    variableTaxonomy.addVocabulary(createVocabulary("datasetId", null, "d1"));
+    TaxonomySnapshot snapshot = createSnapshot(variableTaxonomy, null);
+
+    assertThat(snapshot.getVocabulary(variableTaxonomy, "studyIds").getName()).isEqualTo("studyId");
+    assertThat(snapshot.getVocabulary(variableTaxonomy, "studyId")).isNull();
+    assertThat(snapshot.getVocabulary(variableTaxonomy, "datasetId").getName()).isEqualTo("datasetId");
+    assertThat(snapshot.getTerm(variableTaxonomy, "studyIds", "s2").getName()).isEqualTo("s2");
+    assertThat(snapshot.getTerm(variableTaxonomy, "studyIds", "d1")).isNull();
+  }
+
+  @Test
+  public void test_lookup_of_taxonomy_from_another_snapshot() {
+    Taxonomy variableTaxonomy = new Taxonomy("Mica_variable");
+    variableTaxonomy.addVocabulary(createVocabulary("datasetId", null, "d1"));
+    TaxonomySnapshot snapshot = createSnapshot(new Taxonomy("Mica_variable"), null);
+
+    assertThat(snapshot.getTerm(variableTaxonomy, "datasetId", "d1")).isNotNull();
+  }
+
+  @Test
+  public void test_meta_taxonomy_contains_nested_terms() {
+    Taxonomy taxonomyTaxonomy = new Taxonomy("Mica_taxonomy");
+    Vocabulary variable = createVocabulary("variable", null, "Mica_variable");
+    Term opal = new Term("Opal");
+    opal.addTerm(new Term("Mlstr_area"));
+    variable.addTerm(opal);
+    taxonomyTaxonomy.addVocabulary(variable);
+
+    TaxonomySnapshot snapshot = new TaxonomySnapshot(taxonomyTaxonomy, new Taxonomy("Mica_network"),
+      new Taxonomy("Mica_study"), new Taxonomy("Mica_dataset"), new Taxonomy("Mica_variable"), null);
+
+    assertThat(snapshot.metaTaxonomyContains("Mica_variable")).isTrue();
+    assertThat(snapshot.metaTaxonomyContains("Mlstr_area")).isTrue();
+    assertThat(snapshot.metaTaxonomyContains("Mlstr_harmo")).isFalse();
+  }
+
+  @Test
+  public void test_opal_taxonomies_loaded() {
+    TaxonomySnapshot snapshot = createSnapshot(new Taxonomy("Mica_variable"), null);
+    assertThat(snapshot.isOpalTaxonomiesLoaded()).isFalse();
+    assertThat(snapshot.getOpalTaxonomies()).isEmpty();
+
+    Taxonomy opalTaxonomy = new Taxonomy("Mlstr_area");
+    TaxonomySnapshot updated = snapshot.withOpalTaxonomies(Collections.singletonList(opalTaxonomy));
+    assertThat(updated.isOpalTaxonomiesLoaded()).isTrue();
+    assertThat(updated.getOpalTaxonomies()).containsExactly(opalTaxonomy);
+    assertThat(updated.getVariableTaxonomy()).isSameAs(snapshot.getVariableTaxonomy());
+  }
+
+  private TaxonomySnapshot createSnapshot(Taxonomy variableTaxonomy, Taxonomy opalTaxonomy) {
+    return new TaxonomySnapshot(new Taxonomy("Mica_taxonomy"), new Taxonomy("Mica_network"),
+      new Taxonomy("Mica_study"), new Taxonomy("Mica_dataset"), variableTaxonomy,
+      opalTaxonomy == null ? null : Collections.singletonList(opalTaxonomy));
+  }
+
+  private Vocabulary createVocabulary(String name, String alias, String... terms) {
+    Vocabulary vocabulary = new Vocabulary(name);
+    if (alias != null) vocabulary.addAttribute("alias", alias);
+    for (String term : terms) vocabulary.addTerm(new Term(term));
+    return vocabulary;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.micaConfig.service.helper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.core.domain.LocalizedString;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import com.google.common.collect.ImmutableMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AggregationMetaDataDictionaryTest {
+
+  @InjectMocks
+  private AggregationMetaDataDictionary dictionary;
+
+  @Mock
+  private StudyIdAggregationMetaDataHelper studyHelper;
+
+  @Mock
+  private DatasetIdAggregationMetaDataHelper datasetHelper;
+
+  @Mock
+  private CacheManager cacheManager;
+
+  @Mock
+  private Cache cache;
+
+  @Test
+  public void test_localized_metadata() {
+    when(studyHelper.getStudies()).thenReturn(ImmutableMap.of("s1",
+      new AggregationMetaDataProvider.LocalizedMetaData(LocalizedString.en("S1").forFr("E1"),
+        LocalizedString.en("Study 1"), "Study", "2000", "2010")));
+
+    AggregationMetaDataProvider.MetaData en = dictionary.getMetaData(AggregationMetaDataDictionary.STUDY, "s1", "en");
+    assertThat(en.getTitle()).isEqualTo("S1");
+    assertThat(en.getDescription()).isEqualTo("Study 1");
+    assertThat(en.getStart()).isEqualTo("2000");
+    assertThat(dictionary.getMetaData(AggregationMetaDataDictionary.STUDY, "s1", "fr").getTitle()).isEqualTo("E1");
+    assertThat(dictionary.getMetaData(AggregationMetaDataDictionary.STUDY, "s2", "en")).isNull();
+    assertThat(dictionary.getMetaData("unknown", "s1", "en")).isNull();
+
+    verify(studyHelper, times(1)).getStudies();
+  }
+
+  @Test
+  public void test_invalidate_one_aggregation() {
+    when(cacheManager.getCache("aggregations-metadata")).thenReturn(cache);
+    when(studyHelper.getStudies()).thenReturn(ImmutableMap.of("s1",
+      new AggregationMetaDataProvider.LocalizedMetaData(LocalizedString.en("S1"), LocalizedString.en("Study 1"), "Study")));
+    when(datasetHelper.getDatasets()).thenReturn(ImmutableMap.of("d1",
+      new AggregationMetaDataProvider.LocalizedMetaData(LocalizedString.en("D1"), LocalizedString.en("Dataset 1"),
+        "StudyDataset")));
+
+    dictionary.getMetaData(AggregationMetaDataDictionary.STUDY, "s1", "en");
+    dictionary.getMetaData(AggregationMetaDataDictionary.DATASET, "d1", "en");
+    dictionary.invalidate(AggregationMetaDataDictionary.DATASET);
+    dictionary.getMetaData(AggregationMetaDataDictionary.STUDY, "s1", "en");
+    dictionary.getMetaData(AggregationMetaDataDictionary.DATASET, "d1", "en");
+
+    verify(cache).evict("dataset");
+    verify(studyHelper, times(1)).getStudies();
+    verify(datasetHelper, times(2)).getDatasets();
+  }
+}
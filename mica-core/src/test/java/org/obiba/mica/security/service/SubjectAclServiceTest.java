@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.security.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.shiro.subject.Subject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.AbstractShiroTest;
+import org.obiba.mica.security.Roles;
+import org.obiba.mica.security.domain.SubjectAcl;
+import org.obiba.mica.security.repository.SubjectAclRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SubjectAclServiceTest extends AbstractShiroTest {
+
+  private static final String RESOURCE = "/data-access-request";
+
+  @InjectMocks
+  private SubjectAclService subjectAclService;
+
+  @Mock
+  private SubjectAclRepository subjectAclRepository;
+
+  @Mock
+  private Subject subject;
+
+  @Before
+  public void setUp() {
+    when(subject.getPrincipal()).thenReturn("alice");
+    when(subject.hasRole("reviewers")).thenReturn(true);
+    setSubject(subject);
+  }
+
+  @After
+  public void tearDown() {
+    clearSubject();
+  }
+
+  @Test
+  public void test_no_restriction_when_any_instance_is_permitted() {
+    when(subject.isPermitted(RESOURCE + ":VIEW")).thenReturn(true);
+
+    assertThat(subjectAclService.findPermittedInstances(RESOURCE, "VIEW")).isNull();
+  }
+
+  @Test
+  public void test_instances_permitted_to_the_user_and_its_groups() {
+    when(subjectAclRepository.findByPrincipalAndType("alice", SubjectAcl.Type.USER)).thenReturn(Arrays.asList(
+      newAcl("alice", SubjectAcl.Type.USER, RESOURCE, "dar1", "VIEW", "EDIT"),
+      newAcl("alice", SubjectAcl.Type.USER, RESOURCE, "dar2", "EDIT"),
+      newAcl("alice", SubjectAcl.Type.USER, "/network", "net1", "VIEW")));
+    when(subjectAclRepository.findByPrincipalAndType("*", SubjectAcl.Type.USER)).thenReturn(Collections.emptyList());
+    when(subjectAclRepository.findByResourceAndType(RESOURCE, SubjectAcl.Type.GROUP)).thenReturn(Arrays.asList(
+      newAcl("reviewers", SubjectAcl.Type.GROUP, RESOURCE, "dar3", "VIEW"),
+      newAcl("editors", SubjectAcl.Type.GROUP, RESOURCE, "dar4", "VIEW")));
+
+    assertThat(subjectAclService.findPermittedInstances(RESOURCE, "VIEW")).containsOnly("dar1", "dar3");
+  }
+
+  @Test
+  public void test_no_restriction_when_permitted_on_all_instances() {
+    when(subjectAclRepository.findByPrincipalAndType(anyString(), SubjectAcl.Type.USER))
+      .thenReturn(Collections.emptyList());
+    when(subjectAclRepository.findByResourceAndType(RESOURCE, SubjectAcl.Type.GROUP)).thenReturn(Arrays.asList(
+      newAcl("reviewers", SubjectAcl.Type.GROUP, RESOURCE, "dar3", "VIEW"),
+      newAcl("reviewers", SubjectAcl.Type.GROUP, RESOURCE, "*", "VIEW")));
+
+    assertThat(subjectAclService.findPermittedInstances(RESOURCE, "VIEW")).isNull();
+  }
+
+  @Test
+  public void test_subject_key_has_the_roles_and_groups() {
+    when(subject.hasRole(Roles.MICA_USER)).thenReturn(true);
+    when(subjectAclRepository.findByType(SubjectAcl.Type.GROUP)).thenReturn(Arrays.asList(
+      newAcl("reviewers", SubjectAcl.Type.GROUP, RESOURCE, "dar3", "VIEW"),
+      newAcl("editors", SubjectAcl.Type.GROUP, RESOURCE, "dar4", "VIEW")));
+
+    String key = subjectAclService.getSubjectKey();
+    assertThat(key).isEqualTo("alice:" + Roles.MICA_USER + ",reviewers");
+
+    when(subject.hasRole("editors")).thenReturn(true);
+    assertThat(subjectAclService.getSubjectKey()).isNotEqualTo(key);
+  }
+
+  private SubjectAcl newAcl(String principal, SubjectAcl.Type type, String resource, String instance,
+    String... actions) {
+    return SubjectAcl.newBuilder(principal, type).resource(resource).instance(instance).action(actions).build();
+  }
+}
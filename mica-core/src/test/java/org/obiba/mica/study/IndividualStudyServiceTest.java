@@ -72,6 +72,7 @@ import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
 import com.google.common.io.Files;
@@ -368,6 +369,11 @@ public class IndividualStudyServiceTest {
       return new GitCommandHandler();
     }
 
+    @Bean
+    public MetricRegistry metricRegistry() {
+      return new MetricRegistry();
+    }
+
     @Bean
     public PublishedStudyService publishedStudyService() {
       return mock(PublishedStudyService.class);
@@ -17,7 +17,7 @@ import org.obiba.mica.core.domain.EntityState;
 import org.obiba.mica.core.domain.GitPersistable;
 import org.obiba.mica.core.service.AbstractGitPersistableService;
 import org.obiba.mica.core.service.DocumentDifferenceService;
-import org.obiba.mica.core.support.RegexHashMap;
+import org.obiba.mica.core.support.FieldPathMatcher;
 import org.obiba.mica.micaConfig.service.EntityConfigKeyTranslationService;
 import org.obiba.mica.micaConfig.service.MicaConfigService;
 import org.obiba.mica.security.service.SubjectAclService;
@@ -140,14 +140,15 @@ public abstract class AbstractGitPersistableResource<T extends EntityState, T1 e
   public Response diff(@NotNull @QueryParam("left") String left, @NotNull @QueryParam("right") String right, @QueryParam("locale") @DefaultValue("en") String locale) {
     checkPermission("/draft/" + getService().getTypeName(), "VIEW");
 
-    T1 leftCommit = getService().getFromCommit(getService().findDraft(getId()), left);
-    T1 rightCommit = getService().getFromCommit(getService().findDraft(getId()), right);
+    T1 draft = getService().findDraft(getId());
+    T1 leftCommit = getService().getRevision(draft, left);
+    T1 rightCommit = getService().getRevision(draft, right);
 
     Map<String, Object> data = new HashMap<>();
 
     try {
       MapDifference<String, Object> difference = DocumentDifferenceService.diff(leftCommit, rightCommit);
-      RegexHashMap completeConfigTranslationMap = entityConfigKeyTranslationService.getCompleteConfigTranslationMap(getService().getTypeName(), locale);
+      FieldPathMatcher completeConfigTranslationMap = entityConfigKeyTranslationService.getCompleteConfigTranslationMap(getService().getTypeName(), locale);
 
       data = DocumentDifferenceService.withTranslations(difference, completeConfigTranslationMap);
 
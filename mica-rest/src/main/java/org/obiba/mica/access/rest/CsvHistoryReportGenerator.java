@@ -47,13 +47,18 @@ public class CsvHistoryReportGenerator implements CsvReportGenerator {
   @Override
   public void write(OutputStream outputStream, boolean omitHeader) {
     try (CSVWriter writer = new CSVWriter(new PrintWriter(outputStream))) {
-      if (!omitHeader) writeHeader(writer);
-      writeBody(writer);
+      write(writer, omitHeader);
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
   }
 
+  @Override
+  public void write(CSVWriter writer, boolean omitHeader) {
+    if (!omitHeader) writeHeader(writer);
+    writeBody(writer);
+  }
+
   @Override
   public void write(OutputStream outputStream) {
     write(outputStream, false);
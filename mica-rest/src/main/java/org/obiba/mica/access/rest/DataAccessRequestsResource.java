@@ -11,6 +11,7 @@
 package org.obiba.mica.access.rest;
 
 import com.codahale.metrics.annotation.Timed;
+import com.google.common.base.Strings;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authz.annotation.RequiresAuthentication;
@@ -21,6 +22,8 @@ import org.obiba.mica.access.domain.DataAccessAmendment;
 import org.obiba.mica.access.domain.DataAccessEntityStatus;
 import org.obiba.mica.access.domain.DataAccessRequest;
 import org.obiba.mica.access.service.DataAccessAmendmentService;
+import org.obiba.mica.access.service.DataAccessEntityQuery;
+import org.obiba.mica.access.service.DataAccessEntityService;
 import org.obiba.mica.access.service.DataAccessRequestService;
 import org.obiba.mica.micaConfig.domain.DataAccessAmendmentForm;
 import org.obiba.mica.micaConfig.domain.DataAccessForm;
@@ -36,6 +39,8 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -81,10 +86,44 @@ public class DataAccessRequestsResource {
   @Inject
   private UserProfileService userProfileService;
 
+  /**
+   * List the permitted requests, last modified first. When a limit is specified, the cursor of the next page, if any,
+   * is returned in the X-Next-Cursor header.
+   *
+   * @param status
+   * @param applicant
+   * @param from lower bound of the last modified date (ISO 8601)
+   * @param to upper bound of the last modified date (ISO 8601)
+   * @param query text that starts the identifier or the applicant, or phrase to be found in the content
+   * @param cursor
+   * @param limit
+   * @param response
+   * @return
+   */
   @GET
   @Timed
-  public List<Mica.DataAccessRequestDto> listByStatus(@QueryParam("status") List<String> status) {
-    return dtos.asDtoList(listByStatusFilteringPermitted(status));
+  public List<Mica.DataAccessRequestDto> listByStatus(@QueryParam("status") List<String> status,
+                                                      @QueryParam("applicant") String applicant,
+                                                      @QueryParam("from") String from,
+                                                      @QueryParam("to") String to,
+                                                      @QueryParam("query") String query,
+                                                      @QueryParam("cursor") String cursor,
+                                                      @QueryParam("limit") @DefaultValue("0") int limit,
+                                                      @Context HttpServletResponse response) {
+    if (limit < 0) throw new IllegalArgumentException("limit cannot be negative");
+
+    DataAccessEntityService.Page<DataAccessRequest> page = dataAccessRequestService.find(newPermittedQuery()
+      .status(status)
+      .applicant(applicant)
+      .from(parseDate("from", from))
+      .to(parseDate("to", to))
+      .text(query)
+      .cursor(cursor)
+      .limit(limit)
+      .build());
+    if (page.hasNextCursor()) response.addHeader("X-Next-Cursor", page.getNextCursor());
+
+    return dtos.asDtoList(filteringPermitted(page.getItems()));
   }
 
   @GET
@@ -170,18 +209,24 @@ public class DataAccessRequestsResource {
   }
 
   private Map<DataAccessRequest, List<DataAccessAmendment>> listAllWithAmendments() {
-    return dataAccessRequestService.findAll(null)
+    return filteringPermitted(dataAccessRequestService.find(newPermittedQuery().build()).getItems())
       .stream()
-      .filter(req -> subjectAclService.isPermitted("/data-access-request", "VIEW", req.getId())) //
       .collect(Collectors.toMap(req -> req, req -> dataAccessAmendmentService.findByParentId(req.getId())));
   }
 
   private List<DataAccessRequest> listByApplicantFilteringPermitted(String applicant) {
-    return filteringPermitted(dataAccessRequestService.findAll(applicant));
+    return filteringPermitted(
+      dataAccessRequestService.find(newPermittedQuery().applicant(applicant).build()).getItems());
   }
 
-  private List<DataAccessRequest> listByStatusFilteringPermitted(List<String> status) {
-    return filteringPermitted(dataAccessRequestService.findByStatus(status));
+  /**
+   * Query restricted to the requests the current user has explicit permissions on, unless they can view any request.
+   *
+   * @return
+   */
+  private DataAccessEntityQuery.Builder newPermittedQuery() {
+    return DataAccessEntityQuery.newBuilder()
+      .ids(subjectAclService.findPermittedInstances("/data-access-request", "VIEW"));
   }
 
   private List<DataAccessRequest> filteringPermitted(List<DataAccessRequest> reqs) {
@@ -189,4 +234,13 @@ public class DataAccessRequestsResource {
       .filter(req -> subjectAclService.isPermitted("/data-access-request", "VIEW", req.getId())) //
       .collect(Collectors.toList());
   }
+
+  private DateTime parseDate(String name, String value) {
+    if (Strings.isNullOrEmpty(value)) return null;
+    try {
+      return DateTime.parse(value);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(String.format("Invalid %s date, ISO 8601 expected: %s", name, value));
+    }
+  }
 }
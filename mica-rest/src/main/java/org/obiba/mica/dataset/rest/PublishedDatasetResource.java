@@ -17,6 +17,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 
 import org.apache.shiro.SecurityUtils;
+import org.obiba.mica.core.domain.StudyTable;
 import org.obiba.mica.dataset.NoSuchDatasetException;
 import org.obiba.mica.dataset.domain.Dataset;
 import org.obiba.mica.dataset.domain.DatasetVariable;
@@ -26,6 +27,7 @@ import org.obiba.mica.dataset.service.PublishedDatasetService;
 import org.obiba.mica.micaConfig.service.MicaConfigService;
 import org.obiba.mica.web.model.Dtos;
 import org.obiba.mica.web.model.Mica;
+import org.springframework.beans.BeanUtils;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
@@ -87,9 +89,14 @@ public class PublishedDatasetResource {
     Dataset dataset = getDataset(id);
     if (!(dataset instanceof StudyDataset)) throw NoSuchDatasetException.withId(id);
 
-    StudyDataset asStudyDataset = (StudyDataset) dataset;
-    asStudyDataset.getStudyTable().setProject(project);
-    asStudyDataset.getStudyTable().setTable(table);
+    // the published dataset is shared, the alternative table is set in a copy
+    StudyDataset asStudyDataset = new StudyDataset();
+    BeanUtils.copyProperties(dataset, asStudyDataset, "studyTable");
+    StudyTable studyTable = new StudyTable();
+    BeanUtils.copyProperties(((StudyDataset) dataset).getStudyTable(), studyTable);
+    studyTable.setProject(project);
+    studyTable.setTable(table);
+    asStudyDataset.setStudyTable(studyTable);
 
     return asStudyDataset;
   }
@@ -119,7 +119,6 @@ public class MicaConfigResource {
   @RequiresRoles(Roles.MICA_ADMIN)
   public Response create(@SuppressWarnings("TypeMayBeWeakened") Mica.MicaConfigDto dto) {
     MicaConfig micaConfig = dtos.fromDto(dto);
-    taxonomyService.refreshTaxonomyTaxonomyIfNeeded(micaConfigService.getConfig(), micaConfig);
     micaConfigService.save(micaConfig);
     return Response.noContent().build();
   }
@@ -11,6 +11,8 @@
 package org.obiba.mica.study.rest;
 
 import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -23,11 +25,14 @@ import org.obiba.mica.file.service.FileSystemService;
 import org.obiba.mica.security.service.SubjectAclService;
 import org.obiba.mica.study.NoSuchStudyException;
 import org.obiba.mica.study.domain.BaseStudy;
+import org.obiba.mica.study.domain.DataCollectionEvent;
+import org.obiba.mica.study.domain.Population;
 import org.obiba.mica.study.service.PublishedStudyService;
 import org.obiba.mica.study.service.StudyService;
 import org.obiba.mica.web.model.Dtos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.context.ApplicationContext;
 
 
@@ -87,11 +92,13 @@ public abstract class AbstractPublishedStudyResource {
   }
 
   protected BaseStudy getStudy(String id, String locale) {
-    BaseStudy study = publishedStudyService.findById(id);
+    BaseStudy published = publishedStudyService.findById(id);
 
-    if (study == null)
+    if (published == null)
       throw NoSuchStudyException.withId(id);
 
+    // the published study is shared, the models are translated in a copy
+    BaseStudy study = copyModelAwares(published);
     translateModels(locale, study);
 
     log.debug("Study acronym {}", study.getAcronym());
@@ -109,4 +116,34 @@ public abstract class AbstractPublishedStudyResource {
       .forEach(population -> population.getDataCollectionEvents()
         .forEach(modelTranslator::translateModel));
   }
+
+  /**
+   * Shallow copy of the study, of its populations and of their data collection events, so that their models can be
+   * replaced.
+   *
+   * @param study
+   * @return
+   */
+  private BaseStudy copyModelAwares(BaseStudy study) {
+    BaseStudy copy = BeanUtils.instantiateClass(study.getClass());
+    BeanUtils.copyProperties(study, copy, "populations");
+    if (study.getPopulations() == null) return copy;
+
+    SortedSet<Population> populations = new TreeSet<>();
+    study.getPopulations().forEach(population -> {
+      Population populationCopy = new Population();
+      BeanUtils.copyProperties(population, populationCopy, "dataCollectionEvents");
+      SortedSet<DataCollectionEvent> dataCollectionEvents = new TreeSet<>();
+      population.getDataCollectionEvents().forEach(dce -> {
+        DataCollectionEvent dceCopy = new DataCollectionEvent();
+        BeanUtils.copyProperties(dce, dceCopy);
+        dataCollectionEvents.add(dceCopy);
+      });
+      populationCopy.setDataCollectionEvents(dataCollectionEvents);
+      populations.add(populationCopy);
+    });
+    copy.setPopulations(populations);
+
+    return copy;
+  }
 }
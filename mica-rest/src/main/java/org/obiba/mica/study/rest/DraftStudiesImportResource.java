@@ -26,6 +26,7 @@ import javax.ws.rs.core.Response;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileItemFactory;
 import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.disk.DiskFileItem;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
@@ -44,7 +45,12 @@ public class DraftStudiesImportResource {
     @QueryParam("publish") @DefaultValue("false") boolean publish) throws FileUploadException, IOException {
     FileItem uploadedFile = getUploadedFile(request);
 
-    studyPackageImportService.importZip(uploadedFile.getInputStream(), publish);
+    if(!uploadedFile.isInMemory() && uploadedFile instanceof DiskFileItem) {
+      // large uploads are already on disk, read the zip file in place
+      studyPackageImportService.importZip(((DiskFileItem) uploadedFile).getStoreLocation(), publish);
+    } else {
+      studyPackageImportService.importZip(uploadedFile.getInputStream(), publish);
+    }
 
     return Response.ok().build();
   }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.obiba.mica.study.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpStatus;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Import of remote studies running in the background: the HTTP status of the import of each study, accepted until
+ * the study is saved or has failed.
+ */
+public class StudiesImportJob {
+
+  private final String id = UUID.randomUUID().toString();
+
+  private final String owner;
+
+  private final Map<String, Integer> status = Collections.synchronizedMap(new LinkedHashMap<>());
+
+  private final AtomicInteger pending;
+
+  StudiesImportJob(String owner, Collection<String> studyIds) {
+    this.owner = owner;
+    ImmutableSet.copyOf(studyIds).forEach(studyId -> status.put(studyId, HttpStatus.SC_ACCEPTED));
+    pending = new AtomicInteger(status.size());
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Principal of the subject who started the import.
+   *
+   * @return
+   */
+  public String getOwner() {
+    return owner;
+  }
+
+  /**
+   * HTTP status of the import of each study, by remote study identifier.
+   *
+   * @return
+   */
+  public Map<String, Integer> getStatus() {
+    synchronized (status) {
+      return new LinkedHashMap<>(status);
+    }
+  }
+
+  public boolean isDone() {
+    return pending.get() == 0;
+  }
+
+  void complete(String studyId, int studyStatus) {
+    Integer previous = status.put(studyId, studyStatus);
+    if (previous != null && previous == HttpStatus.SC_ACCEPTED) pending.decrementAndGet();
+  }
+}
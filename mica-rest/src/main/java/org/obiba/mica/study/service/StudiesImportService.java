@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.obiba.mica.study.service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ProtocolException;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.ws.rs.core.HttpHeaders;
+
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.obiba.mica.NoSuchEntityException;
+import org.obiba.mica.file.TempFile;
+import org.obiba.mica.file.service.TempFileService;
+import org.obiba.mica.study.domain.BaseStudy;
+import org.obiba.mica.study.domain.HarmonizationStudy;
+import org.obiba.mica.study.domain.Population;
+import org.obiba.mica.study.domain.Study;
+import org.obiba.mica.web.model.Dtos;
+import org.obiba.mica.web.model.Mica;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.protobuf.ExtensionRegistry;
+import com.googlecode.protobuf.format.JsonFormat;
+
+/**
+ * Import of studies from a remote Mica. The studies and their logos are downloaded concurrently, then saved one at a
+ * time in the background, on behalf of the subject who started the import.
+ */
+@Component
+public class StudiesImportService implements EnvironmentAware {
+
+  private static final Logger log = LoggerFactory.getLogger(StudiesImportService.class);
+
+  public static final String INDIVIDUAL_STUDY = "individual-study";
+
+  public static final String HARMONIZATION_STUDY = "harmonization-study";
+
+  public static final String INDIVIDUAL_STUDY_FORM_SECTION = INDIVIDUAL_STUDY;
+
+  public static final String POPULATION_FORM_SECTION = "study-population";
+
+  public static final String DATA_COLLECTION_EVENT_FORM_SECTION = "data-collection-event";
+
+  public static final String HARMONIZATION_STUDY_FORM_SECTION = HARMONIZATION_STUDY;
+
+  public static final String HARMONIZATION_POPULATION_FORM_SECTION = "harmonization-study-population";
+
+  private static final String WS_DRAFT_STUDY = "/ws/draft/%s/%s";
+
+  private static final String WS_DRAFT_STUDY_LOGO = "/ws/draft/%s/%s/file/%s/_download";
+
+  private static final int DEFAULT_POOL_SIZE = 4;
+
+  private static final long SESSION_TIMEOUT_MINUTES = 10;
+
+  private static final long JOB_TIMEOUT_HOURS = 1;
+
+  @Inject
+  private IndividualStudyService individualStudyService;
+
+  @Inject
+  private HarmonizationStudyService harmonizationStudyService;
+
+  @Inject
+  private StudyService studyService;
+
+  @Inject
+  private TempFileService tempFileService;
+
+  @Inject
+  private Dtos dtos;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  private int poolSize;
+
+  private Cache<String, StudiesImportSession> sessions;
+
+  private Cache<String, StudiesImportJob> jobs;
+
+  private ThreadPoolTaskExecutor downloadExecutor;
+
+  private ThreadPoolTaskExecutor saveExecutor;
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "studies.import.");
+  }
+
+  @PostConstruct
+  public void init() {
+    poolSize = propertyResolver.getProperty("poolSize", Integer.class, DEFAULT_POOL_SIZE);
+    sessions = CacheBuilder.newBuilder().expireAfterAccess(SESSION_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+      .<String, StudiesImportSession>removalListener(notification -> close(notification.getValue())).build();
+    jobs = CacheBuilder.newBuilder().expireAfterAccess(JOB_TIMEOUT_HOURS, TimeUnit.HOURS).build();
+    downloadExecutor = newExecutor(poolSize, "mica-studies-import-download-");
+    // saves are not concurrent, as they would compete for the same git repositories and identifiers
+    saveExecutor = newExecutor(1, "mica-studies-import-save-");
+  }
+
+  @PreDestroy
+  public void destroy() {
+    downloadExecutor.shutdown();
+    saveExecutor.shutdown();
+    sessions.invalidateAll();
+  }
+
+  /**
+   * Get the session of the user with the remote Mica, to be shared by the successive steps of an import.
+   *
+   * @param url
+   * @param username
+   * @param password
+   * @return
+   * @throws URISyntaxException
+   */
+  public StudiesImportSession getSession(String url, String username, String password) throws URISyntaxException {
+    String key = Joiner.on("|").useForNull("").join(url, username,
+      Hashing.sha256().hashString(Strings.nullToEmpty(password), StandardCharsets.UTF_8));
+    try {
+      return sessions.get(key, () -> newSession(url, username, password));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof URISyntaxException) throw (URISyntaxException) e.getCause();
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Start importing the remote studies in the background.
+   *
+   * @param url
+   * @param username
+   * @param password
+   * @param type {@link #INDIVIDUAL_STUDY} or {@link #HARMONIZATION_STUDY}
+   * @param ids remote study identifiers
+   * @param listDiffsForm form sections that differ from the remote ones, not to be imported
+   * @return
+   * @throws URISyntaxException
+   */
+  public StudiesImportJob start(String url, String username, String password, String type, List<String> ids,
+                                List<String> listDiffsForm) throws URISyntaxException {
+    if (!INDIVIDUAL_STUDY.equals(type) && !HARMONIZATION_STUDY.equals(type))
+      throw new IllegalArgumentException("Unknown study type: " + type);
+
+    Subject subject = SecurityUtils.getSubject();
+    StudiesImportJob job = new StudiesImportJob(String.valueOf(subject.getPrincipal()), ids);
+    jobs.put(job.getId(), job);
+
+    // not shared, to be closed when the job is done
+    StudiesImportSession session = newSession(url, username, password);
+    List<CompletableFuture<Integer>> studyImports = job.getStatus().keySet().stream()
+      .map(id -> CompletableFuture.supplyAsync(() -> download(session, type, id), downloadExecutor)
+        .thenApplyAsync(remoteStudy -> {
+          try {
+            return subject.execute(() -> save(remoteStudy, type, listDiffsForm));
+          } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+          }
+        }, saveExecutor)
+        .whenComplete((status, e) -> {
+          if (e == null) {
+            job.complete(id, status);
+          } else {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.error("Unable to import study {}", id, cause);
+            job.complete(id, getStatus(cause));
+          }
+        }))
+      .collect(Collectors.toList());
+    CompletableFuture.allOf(studyImports.toArray(new CompletableFuture[studyImports.size()]))
+      .whenComplete((result, e) -> close(session));
+
+    return job;
+  }
+
+  /**
+   * Get an import started by the current subject.
+   *
+   * @param id
+   * @return null if not found
+   */
+  @Nullable
+  public StudiesImportJob findJob(String id) {
+    StudiesImportJob job = jobs.getIfPresent(id);
+    if (job == null || !job.getOwner().equals(String.valueOf(SecurityUtils.getSubject().getPrincipal()))) return null;
+    return job;
+  }
+
+  /**
+   * HTTP status reported to the user when an import step has failed.
+   *
+   * @param e
+   * @return
+   */
+  public static int getStatus(Throwable e) {
+    if (e instanceof UnknownHostException) return HttpStatus.SC_NOT_FOUND;
+    else if (e instanceof URISyntaxException) return HttpStatus.SC_BAD_REQUEST;
+    else if (e instanceof ProtocolException) return HttpStatus.SC_BAD_REQUEST;
+    else if (e instanceof FileNotFoundException) return HttpStatus.SC_SERVICE_UNAVAILABLE;
+    else if (e instanceof ConnectException) return HttpStatus.SC_REQUEST_TIMEOUT;
+    else if (e instanceof IOException) return HttpStatus.SC_UNAUTHORIZED;
+    else if (e instanceof FileUploadException) return HttpStatus.SC_NO_CONTENT;
+    else return HttpStatus.SC_INTERNAL_SERVER_ERROR;
+  }
+
+  @VisibleForTesting
+  StudiesImportSession newSession(String url, String username, String password) throws URISyntaxException {
+    return new StudiesImportSession(url, username, password, poolSize);
+  }
+
+  //
+  // Private methods
+  //
+
+  private RemoteStudy download(StudiesImportSession session, String type, String id) {
+    try {
+      String content = session.getRawContent(String.format(WS_DRAFT_STUDY, type, id), null);
+
+      Mica.StudyDto.Builder builder = Mica.StudyDto.newBuilder();
+      ExtensionRegistry extensionRegistry = ExtensionRegistry.newInstance();
+      extensionRegistry.add(INDIVIDUAL_STUDY.equals(type) ? Mica.CollectionStudyDto.type : Mica.HarmonizationStudyDto.type);
+      JsonFormat.merge(content, extensionRegistry, builder);
+
+      RemoteStudy remoteStudy = new RemoteStudy(id, builder);
+      if (builder.hasLogo()) {
+        try {
+          remoteStudy.logo = downloadLogo(session, type, id, builder.getLogo().getId());
+        } catch (IOException | URISyntaxException e) {
+          log.warn("Unable to download the logo of study {}: {}", id, e.getMessage());
+          remoteStudy.logoFailed = true;
+        }
+      }
+      return remoteStudy;
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private TempFile downloadLogo(StudiesImportSession session, String type, String id, String logoId)
+    throws IOException, URISyntaxException {
+    return session.execute(String.format(WS_DRAFT_STUDY_LOGO, type, id, logoId), null, response -> {
+      Header disposition = response.getFirstHeader(HttpHeaders.CONTENT_DISPOSITION);
+      String fileName = disposition == null
+        ? logoId
+        : disposition.getValue().replaceFirst("(?i)^.*filename=\"?([^\"]+)\"?.*$", "$1");
+      return tempFileService.addTempFile(fileName, response.getEntity().getContent());
+    });
+  }
+
+  private int save(RemoteStudy remoteStudy, String type, List<String> listDiffsForm) {
+    BaseStudy study = dtos.fromDto(remoteStudy.builder);
+    if (remoteStudy.logo != null) {
+      study.getLogo().setId(remoteStudy.logo.getId());
+      study.getLogo().setJustUploaded(true);
+    } else if (remoteStudy.logoFailed) {
+      // the local study keeps its logo
+      BaseStudy localStudy = findLocalStudy(remoteStudy.id);
+      study.setLogo(localStudy == null ? null : localStudy.getLogo());
+    }
+
+    if (INDIVIDUAL_STUDY.equals(type)) saveIndividualStudy(remoteStudy.id, (Study) study, listDiffsForm);
+    else saveHarmonizationStudy(remoteStudy.id, (HarmonizationStudy) study, listDiffsForm);
+
+    return remoteStudy.logoFailed ? getStatus(new FileUploadException()) : HttpStatus.SC_OK;
+  }
+
+  private void saveIndividualStudy(String id, Study remoteStudy, List<String> listDiffsForm) {
+    if (listDiffsForm.contains(INDIVIDUAL_STUDY_FORM_SECTION)) return;
+
+    if (!studyIdExistLocally(id)) {
+      prepareCreateOperation(listDiffsForm, remoteStudy);
+    } else {
+      prepareReplaceOperation(id, listDiffsForm, remoteStudy);
+    }
+
+    individualStudyService.save(remoteStudy);
+  }
+
+  private void saveHarmonizationStudy(String id, HarmonizationStudy remoteStudy, List<String> listDiffsForm) {
+    if (listDiffsForm.contains(HARMONIZATION_STUDY_FORM_SECTION)) return;
+
+    if (!studyIdExistLocally(id)) {
+      remoteStudy.setId(null);
+
+      if (listDiffsForm.contains(HARMONIZATION_POPULATION_FORM_SECTION)) {
+        remoteStudy.setPopulations(Sets.newTreeSet());
+      }
+    } else {
+      HarmonizationStudy localStudy = harmonizationStudyService.findStudy(id);
+
+      if (listDiffsForm.contains(HARMONIZATION_POPULATION_FORM_SECTION)) {
+        remoteStudy.setPopulations(localStudy.getPopulations());
+      }
+    }
+
+    harmonizationStudyService.save(remoteStudy);
+  }
+
+  private void prepareReplaceOperation(String id, List<String> listDiffsForm, Study remoteStudy) {
+    Study localStudy = individualStudyService.findStudy(id);
+
+    if (listDiffsForm.contains(POPULATION_FORM_SECTION)) {
+      remoteStudy.setPopulations(localStudy.getPopulations());
+    } else if (listDiffsForm.contains(DATA_COLLECTION_EVENT_FORM_SECTION)) {
+      for (Population remotePopulation : remoteStudy.getPopulations()) {
+        if (!localStudy.getPopulations().contains(remotePopulation)) {
+          remotePopulation.setDataCollectionEvents(Sets.newTreeSet());
+        } else {
+          for (Population localPopulation : localStudy.getPopulations()) {
+            if (localPopulation.equals(remotePopulation)) {
+              remotePopulation.setDataCollectionEvents(localPopulation.getDataCollectionEvents());
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void prepareCreateOperation(List<String> listDiffsForm, Study remoteStudy) {
+    remoteStudy.setId(null);
+
+    if (listDiffsForm.contains(POPULATION_FORM_SECTION)) {
+      remoteStudy.setPopulations(Sets.newTreeSet());
+    } else if (listDiffsForm.contains(DATA_COLLECTION_EVENT_FORM_SECTION)) {
+      for (Population population : remoteStudy.getPopulations()) {
+        population.setDataCollectionEvents(Sets.newTreeSet());
+      }
+    }
+  }
+
+  private boolean studyIdExistLocally(String id) {
+    return findLocalStudy(id) != null;
+  }
+
+  @Nullable
+  private BaseStudy findLocalStudy(String id) {
+    try {
+      return studyService.findStudy(id);
+    } catch (NoSuchEntityException ex) {
+      return null;
+    }
+  }
+
+  private ThreadPoolTaskExecutor newExecutor(int size, String threadNamePrefix) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(size);
+    executor.setMaxPoolSize(size);
+    executor.setThreadNamePrefix(threadNamePrefix);
+    executor.initialize();
+    return executor;
+  }
+
+  private void close(StudiesImportSession session) {
+    try {
+      session.close();
+    } catch (IOException e) {
+      log.debug("Unable to close the studies import session", e);
+    }
+  }
+
+  /**
+   * A downloaded study, with its logo as a temporary file.
+   */
+  private static class RemoteStudy {
+
+    private final String id;
+
+    private final Mica.StudyDto.Builder builder;
+
+    private TempFile logo;
+
+    private boolean logoFailed = false;
+
+    private RemoteStudy(String id, Mica.StudyDto.Builder builder) {
+      this.id = id;
+      this.builder = builder;
+    }
+  }
+}
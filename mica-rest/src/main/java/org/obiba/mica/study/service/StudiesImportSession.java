@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.obiba.mica.study.service;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.HttpHeaders;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Connection to a remote Mica from which studies are imported, through a bounded pool of HTTP connections. The form
+ * definitions of the remote Mica are fetched once per session.
+ */
+public class StudiesImportSession implements Closeable {
+
+  private static final int TIMEOUT = 7000;
+
+  private static final String BASIC_AUTHENTICATION = "Basic ";
+
+  private final URI baseUri;
+
+  private final String authorization;
+
+  private final CloseableHttpClient httpClient;
+
+  private final Map<String, Map<String, Object>> forms = new ConcurrentHashMap<>();
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  StudiesImportSession(String url, String username, String password, int maxConnections) throws URISyntaxException {
+    baseUri = new URI(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+    authorization = BASIC_AUTHENTICATION +
+      Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+    httpClient = HttpClientBuilder.create()
+      .useSystemProperties()
+      .setConnectionManager(connectionManager)
+      .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(TIMEOUT).setSocketTimeout(TIMEOUT).build())
+      .build();
+  }
+
+  public String getRawContent(String endpoint, @Nullable List<NameValuePair> params)
+    throws IOException, URISyntaxException {
+    return execute(endpoint, params, response -> EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Get the form definition and schema of an entity config of the remote Mica.
+   *
+   * @param endpoint
+   * @return
+   * @throws IOException
+   * @throws URISyntaxException
+   */
+  @SuppressWarnings("unchecked")
+  public Map<String, Object> getForm(String endpoint) throws IOException, URISyntaxException {
+    Map<String, Object> form = forms.get(endpoint);
+    if (form == null) {
+      form = execute(endpoint, null,
+        response -> (Map<String, Object>) objectMapper.readValue(response.getEntity().getContent(), Map.class));
+      forms.put(endpoint, form);
+    }
+    return form;
+  }
+
+  /**
+   * Get a resource of the remote Mica, the response being released once handled.
+   *
+   * @param endpoint
+   * @param params
+   * @param handler
+   * @param <T>
+   * @return
+   * @throws IOException
+   * @throws URISyntaxException
+   */
+  public <T> T execute(String endpoint, @Nullable List<NameValuePair> params, ResponseHandler<T> handler)
+    throws IOException, URISyntaxException {
+    URIBuilder builder = new URIBuilder()
+      .setScheme(baseUri.getScheme())
+      .setHost(baseUri.getHost())
+      .setPort(baseUri.getPort())
+      .setPath(baseUri.getPath() + endpoint);
+    if (params != null) builder.setParameters(params);
+
+    HttpGet request = new HttpGet(builder.build());
+    request.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+    request.setHeader(HttpHeaders.AUTHORIZATION, authorization);
+
+    return httpClient.execute(request, response -> {
+      int status = response.getStatusLine().getStatusCode();
+      if (status == HttpStatus.SC_NOT_FOUND) throw new FileNotFoundException(request.getURI().toString());
+      if (status >= HttpStatus.SC_BAD_REQUEST)
+        throw new IOException("Server returned HTTP response code: " + status + " for URL: " + request.getURI());
+      return handler.handleResponse(response);
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    httpClient.close();
+  }
+}
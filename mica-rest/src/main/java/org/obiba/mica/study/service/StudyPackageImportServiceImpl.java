@@ -10,18 +10,25 @@
 
 package org.obiba.mica.study.service;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
 import org.apache.commons.math3.util.Pair;
@@ -36,6 +43,7 @@ import org.obiba.mica.dataset.domain.StudyDataset;
 import org.obiba.mica.dataset.service.HarmonizedDatasetService;
 import org.obiba.mica.dataset.service.CollectedDatasetService;
 import org.obiba.mica.file.Attachment;
+import org.obiba.mica.file.FileStoreService;
 import org.obiba.mica.file.TempFile;
 import org.obiba.mica.file.service.FileSystemService;
 import org.obiba.mica.file.service.TempFileService;
@@ -47,6 +55,10 @@ import org.obiba.mica.web.model.Dtos;
 import org.obiba.mica.web.model.Mica;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Charsets;
@@ -56,19 +68,31 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.io.ByteSource;
-import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.google.protobuf.ExtensionRegistry;
 import com.googlecode.protobuf.format.JsonFormat;
 
+/**
+ * Import of the study packages exported from Old Mica. The attachments are not held in memory: they are read from the
+ * zip file when it is on disk, or else spooled into temp files. Their contents are stored concurrently, under new
+ * identifiers, so that the contents of a previous import are left untouched until the study is saved.
+ */
 @Service
-public class StudyPackageImportServiceImpl extends AbstractProtobufProvider implements StudyPackageImportService {
+public class StudyPackageImportServiceImpl extends AbstractProtobufProvider
+  implements StudyPackageImportService, EnvironmentAware {
 
   private static final Logger log = LoggerFactory.getLogger(StudyPackageImportServiceImpl.class);
 
+  private static final int DEFAULT_POOL_SIZE = 4;
+
   @Inject
   private FileSystemService fileSystemService;
 
+  @Inject
+  private FileStoreService fileStoreService;
+
   @Inject
   private TempFileService tempFileService;
 
@@ -87,25 +111,66 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
   @Inject
   private Dtos dtos;
 
+  private RelaxedPropertyResolver propertyResolver;
+
+  private ThreadPoolTaskExecutor storeExecutor;
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "studies.package.");
+  }
+
+  @PostConstruct
+  public void init() {
+    int poolSize = propertyResolver.getProperty("poolSize", Integer.class, DEFAULT_POOL_SIZE);
+    storeExecutor = new ThreadPoolTaskExecutor();
+    storeExecutor.setCorePoolSize(poolSize);
+    storeExecutor.setMaxPoolSize(poolSize);
+    storeExecutor.setThreadNamePrefix("mica-study-package-store-");
+    storeExecutor.initialize();
+  }
+
+  @PreDestroy
+  public void destroy() {
+    storeExecutor.shutdown();
+  }
+
   @Override
   public void importZip(InputStream inputStream, boolean publish) throws IOException {
-    final StudyPackage studyPackage = new StudyPackage(inputStream);
+    final StudyPackage studyPackage = new StudyPackage();
+    try {
+      studyPackage.read(inputStream);
+      importPackage(studyPackage, publish);
+    } finally {
+      studyPackage.tempFileIds.forEach(tempFileService::delete);
+    }
+  }
+
+  @Override
+  public void importZip(File file, boolean publish) throws IOException {
+    try(ZipFile zipFile = new ZipFile(file)) {
+      final StudyPackage studyPackage = new StudyPackage();
+      studyPackage.read(zipFile);
+      importPackage(studyPackage, publish);
+    }
+  }
+
+  private void importPackage(StudyPackage studyPackage, boolean publish) throws IOException {
     if(studyPackage.study != null) {
-      Map<String, ByteSource> dict = studyPackage.attachments.entrySet().stream()
-        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-      Optional.ofNullable(studyPackage.study.getLogo()).ifPresent(a -> saveAttachmentTempFile(dict, a));
-      Set<String> attachmentIds = Sets.newHashSet();
-
-      studyPackage.studyAttachments.forEach(a -> {
-        if(attachmentIds.contains(a.getId())) {
-          String origId = a.getId();
-          a.setId(new ObjectId().toString());
-          saveAttachmentTempFile(dict, a, origId);
-        } else {
-          saveAttachmentTempFile(dict, a);
-          attachmentIds.add(a.getId());
-        }
-      });
+      List<CompletableFuture<Void>> stores = Lists.newArrayList();
+      Optional.ofNullable(studyPackage.study.getLogo())
+        .ifPresent(a -> storeAttachment(studyPackage, a, stores));
+      studyPackage.studyAttachments.forEach(a -> storeAttachment(studyPackage, a, stores));
+      studyPackage.networks.stream().map(Network::getLogo).filter(Objects::nonNull)
+        .forEach(a -> storeAttachment(studyPackage, a, stores));
+      try {
+        awaitStores(stores);
+        saveStudy(studyPackage.study);
+      } catch(IOException | RuntimeException e) {
+        // no document refers to the stored contents
+        studyPackage.storedAttachmentIds.forEach(fileStoreService::delete);
+        throw e;
+      }
 
       importStudy(studyPackage.study, studyPackage.studyAttachments, publish);
 
@@ -117,21 +182,40 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
     }
   }
 
-  private void saveAttachmentTempFile(Map<String, ByteSource> dict, Attachment a) {
-    saveAttachmentTempFile(dict, a, a.getId());
+  /**
+   * Store the content of the attachment in the background, with a new identifier.
+   */
+  private void storeAttachment(StudyPackage studyPackage, Attachment a, List<CompletableFuture<Void>> stores) {
+    ByteSource content = studyPackage.attachments.get(a.getId());
+    if(content == null) return;
+
+    a.setId(new ObjectId().toString());
+    studyPackage.storedAttachmentIds.add(a.getId());
+    stores.add(CompletableFuture.runAsync(() -> storeAttachment(a, content), storeExecutor));
   }
 
-  private void saveAttachmentTempFile(Map<String, ByteSource> dict, Attachment a, String aid) {
-    if(dict.containsKey(aid)) {
-      try {
-        saveTempFile(a, dict.get(aid));
-      } catch(IOException e) {
-        Throwables.propagate(e);
-      }
+  private void storeAttachment(Attachment attachment, ByteSource content) {
+    try(CountingInputStream input = new CountingInputStream(content.openStream())) {
+      HashingInputStream hashingInput = new HashingInputStream(Hashing.md5(), input);
+      fileStoreService.save(attachment.getId(), hashingInput);
+      attachment.setMd5(hashingInput.hash().toString());
+      attachment.setSize(input.getCount());
+      attachment.setJustUploaded(false);
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
     }
   }
 
-  private void importStudy(BaseStudy study, List<Attachment> attachments, boolean publish) {
+  private void awaitStores(List<CompletableFuture<Void>> stores) throws IOException {
+    try {
+      CompletableFuture.allOf(stores.toArray(new CompletableFuture[stores.size()])).join();
+    } catch(CompletionException e) {
+      if(e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private void saveStudy(BaseStudy study) {
     if(study.getAcronym() == null) {
       study.setAcronym(study.getName().asAcronym());
     }
@@ -143,7 +227,9 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
     });
 
     studyService.save(study, "Imported");
+  }
 
+  private void importStudy(BaseStudy study, List<Attachment> attachments, boolean publish) {
     attachments.forEach(a -> {
       a.setPath(String.format(a.getPath(), study.getId()));
       fileSystemService.save(a);
@@ -154,7 +240,7 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
     }
   }
 
-  private void importNetwork(Network network, boolean publish, StudyPackage studyPackage) throws IOException {
+  private void importNetwork(Network network, boolean publish, StudyPackage studyPackage) {
     Network updated;
     try {
       Network existing = networkService.findById(network.getId());
@@ -165,13 +251,9 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
       updated = network;
     }
 
-    for(Map.Entry<String, ByteSource> e : studyPackage.attachments.entrySet()) {
-      Attachment attachment = network.getLogo();
-
-      if(attachment != null && attachment.getId().equals(e.getKey())) {
-        saveTempFile(attachment, e.getValue());
-        updated.setLogo(attachment);
-      }
+    Attachment attachment = network.getLogo();
+    if(attachment != null && studyPackage.storedAttachmentIds.contains(attachment.getId())) {
+      updated.setLogo(attachment);
     }
 
     networkService.save(updated);
@@ -179,15 +261,6 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
     if(publish) networkService.publish(updated.getId(), true, PublishCascadingScope.ALL);
   }
 
-  private void saveTempFile(Attachment attachment, ByteSource content) throws IOException {
-    TempFile tempFile = new TempFile();
-    tempFile.setId(attachment.getId());
-    tempFile.setName(attachment.getName());
-    tempFileService.addTempFile(tempFile, content.openStream());
-    attachment.setMd5(content.hash(Hashing.md5()).toString());
-    attachment.setSize(content.size());
-  }
-
   private void importDataset(Dataset dataset, boolean publish) {
     if(dataset instanceof StudyDataset) {
       importDataset((StudyDataset) dataset, publish);
@@ -228,9 +301,20 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
 
     private final List<Dataset> datasets = Lists.newArrayList();
 
+    // content of the attachments by identifier, read from a temp file or from the zip file
     private final Map<String, ByteSource> attachments = Maps.newHashMap();
 
-    private StudyPackage(InputStream inputStream) {
+    private final List<String> tempFileIds = Lists.newArrayList();
+
+    private final Set<String> storedAttachmentIds = Sets.newHashSet();
+
+    /**
+     * Read the entries in sequence: the attachments are spooled into temp files, as they may come before the documents
+     * referring to them.
+     *
+     * @param inputStream
+     */
+    private void read(InputStream inputStream) {
       try(ZipInputStream zipIn = new ZipInputStream(inputStream)) {
         ZipEntry entry;
         while((entry = zipIn.getNextEntry()) != null) {
@@ -243,36 +327,83 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
       }
     }
 
+    /**
+     * Read the documents only: the attachments are read from the zip file when stored.
+     *
+     * @param zipFile
+     */
+    private void read(ZipFile zipFile) {
+      try {
+        for(ZipEntry entry : Collections.list(zipFile.entries())) {
+          if(isAttachment(entry)) {
+            attachments.put(getAttachmentId(entry), new ByteSource() {
+              @Override
+              public InputStream openStream() throws IOException {
+                return zipFile.getInputStream(entry);
+              }
+            });
+          } else if(isDocument(entry)) {
+            try(InputStream input = zipFile.getInputStream(entry)) {
+              readDocument(input, entry);
+            }
+          }
+        }
+        makeIdMapping();
+      } catch(Exception e) {
+        log.error("Failed importing from zip", e);
+        throw new RuntimeException("Failed importing from zip", e);
+      }
+    }
+
     private void readZipEntry(ZipInputStream zipIn, ZipEntry entry) throws IOException {
-      if(entry.getName().endsWith("attachments/") || entry.getSize() == 0) {
-        zipIn.closeEntry();
-        return;
+      if(isAttachment(entry)) {
+        String attId = getAttachmentId(entry);
+        TempFile tempFile = tempFileService.addTempFile(attId, zipIn);
+        tempFileIds.add(tempFile.getId());
+        attachments.put(attId, new ByteSource() {
+          @Override
+          public InputStream openStream() throws IOException {
+            return tempFileService.getInputStreamFromFile(tempFile.getId());
+          }
+        });
+      } else if(isDocument(entry)) {
+        readDocument(zipIn, entry);
       }
 
-      if(entry.getName().contains("attachments/")) {
-        String attId = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
-        attachments.put(attId, ByteSource.wrap(readBytes(zipIn)));
-      } else if(entry.getName().endsWith(".json")) {
-        String name = entry.getName();
-        int slash = name.lastIndexOf('/');
+      zipIn.closeEntry();
+    }
 
-        if(slash > -1) {
-          name = name.substring(slash + 1);
-        }
+    private boolean isAttachment(ZipEntry entry) {
+      return entry.getName().contains("attachments/") && !entry.getName().endsWith("attachments/") &&
+        entry.getSize() != 0;
+    }
+
+    private String getAttachmentId(ZipEntry entry) {
+      return entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+    }
+
+    private boolean isDocument(ZipEntry entry) {
+      return !entry.getName().contains("attachments/") && entry.getName().endsWith(".json") && entry.getSize() != 0;
+    }
 
-        log.debug("Reading {}...", name);
+    private void readDocument(InputStream inputStream, ZipEntry entry) throws IOException {
+      String name = entry.getName();
+      int slash = name.lastIndexOf('/');
 
-        if(name.startsWith("study-")) {
-          Pair<BaseStudy, List<Attachment>> studyInput = readStudy(zipIn);
-          study = studyInput.getFirst();
-          studyAttachments = studyInput.getSecond();
-        } else if(name.startsWith("dataset-")) {
-          datasets.add(readDataset(zipIn));
-        } else if(name.startsWith("network-")) {
-          networks.add(readNetwork(zipIn));
-        }
+      if(slash > -1) {
+        name = name.substring(slash + 1);
+      }
+
+      log.debug("Reading {}...", name);
 
-        zipIn.closeEntry();
+      if(name.startsWith("study-")) {
+        Pair<BaseStudy, List<Attachment>> studyInput = readStudy(inputStream);
+        study = studyInput.getFirst();
+        studyAttachments = studyInput.getSecond();
+      } else if(name.startsWith("dataset-")) {
+        datasets.add(readDataset(inputStream));
+      } else if(name.startsWith("network-")) {
+        networks.add(readNetwork(inputStream));
       }
     }
 
@@ -345,12 +476,5 @@ public class StudyPackageImportServiceImpl extends AbstractProtobufProvider impl
       JsonFormat.merge(input, builder);
       return dtos.fromDto(builder);
     }
-
-    private byte[] readBytes(ZipInputStream zipIn) throws IOException {
-      ByteArrayOutputStream entryOut = new ByteArrayOutputStream();
-      ByteStreams.copy(zipIn, entryOut);
-      entryOut.close();
-      return entryOut.toByteArray();
-    }
   }
 }
@@ -10,19 +10,27 @@
 
 package org.obiba.mica.web.rest;
 
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.apache.shiro.authz.annotation.RequiresRoles;
+import org.obiba.mica.dataset.service.DatasetVariablesCacheWarmer;
 import org.obiba.mica.micaConfig.service.CacheService;
 import org.obiba.mica.security.Roles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Maps;
+
 @Path("/")
 @RequiresRoles(Roles.MICA_ADMIN)
 public class CacheResource {
@@ -81,4 +89,23 @@ public class CacheResource {
 
     return Response.ok().build();
   }
+
+  @Path("/cache/datasetVariables/progress")
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getDatasetVariablesCacheProgress() {
+    DatasetVariablesCacheWarmer.Progress progress = cacheService.getDatasetVariablesCacheProgress();
+
+    Map<String, Object> result = Maps.newLinkedHashMap();
+    result.put("state", progress.getState().name());
+    result.put("startTime", progress.getStartTime());
+    result.put("endTime", progress.getEndTime());
+    result.put("total", progress.getTotal());
+    result.put("completed", progress.getCompleted());
+    result.put("skipped", progress.getSkipped());
+    result.put("failed", progress.getFailed());
+    result.put("eta", progress.getEta());
+    result.put("failures", progress.getFailures());
+    return result;
+  }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.study.service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.NoSuchEntityException;
+import org.obiba.mica.file.Attachment;
+import org.obiba.mica.file.service.TempFileService;
+import org.obiba.mica.study.domain.Study;
+import org.obiba.mica.web.model.Dtos;
+import org.obiba.mica.web.model.Mica;
+import org.springframework.mock.env.MockEnvironment;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StudiesImportServiceTest {
+
+  private static final String URL = "https://remote.example.org";
+
+  private static final String WS_STUDY = "/ws/draft/individual-study/";
+
+  @InjectMocks
+  private StudiesImportService service;
+
+  @Mock
+  private IndividualStudyService individualStudyService;
+
+  @Mock
+  private HarmonizationStudyService harmonizationStudyService;
+
+  @Mock
+  private StudyService studyService;
+
+  @Mock
+  private TempFileService tempFileService;
+
+  @Mock
+  private Dtos dtos;
+
+  @Mock
+  private StudiesImportSession session;
+
+  @Mock
+  private Subject subject;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    service.setEnvironment(new MockEnvironment());
+    service.init();
+    service = spy(service);
+    doReturn(session).when(service).newSession(anyString(), anyString(), anyString());
+
+    when(subject.getPrincipal()).thenReturn("administrator");
+    when(subject.execute(any(Callable.class)))
+      .thenAnswer(invocation -> ((Callable<?>) invocation.getArguments()[0]).call());
+    ThreadContext.bind(subject);
+
+    when(dtos.fromDto(any(Mica.StudyDtoOrBuilder.class))).thenAnswer(invocation -> {
+      Mica.StudyDtoOrBuilder dto = (Mica.StudyDtoOrBuilder) invocation.getArguments()[0];
+      Study study = new Study();
+      study.setId(dto.getId());
+      if (dto.hasLogo()) study.setLogo(newLogo(dto.getLogo().getId()));
+      return study;
+    });
+    when(studyService.findStudy(anyString())).thenAnswer(invocation -> {
+      throw NoSuchEntityException.withId(Study.class, (String) invocation.getArguments()[0]);
+    });
+  }
+
+  @After
+  public void tearDown() {
+    ThreadContext.unbindSubject();
+    service.destroy();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void test_status_of_each_study() throws Exception {
+    // saved
+    when(session.getRawContent(WS_STUDY + "s1", null)).thenReturn("{\"id\":\"s1\"}");
+    // not found
+    when(session.getRawContent(WS_STUDY + "s2", null)).thenThrow(new FileNotFoundException(WS_STUDY + "s2"));
+    // local study, its logo cannot be downloaded
+    when(session.getRawContent(WS_STUDY + "s3", null))
+      .thenReturn("{\"id\":\"s3\",\"logo\":{\"id\":\"remote-logo\",\"fileName\":\"logo.png\"}}");
+    // new study, its logo cannot be downloaded
+    when(session.getRawContent(WS_STUDY + "s4", null))
+      .thenReturn("{\"id\":\"s4\",\"logo\":{\"id\":\"remote-logo\",\"fileName\":\"logo.png\"}}");
+    when(session.execute(eq(WS_STUDY + "s3/file/remote-logo/_download"), anyList(), any(ResponseHandler.class)))
+      .thenThrow(new IOException("Server returned HTTP response code: 500"));
+    when(session.execute(eq(WS_STUDY + "s4/file/remote-logo/_download"), anyList(), any(ResponseHandler.class)))
+      .thenThrow(new IOException("Server returned HTTP response code: 500"));
+
+    Study localStudy = new Study();
+    localStudy.setId("s3");
+    localStudy.setLogo(newLogo("local-logo"));
+    doReturn(localStudy).when(studyService).findStudy("s3");
+    when(individualStudyService.findStudy("s3")).thenReturn(localStudy);
+
+    StudiesImportJob job = service.start(URL, "administrator", "password", StudiesImportService.INDIVIDUAL_STUDY,
+      Arrays.asList("s1", "s2", "s3", "s4"), Collections.emptyList());
+    await().atMost(10, TimeUnit.SECONDS).until(job::isDone);
+
+    assertThat(job.getStatus()).containsEntry("s1", HttpStatus.SC_OK)
+      .containsEntry("s2", HttpStatus.SC_SERVICE_UNAVAILABLE)
+      .containsEntry("s3", HttpStatus.SC_NO_CONTENT)
+      .containsEntry("s4", HttpStatus.SC_NO_CONTENT);
+
+    ArgumentCaptor<Study> saved = ArgumentCaptor.forClass(Study.class);
+    verify(individualStudyService, times(3)).save(saved.capture());
+    Study s3 = saved.getAllValues().stream().filter(study -> "s3".equals(study.getId())).findFirst().get();
+    assertThat(s3.getLogo().getId()).isEqualTo("local-logo");
+    // the new studies
+    saved.getAllValues().stream().filter(study -> study.getId() == null)
+      .forEach(study -> assertThat(study.getLogo()).isNull());
+    verify(session, timeout(1000)).close();
+  }
+
+  private Attachment newLogo(String id) {
+    Attachment logo = new Attachment();
+    logo.setId(id);
+    logo.setName("logo.png");
+    return logo;
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.study.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.core.domain.LocalizedString;
+import org.obiba.mica.dataset.service.CollectedDatasetService;
+import org.obiba.mica.dataset.service.HarmonizedDatasetService;
+import org.obiba.mica.file.Attachment;
+import org.obiba.mica.file.FileStoreService;
+import org.obiba.mica.file.TempFile;
+import org.obiba.mica.file.service.FileSystemService;
+import org.obiba.mica.file.service.TempFileService;
+import org.obiba.mica.network.service.NetworkService;
+import org.obiba.mica.study.domain.BaseStudy;
+import org.obiba.mica.study.domain.Study;
+import org.obiba.mica.web.model.Dtos;
+import org.obiba.mica.web.model.Mica;
+import org.springframework.mock.env.MockEnvironment;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StudyPackageImportServiceImplTest {
+
+  private static final byte[] LOGO = "logo content".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] PROTOCOL = "protocol content".getBytes(StandardCharsets.UTF_8);
+
+  private static final String STUDY = "{\"logo\":{\"id\":\"logo1\",\"fileName\":\"logo.png\"}," +
+    "\"populations\":[{\"dataCollectionEvents\":[{\"startYear\":2000," +
+    "\"attachments\":[{\"id\":\"protocol1\",\"fileName\":\"protocol.pdf\"}]}]}]}";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @InjectMocks
+  private StudyPackageImportServiceImpl service;
+
+  @Mock
+  private FileSystemService fileSystemService;
+
+  @Mock
+  private FileStoreService fileStoreService;
+
+  @Mock
+  private TempFileService tempFileService;
+
+  @Mock
+  private StudyService studyService;
+
+  @Mock
+  private NetworkService networkService;
+
+  @Mock
+  private CollectedDatasetService collectedDatasetService;
+
+  @Mock
+  private HarmonizedDatasetService harmonizedDatasetService;
+
+  @Mock
+  private Dtos dtos;
+
+  private final Map<String, byte[]> tempFiles = new ConcurrentHashMap<>();
+
+  private final Map<String, byte[]> storedFiles = new ConcurrentHashMap<>();
+
+  private File zip;
+
+  @Before
+  public void setUp() throws Exception {
+    service.setEnvironment(new MockEnvironment());
+    service.init();
+
+    when(dtos.fromDto(any(Mica.StudyDtoOrBuilder.class))).thenAnswer(invocation -> {
+      Mica.StudyDtoOrBuilder dto = (Mica.StudyDtoOrBuilder) invocation.getArguments()[0];
+      Study study = new Study();
+      study.setName(LocalizedString.en("Test Study"));
+      study.setAcronym(LocalizedString.en("TS"));
+      study.setLogo(newAttachment(dto.getLogo()));
+      return study;
+    });
+    when(dtos.fromDto(any(Mica.AttachmentDto.class)))
+      .thenAnswer(invocation -> newAttachment((Mica.AttachmentDto) invocation.getArguments()[0]));
+
+    when(tempFileService.addTempFile(anyString(), any(InputStream.class))).thenAnswer(invocation -> {
+      TempFile tempFile = new TempFile();
+      tempFile.setId(UUID.randomUUID().toString());
+      tempFiles.put(tempFile.getId(), ByteStreams.toByteArray((InputStream) invocation.getArguments()[1]));
+      return tempFile;
+    });
+    when(tempFileService.getInputStreamFromFile(anyString()))
+      .thenAnswer(invocation -> new ByteArrayInputStream(tempFiles.get(invocation.getArguments()[0])));
+    doAnswer(invocation -> storedFiles.put((String) invocation.getArguments()[0],
+      ByteStreams.toByteArray((InputStream) invocation.getArguments()[1])))
+      .when(fileStoreService).save(anyString(), any(InputStream.class));
+
+    zip = folder.newFile("study-package.zip");
+    try(ZipOutputStream output = new ZipOutputStream(new FileOutputStream(zip))) {
+      addEntry(output, "attachments/logo1", LOGO);
+      addEntry(output, "study-test.json", STUDY.getBytes(StandardCharsets.UTF_8));
+      addEntry(output, "attachments/protocol1", PROTOCOL);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    service.destroy();
+  }
+
+  @Test
+  public void test_import_zip_stream() throws Exception {
+    try(InputStream input = new FileInputStream(zip)) {
+      service.importZip(input, false);
+    }
+
+    assertImported();
+    assertThat(tempFiles).hasSize(2);
+  }
+
+  @Test
+  public void test_import_zip_file() throws Exception {
+    service.importZip(zip, false);
+
+    assertImported();
+    assertThat(tempFiles).isEmpty();
+  }
+
+  @Test
+  public void test_stored_contents_are_deleted_when_study_is_not_saved() throws Exception {
+    doThrow(new IllegalStateException("not saved")).when(studyService).save(any(BaseStudy.class), anyString());
+
+    try {
+      service.importZip(zip, false);
+      fail("Study should not be saved");
+    } catch(IllegalStateException e) {
+      // expected
+    }
+
+    assertThat(storedFiles).hasSize(2);
+    storedFiles.keySet().forEach(id -> verify(fileStoreService).delete(id));
+    verify(fileSystemService, never()).save(any(Attachment.class));
+  }
+
+  private void assertImported() {
+    ArgumentCaptor<BaseStudy> study = ArgumentCaptor.forClass(BaseStudy.class);
+    verify(studyService).save(study.capture(), anyString());
+    assertThat(study.getValue().getId()).isEqualTo("ts");
+    assertStored(study.getValue().getLogo(), "logo1", LOGO);
+
+    ArgumentCaptor<Attachment> protocol = ArgumentCaptor.forClass(Attachment.class);
+    verify(fileSystemService).save(protocol.capture());
+    assertStored(protocol.getValue(), "protocol1", PROTOCOL);
+    assertThat(protocol.getValue().getPath()).isEqualTo("/individual-study/ts/population/1/data-collection-event/1");
+
+    assertThat(storedFiles).hasSize(2);
+    verify(fileStoreService, never()).delete(anyString());
+  }
+
+  private void assertStored(Attachment attachment, String packageId, byte[] content) {
+    // stored under a new identifier
+    assertThat(attachment.getId()).isNotEqualTo(packageId);
+    assertThat(storedFiles.get(attachment.getId())).isEqualTo(content);
+    assertThat(attachment.getMd5()).isEqualTo(Hashing.md5().hashBytes(content).toString());
+    assertThat(attachment.getSize()).isEqualTo(content.length);
+    assertThat(attachment.isJustUploaded()).isFalse();
+  }
+
+  private Attachment newAttachment(Mica.AttachmentDto dto) {
+    Attachment attachment = new Attachment();
+    attachment.setId(dto.getId());
+    attachment.setName(dto.getFileName());
+    return attachment;
+  }
+
+  private void addEntry(ZipOutputStream output, String name, byte[] content) throws Exception {
+    output.putNextEntry(new ZipEntry(name));
+    output.write(content);
+    output.closeEntry();
+  }
+}
@@ -14,6 +14,8 @@ import com.google.common.eventbus.Subscribe;
 import org.obiba.mica.dataset.event.*;
 import org.obiba.mica.dataset.service.CollectedDatasetService;
 import org.obiba.mica.dataset.service.HarmonizedDatasetService;
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
+import org.obiba.mica.search.PublishedDocumentCache;
 import org.obiba.mica.spi.search.Indexable;
 import org.obiba.mica.spi.search.Indexer;
 import org.slf4j.Logger;
@@ -37,6 +39,12 @@ public class DatasetIndexer {
   @Inject
   private CollectedDatasetService collectedDatasetService;
 
+  @Inject
+  private AggregationMetaDataDictionary aggregationMetaDataDictionary;
+
+  @Inject
+  private PublishedDocumentCache publishedDocumentCache;
+
   @Async
   @Subscribe
   public void datasetUpdated(DatasetUpdatedEvent event) {
@@ -50,6 +58,8 @@ public class DatasetIndexer {
     log.debug("{} {} was deleted", event.getPersistable().getClass().getSimpleName(), event.getPersistable());
     indexer.delete(Indexer.DRAFT_DATASET_INDEX, (Indexable) event.getPersistable());
     indexer.delete(Indexer.PUBLISHED_DATASET_INDEX, (Indexable) event.getPersistable());
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.DATASET, event.getPersistable().getId());
+    aggregationMetaDataDictionary.invalidate(AggregationMetaDataDictionary.DATASET);
   }
 
   @Async
@@ -57,6 +67,8 @@ public class DatasetIndexer {
   public void datasetPublished(DatasetPublishedEvent event) {
     log.debug("{} {} was published", event.getPersistable().getClass().getSimpleName(), event.getPersistable());
     indexer.index(Indexer.PUBLISHED_DATASET_INDEX, (Indexable) event.getPersistable());
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.DATASET, event.getPersistable().getId());
+    aggregationMetaDataDictionary.invalidate(AggregationMetaDataDictionary.DATASET);
   }
 
   @Async
@@ -64,6 +76,8 @@ public class DatasetIndexer {
   public void datasetUnpublished(DatasetUnpublishedEvent event) {
     log.debug("{} {} was unpublished", event.getPersistable().getClass().getSimpleName(), event.getPersistable());
     indexer.delete(Indexer.PUBLISHED_DATASET_INDEX, (Indexable) event.getPersistable());
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.DATASET, event.getPersistable().getId());
+    aggregationMetaDataDictionary.invalidate(AggregationMetaDataDictionary.DATASET);
   }
 
   @Async
@@ -80,5 +94,7 @@ public class DatasetIndexer {
 
     harmonizedDatasetService.indexAll();
     collectedDatasetService.indexAll();
+    publishedDocumentCache.evictAll(PublishedDocumentCache.Region.DATASET);
+    aggregationMetaDataDictionary.invalidate(AggregationMetaDataDictionary.DATASET);
   }
 }
@@ -16,18 +16,16 @@ import org.obiba.mica.dataset.domain.HarmonizationDataset;
 import org.obiba.mica.dataset.domain.HarmonizationDatasetState;
 import org.obiba.mica.dataset.domain.StudyDataset;
 import org.obiba.mica.dataset.domain.StudyDatasetState;
-import org.obiba.mica.dataset.service.CollectedDatasetService;
-import org.obiba.mica.dataset.service.HarmonizedDatasetService;
 import org.obiba.mica.dataset.service.PublishedDatasetService;
+import org.obiba.mica.search.AccessibleIdFilterCache;
+import org.obiba.mica.search.PublishedDocumentCache;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.spi.search.Searcher;
-import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -37,14 +35,6 @@ class EsPublishedDatasetService extends AbstractEsDatasetService<Dataset> implem
   @Inject
   private ObjectMapper objectMapper;
 
-  @Inject
-  @Lazy
-  private CollectedDatasetService collectedDatasetService;
-
-  @Inject
-  @Lazy
-  private HarmonizedDatasetService harmonizedDatasetService;
-
   @Override
   public long getStudyDatasetsCount() {
     return getCountByRql(String.format("in(className,%s)", StudyDataset.class.getSimpleName()));
@@ -91,19 +81,16 @@ class EsPublishedDatasetService extends AbstractEsDatasetService<Dataset> implem
     return "studyTable.studyId";
   }
 
+  @Nullable
+  @Override
+  protected PublishedDocumentCache.Region getCacheRegion() {
+    return PublishedDocumentCache.Region.DATASET;
+  }
+
   @Nullable
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-      @Override
-      public Collection<String> getValues() {
-        List<String> ids = collectedDatasetService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/collected-dataset", s)).collect(Collectors.toList());
-        ids.addAll(harmonizedDatasetService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/harmonized-dataset", s)).collect(Collectors.toList()));
-        return ids;
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.DATASET);
   }
 }
@@ -10,7 +10,9 @@
 
 package org.obiba.mica.dataset.search;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.obiba.mica.core.domain.DocumentSet;
@@ -24,6 +26,7 @@ import org.obiba.mica.dataset.event.DatasetPublishedEvent;
 import org.obiba.mica.dataset.event.DatasetUnpublishedEvent;
 import org.obiba.mica.dataset.service.CollectedDatasetService;
 import org.obiba.mica.dataset.service.VariableSetService;
+import org.obiba.mica.search.CoverageResultCache;
 import org.obiba.mica.spi.search.Indexer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +36,7 @@ import org.springframework.stereotype.Component;
 import javax.inject.Inject;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Indexer of variables, that reacts on dataset events.
@@ -50,6 +54,14 @@ public class VariableIndexer {
   @Inject
   private VariableSetService variableSetService;
 
+  @Inject
+  private VariableIndexingPipeline variableIndexingPipeline;
+
+  @Inject
+  private CoverageResultCache coverageResultCache;
+
+  private final VariableSetMembershipIndex membershipIndex = new VariableSetMembershipIndex();
+
   @Async
   @Subscribe
   public void datasetPublished(DatasetPublishedEvent event) {
@@ -70,6 +82,9 @@ public class VariableIndexer {
     if (event.hasHarmonizationVariables()) {
       indexDatasetVariables(Indexer.PUBLISHED_HVARIABLE_INDEX, event.getHarmonizationVariables());
     }
+
+    // coverages computed while the variables were being indexed are discarded
+    coverageResultCache.advanceEpoch();
   }
 
   @Async
@@ -79,6 +94,7 @@ public class VariableIndexer {
     clearDraftVariablesIndex();
     deleteDatasetVariables(Indexer.PUBLISHED_VARIABLE_INDEX, Indexer.VARIABLE_TYPE, event.getPersistable());
     deleteDatasetVariables(Indexer.PUBLISHED_HVARIABLE_INDEX, Indexer.HARMONIZED_VARIABLE_TYPE, event.getPersistable());
+    coverageResultCache.advanceEpoch();
   }
 
   @Async
@@ -88,27 +104,47 @@ public class VariableIndexer {
     clearDraftVariablesIndex();
     deleteDatasetVariables(Indexer.PUBLISHED_VARIABLE_INDEX, Indexer.VARIABLE_TYPE, event.getPersistable());
     deleteDatasetVariables(Indexer.PUBLISHED_HVARIABLE_INDEX, Indexer.HARMONIZED_VARIABLE_TYPE, event.getPersistable());
+    coverageResultCache.advanceEpoch();
   }
 
   @Async
   @Subscribe
   public synchronized void documentSetUpdated(DocumentSetUpdatedEvent event) {
     if (!variableSetService.isForType(event.getPersistable())) return;
+    DocumentSet documentSet = event.getPersistable();
+    String id = documentSet.getId();
+
+    if (!membershipIndex.isLoaded()) {
+      // the previous identifiers of the set are not known, look for the variables to be tagged in the whole set
+      documentSetUpdatedWithoutIndex(event);
+      loadMembershipIndex();
+      return;
+    }
+
+    Set<String> previous = membershipIndex.update(documentSet);
+    Set<String> removed = Sets.newHashSet(Sets.difference(previous, documentSet.getIdentifiers()));
+    if (event.hasRemovedIdentifiers()) removed.addAll(event.getRemovedIdentifiers());
+    removed.removeAll(documentSet.getIdentifiers());
+    Set<String> added = Sets.newHashSet(Sets.difference(documentSet.getIdentifiers(), previous));
+
     List<DatasetVariable> toIndex = Lists.newArrayList();
-    String id = event.getPersistable().getId();
-    if (event.hasRemovedIdentifiers()) {
-      List<DatasetVariable> toRemove = variableSetService.getVariables(event.getRemovedIdentifiers(), false);
+    if (!removed.isEmpty()) {
+      List<DatasetVariable> toRemove = variableSetService.getVariables(removed, false);
       toRemove.forEach(var -> var.removeSet(id));
       toIndex.addAll(toRemove);
     }
-    List<DatasetVariable> variables = variableSetService.getVariables(event.getPersistable(), false);
-    variables.stream()
-      .filter(var -> !var.containsSet(id))
-      .forEach(var -> {
-        var.addSet(id);
-        toIndex.add(var);
-      });
-    indexer.indexAllIndexables(Indexer.PUBLISHED_VARIABLE_INDEX, toIndex);
+    if (!added.isEmpty()) {
+      variableSetService.getVariables(added, false).stream()
+        .filter(var -> !var.containsSet(id))
+        .forEach(var -> {
+          var.addSet(id);
+          toIndex.add(var);
+        });
+    }
+    if (!toIndex.isEmpty()) {
+      indexer.indexAllIndexables(Indexer.PUBLISHED_VARIABLE_INDEX, toIndex);
+      coverageResultCache.advanceEpoch();
+    }
   }
 
   @Async
@@ -116,6 +152,7 @@ public class VariableIndexer {
   public synchronized void documentSetDeleted(DocumentSetDeletedEvent event) {
     if (!variableSetService.isForType(event.getPersistable())) return;
     DocumentSet documentSet = event.getPersistable();
+    if (membershipIndex.isLoaded()) membershipIndex.remove(documentSet.getId());
     List<DatasetVariable> toIndex = Lists.newArrayList();
     {
       List<DatasetVariable> toRemove = variableSetService.getVariables(event.getPersistable(), false);
@@ -123,6 +160,7 @@ public class VariableIndexer {
       toIndex.addAll(toRemove);
     }
     indexer.indexAllIndexables(Indexer.PUBLISHED_VARIABLE_INDEX, toIndex);
+    coverageResultCache.advanceEpoch();
   }
 
   //
@@ -135,12 +173,35 @@ public class VariableIndexer {
   }
 
   private void indexDatasetVariables(String indexName, Iterable<DatasetVariable> variables) {
-    List<DocumentSet> documentSets = variableSetService.getAll();
-    variables.forEach(variable ->
-      documentSets.forEach(ds -> {
-        if (ds.getIdentifiers().contains(variable.getId())) variable.addSet(ds.getId());
-      }));
-    indexer.indexAllIndexables(indexName, variables);
+    synchronized (this) {
+      if (!membershipIndex.isLoaded()) loadMembershipIndex();
+    }
+    variableIndexingPipeline.index(indexName, Iterables.transform(variables, variable -> {
+      membershipIndex.getSetIds(variable.getId()).forEach(variable::addSet);
+      return variable;
+    }));
+  }
+
+  private void loadMembershipIndex() {
+    membershipIndex.load(variableSetService.getAll());
+  }
+
+  private void documentSetUpdatedWithoutIndex(DocumentSetUpdatedEvent event) {
+    List<DatasetVariable> toIndex = Lists.newArrayList();
+    String id = event.getPersistable().getId();
+    if (event.hasRemovedIdentifiers()) {
+      List<DatasetVariable> toRemove = variableSetService.getVariables(event.getRemovedIdentifiers(), false);
+      toRemove.forEach(var -> var.removeSet(id));
+      toIndex.addAll(toRemove);
+    }
+    List<DatasetVariable> variables = variableSetService.getVariables(event.getPersistable(), false);
+    variables.stream()
+      .filter(var -> !var.containsSet(id))
+      .forEach(var -> {
+        var.addSet(id);
+        toIndex.add(var);
+      });
+    indexer.indexAllIndexables(Indexer.PUBLISHED_VARIABLE_INDEX, toIndex);
   }
 
   private void deleteDatasetVariables(String indexName, String type, Dataset dataset) {
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.search;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.inject.Inject;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.obiba.mica.dataset.domain.DatasetVariable;
+import org.obiba.mica.spi.search.Indexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends the variables to the indexer in fixed-size bulk batches, while they are being iterated. The number of batches
+ * in flight per index is bounded: the iteration waits for a batch to be indexed when the limit is reached, so that at
+ * most (parallelism + 1) * batchSize variables of an index are held in memory. A batch that fails to be indexed does
+ * not stop the others: it is logged and counted in the "failures" meter of the index.
+ */
+@Component
+public class VariableIndexingPipeline implements EnvironmentAware {
+
+  private static final Logger log = LoggerFactory.getLogger(VariableIndexingPipeline.class);
+
+  private static final int DEFAULT_BATCH_SIZE = 500;
+
+  private static final int DEFAULT_PARALLELISM = 2;
+
+  @Inject
+  private Indexer indexer;
+
+  @Inject
+  private MetricRegistry metricRegistry;
+
+  @Inject
+  @Qualifier("esIndexingExecutor")
+  private AsyncTaskExecutor esIndexingExecutor;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  private final ConcurrentMap<String, Semaphore> inFlightPermits = Maps.newConcurrentMap();
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "elasticsearch.indexing.");
+  }
+
+  /**
+   * Index the variables in batches and wait for all of them to be indexed.
+   *
+   * @param indexName
+   * @param variables
+   * @return The count of variables sent to the indexer
+   */
+  public int index(String indexName, Iterable<DatasetVariable> variables) {
+    int batchSize = Math.max(propertyResolver.getProperty("batchSize", Integer.class, DEFAULT_BATCH_SIZE), 1);
+    Semaphore permits = inFlightPermits.computeIfAbsent(indexName, this::newPermits);
+    Metrics metrics = new Metrics(indexName);
+
+    List<Future<?>> batches = Lists.newArrayList();
+    List<DatasetVariable> batch = Lists.newArrayListWithCapacity(batchSize);
+    int count = 0;
+
+    try {
+      for (DatasetVariable variable : variables) {
+        batch.add(variable);
+        count++;
+        if (batch.size() == batchSize) {
+          batches.add(submit(indexName, batch, permits, metrics));
+          batch = Lists.newArrayListWithCapacity(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) batches.add(submit(indexName, batch, permits, metrics));
+    } finally {
+      waitFor(indexName, batches, metrics);
+    }
+
+    log.debug("Indexed {} variables in {} batches into {}", count, batches.size(), indexName);
+    return count;
+  }
+
+  //
+  // Private methods
+  //
+
+  private Semaphore newPermits(String indexName) {
+    int parallelism = propertyResolver.getProperty(indexName + ".parallelism", Integer.class,
+      propertyResolver.getProperty("parallelism", Integer.class, DEFAULT_PARALLELISM));
+    return new Semaphore(Math.max(parallelism, 1));
+  }
+
+  private Future<?> submit(String indexName, List<DatasetVariable> batch, Semaphore permits, Metrics metrics) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while indexing variables in " + indexName, e);
+    }
+
+    metrics.inFlight.inc();
+    try {
+      return esIndexingExecutor.submit(() -> {
+        Timer.Context context = metrics.batches.time();
+        try {
+          indexer.indexAllIndexables(indexName, batch);
+          metrics.variables.mark(batch.size());
+        } finally {
+          context.stop();
+          metrics.inFlight.dec();
+          permits.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      metrics.inFlight.dec();
+      permits.release();
+      throw e;
+    }
+  }
+
+  private void waitFor(String indexName, List<Future<?>> batches, Metrics metrics) {
+    for (Future<?> batch : batches) {
+      try {
+        batch.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        metrics.failures.mark();
+        log.error("Error while indexing a batch of variables in {}", indexName, e.getCause());
+      }
+    }
+  }
+
+  private class Metrics {
+
+    private final Meter variables;
+
+    private final Timer batches;
+
+    private final Counter inFlight;
+
+    private final Meter failures;
+
+    Metrics(String indexName) {
+      variables = metricRegistry.meter(MetricRegistry.name(VariableIndexingPipeline.class, indexName, "variables"));
+      batches = metricRegistry.timer(MetricRegistry.name(VariableIndexingPipeline.class, indexName, "batches"));
+      inFlight = metricRegistry.counter(MetricRegistry.name(VariableIndexingPipeline.class, indexName, "inFlight"));
+      failures = metricRegistry.meter(MetricRegistry.name(VariableIndexingPipeline.class, indexName, "failures"));
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.search;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.obiba.mica.core.domain.DocumentSet;
+
+/**
+ * In-memory inverted index of the variable sets: the IDs of the sets each variable belongs to, so that the sets of a
+ * variable are found with one lookup instead of scanning the identifiers of every set.
+ */
+class VariableSetMembershipIndex {
+
+  private final Map<String, Set<String>> identifiersBySet = Maps.newHashMap();
+
+  private final Map<String, Set<String>> setsByIdentifier = Maps.newHashMap();
+
+  private boolean loaded;
+
+  synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * (Re)build the index from all the variable sets.
+   *
+   * @param documentSets
+   */
+  synchronized void load(Iterable<DocumentSet> documentSets) {
+    identifiersBySet.clear();
+    setsByIdentifier.clear();
+    documentSets.forEach(this::put);
+    loaded = true;
+  }
+
+  /**
+   * Replace the identifiers of the set.
+   *
+   * @param documentSet
+   * @return The previous identifiers of the set, empty if the set was not indexed
+   */
+  synchronized Set<String> update(DocumentSet documentSet) {
+    Set<String> previous = remove(documentSet.getId());
+    put(documentSet);
+    return previous;
+  }
+
+  /**
+   * Remove the set.
+   *
+   * @param setId
+   * @return The previous identifiers of the set, empty if the set was not indexed
+   */
+  synchronized Set<String> remove(String setId) {
+    Set<String> identifiers = identifiersBySet.remove(setId);
+    if (identifiers == null) return Collections.emptySet();
+
+    identifiers.forEach(identifier -> {
+      Set<String> setIds = setsByIdentifier.get(identifier);
+      if (setIds == null) return;
+      setIds.remove(setId);
+      if (setIds.isEmpty()) setsByIdentifier.remove(identifier);
+    });
+    return identifiers;
+  }
+
+  /**
+   * Get the IDs of the sets the variable belongs to.
+   *
+   * @param variableId
+   * @return
+   */
+  synchronized Set<String> getSetIds(String variableId) {
+    Set<String> setIds = setsByIdentifier.get(variableId);
+    return setIds == null ? Collections.emptySet() : ImmutableSet.copyOf(setIds);
+  }
+
+  private void put(DocumentSet documentSet) {
+    String setId = documentSet.getId();
+    Set<String> identifiers = Sets.newHashSet(documentSet.getIdentifiers());
+    identifiersBySet.put(setId, identifiers);
+    identifiers.forEach(identifier -> setsByIdentifier.computeIfAbsent(identifier, k -> Sets.newHashSet()).add(setId));
+  }
+}
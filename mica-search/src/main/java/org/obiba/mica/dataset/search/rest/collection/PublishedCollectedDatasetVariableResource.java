@@ -31,7 +31,7 @@ import org.springframework.stereotype.Component;
 import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
-import java.io.ByteArrayOutputStream;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 
 @Component
@@ -123,10 +123,11 @@ public class PublishedCollectedDatasetVariableResource extends AbstractPublished
     checkVariableSummaryAccess();
     checkContingencyAccess();
     Pair<DatasetVariable, DatasetVariable> variables = getContingencyVariables(crossVariable);
-    ByteArrayOutputStream res = new CsvContingencyWriter(variables.getFirst(), variables.getSecond())
-      .write(getContingencyDto(variables.getFirst(), variables.getSecond()));
+    Mica.DatasetVariableContingencyDto contingency = getContingencyDto(variables.getFirst(), variables.getSecond());
+    StreamingOutput stream = os -> new CsvContingencyWriter(variables.getFirst(), variables.getSecond())
+      .write(contingency, os);
 
-    return Response.ok(res.toByteArray()).header("Content-Disposition",
+    return Response.ok(stream).header("Content-Disposition",
       String.format("attachment; filename=\"contingency-table-%s-%s.csv\"", variableName, crossVariable)).build();
   }
 
@@ -139,10 +140,11 @@ public class PublishedCollectedDatasetVariableResource extends AbstractPublished
     checkVariableSummaryAccess();
     checkContingencyAccess();
     Pair<DatasetVariable, DatasetVariable> variables = getContingencyVariables(crossVariable);
-    ByteArrayOutputStream res = new ExcelContingencyWriter(variables.getFirst(), variables.getSecond())
-      .write(getContingencyDto(variables.getFirst(), variables.getSecond()));
+    Mica.DatasetVariableContingencyDto contingency = getContingencyDto(variables.getFirst(), variables.getSecond());
+    StreamingOutput stream = os -> new ExcelContingencyWriter(variables.getFirst(), variables.getSecond())
+      .write(contingency, os);
 
-    return Response.ok(res.toByteArray()).header("Content-Disposition",
+    return Response.ok(stream).header("Content-Disposition",
       String.format("attachment; filename=\"contingency-table-%s-%s.xlsx\"", variableName, crossVariable)).build();
   }
 
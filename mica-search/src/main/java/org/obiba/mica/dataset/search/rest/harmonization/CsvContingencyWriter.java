@@ -10,8 +10,8 @@
 
 package org.obiba.mica.dataset.search.rest.harmonization;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.List;
 import java.util.stream.IntStream;
@@ -39,24 +39,24 @@ public class CsvContingencyWriter {
     this.crossVar = crossVar;
   }
 
-  public ByteArrayOutputStream write(Mica.DatasetVariableContingenciesDto dto) throws IOException {
-    ByteArrayOutputStream ba = new ByteArrayOutputStream();
-
-    try(CSVWriter writer = new CSVWriter(new PrintWriter(ba))) {
-      writeBody(writer, dto);
-    }
-
-    return ba;
+  /**
+   * Write the contingency tables of each study table, followed by the combined one. The contingencies are all received
+   * beforehand, only their rows are formatted directly into the output.
+   *
+   * @param dto
+   * @param output left open
+   * @throws IOException
+   */
+  public void write(Mica.DatasetVariableContingenciesDto dto, OutputStream output) throws IOException {
+    CSVWriter writer = new CSVWriter(new PrintWriter(output));
+    writeBody(writer, dto);
+    writer.flush();
   }
 
-  public ByteArrayOutputStream write(Mica.DatasetVariableContingencyDto dto) throws IOException {
-    ByteArrayOutputStream ba = new ByteArrayOutputStream();
-
-    try(CSVWriter writer = new CSVWriter(new PrintWriter(ba))) {
-      writeBody(writer, dto);
-    }
-
-    return ba;
+  public void write(Mica.DatasetVariableContingencyDto dto, OutputStream output) throws IOException {
+    CSVWriter writer = new CSVWriter(new PrintWriter(output));
+    writeBody(writer, dto);
+    writer.flush();
   }
 
   private void writeBody(CSVWriter writer, Mica.DatasetVariableContingenciesDto dto) {
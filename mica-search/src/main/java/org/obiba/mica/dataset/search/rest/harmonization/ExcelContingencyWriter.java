@@ -10,8 +10,8 @@
 
 package org.obiba.mica.dataset.search.rest.harmonization;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
@@ -20,24 +20,33 @@ import com.google.common.collect.Lists;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.apache.poi.xssf.usermodel.XSSFColor;
 import org.apache.poi.xssf.usermodel.XSSFFont;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.obiba.mica.dataset.domain.DatasetVariable;
 import org.obiba.mica.web.model.Mica;
 
 import static org.obiba.mica.dataset.search.rest.harmonization.ContingencyUtils.getTermsHeaders;
 import static org.obiba.mica.dataset.search.rest.harmonization.ContingencyUtils.getValuesHeaders;
 
+/**
+ * Writes the contingency tables as a workbook, with one sheet per study table. The workbook is streamed: only a window
+ * of the last rows is kept in memory, the other ones are flushed to a temporary file until the workbook is written out.
+ */
 public class ExcelContingencyWriter {
   private static List<String> CONTINUOUS_VALUES = Lists.newArrayList("Min", "Max", "Mean", "Standard Deviation", "N");
 
+  private static final int ROW_ACCESS_WINDOW = 100;
+
+  // in units of 1/256th of a character, as set by the sheet
+  private static final int CHARACTER_WIDTH = 256;
+
+  private static final int MAX_COLUMN_WIDTH = 255 * CHARACTER_WIDTH;
+
   private DatasetVariable crossVariable;
 
   private DatasetVariable variable;
@@ -53,36 +62,38 @@ public class ExcelContingencyWriter {
     this.crossVariable = crossVariable;
   }
 
-  public ByteArrayOutputStream write(Mica.DatasetVariableContingenciesDto dto) throws IOException {
-    XSSFWorkbook workbook = createWorkbook();
-    writeBody(workbook, dto);
-    ByteArrayOutputStream ba = new ByteArrayOutputStream();
-    workbook.write(ba);
-
-    return ba;
+  public void write(Mica.DatasetVariableContingenciesDto dto, OutputStream output) throws IOException {
+    SXSSFWorkbook workbook = createWorkbook();
+    try {
+      writeBody(workbook, dto);
+      workbook.write(output);
+    } finally {
+      workbook.dispose();
+    }
   }
 
-  public ByteArrayOutputStream write(Mica.DatasetVariableContingencyDto dto) throws IOException {
-    XSSFWorkbook workbook = createWorkbook();
-    writeBody(workbook, dto);
-    ByteArrayOutputStream ba = new ByteArrayOutputStream();
-    workbook.write(ba);
-
-    return ba;
+  public void write(Mica.DatasetVariableContingencyDto dto, OutputStream output) throws IOException {
+    SXSSFWorkbook workbook = createWorkbook();
+    try {
+      writeBody(workbook, dto);
+      workbook.write(output);
+    } finally {
+      workbook.dispose();
+    }
   }
 
-  private XSSFWorkbook createWorkbook() {
-    XSSFWorkbook workbook = new XSSFWorkbook();
+  private SXSSFWorkbook createWorkbook() {
+    SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
 
-    XSSFFont fontTitle = workbook.createFont();
+    XSSFFont fontTitle = (XSSFFont) workbook.createFont();
     fontTitle.setBold(true);
-    titleStyle = workbook.createCellStyle();
+    titleStyle = (XSSFCellStyle) workbook.createCellStyle();
     titleStyle.setFont(fontTitle);
     titleStyle.setAlignment(CellStyle.ALIGN_CENTER);
 
-    XSSFFont font = workbook.createFont();
+    XSSFFont font = (XSSFFont) workbook.createFont();
     font.setBold(true);
-    headerStyle = workbook.createCellStyle();
+    headerStyle = (XSSFCellStyle) workbook.createCellStyle();
     headerStyle.setFillForegroundColor(new XSSFColor(new java.awt.Color(200, 200, 200)));
     headerStyle.setFillPattern(CellStyle.SOLID_FOREGROUND);
     headerStyle.setFont(font);
@@ -92,7 +103,7 @@ public class ExcelContingencyWriter {
     headerStyle.setBorderRight(CellStyle.BORDER_THIN);
     headerStyle.setAlignment(CellStyle.ALIGN_CENTER);
 
-    tableStyle = workbook.createCellStyle();
+    tableStyle = (XSSFCellStyle) workbook.createCellStyle();
     tableStyle.setBorderBottom(CellStyle.BORDER_THIN);
     tableStyle.setBorderTop(CellStyle.BORDER_THIN);
     tableStyle.setBorderLeft(CellStyle.BORDER_THIN);
@@ -101,7 +112,7 @@ public class ExcelContingencyWriter {
     return workbook;
   }
 
-  private void writeBody(XSSFWorkbook workbook, Mica.DatasetVariableContingenciesDto dto) {
+  private void writeBody(SXSSFWorkbook workbook, Mica.DatasetVariableContingenciesDto dto) {
     List<String> terms = getTermsHeaders(variable, dto);
     List<String> values = getValuesHeaders(crossVariable, dto);
 
@@ -109,19 +120,19 @@ public class ExcelContingencyWriter {
       addOpalTableSheet(workbook, c, terms, values);
     }
 
-    XSSFSheet sheet = workbook.createSheet("All");
+    Sheet sheet = workbook.createSheet("All");
     Mica.DatasetVariableContingencyDto c = dto.getAll();
     writeTable(sheet, c, "All", terms, values);
   }
 
-  private void writeBody(XSSFWorkbook workbook, Mica.DatasetVariableContingencyDto dto) {
+  private void writeBody(SXSSFWorkbook workbook, Mica.DatasetVariableContingencyDto dto) {
     List<String> terms = getTermsHeaders(variable, dto);
     List<String> values = getValuesHeaders(crossVariable, dto);
 
     addOpalTableSheet(workbook, dto, terms, values);
   }
 
-  private void addOpalTableSheet(XSSFWorkbook workbook, Mica.DatasetVariableContingencyDto dto, List<String> terms, List<String> values) {
+  private void addOpalTableSheet(SXSSFWorkbook workbook, Mica.DatasetVariableContingencyDto dto, List<String> terms, List<String> values) {
     String tableName;
 
     if(dto.hasStudyTable()) {
@@ -130,11 +141,11 @@ public class ExcelContingencyWriter {
       tableName = String.format("%s %s", dto.getHarmonizationStudyTable().getTable(), dto.getHarmonizationStudyTable().getPopulationId());
     }
 
-    XSSFSheet sheet = workbook.createSheet(WorkbookUtil.createSafeSheetName(tableName, '-'));
+    Sheet sheet = workbook.createSheet(WorkbookUtil.createSafeSheetName(tableName, '-'));
     writeTable(sheet, dto, tableName, terms, values);
   }
 
-  private void writeTable(XSSFSheet sheet, Mica.DatasetVariableContingencyDto c, String title, List<String> terms,
+  private void writeTable(Sheet sheet, Mica.DatasetVariableContingencyDto c, String title, List<String> terms,
     List<String> values) {
     if("CONTINUOUS".equals(crossVariable.getNature())) {
       writeTable(sheet, ContingencyUtils.getContinuousRows(c, terms), title, terms, CONTINUOUS_VALUES, true);
@@ -143,7 +154,7 @@ public class ExcelContingencyWriter {
     }
   }
 
-  private <T extends Number> void writeTable(XSSFSheet sheet, List<List<T>> tmp, String title, List<String> headers,
+  private <T extends Number> void writeTable(Sheet sheet, List<List<T>> tmp, String title, List<String> headers,
     List<String> values, boolean isContinuous) {
     writeTableHeaders(sheet, title, headers);
 
@@ -152,11 +163,14 @@ public class ExcelContingencyWriter {
 
     int counter = 0;
     int rownum = 4;
+    // the rows are flushed as they are written, so the row headers column is sized along
+    int headerLength = 0;
 
     for(String k : rowHeaders) {
+      headerLength = Math.max(headerLength, k.length());
       int cellnum = 0;
-      XSSFRow row = sheet.createRow(rownum++);
-      XSSFCell cell = row.createCell(cellnum++);
+      Row row = sheet.createRow(rownum++);
+      Cell cell = row.createCell(cellnum++);
       cell.setCellValue(k);
       cell.setCellStyle(headerStyle);
 
@@ -172,10 +186,10 @@ public class ExcelContingencyWriter {
       counter++;
     }
 
-    sheet.autoSizeColumn(0);
+    sheet.setColumnWidth(0, Math.min(MAX_COLUMN_WIDTH, (headerLength + 2) * CHARACTER_WIDTH));
   }
 
-  private void writeTableHeaders(XSSFSheet sheet, String title, List<String> headers) {
+  private void writeTableHeaders(Sheet sheet, String title, List<String> headers) {
     int colNum = headers.size() + 1;
 
     IntStream.rangeClosed(0, 3).forEach(i -> {
@@ -213,7 +227,7 @@ public class ExcelContingencyWriter {
     addMergedStyles(sheet, new CellRangeAddress(2, 3, 0, colNum));
   }
 
-  private void addMergedStyles(final XSSFSheet sheet, final CellRangeAddress r) {
+  private void addMergedStyles(final Sheet sheet, final CellRangeAddress r) {
     IntStream.rangeClosed(r.getFirstRow(), r.getLastRow()).forEach(i -> {
       final Row temp = sheet.getRow(i);
       IntStream.rangeClosed(r.getFirstColumn(), r.getLastColumn())
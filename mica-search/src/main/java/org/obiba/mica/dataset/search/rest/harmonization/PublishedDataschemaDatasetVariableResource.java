@@ -12,39 +12,32 @@ package org.obiba.mica.dataset.search.rest.harmonization;
 
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import org.apache.commons.math3.util.Pair;
 import org.obiba.magma.NoSuchValueTableException;
 import org.obiba.magma.NoSuchVariableException;
 import org.obiba.mica.core.domain.BaseStudyTable;
-import org.obiba.mica.core.domain.HarmonizationStudyTable;
-import org.obiba.mica.core.domain.OpalTable;
-import org.obiba.mica.core.domain.StudyTable;
 import org.obiba.mica.dataset.DatasetVariableResource;
 import org.obiba.mica.dataset.domain.DatasetVariable;
 import org.obiba.mica.dataset.domain.HarmonizationDataset;
 import org.obiba.mica.dataset.search.rest.AbstractPublishedDatasetResource;
 import org.obiba.mica.dataset.service.HarmonizedDatasetService;
+import org.obiba.mica.dataset.service.StudyTableStatisticsExecutor;
 import org.obiba.mica.web.model.Mica;
 import org.obiba.opal.web.model.Math;
 import org.obiba.opal.web.model.Search;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
-import java.io.ByteArrayOutputStream;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.Future;
 
 /**
  * Dataschema variable resource: variable describing an harmonization dataset.
@@ -64,7 +57,7 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
   private HarmonizedDatasetService datasetService;
 
   @Inject
-  private Helper helper;
+  private StudyTableStatisticsExecutor studyTableStatisticsExecutor;
 
   @GET
   @Timed
@@ -79,20 +72,13 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
   public List<Math.SummaryStatisticsDto> getVariableSummaries() {
     checkDatasetAccess();
     checkVariableSummaryAccess();
-    ImmutableList.Builder<Math.SummaryStatisticsDto> builder = ImmutableList.builder();
     HarmonizationDataset dataset = getDataset(HarmonizationDataset.class, datasetId);
-    dataset.getBaseStudyTables().forEach(table -> {
-      try {
-        String studyId = table.getStudyId();
-        builder.add(datasetService
-          .getVariableSummary(dataset, variableName, studyId, table.getProject(), table.getTable())
-          .getWrappedDto());
-      } catch (NoSuchVariableException | NoSuchValueTableException e) {
-        // case the study has not implemented this dataschema variable
-        builder.add(Math.SummaryStatisticsDto.newBuilder().setResource(variableName).build());
-      }
-    });
-    return builder.build();
+    return studyTableStatisticsExecutor.scatterGather(dataset.getBaseStudyTables(),
+      table -> getVariableSummary(dataset, table),
+      // case the study has not implemented this dataschema variable
+      (table, summary) -> summary == null
+        ? Math.SummaryStatisticsDto.newBuilder().setResource(variableName).build()
+        : summary);
   }
 
   @GET
@@ -101,19 +87,11 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
   public List<Search.QueryResultDto> getVariableFacets() {
     checkDatasetAccess();
     checkVariableSummaryAccess();
-    ImmutableList.Builder<Search.QueryResultDto> builder = ImmutableList.builder();
     HarmonizationDataset dataset = getDataset(HarmonizationDataset.class, datasetId);
-    dataset.getBaseStudyTables().forEach(table -> {
-      try {
-        String studyId = table.getStudyId();
-        builder.add(datasetService
-          .getVariableFacet(dataset, variableName, studyId, table.getProject(), table.getTable()));
-      } catch (NoSuchVariableException | NoSuchValueTableException e) {
-        // case the study has not implemented this dataschema variable
-        builder.add(Search.QueryResultDto.newBuilder().setTotalHits(0).build());
-      }
-    });
-    return builder.build();
+    return studyTableStatisticsExecutor.scatterGather(dataset.getBaseStudyTables(),
+      table -> getVariableFacet(dataset, table),
+      // case the study has not implemented this dataschema variable
+      (table, facet) -> facet == null ? Search.QueryResultDto.newBuilder().setTotalHits(0).build() : facet);
   }
 
   @GET
@@ -122,25 +100,19 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
   public Mica.DatasetVariableAggregationsDto getVariableAggregations(@QueryParam("study") @DefaultValue("true") boolean withStudySummary) {
     checkDatasetAccess();
     checkVariableSummaryAccess();
-    ImmutableList.Builder<Mica.DatasetVariableAggregationDto> builder = ImmutableList.builder();
     HarmonizationDataset dataset = getDataset(HarmonizationDataset.class, datasetId);
     Mica.DatasetVariableAggregationsDto.Builder aggDto = Mica.DatasetVariableAggregationsDto.newBuilder();
 
-    List<Future<Math.SummaryStatisticsDto>> results = Lists.newArrayList();
-    dataset.getBaseStudyTables().forEach(table -> results.add(helper.getVariableFacet(dataset, variableName, table)));
-
-    for (int i = 0; i < dataset.getBaseStudyTables().size(); i++) {
-      BaseStudyTable opalTable = dataset.getBaseStudyTables().get(i);
-      Future<Math.SummaryStatisticsDto> futureResult = results.get(i);
-      try {
-        builder.add(dtos.asDto(opalTable, futureResult.get(), withStudySummary).build());
-      } catch (Exception e) {
-        log.warn("Unable to retrieve statistics: " + e.getMessage(), e);
-        builder.add(dtos.asDto(opalTable, null, withStudySummary).build());
-      }
-    }
-
-    List<Mica.DatasetVariableAggregationDto> aggsDto = builder.build();
+    List<Mica.DatasetVariableAggregationDto> aggsDto = studyTableStatisticsExecutor.scatterGather(
+      dataset.getBaseStudyTables(), table -> {
+        try {
+          return getVariableSummary(dataset, table);
+        } catch (RuntimeException e) {
+          log.warn("Unable to retrieve statistics: " + e.getMessage(), e);
+          return null;
+        }
+      },
+      (table, summary) -> dtos.asDto(table, summary, withStudySummary).build());
     Mica.DatasetVariableAggregationDto allAggDto = CombinedStatistics.mergeAggregations(aggsDto);
     aggDto.setN(allAggDto.getN());
     aggDto.setTotal(allAggDto.getTotal());
@@ -172,10 +144,12 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
     checkVariableSummaryAccess();
     checkContingencyAccess();
     Pair<DatasetVariable, DatasetVariable> variables = getContingencyVariables(crossVariable);
-    ByteArrayOutputStream value = new CsvContingencyWriter(variables.getFirst(), variables.getSecond())
-      .write(getDatasetVariableContingenciesDto(variables.getFirst(), variables.getSecond()));
+    Mica.DatasetVariableContingenciesDto contingency = getDatasetVariableContingenciesDto(variables.getFirst(),
+      variables.getSecond());
+    StreamingOutput stream = os -> new CsvContingencyWriter(variables.getFirst(), variables.getSecond())
+      .write(contingency, os);
 
-    return Response.ok(value.toByteArray()).header("Content-Disposition",
+    return Response.ok(stream).header("Content-Disposition",
       String.format("attachment; filename=\"contingency-table-%s-%s.csv\"", variableName, crossVariable)).build();
   }
 
@@ -188,10 +162,12 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
     checkVariableSummaryAccess();
     checkContingencyAccess();
     Pair<DatasetVariable, DatasetVariable> variables = getContingencyVariables(crossVariable);
-    ByteArrayOutputStream value = new ExcelContingencyWriter(variables.getFirst(), variables.getSecond())
-      .write(getDatasetVariableContingenciesDto(variables.getFirst(), variables.getSecond()));
+    Mica.DatasetVariableContingenciesDto contingency = getDatasetVariableContingenciesDto(variables.getFirst(),
+      variables.getSecond());
+    StreamingOutput stream = os -> new ExcelContingencyWriter(variables.getFirst(), variables.getSecond())
+      .write(contingency, os);
 
-    return Response.ok(value.toByteArray()).header("Content-Disposition",
+    return Response.ok(stream).header("Content-Disposition",
       String.format("attachment; filename=\"contingency-table-%s-%s.xlsx\"", variableName, crossVariable)).build();
   }
 
@@ -228,27 +204,29 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
     HarmonizationDataset dataset = getDataset(HarmonizationDataset.class, datasetId);
     Mica.DatasetVariableContingenciesDto.Builder crossDto = Mica.DatasetVariableContingenciesDto.newBuilder();
 
-    List<Future<Search.QueryResultDto>> results = Lists.newArrayList();
-    dataset.getBaseStudyTables().forEach(table -> results.add(helper.getContingencyTable(dataset, var, crossVar, table)));
-
     Multimap<String, Mica.DatasetVariableAggregationDto> termAggregations = LinkedListMultimap.create();
 
-    for (int i = 0; i < dataset.getBaseStudyTables().size(); i++) {
-      BaseStudyTable opalTable = dataset.getBaseStudyTables().get(i);
-      Future<Search.QueryResultDto> futureResult = results.get(i);
+    // the contingency of each table is converted as soon as it is received, in the order the tables answer
+    List<Mica.DatasetVariableContingencyDto> contingencies = studyTableStatisticsExecutor.scatterGather(
+      dataset.getBaseStudyTables(), table -> {
+        try {
+          return datasetService.getContingencyTable(table, var, crossVar);
+        } catch (RuntimeException e) {
+          log.warn("Unable to retrieve contingency table: " + e.getMessage(), e);
+          return null;
+        }
+      },
+      (table, result) -> {
+        if (result == null) return dtos.asContingencyDto(table, var, crossVar, null).build();
 
-      try {
-        Mica.DatasetVariableContingencyDto studyTableCrossDto = dtos
-          .asContingencyDto(opalTable, var, crossVar, futureResult.get()).build();
+        Mica.DatasetVariableContingencyDto studyTableCrossDto = dtos.asContingencyDto(table, var, crossVar, result)
+          .build();
         termAggregations.put(null, studyTableCrossDto.getAll());
         studyTableCrossDto.getAggregationsList()
           .forEach(termAggDto -> termAggregations.put(termAggDto.getTerm(), termAggDto));
-        crossDto.addContingencies(studyTableCrossDto);
-      } catch (Exception e) {
-        log.warn("Unable to retrieve contingency table: " + e.getMessage(), e);
-        crossDto.addContingencies(dtos.asContingencyDto(opalTable, var, crossVar, null));
-      }
-    }
+        return studyTableCrossDto;
+      });
+    crossDto.addAllContingencies(contingencies);
 
     // Merge aggregations by term (=variable category) + all terms aggregation.
     Mica.DatasetVariableContingencyDto.Builder allContingencies = Mica.DatasetVariableContingencyDto.newBuilder();
@@ -280,42 +258,22 @@ public class PublishedDataschemaDatasetVariableResource extends AbstractPublishe
     subjectAclService.checkAccess("/harmonized-dataset", datasetId);
   }
 
-  @Component
-  public static class Helper {
-
-    @Inject
-    protected HarmonizedDatasetService datasetService;
-
-    @Async
-    protected Future<Math.SummaryStatisticsDto> getVariableFacet(HarmonizationDataset dataset, String variableName,
-                                                                 OpalTable table) {
-      try {
-        String studyId = null;
-
-        if (table instanceof StudyTable) {
-          studyId = ((StudyTable) table).getStudyId();
-        } else if (table instanceof HarmonizationStudyTable) {
-          studyId = ((HarmonizationStudyTable) table).getStudyId();
-        }
-
-        return new AsyncResult<>(datasetService
-          .getVariableSummary(dataset, variableName, studyId, table.getProject(), table.getTable())
-          .getWrappedDto());
-      } catch (Exception e) {
-        log.warn("Unable to retrieve statistics: " + e.getMessage(), e);
-        return new AsyncResult<>(null);
-      }
+  private Math.SummaryStatisticsDto getVariableSummary(HarmonizationDataset dataset, BaseStudyTable table) {
+    try {
+      return datasetService
+        .getVariableSummary(dataset, variableName, table.getStudyId(), table.getProject(), table.getTable())
+        .getWrappedDto();
+    } catch (NoSuchVariableException | NoSuchValueTableException e) {
+      return null;
     }
+  }
 
-    @Async
-    protected Future<Search.QueryResultDto> getContingencyTable(HarmonizationDataset dataset, DatasetVariable var,
-                                                                DatasetVariable crossVar, OpalTable table) {
-      try {
-        return new AsyncResult<>(datasetService.getContingencyTable(table, var, crossVar));
-      } catch (Exception e) {
-        log.warn("Unable to retrieve contingency statistics: " + e.getMessage(), e);
-        return new AsyncResult<>(null);
-      }
+  private Search.QueryResultDto getVariableFacet(HarmonizationDataset dataset, BaseStudyTable table) {
+    try {
+      return datasetService
+        .getVariableFacet(dataset, variableName, table.getStudyId(), table.getProject(), table.getTable());
+    } catch (NoSuchVariableException | NoSuchValueTableException e) {
+      return null;
     }
   }
 }
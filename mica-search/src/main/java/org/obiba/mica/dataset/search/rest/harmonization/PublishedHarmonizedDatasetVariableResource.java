@@ -30,7 +30,7 @@ import org.springframework.stereotype.Component;
 import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
-import java.io.ByteArrayOutputStream;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 
 /**
@@ -147,10 +147,11 @@ public class PublishedHarmonizedDatasetVariableResource extends AbstractPublishe
     checkDatasetAccess();
     checkVariableSummaryAccess();
     Pair<DatasetVariable, DatasetVariable> variables = getContingencyVariables(crossVariable);
-    ByteArrayOutputStream res = new CsvContingencyWriter(variables.getFirst(), variables.getSecond())
-      .write(getContingencyDto(variables.getFirst(), variables.getSecond()));
+    Mica.DatasetVariableContingencyDto contingency = getContingencyDto(variables.getFirst(), variables.getSecond());
+    StreamingOutput stream = os -> new CsvContingencyWriter(variables.getFirst(), variables.getSecond())
+      .write(contingency, os);
 
-    return Response.ok(res.toByteArray()).header("Content-Disposition",
+    return Response.ok(stream).header("Content-Disposition",
       String.format("attachment; filename=\"contingency-table-%s-%s.csv\"", variableName, crossVariable)).build();
   }
 
@@ -162,10 +163,11 @@ public class PublishedHarmonizedDatasetVariableResource extends AbstractPublishe
     checkDatasetAccess();
     checkVariableSummaryAccess();
     Pair<DatasetVariable, DatasetVariable> variables = getContingencyVariables(crossVariable);
-    ByteArrayOutputStream res = new ExcelContingencyWriter(variables.getFirst(), variables.getSecond())
-      .write(getContingencyDto(variables.getFirst(), variables.getSecond()));
+    Mica.DatasetVariableContingencyDto contingency = getContingencyDto(variables.getFirst(), variables.getSecond());
+    StreamingOutput stream = os -> new ExcelContingencyWriter(variables.getFirst(), variables.getSecond())
+      .write(contingency, os);
 
-    return Response.ok(res.toByteArray()).header("Content-Disposition",
+    return Response.ok(stream).header("Content-Disposition",
       String.format("attachment; filename=\"contingency-table-%s-%s.xlsx\"", variableName, crossVariable)).build();
   }
 
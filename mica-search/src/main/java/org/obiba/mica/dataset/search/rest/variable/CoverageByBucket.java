@@ -11,6 +11,7 @@
 package org.obiba.mica.dataset.search.rest.variable;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
@@ -25,6 +26,7 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 @Component
 @Scope("prototype")
@@ -41,6 +43,11 @@ class CoverageByBucket {
 
   private List<BucketRow> bucketRows = Lists.newArrayList();
 
+  // bucket rows by field and value
+  private final Map<String, Map<String, BucketRow>> bucketRowIndex = Maps.newHashMap();
+
+  private Taxonomy variableTaxonomy;
+
   private int termsCount = 0;
 
   private String locale;
@@ -69,6 +76,7 @@ class CoverageByBucket {
 
   void initialize(MicaSearch.TaxonomiesCoverageDto coverage) {
     initializeLocale(coverage);
+    variableTaxonomy = taxonomyConfigService.findByTarget(TaxonomyTarget.VARIABLE);
     for(MicaSearch.TaxonomyCoverageDto taxonomyCoverage : coverage.getTaxonomiesList()) {
       int taxonomyTermsCount = 0;
       for(MicaSearch.VocabularyCoverageDto vocabularyCoverage : taxonomyCoverage.getVocabulariesList()) {
@@ -81,6 +89,7 @@ class CoverageByBucket {
             if(row == null) {
               row = new BucketRow(bucketCoverage);
               bucketRows.add(row);
+              bucketRowIndex.computeIfAbsent(row.field, field -> Maps.newHashMap()).put(row.value, row);
             }
             row.setHits(termsCount - 1, bucketCoverage);
           }
@@ -109,10 +118,8 @@ class CoverageByBucket {
 
   @Nullable
   private BucketRow findBucketRow(MicaSearch.BucketCoverageDto bucketCoverage) {
-    for(BucketRow row : bucketRows) {
-      if(row.field.equals(bucketCoverage.getField()) && row.value.equals(bucketCoverage.getValue())) return row;
-    }
-    return null;
+    Map<String, BucketRow> rows = bucketRowIndex.get(bucketCoverage.getField());
+    return rows == null ? null : rows.get(bucketCoverage.getValue());
   }
 
   class TaxonomyHeader {
@@ -193,8 +200,6 @@ class CoverageByBucket {
     final List<Integer> counts = Lists.newArrayList();
 
     BucketRow(MicaSearch.BucketCoverageDto bucketCoverage) {
-      Taxonomy variableTaxonomy = taxonomyConfigService.findByTarget(TaxonomyTarget.VARIABLE);
-
       field = bucketCoverage.getField();
       if(variableTaxonomy.hasVocabulary(field) &&
         variableTaxonomy.getVocabulary(field).getTitle().containsKey(locale)) {
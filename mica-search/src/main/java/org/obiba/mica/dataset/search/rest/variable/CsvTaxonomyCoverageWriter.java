@@ -14,10 +14,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.obiba.mica.web.model.MicaSearch;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import au.com.bytecode.opencsv.CSVWriter;
 
@@ -40,12 +44,11 @@ public class CsvTaxonomyCoverageWriter {
 
   private List<String> writeHeader(CSVWriter writer, MicaSearch.TaxonomiesCoverageDto coverage) {
     List<String> headers = Lists.newArrayList("Taxonomy", "Vocabulary", "Term");
-    List<String> bucketNames = Lists.newArrayList();
+    Set<String> bucketNames = Sets.newLinkedHashSet();
     if(coverage.getTaxonomiesCount() > 0) {
       coverage.getTaxonomiesList().forEach(taxo -> {
         if(taxo.getBucketsCount() > 0) {
-          taxo.getBucketsList().stream().filter(bucket -> !bucketNames.contains(bucket.getValue()))
-            .forEach(bucket -> bucketNames.add(bucket.getValue()));
+          taxo.getBucketsList().forEach(bucket -> bucketNames.add(bucket.getValue()));
         }
       });
     }
@@ -53,7 +56,7 @@ public class CsvTaxonomyCoverageWriter {
 
     writer.writeNext(headers.toArray(new String[headers.size()]));
 
-    return bucketNames;
+    return Lists.newArrayList(bucketNames);
   }
 
   private void writeBody(CSVWriter writer, MicaSearch.TaxonomiesCoverageDto coverage, List<String> bucketNames) {
@@ -85,19 +88,10 @@ public class CsvTaxonomyCoverageWriter {
     row.add(vocName);
     row.add(term.getTerm().getName());
 
-    bucketNames.forEach(b -> {
-      boolean found = false;
-      for(MicaSearch.BucketCoverageDto bucket : term.getBucketsList()) {
-        if(bucket.getValue().equals(b)) {
-          row.add(bucket.getHits() + "");
-          found = true;
-          break;
-        }
-      }
-      if(!found) {
-        row.add("0");
-      }
-    });
+    // first bucket with the name wins
+    Map<String, Integer> bucketHits = Maps.newHashMap();
+    term.getBucketsList().forEach(bucket -> bucketHits.putIfAbsent(bucket.getValue(), bucket.getHits()));
+    bucketNames.forEach(b -> row.add(bucketHits.getOrDefault(b, 0) + ""));
 
     writer.writeNext(row.toArray(new String[row.size()]));
   }
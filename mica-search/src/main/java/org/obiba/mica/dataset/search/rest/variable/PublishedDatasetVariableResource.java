@@ -25,6 +25,7 @@ import org.obiba.mica.dataset.search.rest.harmonization.PublishedHarmonizedDatas
 import org.obiba.mica.dataset.search.rest.collection.PublishedCollectedDatasetVariableResource;
 import org.obiba.mica.dataset.service.HarmonizedDatasetService;
 import org.obiba.mica.dataset.service.CollectedDatasetService;
+import org.obiba.mica.dataset.service.DatasetVariablesCacheWarmer;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
@@ -40,6 +41,9 @@ public class PublishedDatasetVariableResource {
   @Inject
   private HarmonizedDatasetService harmonizedDatasetService;
 
+  @Inject
+  private DatasetVariablesCacheWarmer datasetVariablesCacheWarmer;
+
   @Inject
   private ApplicationContext applicationContext;
 
@@ -72,6 +76,7 @@ public class PublishedDatasetVariableResource {
     }
 
     if (resource != null) {
+      datasetVariablesCacheWarmer.recordView(resolver.getDatasetId(), resolver.getName());
       resource.setDatasetId(resolver.getDatasetId());
       resource.setVariableName(resolver.getName());
       return resource;
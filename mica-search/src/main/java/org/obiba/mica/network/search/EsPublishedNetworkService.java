@@ -15,6 +15,8 @@ import org.obiba.mica.network.domain.Network;
 import org.obiba.mica.network.service.NetworkService;
 import org.obiba.mica.network.service.PublishedNetworkService;
 import org.obiba.mica.search.AbstractIdentifiedDocumentService;
+import org.obiba.mica.search.AccessibleIdFilterCache;
+import org.obiba.mica.search.PublishedDocumentCache;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.spi.search.Searcher;
 import org.springframework.stereotype.Service;
@@ -22,8 +24,6 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.stream.Collectors;
 
 @Service
 public class EsPublishedNetworkService extends AbstractIdentifiedDocumentService<Network>
@@ -55,17 +55,16 @@ public class EsPublishedNetworkService extends AbstractIdentifiedDocumentService
     return Indexer.NETWORK_TYPE;
   }
 
+  @Nullable
+  @Override
+  protected PublishedDocumentCache.Region getCacheRegion() {
+    return PublishedDocumentCache.Region.NETWORK;
+  }
+
   @Nullable
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-      @Override
-      public Collection<String> getValues() {
-        return networkService.findPublishedIds().stream()
-          .filter(s -> subjectAclService.isAccessible("/network", s))
-          .collect(Collectors.toList());
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.NETWORK);
   }
 }
@@ -17,6 +17,9 @@ import java.util.stream.Collectors;
 import javax.inject.Inject;
 import org.obiba.mica.core.domain.Membership;
 import org.obiba.mica.core.service.PersonService;
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
+import org.obiba.mica.search.CoverageResultCache;
+import org.obiba.mica.search.PublishedDocumentCache;
 import org.obiba.mica.network.domain.Network;
 import org.obiba.mica.network.event.IndexNetworksEvent;
 import org.obiba.mica.network.event.NetworkDeletedEvent;
@@ -44,6 +47,15 @@ public class NetworkIndexer {
   @Inject
   private Indexer indexer;
 
+  @Inject
+  private AggregationMetaDataDictionary aggregationMetaDataDictionary;
+
+  @Inject
+  private PublishedDocumentCache publishedDocumentCache;
+
+  @Inject
+  private CoverageResultCache coverageResultCache;
+
   @Async
   @Subscribe
   public void networkUpdated(NetworkUpdatedEvent event) {
@@ -56,6 +68,8 @@ public class NetworkIndexer {
   public void networkPublished(NetworkPublishedEvent event) {
     log.info("Network {} was published", event.getPersistable());
     indexer.index(Indexer.PUBLISHED_NETWORK_INDEX, addMemberships(event.getPersistable()));
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.NETWORK, event.getPersistable().getId());
+    invalidateSearchResults();
   }
 
   @Async
@@ -63,6 +77,8 @@ public class NetworkIndexer {
   public void networkPublished(NetworkUnpublishedEvent event) {
     log.info("Network {} was unpublished", event.getPersistable());
     indexer.delete(Indexer.PUBLISHED_NETWORK_INDEX, event.getPersistable());
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.NETWORK, event.getPersistable().getId());
+    invalidateSearchResults();
   }
 
   @Async
@@ -71,6 +87,8 @@ public class NetworkIndexer {
     log.info("Network {} was deleted", event.getPersistable());
     indexer.delete(Indexer.DRAFT_NETWORK_INDEX, event.getPersistable());
     indexer.delete(Indexer.PUBLISHED_NETWORK_INDEX, event.getPersistable());
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.NETWORK, event.getPersistable().getId());
+    invalidateSearchResults();
   }
 
   @Async
@@ -87,6 +105,14 @@ public class NetworkIndexer {
       indexer.indexAll(Indexer.PUBLISHED_NETWORK_INDEX, addMemberships(networkService.findAllPublishedNetworks(networkIds)));
       indexer.indexAll(Indexer.DRAFT_NETWORK_INDEX, addMemberships(networkService.findAllNetworks(networkIds)));
     }
+    publishedDocumentCache.evictAll(PublishedDocumentCache.Region.NETWORK);
+    invalidateSearchResults();
+  }
+
+  private void invalidateSearchResults() {
+    aggregationMetaDataDictionary.invalidate(AggregationMetaDataDictionary.NETWORK);
+    // coverages computed while the networks were being indexed are discarded
+    coverageResultCache.advanceEpoch();
   }
 
   private void reIndexAll(String indexName, Iterable<Network> networks) {
@@ -15,6 +15,7 @@ import org.obiba.mica.project.domain.Project;
 import org.obiba.mica.project.service.ProjectService;
 import org.obiba.mica.project.service.PublishedProjectService;
 import org.obiba.mica.search.AbstractIdentifiedDocumentService;
+import org.obiba.mica.search.AccessibleIdFilterCache;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.spi.search.Searcher;
 import org.springframework.stereotype.Service;
@@ -22,8 +23,6 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.stream.Collectors;
 
 @Service
 public class EsPublishedProjectService extends AbstractIdentifiedDocumentService<Project> implements
@@ -59,13 +58,6 @@ public class EsPublishedProjectService extends AbstractIdentifiedDocumentService
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-      @Override
-      public Collection<String> getValues() {
-        return projectService.findPublishedIds().stream()
-          .filter(s -> subjectAclService.isAccessible("/project", s))
-          .collect(Collectors.toList());
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.PROJECT);
   }
 }
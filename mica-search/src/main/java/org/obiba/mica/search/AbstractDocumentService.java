@@ -11,7 +11,6 @@
 package org.obiba.mica.search;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import org.obiba.mica.core.service.DocumentService;
 import org.obiba.mica.micaConfig.service.MicaConfigService;
 import org.obiba.mica.security.service.SubjectAclService;
@@ -47,6 +46,12 @@ public abstract class AbstractDocumentService<T> implements DocumentService<T> {
   @Inject
   protected SubjectAclService subjectAclService;
 
+  @Inject
+  protected AccessibleIdFilterCache accessibleIdFilterCache;
+
+  @Inject
+  private Suggester suggester;
+
   @Override
   public List<T> findAll() {
     log.debug("findAll {}", getClass());
@@ -97,7 +102,7 @@ public abstract class AbstractDocumentService<T> implements DocumentService<T> {
 
   @Override
   public List<String> suggest(int limit, String locale, String queryString) {
-    return suggest(limit, locale, queryString, null, this::filterSuggestions);
+    return suggest(limit, locale, queryString, null, this::filterSuggestions, true);
   }
 
   @Override
@@ -106,15 +111,22 @@ public abstract class AbstractDocumentService<T> implements DocumentService<T> {
                               String queryString,
                               List<String> suggestedFields,
                               Function<Set<String>, Set<String>> filterFunction) {
+    return suggest(limit, locale, queryString, suggestedFields, filterFunction, false);
+  }
 
-    Set<String> suggestions = Sets.newLinkedHashSet();
+  @Override
+  public long getCount() {
+    return getCountByRql("");
+  }
 
+  private List<String> suggest(int limit, String locale, String queryString, List<String> suggestedFields,
+                               Function<Set<String>, Set<String>> filterFunction, boolean useCache) {
     if (suggestedFields == null || suggestedFields.isEmpty()) {
       suggestedFields = getSuggestionFields();
     }
 
-    // query default fields separately otherwise we do not know which field has matched and suggestion might not be correct
-    suggestedFields.forEach(df -> suggestions.addAll(searcher.suggest(getIndexName(), getType(), limit, locale, queryString, df)));
+    Set<String> suggestions = suggester.suggest(getIndexName(), getType(), limit, locale, queryString, suggestedFields,
+      useCache);
 
     if (filterFunction == null) {
       return new ArrayList<>(new HashSet<>(suggestions));
@@ -123,11 +135,6 @@ public abstract class AbstractDocumentService<T> implements DocumentService<T> {
     return Lists.newArrayList(filterFunction.apply(suggestions));
   }
 
-  @Override
-  public long getCount() {
-    return getCountByRql("");
-  }
-
   /**
    * Removes all characters that will break RQL query parsing
    *
@@ -181,7 +188,14 @@ public abstract class AbstractDocumentService<T> implements DocumentService<T> {
   }
 
   protected List<T> executeRqlQuery(String rql) {
-    return executeQueryInternal(rql);
+    return executeRqlQuery(rql, getAccessibleIdFilter());
+  }
+
+  /**
+   * Execute the query with an explicit access filter, none if null.
+   */
+  protected List<T> executeRqlQuery(String rql, @Nullable Searcher.IdFilter idFilter) {
+    return executeQueryInternal(rql, idFilter);
   }
 
   protected boolean isOpenAccess() {
@@ -196,10 +210,9 @@ public abstract class AbstractDocumentService<T> implements DocumentService<T> {
     return indexer.hasIndex(getIndexName());
   }
 
-  private List<T> executeQueryInternal(String rql) {
-    Searcher.IdFilter accessibleIdFilter = getAccessibleIdFilter();
+  private List<T> executeQueryInternal(String rql, @Nullable Searcher.IdFilter idFilter) {
     try {
-      Searcher.DocumentResults documentResults = searcher.find(getIndexName(), getType(), rql, accessibleIdFilter);
+      Searcher.DocumentResults documentResults = searcher.find(getIndexName(), getType(), rql, idFilter);
       return processHits(documentResults);
     } catch (Exception e) {
       log.error("Query execution error [{}]", e.getMessage());
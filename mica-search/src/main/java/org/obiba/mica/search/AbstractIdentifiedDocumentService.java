@@ -14,25 +14,30 @@ package org.obiba.mica.search;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.shiro.SecurityUtils;
 import org.obiba.mica.core.service.IdentifiedDocumentService;
 import org.obiba.mica.spi.search.Identified;
+import org.obiba.mica.spi.search.Searcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public abstract class AbstractIdentifiedDocumentService<T extends Identified> extends AbstractDocumentService<T> implements IdentifiedDocumentService<T> {
 
   private static final Logger log = LoggerFactory.getLogger(AbstractIdentifiedDocumentService.class);
 
+  @Inject
+  private PublishedDocumentCache publishedDocumentCache;
+
   private Cache<String, T> documentsCache = CacheBuilder.newBuilder().maximumSize(1000).expireAfterWrite(1, TimeUnit.MINUTES).build();
 
   @Override
@@ -40,7 +45,7 @@ public abstract class AbstractIdentifiedDocumentService<T extends Identified> ex
   public T findById(String id) {
     log.debug("findById {} {}", getClass(), id);
 
-    if (useCache()) {
+    if (useCache() && getCacheRegion() == null) {
       Object principal = SecurityUtils.getSubject().getPrincipal();
       String principalString = "nouser";
 
@@ -65,6 +70,8 @@ public abstract class AbstractIdentifiedDocumentService<T extends Identified> ex
   public List<T> findByIds(List<String> ids, boolean useCache) {
     log.debug("findByIds {} {} ids", getClass(), ids.size());
 
+    if (useCache && useCache() && getCacheRegion() != null) return findCachedByIds(ids);
+
     Object securityPrincipal = SecurityUtils.getSubject().getPrincipal();
     String securityPrincipalString = "nouser";
     if (securityPrincipal != null) {
@@ -86,14 +93,7 @@ public abstract class AbstractIdentifiedDocumentService<T extends Identified> ex
 
     if (notCachedIds.isEmpty()) return results;
 
-    List<T> notCachedResults = Lists.newArrayList();
-    int from = 0;
-    while (notCachedResults.size()<notCachedIds.size() && from != notCachedIds.size()) {
-      int to = Math.min(from + MAX_SIZE, notCachedIds.size());
-      String idsAsRqlStringParam = String.join(",", notCachedIds.subList(from, to));
-      notCachedResults.addAll(executeRqlQuery(String.format("generic(in(id,(%s)),limit(0,%s))", idsAsRqlStringParam, MAX_SIZE)));
-      from = to;
-    }
+    List<T> notCachedResults = executeIdsQuery(notCachedIds, getAccessibleIdFilter());
 
     if (useCache && useCache()) {
       notCachedResults.forEach(result -> documentsCache.put(principal + "::" + result.getId(), result));
@@ -101,10 +101,56 @@ public abstract class AbstractIdentifiedDocumentService<T extends Identified> ex
 
     results.addAll(notCachedResults);
 
-    // restore the ids order
-    results.sort(Comparator.comparingInt(o -> ids.indexOf(o.getId())));
+    sortByIds(results, ids);
     return results;
   }
 
+  /**
+   * Region of the cache of the documents shared by all users, null if the documents are cached per user.
+   *
+   * @return
+   */
+  @Nullable
+  protected PublishedDocumentCache.Region getCacheRegion() {
+    return null;
+  }
+
+  //
+  // Private methods
+  //
+
+  private List<T> findCachedByIds(List<String> ids) {
+    // cached documents are not filtered by the search engine
+    List<T> results = publishedDocumentCache.getAll(getCacheRegion(), ids, missingIds -> executeIdsQuery(missingIds, null));
+
+    Searcher.IdFilter accessibleIdFilter = getAccessibleIdFilter();
+    if (accessibleIdFilter != null) {
+      Collection<String> accessibleIds = accessibleIdFilter.getValues();
+      results.removeIf(result -> !accessibleIds.contains(result.getId()));
+    }
+
+    sortByIds(results, ids);
+    return results;
+  }
+
+  private List<T> executeIdsQuery(List<String> ids, @Nullable Searcher.IdFilter idFilter) {
+    List<T> results = Lists.newArrayList();
+    int from = 0;
+    while (results.size() < ids.size() && from != ids.size()) {
+      int to = Math.min(from + MAX_SIZE, ids.size());
+      String idsAsRqlStringParam = String.join(",", ids.subList(from, to));
+      results.addAll(executeRqlQuery(String.format("generic(in(id,(%s)),limit(0,%s))", idsAsRqlStringParam, MAX_SIZE),
+        idFilter));
+      from = to;
+    }
+    return results;
+  }
+
+  private void sortByIds(List<T> results, List<String> ids) {
+    // restore the ids order
+    Map<String, Integer> positions = Maps.newHashMapWithExpectedSize(ids.size());
+    for (int i = ids.size() - 1; i >= 0; i--) positions.put(ids.get(i), i);
+    results.sort(Comparator.comparingInt(o -> positions.getOrDefault(o.getId(), Integer.MAX_VALUE)));
+  }
 
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.obiba.mica.core.service.AbstractGitPersistableService;
+import org.obiba.mica.dataset.event.DatasetDeletedEvent;
+import org.obiba.mica.dataset.event.DatasetPublishedEvent;
+import org.obiba.mica.dataset.event.DatasetUnpublishedEvent;
+import org.obiba.mica.dataset.service.CollectedDatasetService;
+import org.obiba.mica.dataset.service.HarmonizedDatasetService;
+import org.obiba.mica.network.event.NetworkDeletedEvent;
+import org.obiba.mica.network.event.NetworkPublishedEvent;
+import org.obiba.mica.network.event.NetworkUnpublishedEvent;
+import org.obiba.mica.network.service.NetworkService;
+import org.obiba.mica.project.event.ProjectDeletedEvent;
+import org.obiba.mica.project.event.ProjectPublishedEvent;
+import org.obiba.mica.project.event.ProjectUnpublishedEvent;
+import org.obiba.mica.project.service.ProjectService;
+import org.obiba.mica.security.event.SubjectAclUpdatedEvent;
+import org.obiba.mica.security.service.SubjectAclService;
+import org.obiba.mica.spi.search.Searcher;
+import org.obiba.mica.study.event.StudyDeletedEvent;
+import org.obiba.mica.study.event.StudyPublishedEvent;
+import org.obiba.mica.study.event.StudyUnpublishedEvent;
+import org.obiba.mica.study.service.HarmonizationStudyService;
+import org.obiba.mica.study.service.IndividualStudyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Materialized sets of the published document IDs that the current subject can view, shared by the search services.
+ * A snapshot is computed once per subject and kind of document and then kept until the access control lists are
+ * updated or a document of this kind is published, unpublished or deleted. The subject is identified by its roles and
+ * groups too, so that a role or group change is not served a stale snapshot.
+ */
+@Component
+public class AccessibleIdFilterCache {
+
+  private static final Logger log = LoggerFactory.getLogger(AccessibleIdFilterCache.class);
+
+  private static final String SEPARATOR = "|";
+
+  public enum Kind {
+    STUDY("/individual-study", "/harmonization-study"),
+    DATASET("/collected-dataset", "/harmonized-dataset"),
+    NETWORK("/network"),
+    PROJECT("/project");
+
+    private final List<String> resources;
+
+    Kind(String... resources) {
+      this.resources = Arrays.asList(resources);
+    }
+  }
+
+  @Inject
+  private SubjectAclService subjectAclService;
+
+  @Inject
+  @Lazy
+  private IndividualStudyService individualStudyService;
+
+  @Inject
+  @Lazy
+  private HarmonizationStudyService harmonizationStudyService;
+
+  @Inject
+  @Lazy
+  private CollectedDatasetService collectedDatasetService;
+
+  @Inject
+  @Lazy
+  private HarmonizedDatasetService harmonizedDatasetService;
+
+  @Inject
+  @Lazy
+  private NetworkService networkService;
+
+  @Inject
+  @Lazy
+  private ProjectService projectService;
+
+  private final Cache<String, ImmutableSet<String>> snapshots = CacheBuilder.newBuilder()
+    .maximumSize(10000)
+    .expireAfterWrite(5, TimeUnit.MINUTES)
+    .build();
+
+  // a snapshot that was being computed while being invalidated is stored under a stale generation key
+  private final Map<Kind, AtomicLong> generations = Maps.newEnumMap(Kind.class);
+
+  private final AtomicLong aclGeneration = new AtomicLong();
+
+  public AccessibleIdFilterCache() {
+    for (Kind kind : Kind.values()) {
+      generations.put(kind, new AtomicLong());
+    }
+  }
+
+  /**
+   * Filter on the document "id" field.
+   *
+   * @param kind
+   * @return
+   */
+  public Searcher.IdFilter getIdFilter(Kind kind) {
+    return getIdFilter(kind, "id");
+  }
+
+  /**
+   * Filter on a document field that refers to documents of the given kind (e.g. "datasetId" of the variables).
+   *
+   * @param kind
+   * @param field
+   * @return
+   */
+  public Searcher.IdFilter getIdFilter(Kind kind, String field) {
+    return new Searcher.IdFilter() {
+      @Override
+      public String getField() {
+        return field;
+      }
+
+      @Override
+      public Collection<String> getValues() {
+        return getAccessibleIds(kind);
+      }
+    };
+  }
+
+  /**
+   * Get the published document IDs the current subject can view.
+   *
+   * @param kind
+   * @return
+   */
+  public ImmutableSet<String> getAccessibleIds(Kind kind) {
+    String key = subjectAclService.getSubjectKey() + SEPARATOR + kind + SEPARATOR + generations.get(kind).get() + SEPARATOR +
+      aclGeneration.get();
+    try {
+      return snapshots.get(key, () -> findAccessibleIds(kind));
+    } catch (ExecutionException e) {
+      log.warn("Unable to cache the accessible {} IDs: {}", kind, e.getMessage());
+      return findAccessibleIds(kind);
+    }
+  }
+
+  //
+  // Events
+  //
+
+  @Subscribe
+  public void onSubjectAclUpdated(SubjectAclUpdatedEvent event) {
+    // group permissions can apply to any user
+    aclGeneration.incrementAndGet();
+    snapshots.invalidateAll();
+  }
+
+  @Subscribe
+  public void studyPublished(StudyPublishedEvent event) {
+    invalidate(Kind.STUDY);
+  }
+
+  @Subscribe
+  public void studyUnpublished(StudyUnpublishedEvent event) {
+    invalidate(Kind.STUDY);
+  }
+
+  @Subscribe
+  public void studyDeleted(StudyDeletedEvent event) {
+    invalidate(Kind.STUDY);
+  }
+
+  @Subscribe
+  public void datasetPublished(DatasetPublishedEvent event) {
+    invalidate(Kind.DATASET);
+  }
+
+  @Subscribe
+  public void datasetUnpublished(DatasetUnpublishedEvent event) {
+    invalidate(Kind.DATASET);
+  }
+
+  @Subscribe
+  public void datasetDeleted(DatasetDeletedEvent event) {
+    invalidate(Kind.DATASET);
+  }
+
+  @Subscribe
+  public void networkPublished(NetworkPublishedEvent event) {
+    invalidate(Kind.NETWORK);
+  }
+
+  @Subscribe
+  public void networkUnpublished(NetworkUnpublishedEvent event) {
+    invalidate(Kind.NETWORK);
+  }
+
+  @Subscribe
+  public void networkDeleted(NetworkDeletedEvent event) {
+    invalidate(Kind.NETWORK);
+  }
+
+  @Subscribe
+  public void projectPublished(ProjectPublishedEvent event) {
+    invalidate(Kind.PROJECT);
+  }
+
+  @Subscribe
+  public void projectUnpublished(ProjectUnpublishedEvent event) {
+    invalidate(Kind.PROJECT);
+  }
+
+  @Subscribe
+  public void projectDeleted(ProjectDeletedEvent event) {
+    invalidate(Kind.PROJECT);
+  }
+
+  //
+  // Private methods
+  //
+
+  private void invalidate(Kind kind) {
+    generations.get(kind).incrementAndGet();
+    String infix = SEPARATOR + kind + SEPARATOR;
+    snapshots.asMap().keySet().removeIf(key -> key.contains(infix));
+  }
+
+  private ImmutableSet<String> findAccessibleIds(Kind kind) {
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    List<AbstractGitPersistableService<?, ?>> services = getServices(kind);
+    for (int i = 0; i < services.size(); i++) {
+      String resource = kind.resources.get(i);
+      services.get(i).findPublishedIds().stream()
+        .filter(id -> subjectAclService.isAccessible(resource, id))
+        .forEach(builder::add);
+    }
+    return builder.build();
+  }
+
+  private List<AbstractGitPersistableService<?, ?>> getServices(Kind kind) {
+    switch (kind) {
+      case STUDY:
+        return Arrays.asList(individualStudyService, harmonizationStudyService);
+      case DATASET:
+        return Arrays.asList(collectedDatasetService, harmonizedDatasetService);
+      case NETWORK:
+        return Arrays.asList(networkService);
+      case PROJECT:
+        return Arrays.asList(projectService);
+    }
+
+    throw new IllegalArgumentException("Unknown kind of documents: " + kind);
+  }
+}
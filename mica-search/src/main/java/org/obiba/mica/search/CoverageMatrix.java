@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.obiba.mica.spi.search.support.AttributeKey;
+import org.obiba.mica.web.model.MicaSearch;
+
+/**
+ * Variable hits per taxonomy term and bucket, extracted once from the coverage aggregations. Buckets and terms are
+ * interned to array indices and the hits are held in a dense term x bucket matrix, along with the per-bucket sums of
+ * each vocabulary and taxonomy, so that the coverage is reported without regrouping the aggregation results.
+ */
+class CoverageMatrix {
+
+  private static final String DEFAULT_TAXONOMY = "Default";
+
+  private final List<Bucket> buckets = Lists.newArrayList();
+
+  private final Map<String, Map<String, Integer>> bucketIndex = Maps.newLinkedHashMap();
+
+  private final Map<String, VocabularyHits> vocabularies = Maps.newHashMap();
+
+  private final Map<String, int[]> taxonomyBucketSums = Maps.newHashMap();
+
+  // buckets ordered by value, as reported for a term
+  private int[] bucketsByValue;
+
+  // buckets grouped by field and ordered by value, as reported for a vocabulary or a taxonomy
+  private int[] bucketsByField;
+
+  private int rowCount = 0;
+
+  private int[][] cells;
+
+  private CoverageMatrix() {
+  }
+
+  /**
+   * Extract the hits from the coverage aggregations.
+   *
+   * @param aggregations ungrouped aggregations
+   * @param bucketFields names of the aggregations by which the variables are bucketed
+   * @return
+   */
+  static CoverageMatrix build(List<MicaSearch.AggregationResultDto> aggregations, Collection<String> bucketFields) {
+    CoverageMatrix matrix = new CoverageMatrix();
+
+    // intern the buckets and the terms
+    aggregations.forEach(agg -> {
+      String name = agg.getAggregation();
+      if (bucketFields.contains(name)) {
+        agg.getExtension(MicaSearch.TermsAggregationResultDto.terms).stream()
+          .filter(bucket -> bucket.getAggsCount() > 0)
+          .forEach(bucket -> {
+            matrix.internBucket(name, bucket);
+            bucket.getAggsList().forEach(termsAgg -> {
+              VocabularyHits vocabulary = matrix.internVocabulary(termsAgg.getAggregation());
+              termsAgg.getExtension(MicaSearch.TermsAggregationResultDto.terms)
+                .forEach(term -> vocabulary.internRow(term.getKey(), matrix));
+            });
+          });
+      } else if (isAttributeField(name)) {
+        List<MicaSearch.TermsAggregationResultDto> terms = agg.getExtension(MicaSearch.TermsAggregationResultDto.terms);
+        if (terms != null && !terms.isEmpty()) matrix.internVocabulary(name).setTermHits(terms);
+      }
+    });
+
+    // fill in the hits
+    int bucketCount = matrix.buckets.size();
+    matrix.cells = new int[matrix.rowCount][bucketCount];
+    matrix.vocabularies.values().forEach(vocabulary -> {
+      vocabulary.bucketSums = new int[bucketCount];
+      matrix.taxonomyBucketSums.computeIfAbsent(vocabulary.taxonomy, t -> new int[bucketCount]);
+    });
+    aggregations.stream().filter(agg -> bucketFields.contains(agg.getAggregation())).forEach(agg ->
+      agg.getExtension(MicaSearch.TermsAggregationResultDto.terms).stream()
+        .filter(bucket -> bucket.getAggsCount() > 0)
+        .forEach(bucket -> {
+          int column = matrix.bucketIndex.get(agg.getAggregation()).get(bucket.getKey());
+          bucket.getAggsList().forEach(termsAgg -> {
+            VocabularyHits vocabulary = matrix.vocabularies.get(toMapKey(termsAgg.getAggregation()));
+            int[] taxonomySums = matrix.taxonomyBucketSums.get(vocabulary.taxonomy);
+            termsAgg.getExtension(MicaSearch.TermsAggregationResultDto.terms).forEach(term -> {
+              matrix.cells[vocabulary.rows.get(term.getKey())][column] += term.getCount();
+              vocabulary.bucketSums[column] += term.getCount();
+              taxonomySums[column] += term.getCount();
+            });
+          });
+        }));
+
+    matrix.bucketsByValue = IntStream.range(0, bucketCount).boxed()
+      .sorted(Comparator.comparing(i -> matrix.buckets.get(i).value))
+      .mapToInt(Integer::intValue).toArray();
+    matrix.bucketsByField = matrix.bucketIndex.values().stream()
+      .flatMap(values -> values.values().stream().sorted(Comparator.comparing(i -> matrix.buckets.get(i).value)))
+      .mapToInt(Integer::intValue).toArray();
+
+    return matrix;
+  }
+
+  /**
+   * Count of variables having any of the terms of the vocabulary.
+   *
+   * @param taxonomy
+   * @param vocabulary
+   * @return
+   */
+  int getVocabularyHits(String taxonomy, String vocabulary) {
+    VocabularyHits hits = vocabularies.get(getMapKey(taxonomy, vocabulary));
+    return hits == null ? 0 : hits.hits;
+  }
+
+  int getTermHits(String taxonomy, String vocabulary, String term) {
+    VocabularyHits hits = vocabularies.get(getMapKey(taxonomy, vocabulary));
+    if (hits == null) return 0;
+    Integer termHits = hits.termHits.get(term);
+    return termHits == null ? 0 : termHits;
+  }
+
+  /**
+   * Visit the buckets in which the term has hits, ordered by bucket value.
+   *
+   * @param taxonomy
+   * @param vocabulary
+   * @param term
+   * @param consumer
+   */
+  void forEachTermBucket(String taxonomy, String vocabulary, String term, ObjIntConsumer<Bucket> consumer) {
+    VocabularyHits hits = vocabularies.get(getMapKey(taxonomy, vocabulary));
+    Integer row = hits == null ? null : hits.rows.get(term);
+    if (row == null) return;
+    for (int column : bucketsByValue) {
+      if (cells[row][column] > 0) consumer.accept(buckets.get(column), cells[row][column]);
+    }
+  }
+
+  /**
+   * Visit the buckets in which any term of the vocabulary has hits, grouped by bucket field.
+   *
+   * @param taxonomy
+   * @param vocabulary
+   * @param consumer
+   */
+  void forEachVocabularyBucket(String taxonomy, String vocabulary, ObjIntConsumer<Bucket> consumer) {
+    VocabularyHits hits = vocabularies.get(getMapKey(taxonomy, vocabulary));
+    if (hits != null) forEachBucket(hits.bucketSums, consumer);
+  }
+
+  /**
+   * Visit the buckets in which any term of the taxonomy has hits, grouped by bucket field.
+   *
+   * @param taxonomy
+   * @param consumer
+   */
+  void forEachTaxonomyBucket(String taxonomy, ObjIntConsumer<Bucket> consumer) {
+    int[] sums = taxonomyBucketSums.get(taxonomy);
+    if (sums != null) forEachBucket(sums, consumer);
+  }
+
+  //
+  // Private methods
+  //
+
+  private void forEachBucket(int[] sums, ObjIntConsumer<Bucket> consumer) {
+    for (int column : bucketsByField) {
+      if (sums[column] > 0) consumer.accept(buckets.get(column), sums[column]);
+    }
+  }
+
+  private void internBucket(String field, MicaSearch.TermsAggregationResultDto bucket) {
+    Map<String, Integer> values = bucketIndex.computeIfAbsent(field, f -> Maps.newHashMap());
+    if (!values.containsKey(bucket.getKey())) {
+      values.put(bucket.getKey(), buckets.size());
+      buckets.add(new Bucket(field, bucket));
+    }
+  }
+
+  private VocabularyHits internVocabulary(String aggregation) {
+    return vocabularies.computeIfAbsent(toMapKey(aggregation), VocabularyHits::new);
+  }
+
+  private static boolean isAttributeField(String name) {
+    return name.startsWith("attributes-") && name.endsWith("-und");
+  }
+
+  private static String toMapKey(String aggregation) {
+    return aggregation.replaceAll("^attributes-", "").replaceAll("-und$", "");
+  }
+
+  private static String getMapKey(String taxonomy, String vocabulary) {
+    return AttributeKey.getMapKey(vocabulary, DEFAULT_TAXONOMY.equals(taxonomy) ? null : taxonomy);
+  }
+
+  /**
+   * A bucket of variables, for instance a study.
+   */
+  static class Bucket {
+
+    private final String field;
+
+    private final String value;
+
+    private final MicaSearch.TermsAggregationResultDto term;
+
+    private Bucket(String field, MicaSearch.TermsAggregationResultDto term) {
+      this.field = field;
+      value = term.getKey();
+      this.term = term;
+    }
+
+    String getField() {
+      return field;
+    }
+
+    String getValue() {
+      return value;
+    }
+
+    /**
+     * The bucket term as aggregated, with its title and description.
+     *
+     * @return
+     */
+    MicaSearch.TermsAggregationResultDto getTerm() {
+      return term;
+    }
+  }
+
+  private static class VocabularyHits {
+
+    private final String taxonomy;
+
+    private final Map<String, Integer> rows = Maps.newHashMap();
+
+    private final Map<String, Integer> termHits = Maps.newHashMap();
+
+    private int hits = 0;
+
+    private int[] bucketSums;
+
+    VocabularyHits(String mapKey) {
+      AttributeKey attrKey = AttributeKey.from(mapKey);
+      taxonomy = attrKey.hasNamespace(null) ? DEFAULT_TAXONOMY : attrKey.getNamespace();
+    }
+
+    void internRow(String term, CoverageMatrix matrix) {
+      if (!rows.containsKey(term)) rows.put(term, matrix.rowCount++);
+    }
+
+    void setTermHits(List<MicaSearch.TermsAggregationResultDto> terms) {
+      terms.forEach(term -> termHits.put(term.getKey(), term.getCount()));
+      // only one term can be applied at a time, then the sum of the term hits is the number of variables
+      // that cover this vocabulary
+      hits = termHits.values().stream().mapToInt(x -> x).sum();
+    }
+  }
+}
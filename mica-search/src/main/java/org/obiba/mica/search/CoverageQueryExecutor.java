@@ -11,7 +11,7 @@
 package org.obiba.mica.search;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.obiba.mica.micaConfig.service.OpalService;
 import org.obiba.mica.spi.search.Searcher;
 import org.obiba.mica.spi.search.support.AttributeKey;
@@ -34,7 +34,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Component
 @Scope("request")
@@ -52,11 +51,18 @@ public class CoverageQueryExecutor {
   @Inject
   private Dtos dtos;
 
+  @Inject
+  private CoverageResultCache coverageResultCache;
+
   private JoinQuery joinQuery;
 
   private Map<String, Map<String, List<String>>> restrictedTermsMap;
 
   public MicaSearch.TaxonomiesCoverageDto coverageQuery(String rqlJoinQuery, boolean strict) throws IOException {
+    return coverageResultCache.get(rqlJoinQuery, strict, () -> executeCoverageQuery(rqlJoinQuery, strict));
+  }
+
+  private MicaSearch.TaxonomiesCoverageDto executeCoverageQuery(String rqlJoinQuery, boolean strict) throws IOException {
     joinQuery = searcher.makeJoinQuery(rqlJoinQuery);
 
     // Strict coverage means that coverage result is restricted to the terms specified in the variable query.
@@ -98,29 +104,11 @@ public class CoverageQueryExecutor {
    * Extract hits from aggregations and merge them into the taxonomies descriptions.
    */
   private Iterable<MicaSearch.TaxonomyCoverageDto> getCoverages(List<MicaSearch.AggregationResultDto> aggregations) {
-    Map<String, Map<String, MicaSearch.TermsAggregationResultDto>> aggTermsTitlesMap = aggregations.stream().collect(
-        Collectors.toMap(MicaSearch.AggregationResultDto::getAggregation,
-            a -> a.getExtension(MicaSearch.TermsAggregationResultDto.terms).stream()
-                .collect(Collectors.toMap(MicaSearch.TermsAggregationResultDto::getKey, t -> t))));
-
-    Map<String, List<BucketResult>> bucketResultsByTaxonomy = extractBucketResults(aggregations).stream()
-        .collect(Collectors.groupingBy(BucketResult::getTaxonomy));
-
-    Map<String, Map<String, Integer>> aggsMap = Maps.newHashMap();
-    aggregations.forEach(agg -> {
-      String name = agg.getAggregation();
-      List<MicaSearch.TermsAggregationResultDto> results = agg.getExtension(MicaSearch.TermsAggregationResultDto.terms);
-      if (results != null && !results.isEmpty() && isAttributeField(name)) {
-        String key = name.replaceAll("^attributes-", "").replaceAll("-und$", "");
-        if (!aggsMap.containsKey(key)) aggsMap.put(key, Maps.newHashMap());
-        results.forEach(res -> aggsMap.get(key).put(res.getKey(), res.getCount()));
-      }
-    });
+    CoverageMatrix matrix = CoverageMatrix.build(aggregations, getBucketFields());
 
     List<MicaSearch.TaxonomyCoverageDto> coverages = Lists.newArrayList();
     getTaxonomies().stream().filter(taxonomy -> applyFilter(taxonomy)).forEach(
-        taxonomy -> addTaxonomyCoverage(coverages, taxonomy, aggsMap, bucketResultsByTaxonomy.get(taxonomy.getName()),
-            aggTermsTitlesMap));
+        taxonomy -> addTaxonomyCoverage(coverages, taxonomy, matrix));
 
     return coverages;
   }
@@ -129,10 +117,6 @@ public class CoverageQueryExecutor {
     return restrictedTermsMap == null || restrictedTermsMap.containsKey(taxonomy.getName());
   }
 
-  private boolean isAttributeField(String name) {
-    return name.startsWith("attributes-") && name.endsWith("-und");
-  }
-
   private List<MicaSearch.AggregationResultDto> ungroupAggregations(List<MicaSearch.AggregationResultDto> aggsList) {
     List<MicaSearch.AggregationResultDto> newList = Lists.newArrayList();
     aggsList.forEach(agg -> {
@@ -147,29 +131,14 @@ public class CoverageQueryExecutor {
   }
 
   /**
-   * Extract the hits per taxonomy term and bucket.
+   * The aggregations by which the variables are bucketed, studyIds for instance.
    */
   @NotNull
-  private Collection<BucketResult> extractBucketResults(List<MicaSearch.AggregationResultDto> aggregations) {
+  private Collection<String> getBucketFields() {
     if (joinQuery == null || joinQuery.getVariableQuery() == null ||
         joinQuery.getVariableQuery().getAggregationBuckets().isEmpty()) return Collections.emptyList();
 
-    List<String> aggsBy = joinQuery.getVariableQuery().getQueryAggregationBuckets();
-
-    List<BucketResult> termResults = Lists.newArrayList();
-
-    aggregations.stream().filter(agg -> aggsBy.contains(agg.getAggregation())).forEach(bucket -> {
-      String bucketField = bucket.getAggregation(); // studyIds for instance
-      bucket.getExtension(MicaSearch.TermsAggregationResultDto.terms).stream() //
-          .filter(agg -> agg.getAggsCount() > 0) //
-          .forEach(agg -> agg.getAggsList().stream() //
-              .filter(t -> !t.getExtension(MicaSearch.TermsAggregationResultDto.terms).isEmpty()) //
-              .forEach(t -> termResults.addAll(BucketResult.list(bucketField, agg.getKey(), t))));
-    });
-
-    Collections.sort(termResults);
-
-    return termResults;
+    return Sets.newHashSet(joinQuery.getVariableQuery().getQueryAggregationBuckets());
   }
 
   /**
@@ -177,43 +146,21 @@ public class CoverageQueryExecutor {
    * number of hits for each bucket.
    */
   private void addTaxonomyCoverage(List<MicaSearch.TaxonomyCoverageDto> coverages, Taxonomy taxonomy,
-                                   Map<String, Map<String, Integer>> aggsMap, @Nullable List<BucketResult> bucketResults,
-                                   Map<String, Map<String, MicaSearch.TermsAggregationResultDto>> aggTermsTitlesMap) {
+                                   CoverageMatrix matrix) {
     if (taxonomy.hasVocabularies()) {
       MicaSearch.TaxonomyCoverageDto.Builder taxoBuilder = MicaSearch.TaxonomyCoverageDto.newBuilder();
       taxoBuilder.setTaxonomy(dtos.asDto(taxonomy, getLocale()));
-      List<Integer> hits = Lists.newArrayList();
-      String namespace = taxonomy.getName().equals("Default") ? null : taxonomy.getName();
-      Map<String, List<BucketResult>> bucketResultsByVocabulary = bucketResults == null
-          ? Maps.newHashMap()
-          : bucketResults.stream().collect(Collectors.groupingBy(BucketResult::getVocabulary));
-
-      taxonomy.getVocabularies().stream().filter(vocabulary -> applyFilter(taxonomy, vocabulary)).forEach(
-          vocabulary -> hits.add(addVocabularyCoverage(taxoBuilder, taxonomy, vocabulary,
-              aggsMap.get(AttributeKey.getMapKey(vocabulary.getName(), namespace)),
-              bucketResults == null ? null : bucketResultsByVocabulary.get(vocabulary.getName()), aggTermsTitlesMap)));
-
-      taxoBuilder.setHits(hits.isEmpty() ? 0 : hits.stream().mapToInt(x -> x).sum());
-      // compute the sum of the hits for all vocabularies per bucket
-      if (bucketResults != null) {
-        Map<String, List<BucketResult>> bucketResultsByBucketField = bucketResults.stream()
-            .collect(Collectors.groupingBy(BucketResult::getBucketField));
-
-        bucketResultsByBucketField.keySet().forEach(field -> {
-          Map<String, List<BucketResult>> bucketResultsByBucketValue = bucketResultsByBucketField.get(field).stream()
-              .collect(Collectors.groupingBy(BucketResult::getBucketValue));
-
-          bucketResultsByBucketValue.keySet().stream().sorted().forEach(value -> {
-            List<BucketResult> buckets = bucketResultsByBucketValue.get(value);
-            int sumOfHits = buckets.stream().mapToInt(BucketResult::getHits).sum();
-            if (sumOfHits > 0) {
-              taxoBuilder.addBuckets(
-                  getBucketCoverageDtoBuilder(field, value, sumOfHits, aggTermsTitlesMap.get(field).get(value)));
-            }
-          });
-        });
+      int hits = 0;
+
+      for (Vocabulary vocabulary : taxonomy.getVocabularies()) {
+        if (applyFilter(taxonomy, vocabulary)) hits += addVocabularyCoverage(taxoBuilder, taxonomy, vocabulary, matrix);
       }
 
+      taxoBuilder.setHits(hits);
+      // the sum of the hits for all vocabularies per bucket
+      matrix.forEachTaxonomyBucket(taxonomy.getName(),
+          (bucket, sumOfHits) -> taxoBuilder.addBuckets(getBucketCoverageDtoBuilder(bucket, sumOfHits)));
+
       if (!taxoBuilder.getVocabulariesList().isEmpty()) {
         coverages.add(taxoBuilder.build());
       }
@@ -229,50 +176,27 @@ public class CoverageQueryExecutor {
    * number of hits for each bucket.
    */
   private int addVocabularyCoverage(MicaSearch.TaxonomyCoverageDto.Builder taxoBuilder, Taxonomy taxonomy,
-                                    Vocabulary vocabulary, Map<String, Integer> hits, @Nullable List<BucketResult> bucketResults,
-                                    Map<String, Map<String, MicaSearch.TermsAggregationResultDto>> aggTermsTitlesMap) {
+                                    Vocabulary vocabulary, CoverageMatrix matrix) {
     int sumOfHits = 0;
     if (vocabulary.hasTerms()) {
-      Map<String, List<BucketResult>> bucketResultsByTerm = bucketResults == null
-          ? Maps.newHashMap()
-          : bucketResults.stream().collect(Collectors.groupingBy(BucketResult::getTerm));
-
       MicaSearch.VocabularyCoverageDto.Builder vocBuilder = MicaSearch.VocabularyCoverageDto.newBuilder();
       vocBuilder.setVocabulary(dtos.asDto(vocabulary, getLocale()));
       vocabulary.getTerms().stream().filter(term -> applyFilter(taxonomy, vocabulary, term)).forEach(
-          term -> addTermCoverage(vocBuilder, term, hits, bucketResultsByTerm.get(term.getName()), aggTermsTitlesMap));
-      // only one term can be applied at a time, then the sum of the term hits is the number of variables
-      // that cover this vocabulary
-      sumOfHits = hits == null ? 0 : hits.values().stream().mapToInt(x -> x).sum();
+          term -> addTermCoverage(vocBuilder, taxonomy, vocabulary, term, matrix));
+      sumOfHits = matrix.getVocabularyHits(taxonomy.getName(), vocabulary.getName());
       vocBuilder.setHits(sumOfHits);
 
       if (!vocabulary.isRepeatable()) {
         vocBuilder.setCount(sumOfHits);
       }
 
-      // compute the sum of the hits for all terms per bucket
-      if (bucketResults != null) {
-        Map<String, List<BucketResult>> bucketResultsByBucketField = bucketResults.stream()
-            .collect(Collectors.groupingBy(BucketResult::getBucketField));
-
-        bucketResultsByBucketField.keySet().forEach(field -> {
-          Map<String, List<BucketResult>> bucketResultsByBucketValue = bucketResultsByBucketField.get(field).stream()
-              .collect(Collectors.groupingBy(BucketResult::getBucketValue));
-
-          bucketResultsByBucketValue.keySet().stream().sorted().forEach(value -> {
-            List<BucketResult> buckets = bucketResultsByBucketValue.get(value);
-            int sumOfBucketHits = buckets.stream().mapToInt(BucketResult::getHits).sum();
-            if (sumOfBucketHits > 0) {
-              MicaSearch.BucketCoverageDto.Builder builder = getBucketCoverageDtoBuilder(field, value, sumOfBucketHits,
-                  aggTermsTitlesMap.get(field).get(value));
-
-              if (!vocabulary.isRepeatable()) builder.setCount(builder.getHits());
+      // the sum of the hits for all terms per bucket
+      matrix.forEachVocabularyBucket(taxonomy.getName(), vocabulary.getName(), (bucket, sumOfBucketHits) -> {
+        MicaSearch.BucketCoverageDto.Builder builder = getBucketCoverageDtoBuilder(bucket, sumOfBucketHits);
+        if (!vocabulary.isRepeatable()) builder.setCount(builder.getHits());
+        vocBuilder.addBuckets(builder);
+      });
 
-              vocBuilder.addBuckets(builder);
-            }
-          });
-        });
-      }
       if (!vocBuilder.getTermsList().isEmpty()) {
         taxoBuilder.addVocabularies(vocBuilder);
       } else {
@@ -292,29 +216,23 @@ public class CoverageQueryExecutor {
    * For a taxonomy {@link Term}, report the number of hits and optionally
    * the number of hits for each bucket.
    */
-  private void addTermCoverage(MicaSearch.VocabularyCoverageDto.Builder vocBuilder, Term term,
-                               Map<String, Integer> hits, @Nullable List<BucketResult> bucketResults,
-                               Map<String, Map<String, MicaSearch.TermsAggregationResultDto>> aggTermsTitlesMap) {
+  private void addTermCoverage(MicaSearch.VocabularyCoverageDto.Builder vocBuilder, Taxonomy taxonomy,
+                               Vocabulary vocabulary, Term term, CoverageMatrix matrix) {
     MicaSearch.TermCoverageDto.Builder termBuilder = MicaSearch.TermCoverageDto.newBuilder();
     termBuilder.setTerm(dtos.asDto(term, getLocale()));
-    termBuilder.setHits(0);
+    termBuilder.setHits(matrix.getTermHits(taxonomy.getName(), vocabulary.getName(), term.getName()));
     // add the hits per buckets
-    if (bucketResults != null) {
-      termBuilder.addAllBuckets(bucketResults.stream().filter(b -> b.getHits() > 0).map(
-          b -> getBucketCoverageDtoBuilder(b.getBucketField(), b.getBucketValue(), b.getHits(),
-              aggTermsTitlesMap.get(b.getBucketField()).get(b.getBucketValue())).build()).collect(Collectors.toList()));
-    }
-
-    if (hits != null && hits.containsKey(term.getName())) termBuilder.setHits(hits.get(term.getName()));
+    matrix.forEachTermBucket(taxonomy.getName(), vocabulary.getName(), term.getName(),
+        (bucket, hits) -> termBuilder.addBuckets(getBucketCoverageDtoBuilder(bucket, hits)));
 
     vocBuilder.addTerms(termBuilder);
   }
 
   @NotNull
-  private MicaSearch.BucketCoverageDto.Builder getBucketCoverageDtoBuilder(String field, String value, int hits,
-                                                                           @NotNull MicaSearch.TermsAggregationResultDto term) {
-    MicaSearch.BucketCoverageDto.Builder builder = MicaSearch.BucketCoverageDto.newBuilder().setField(field)
-        .setValue(value).setHits(hits);
+  private MicaSearch.BucketCoverageDto.Builder getBucketCoverageDtoBuilder(CoverageMatrix.Bucket bucket, int hits) {
+    MicaSearch.TermsAggregationResultDto term = bucket.getTerm();
+    MicaSearch.BucketCoverageDto.Builder builder = MicaSearch.BucketCoverageDto.newBuilder().setField(bucket.getField())
+        .setValue(bucket.getValue()).setHits(hits);
 
     if (term.hasTitle()) builder.setTitle(term.getTitle());
     if (term.hasDescription()) builder.setDescription(term.getDescription());
@@ -342,88 +260,6 @@ public class CoverageQueryExecutor {
     return joinQuery.getLocale();
   }
 
-  /**
-   * The number of variable hits per bucket and taxonomy term.
-   */
-  private static class BucketResult implements Comparable<BucketResult> {
-
-    private final String bucketField;
-
-    private final String bucketValue;
-
-    private final String taxonomy;
-
-    private final String vocabulary;
-
-    private final String term;
-
-    private final int hits;
-
-    private BucketResult(@Nullable String bucketField, @Nullable String bucketValue, String taxonomy, String vocabulary,
-                         String term, int hits) {
-      this.bucketField = bucketField;
-      this.bucketValue = bucketValue;
-      this.taxonomy = taxonomy;
-      this.vocabulary = vocabulary;
-      this.term = term;
-      this.hits = hits;
-    }
-
-    private static Collection<BucketResult> list(@Nullable String bucketField, @Nullable String bucketValue,
-                                                 MicaSearch.AggregationResultDto agg) {
-      String key = agg.getAggregation().replaceAll("^attributes-", "").replaceAll("-und$", "");
-      AttributeKey attrKey = AttributeKey.from(key);
-      String taxonomy = attrKey.hasNamespace(null) ? "Default" : attrKey.getNamespace();
-      String vocabulary = attrKey.getName();
-      return agg.getExtension(MicaSearch.TermsAggregationResultDto.terms).stream()
-          .map(t -> new BucketResult(bucketField, bucketValue, taxonomy, vocabulary, t.getKey(), t.getCount()))
-          .collect(Collectors.toList());
-    }
-
-    public String getBucketField() {
-      return bucketField;
-    }
-
-    public String getBucketValue() {
-      return bucketValue;
-    }
-
-    public String getTaxonomy() {
-      return taxonomy;
-    }
-
-    public String getVocabulary() {
-      return vocabulary;
-    }
-
-    public String getTerm() {
-      return term;
-    }
-
-    public int getHits() {
-      return hits;
-    }
-
-    public String toString() {
-      return "[" + bucketField + "," + bucketValue + "," + taxonomy + "," + vocabulary + "," + term + "]=" + hits;
-    }
-
-    @Override
-    public int hashCode() {
-      return getBucketField().hashCode() + getBucketValue().hashCode();
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      return obj instanceof BucketResult && obj.toString().equals(toString());
-    }
-
-    @Override
-    public int compareTo(BucketResult o) {
-      return getBucketValue().compareTo(o.getBucketValue());
-    }
-  }
-
   private static class JoinQueryWrapperWithFacets implements JoinQuery {
 
     private final JoinQuery joinQuery;
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import net.jazdw.rql.parser.ASTNode;
+import net.jazdw.rql.parser.RQLParser;
+import org.obiba.mica.core.event.DocumentSetDeletedEvent;
+import org.obiba.mica.core.event.DocumentSetUpdatedEvent;
+import org.obiba.mica.micaConfig.event.MicaConfigUpdatedEvent;
+import org.obiba.mica.micaConfig.event.OpalTaxonomiesUpdatedEvent;
+import org.obiba.mica.micaConfig.event.TaxonomiesUpdatedEvent;
+import org.obiba.mica.micaConfig.service.MicaConfigService;
+import org.obiba.mica.security.event.SubjectAclUpdatedEvent;
+import org.obiba.mica.security.service.SubjectAclService;
+import org.obiba.mica.web.model.MicaSearch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Results of the coverage queries, keyed by the normalized RQL query and by the publication epoch. The epoch advances
+ * whenever a document (un)published or deleted has been indexed, see the indexers, or when the taxonomies, the
+ * configuration or the permissions are updated, so that a result is served only as long as the published content it
+ * was computed from has not changed. When the access is not open, the results are cached per user, roles and groups.
+ */
+@Component
+public class CoverageResultCache implements EnvironmentAware {
+
+  private static final Logger log = LoggerFactory.getLogger(CoverageResultCache.class);
+
+  private static final long DEFAULT_CACHE_TTL = 300000;
+
+  private static final long DEFAULT_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+
+  private static final String SEPARATOR = "|";
+
+  private static final List<String> COMMUTATIVE_OPERATORS = Arrays.asList("", "and", "or");
+
+  // operators which array argument is a set of values
+  private static final List<String> SET_OPERATORS = Arrays.asList("in", "out");
+
+  @Inject
+  private MicaConfigService micaConfigService;
+
+  @Inject
+  private SubjectAclService subjectAclService;
+
+  @Inject
+  private MetricRegistry metricRegistry;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  private Cache<String, MicaSearch.TaxonomiesCoverageDto> results;
+
+  private final AtomicLong epoch = new AtomicLong();
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "elasticsearch.coverage.");
+  }
+
+  @PostConstruct
+  public void init() {
+    results = CacheBuilder.newBuilder()
+      .maximumWeight(propertyResolver.getProperty("cacheMaxBytes", Long.class, DEFAULT_CACHE_MAX_BYTES))
+      .<String, MicaSearch.TaxonomiesCoverageDto>weigher((key, coverage) -> coverage.getSerializedSize())
+      // the published documents are indexed asynchronously after the epoch has advanced
+      .expireAfterWrite(propertyResolver.getProperty("cacheTtl", Long.class, DEFAULT_CACHE_TTL), TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  /**
+   * Get the coverage of the query from the cache, or compute it. Concurrent requests of the same coverage wait for the
+   * first one to complete.
+   *
+   * @param rqlJoinQuery
+   * @param strict
+   * @param coverage computes the coverage, in the calling thread
+   * @return
+   * @throws IOException
+   */
+  public MicaSearch.TaxonomiesCoverageDto get(String rqlJoinQuery, boolean strict,
+                                              Callable<MicaSearch.TaxonomiesCoverageDto> coverage) throws IOException {
+    String key = getKey(rqlJoinQuery, strict);
+    if (key == null) return call(coverage);
+
+    MicaSearch.TaxonomiesCoverageDto cached = results.getIfPresent(key);
+    if (cached != null) {
+      metricRegistry.meter(MetricRegistry.name(CoverageResultCache.class, "cacheHits")).mark();
+      return cached;
+    }
+
+    try {
+      return results.get(key, coverage);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Discard the cached coverages, to be called when the published content has changed.
+   */
+  public void advanceEpoch() {
+    epoch.incrementAndGet();
+    results.invalidateAll();
+  }
+
+  //
+  // Events
+  //
+
+  @Subscribe
+  public void documentSetUpdated(DocumentSetUpdatedEvent event) {
+    advanceEpoch();
+  }
+
+  @Subscribe
+  public void documentSetDeleted(DocumentSetDeletedEvent event) {
+    advanceEpoch();
+  }
+
+  @Subscribe
+  public void taxonomiesUpdated(TaxonomiesUpdatedEvent event) {
+    advanceEpoch();
+  }
+
+  @Subscribe
+  public void opalTaxonomiesUpdated(OpalTaxonomiesUpdatedEvent event) {
+    advanceEpoch();
+  }
+
+  @Subscribe
+  public void micaConfigUpdated(MicaConfigUpdatedEvent event) {
+    advanceEpoch();
+  }
+
+  @Subscribe
+  public void subjectAclUpdated(SubjectAclUpdatedEvent event) {
+    advanceEpoch();
+  }
+
+  //
+  // Private methods
+  //
+
+  private String getKey(String rqlJoinQuery, boolean strict) {
+    String query;
+    try {
+      query = normalize(rqlJoinQuery);
+    } catch (RuntimeException e) {
+      // not cacheable, let the query report the error
+      log.debug("Unable to normalize coverage query {}: {}", rqlJoinQuery, e.getMessage());
+      return null;
+    }
+
+    String principal = micaConfigService.getConfig().isOpenAccess() ? "" : subjectAclService.getSubjectKey();
+    return Joiner.on(SEPARATOR).join(epoch.get(), principal, strict, query);
+  }
+
+  private MicaSearch.TaxonomiesCoverageDto call(Callable<MicaSearch.TaxonomiesCoverageDto> coverage) throws IOException {
+    try {
+      return coverage.call();
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Canonical form of a RQL query: the arguments of the commutative operators and the values of the sets are sorted,
+   * the locale is lower cased.
+   *
+   * @param rql
+   * @return
+   */
+  static String normalize(String rql) {
+    if (Strings.isNullOrEmpty(rql)) return "";
+    return normalizeArgument(new RQLParser().parse(rql), "");
+  }
+
+  private static String normalizeArgument(Object argument, String operator) {
+    if (argument instanceof ASTNode) {
+      ASTNode node = (ASTNode) argument;
+      String name = Strings.nullToEmpty(node.getName());
+      List<String> args = node.getArguments().stream().map(arg -> normalizeArgument(arg, name))
+        .collect(Collectors.toList());
+      if ("locale".equals(name)) {
+        args = args.stream().map(arg -> arg.toLowerCase(Locale.ENGLISH)).collect(Collectors.toList());
+      } else if (COMMUTATIVE_OPERATORS.contains(name)) args.sort(null);
+      return name + "(" + Joiner.on(",").join(args) + ")";
+    }
+
+    if (argument instanceof Collection) {
+      List<String> values = ((Collection<?>) argument).stream().map(value -> normalizeArgument(value, ""))
+        .collect(Collectors.toList());
+      if (SET_OPERATORS.contains(operator)) values.sort(null);
+      return "(" + Joiner.on(",").join(values) + ")";
+    }
+
+    return String.valueOf(argument);
+  }
+}
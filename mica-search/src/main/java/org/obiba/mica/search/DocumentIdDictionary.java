@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Dictionary of document IDs (study or dataset IDs) used to join the results of several sub-queries: each distinct ID
+ * gets a dense index so that ID lists can be encoded as {@link BitSet}s and intersected in linear time. The decoded
+ * IDs are in the order in which they were first encoded.
+ */
+public class DocumentIdDictionary {
+
+  private final Map<String, Integer> indices = Maps.newHashMap();
+
+  private final List<String> ids = Lists.newArrayList();
+
+  public BitSet encode(Collection<String> values) {
+    BitSet bits = new BitSet(ids.size() + values.size());
+    values.forEach(value -> bits.set(indexOf(value)));
+    return bits;
+  }
+
+  public List<String> decode(BitSet bits) {
+    List<String> values = Lists.newArrayListWithCapacity(bits.cardinality());
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      values.add(ids.get(i));
+    }
+    return values;
+  }
+
+  /**
+   * Intersects the ID lists, the first list giving the order of the result.
+   *
+   * @param values
+   * @return
+   */
+  public List<String> intersect(List<List<String>> values) {
+    if (values.isEmpty()) return Lists.newArrayList();
+
+    BitSet joined = encode(values.get(0));
+    for (int i = 1; i < values.size() && !joined.isEmpty(); i++) {
+      joined.and(encode(values.get(i)));
+    }
+
+    return decode(joined);
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  private int indexOf(String value) {
+    Integer index = indices.get(value);
+    if (index == null) {
+      index = ids.size();
+      indices.put(value, index);
+      ids.add(value);
+    }
+    return index;
+  }
+}
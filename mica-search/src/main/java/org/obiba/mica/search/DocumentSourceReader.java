@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+import org.obiba.mica.spi.search.Searcher;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+
+/**
+ * Deserializes the sources of the search hits. The hits of a large page are read by chunks on a dedicated executor
+ * (elasticsearch.read.poolSize) instead of the common fork-join pool, which is shared by the whole application.
+ */
+@Component
+public class DocumentSourceReader {
+
+  static final int PARALLEL_READ_THRESHOLD = 200;
+
+  static final int CHUNK_SIZE = 100;
+
+  @Inject
+  private ObjectMapper objectMapper;
+
+  @Inject
+  @Qualifier("esReadExecutor")
+  private AsyncTaskExecutor esReadExecutor;
+
+  /**
+   * Read the sources of the documents, in parallel when the page is large.
+   *
+   * @param documents
+   * @param type
+   * @param <T>
+   * @return the objects, in the order of the documents
+   * @throws IOException
+   */
+  public <T> List<T> read(List<Searcher.DocumentResult> documents, Class<T> type) throws IOException {
+    if (documents.size() < PARALLEL_READ_THRESHOLD) return readAll(documents, type);
+
+    List<Future<List<T>>> chunks = Lists.newArrayList();
+    for (List<Searcher.DocumentResult> chunk : Lists.partition(documents, CHUNK_SIZE)) {
+      chunks.add(esReadExecutor.submit(() -> readAll(chunk, type)));
+    }
+
+    List<T> result = Lists.newArrayListWithCapacity(documents.size());
+    try {
+      for (Future<List<T>> chunk : chunks) {
+        result.addAll(chunk.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      chunks.forEach(chunk -> chunk.cancel(true));
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+
+    return result;
+  }
+
+  private <T> List<T> readAll(List<Searcher.DocumentResult> documents, Class<T> type) throws IOException {
+    List<T> result = Lists.newArrayListWithCapacity(documents.size());
+    for (Searcher.DocumentResult document : documents) {
+      result.add(objectMapper.readValue(document.getSourceInputStream(), type));
+    }
+    return result;
+  }
+}
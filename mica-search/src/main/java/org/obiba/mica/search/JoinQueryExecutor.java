@@ -12,12 +12,14 @@ package org.obiba.mica.search;
 
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Function;
-import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
 import org.obiba.mica.core.domain.LocalizedString;
 import org.obiba.mica.micaConfig.service.TaxonomyService;
+import org.obiba.mica.micaConfig.service.TaxonomySnapshot;
 import org.obiba.mica.search.queries.DatasetQuery;
 import org.obiba.mica.search.queries.DocumentQueryInterface;
 import org.obiba.mica.search.queries.NetworkQuery;
@@ -40,6 +42,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
@@ -48,8 +51,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -66,12 +70,14 @@ public class JoinQueryExecutor {
   private static final Logger log = LoggerFactory.getLogger(JoinQueryExecutor.class);
 
   @Inject
-  @Qualifier("esJoinQueriesSemaphore")
-  private Semaphore esJoinQueriesSemaphore;
+  private QueryAdmissionScheduler queryAdmissionScheduler;
 
+  @Inject
+  @Qualifier("esJoinSubQueriesExecutor")
+  private AsyncTaskExecutor esJoinSubQueriesExecutor;
 
-  @Value("${elasticsearch.concurrentJoinQueriesWaitTimeout:30000}")
-  private long concurrentJoinQueriesWaitTimeout;
+  @Value("${elasticsearch.parallelJoinSubQueries:true}")
+  private boolean parallelJoinSubQueries;
 
   @Inject
   private TaxonomyService taxonomyService;
@@ -106,34 +112,29 @@ public class JoinQueryExecutor {
     return query(QueryType.VARIABLE, joinQuery, null, DIGEST, QueryMode.COVERAGE);
   }
 
+  /**
+   * Same as {@link #query(QueryType, JoinQuery)} but admitted in the export budget, so that large reports do not
+   * hold back interactive searches.
+   */
+  @Timed
+  public JoinQueryResultDto queryExport(QueryType type, JoinQuery joinQuery) {
+    QueryAdmissionScheduler.QueryClass queryClass = QueryAdmissionScheduler.QueryClass.EXPORT;
+    return query(type, joinQuery, CountStatsData.newBuilder(), DETAIL, QueryMode.SEARCH, queryClass);
+  }
+
   private JoinQueryResultDto query(QueryType type, JoinQuery joinQuery,
                                    CountStatsData.Builder countBuilder, QueryScope scope, QueryMode mode) {
-
-    boolean havePermit = false;
-    try {
-      havePermit = acquireSemaphorePermit();
-      if (havePermit)
-        return unsafeQuery(type, joinQuery, countBuilder, scope, mode);
-      else
-        throw new UncheckedTimeoutException("Too many queries in a short time. Please retry later.");
-    } finally {
-      if (havePermit)
-        releaseSemaphorePermit();
-    }
+    return query(type, joinQuery, countBuilder, scope, mode, queryAdmissionScheduler.classify(type, joinQuery, scope, mode));
   }
 
-  private boolean acquireSemaphorePermit() {
-    try {
-      return esJoinQueriesSemaphore.tryAcquire(concurrentJoinQueriesWaitTimeout, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException e) {
-      throw new IllegalStateException(e.getMessage(), e);
+  private JoinQueryResultDto query(QueryType type, JoinQuery joinQuery, CountStatsData.Builder countBuilder,
+                                   QueryScope scope, QueryMode mode, QueryAdmissionScheduler.QueryClass queryClass) {
+    int cost = queryAdmissionScheduler.estimateCost(queryClass, type, joinQuery);
+    try (QueryAdmissionScheduler.Admission ignored = queryAdmissionScheduler.admit(queryClass, cost)) {
+      return unsafeQuery(type, joinQuery, countBuilder, scope, mode);
     }
   }
 
-  private void releaseSemaphorePermit() {
-    esJoinQueriesSemaphore.release();
-  }
-
   private JoinQueryResultDto unsafeQuery(QueryType type, JoinQuery joinQuery,
                                          CountStatsData.Builder countBuilder, QueryScope scope, QueryMode mode) {
     log.debug("Start query");
@@ -179,26 +180,27 @@ public class JoinQueryExecutor {
 
   private JoinQueryResultDto buildQueryResult(JoinQuery joinQueryDto) {
     JoinQueryResultDto.Builder builder = JoinQueryResultDto.newBuilder();
+    TaxonomySnapshot taxonomies = taxonomyService.getSnapshot();
 
     builder.setVariableResultDto(joinQueryDto.isWithFacets()
-        ? addAggregationTitles(variableQuery.getResultQuery(),
-        ImmutableList.<Taxonomy>builder().add(taxonomyService.getVariableTaxonomy())
-            .addAll(taxonomyService.getOpalTaxonomies()).build(), aggregationPostProcessor())
+        ? addAggregationTitles(variableQuery.getResultQuery(), taxonomies,
+        ImmutableList.<Taxonomy>builder().add(taxonomies.getVariableTaxonomy())
+            .addAll(taxonomies.getOpalTaxonomies()).build(), aggregationPostProcessor(taxonomies))
         : removeAggregations(variableQuery.getResultQuery()));
 
     builder.setDatasetResultDto(joinQueryDto.isWithFacets()
-        ? addAggregationTitles(datasetQuery.getResultQuery(), Lists.newArrayList(taxonomyService.getDatasetTaxonomy()),
-        null)
+        ? addAggregationTitles(datasetQuery.getResultQuery(), taxonomies,
+        Lists.newArrayList(taxonomies.getDatasetTaxonomy()), null)
         : removeAggregations(datasetQuery.getResultQuery()));
 
     builder.setStudyResultDto(joinQueryDto.isWithFacets()
-        ? addAggregationTitles(studyQuery.getResultQuery(), Lists.newArrayList(taxonomyService.getStudyTaxonomy()),
-        null)
+        ? addAggregationTitles(studyQuery.getResultQuery(), taxonomies,
+        Lists.newArrayList(taxonomies.getStudyTaxonomy()), null)
         : removeAggregations(studyQuery.getResultQuery()));
 
     builder.setNetworkResultDto(joinQueryDto.isWithFacets()
-        ? addAggregationTitles(networkQuery.getResultQuery(), Lists.newArrayList(taxonomyService.getNetworkTaxonomy()),
-        null)
+        ? addAggregationTitles(networkQuery.getResultQuery(), taxonomies,
+        Lists.newArrayList(taxonomies.getNetworkTaxonomy()), null)
         : removeAggregations(networkQuery.getResultQuery()));
 
     return builder.build();
@@ -217,7 +219,7 @@ public class JoinQueryExecutor {
   }
 
   private MicaSearch.QueryResultDto addAggregationTitles(MicaSearch.QueryResultDto queryResultDto,
-                                                         List<Taxonomy> taxonomies,
+                                                         TaxonomySnapshot snapshot, List<Taxonomy> taxonomies,
                                                          Function<List<AggregationResultDto>, List<AggregationResultDto>> postProcessor) {
 
     if (queryResultDto != null) {
@@ -226,11 +228,10 @@ public class JoinQueryExecutor {
       builder.clearAggs();
 
       List<AggregationResultDto> aggregationResultDtos = builders.stream().map(b -> {
-        taxonomies.forEach(taxonomy -> taxonomy.getVocabularies().forEach(voc -> {
-          if (b.getAggregation().equals(getVocabularyAggregationName(voc))) {
-            b.addAllTitle(dtos.asDto(LocalizedString.from(voc.getTitle())));
-          }
-        }));
+        taxonomies.forEach(taxonomy -> {
+          Vocabulary voc = snapshot.getVocabulary(taxonomy, b.getAggregation());
+          if (voc != null) b.addAllTitle(dtos.asDto(LocalizedString.from(voc.getTitle())));
+        });
 
         return b.build();
       }).collect(Collectors.toList());
@@ -242,7 +243,8 @@ public class JoinQueryExecutor {
       MicaSearch.QueryResultDto.Builder builder = MicaSearch.QueryResultDto.newBuilder();
 
       taxonomies.forEach(taxonomy -> taxonomy.getVocabularies().forEach(voc -> {
-        builder.addAggs(MicaSearch.AggregationResultDto.newBuilder().setAggregation(getVocabularyAggregationName(voc))
+        builder.addAggs(MicaSearch.AggregationResultDto.newBuilder()
+            .setAggregation(TaxonomySnapshot.getAggregationName(voc))
             .addAllTitle(dtos.asDto(LocalizedString.from(voc.getTitle()))).build());
       }));
 
@@ -252,14 +254,10 @@ public class JoinQueryExecutor {
     }
   }
 
-  private String getVocabularyAggregationName(Vocabulary vocabulary) {
-    String alias = vocabulary.getAttributeValue("alias");
-    return Strings.isNullOrEmpty(alias) ? vocabulary.getName() : alias;
-  }
-
-  protected Function<List<MicaSearch.AggregationResultDto>, List<MicaSearch.AggregationResultDto>> aggregationPostProcessor() {
+  protected Function<List<MicaSearch.AggregationResultDto>, List<MicaSearch.AggregationResultDto>> aggregationPostProcessor(
+      TaxonomySnapshot taxonomies) {
     return (aggregationResultDtos) -> {
-      Map<String, AggregationResultDto.Builder> buildres = taxonomyService.getOpalTaxonomies().stream()
+      Map<String, AggregationResultDto.Builder> buildres = taxonomies.getOpalTaxonomies().stream()
           .collect(Collectors.toMap(Taxonomy::getName, t -> {
             MicaSearch.AggregationResultDto.Builder builder = MicaSearch.AggregationResultDto.newBuilder()
                 .setAggregation(t.getName());
@@ -417,7 +415,7 @@ public class JoinQueryExecutor {
 
   private List<String> joinStudyIds(List<String> studyIds, List<String> joinedStudyIds) {
     if (studyIds != null) {
-      joinedStudyIds.retainAll(studyIds);
+      return new DocumentIdDictionary().intersect(Arrays.asList(joinedStudyIds, studyIds));
     }
 
     return joinedStudyIds;
@@ -430,14 +428,67 @@ public class JoinQueryExecutor {
   }
 
   private List<String> queryStudyIds(List<DocumentQueryInterface> queries) {
-    List<String> studyIds = queries.get(0).queryStudyIds();
+    List<List<DocumentQueryInterface>> groups = groupDependentQueries(queries);
+    List<List<String>> studyIdsList = parallelJoinSubQueries && groups.size() > 1
+      ? queryStudyIdsInParallel(groups)
+      : queryStudyIdsInSequence(queries);
+
+    return studyIdsList.isEmpty() ? null : new DocumentIdDictionary().intersect(studyIdsList);
+  }
 
-    queries.stream().skip(1).forEach(query -> {
-      if (studyIds.size() > 0) {
-        studyIds.retainAll(query.queryStudyIds());
+  /**
+   * Variable and dataset queries share the dataset IDs through the {@link DocumentQueryIdProvider}, they must be
+   * executed in the requested order. Other queries are independent.
+   */
+  private List<List<DocumentQueryInterface>> groupDependentQueries(List<DocumentQueryInterface> queries) {
+    List<List<DocumentQueryInterface>> groups = Lists.newArrayList();
+    List<DocumentQueryInterface> datasetIdsGroup = Lists.newArrayList();
+
+    queries.forEach(query -> {
+      if (query == variableQuery || query == datasetQuery) {
+        if (datasetIdsGroup.isEmpty()) groups.add(datasetIdsGroup);
+        datasetIdsGroup.add(query);
+      } else {
+        groups.add(Lists.newArrayList(query));
       }
     });
 
-    return studyIds;
+    return groups;
+  }
+
+  private List<List<String>> queryStudyIdsInSequence(List<DocumentQueryInterface> queries) {
+    List<List<String>> studyIdsList = Lists.newArrayList();
+    for (DocumentQueryInterface query : queries) {
+      List<String> studyIds = query.queryStudyIds();
+      if (studyIds == null) continue;
+      studyIdsList.add(studyIds);
+      if (studyIds.isEmpty()) break;
+    }
+    return studyIdsList;
+  }
+
+  private List<List<String>> queryStudyIdsInParallel(List<List<DocumentQueryInterface>> groups) {
+    Subject subject = SecurityUtils.getSubject();
+    List<Future<List<List<String>>>> futures = Lists.newArrayList();
+    for (List<DocumentQueryInterface> group : groups) {
+      Callable<List<List<String>>> task = () -> queryStudyIdsInSequence(group);
+      futures.add(esJoinSubQueriesExecutor.submit(subject.associateWith(task)));
+    }
+
+    List<List<String>> studyIdsList = Lists.newArrayList();
+    try {
+      for (Future<List<List<String>>> future : futures) {
+        studyIdsList.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e.getMessage(), e);
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      throw new UncheckedExecutionException(e.getCause());
+    }
+
+    return studyIdsList;
   }
 }
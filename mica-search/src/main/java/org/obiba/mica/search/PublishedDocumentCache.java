@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.mica.search;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+import org.obiba.mica.dataset.event.DatasetDeletedEvent;
+import org.obiba.mica.dataset.event.DatasetPublishedEvent;
+import org.obiba.mica.dataset.event.DatasetUnpublishedEvent;
+import org.obiba.mica.network.event.NetworkDeletedEvent;
+import org.obiba.mica.network.event.NetworkPublishedEvent;
+import org.obiba.mica.network.event.NetworkUnpublishedEvent;
+import org.obiba.mica.spi.search.Identified;
+import org.obiba.mica.study.event.StudyDeletedEvent;
+import org.obiba.mica.study.event.StudyPublishedEvent;
+import org.obiba.mica.study.event.StudyUnpublishedEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * Published documents, as read from the search index, shared by all the users: the accessibility of a document is
+ * checked on each read. A document is evicted when it is (un)published or deleted, and again once the search index
+ * was updated accordingly. The cached documents are shared by all the readers and must not be modified: a reader that
+ * needs to change a document (e.g. to translate it) changes a copy of it.
+ */
+@Component
+public class PublishedDocumentCache {
+
+  public enum Region {
+    STUDY("studies-published"),
+    NETWORK("networks-published"),
+    DATASET("datasets-published");
+
+    private final String cacheName;
+
+    Region(String cacheName) {
+      this.cacheName = cacheName;
+    }
+  }
+
+  @Inject
+  private CacheManager cacheManager;
+
+  @Inject
+  private MetricRegistry metricRegistry;
+
+  // documents being read while the region is evicted are not cached, as they could be stale
+  private final Map<Region, AtomicLong> generations = Maps.newEnumMap(Region.class);
+
+  private final Map<Region, Meter> hits = Maps.newEnumMap(Region.class);
+
+  private final Map<Region, Meter> requests = Maps.newEnumMap(Region.class);
+
+  @PostConstruct
+  public void init() {
+    for (Region region : Region.values()) {
+      generations.put(region, new AtomicLong());
+      hits.put(region, metricRegistry.meter(MetricRegistry.name(PublishedDocumentCache.class, region.cacheName, "hits")));
+      requests.put(region,
+        metricRegistry.meter(MetricRegistry.name(PublishedDocumentCache.class, region.cacheName, "requests")));
+
+      String ratioName = MetricRegistry.name(PublishedDocumentCache.class, region.cacheName, "hitRatio");
+      metricRegistry.remove(ratioName);
+      metricRegistry.register(ratioName, new RatioGauge() {
+        @Override
+        protected Ratio getRatio() {
+          return Ratio.of(hits.get(region).getFiveMinuteRate(), requests.get(region).getFiveMinuteRate());
+        }
+      });
+    }
+  }
+
+  /**
+   * Get the documents from the cache, the missing ones are read at once and cached.
+   *
+   * @param region
+   * @param ids
+   * @param loader reads the documents, whatever their accessibility
+   * @param <T>
+   * @return the found documents, in no particular order
+   */
+  public <T extends Identified> List<T> getAll(Region region, List<String> ids, Function<List<String>, List<T>> loader) {
+    Cache cache = cacheManager.getCache(region.cacheName);
+    List<T> results = Lists.newArrayList();
+    List<String> missingIds = Lists.newArrayList();
+    for (String id : ids) {
+      @SuppressWarnings("unchecked")
+      T document = (T) cache.get(id, Identified.class);
+      if (document == null) missingIds.add(id);
+      else results.add(document);
+    }
+
+    requests.get(region).mark(ids.size());
+    hits.get(region).mark(results.size());
+    if (missingIds.isEmpty()) return results;
+
+    long generation = generations.get(region).get();
+    List<T> loaded = loader.apply(missingIds);
+    if (generation == generations.get(region).get()) loaded.forEach(document -> cache.put(document.getId(), document));
+    results.addAll(loaded);
+
+    return results;
+  }
+
+  public void evict(Region region, String id) {
+    generations.get(region).incrementAndGet();
+    cacheManager.getCache(region.cacheName).evict(id);
+  }
+
+  public void evictAll(Region region) {
+    generations.get(region).incrementAndGet();
+    cacheManager.getCache(region.cacheName).clear();
+  }
+
+  //
+  // Events
+  //
+
+  @Subscribe
+  public void studyPublished(StudyPublishedEvent event) {
+    evict(Region.STUDY, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void studyUnpublished(StudyUnpublishedEvent event) {
+    evict(Region.STUDY, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void studyDeleted(StudyDeletedEvent event) {
+    evict(Region.STUDY, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void networkPublished(NetworkPublishedEvent event) {
+    evict(Region.NETWORK, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void networkUnpublished(NetworkUnpublishedEvent event) {
+    evict(Region.NETWORK, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void networkDeleted(NetworkDeletedEvent event) {
+    evict(Region.NETWORK, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void datasetPublished(DatasetPublishedEvent event) {
+    evict(Region.DATASET, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void datasetUnpublished(DatasetUnpublishedEvent event) {
+    evict(Region.DATASET, event.getPersistable().getId());
+  }
+
+  @Subscribe
+  public void datasetDeleted(DatasetDeletedEvent event) {
+    evict(Region.DATASET, event.getPersistable().getId());
+  }
+}
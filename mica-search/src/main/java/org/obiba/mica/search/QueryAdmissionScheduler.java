@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.obiba.mica.spi.search.QueryMode;
+import org.obiba.mica.spi.search.QueryScope;
+import org.obiba.mica.spi.search.QueryType;
+import org.obiba.mica.spi.search.support.JoinQuery;
+import org.obiba.mica.spi.search.support.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * Admission control of the join queries: each class of query has its own budget of cost units, queries of a class are
+ * admitted in a first-come first-served order as long as the sum of the costs of the running queries does not exceed
+ * the budget. Cheap count queries are then not queued behind expensive coverage or export ones.
+ */
+@Component
+public class QueryAdmissionScheduler implements EnvironmentAware {
+
+  private static final Logger log = LoggerFactory.getLogger(QueryAdmissionScheduler.class);
+
+  private static final int DEFAULT_MAX_CONCURRENT_MAX_JOIN_QUERIES = 4;
+
+  private static final long DEFAULT_WAIT_TIMEOUT = 30000;
+
+  private static final int LARGE_RESULT_SIZE = 1000;
+
+  public enum QueryClass {
+    DETAIL(2),      // search documents with results
+    AGGREGATION(1), // counts and facets only
+    COVERAGE(2),    // coverage of the taxonomy terms
+    EXPORT(4);      // CSV reports
+
+    private final int cost;
+
+    QueryClass(int cost) {
+      this.cost = cost;
+    }
+
+    public int getCost() {
+      return cost;
+    }
+
+    private String getPropertyPrefix() {
+      return "admission." + name().toLowerCase() + ".";
+    }
+  }
+
+  @Inject
+  private MetricRegistry metricRegistry;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  private long waitTimeout;
+
+  private final Map<QueryClass, Budget> budgets = Maps.newEnumMap(QueryClass.class);
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "elasticsearch.");
+  }
+
+  @PostConstruct
+  public void init() {
+    waitTimeout = propertyResolver.getProperty("concurrentJoinQueriesWaitTimeout", Long.class, DEFAULT_WAIT_TIMEOUT);
+    int maxConcurrentJoinQueries = propertyResolver
+      .getProperty("maxConcurrentJoinQueries", Integer.class, DEFAULT_MAX_CONCURRENT_MAX_JOIN_QUERIES);
+
+    for (QueryClass queryClass : QueryClass.values()) {
+      // by default, each class can run as many queries of their base cost as the legacy maximum of concurrent queries
+      int capacity = propertyResolver.getProperty(queryClass.getPropertyPrefix() + "capacity", Integer.class,
+        maxConcurrentJoinQueries * queryClass.getCost());
+      long timeout = propertyResolver.getProperty(queryClass.getPropertyPrefix() + "waitTimeout", Long.class,
+        waitTimeout);
+      budgets.put(queryClass, new Budget(queryClass, Math.max(capacity, 1), timeout));
+      log.debug("Query admission budget of {} queries: {}", queryClass, capacity);
+    }
+  }
+
+  /**
+   * Classify the join query according to what is to be retrieved.
+   *
+   * @param type
+   * @param joinQuery
+   * @param scope
+   * @param mode
+   * @return
+   */
+  public QueryClass classify(QueryType type, JoinQuery joinQuery, QueryScope scope, QueryMode mode) {
+    if (mode == QueryMode.COVERAGE) return QueryClass.COVERAGE;
+    if (scope != QueryScope.DETAIL) return QueryClass.AGGREGATION;
+
+    Query query = getTargetQuery(type, joinQuery);
+    return query != null && query.getSize() == 0 ? QueryClass.AGGREGATION : QueryClass.DETAIL;
+  }
+
+  /**
+   * Estimate the cost of the join query in the budget units of its class: the base cost of the class, doubled when a
+   * large number of documents is requested.
+   *
+   * @param queryClass
+   * @param type
+   * @param joinQuery
+   * @return
+   */
+  public int estimateCost(QueryClass queryClass, QueryType type, JoinQuery joinQuery) {
+    Query query = getTargetQuery(type, joinQuery);
+    int cost = queryClass.getCost();
+    if (query != null && query.getSize() > LARGE_RESULT_SIZE) cost = cost * 2;
+    return cost;
+  }
+
+  /**
+   * Wait for the query to be admitted, or fail after the class timeout.
+   *
+   * @param queryClass
+   * @param cost
+   * @return The admission to be closed when the query is done
+   * @throws UncheckedTimeoutException
+   */
+  public Admission admit(QueryClass queryClass, int cost) {
+    return budgets.get(queryClass).admit(cost);
+  }
+
+  private Query getTargetQuery(QueryType type, JoinQuery joinQuery) {
+    switch (type) {
+      case VARIABLE:
+        return joinQuery.getVariableQuery();
+      case DATASET:
+        return joinQuery.getDatasetQuery();
+      case STUDY:
+        return joinQuery.getStudyQuery();
+      case NETWORK:
+        return joinQuery.getNetworkQuery();
+    }
+
+    return null;
+  }
+
+  /**
+   * An admitted query, holding its cost units until closed.
+   */
+  public static class Admission implements AutoCloseable {
+
+    private final Semaphore semaphore;
+
+    private final int cost;
+
+    private boolean closed;
+
+    private Admission(Semaphore semaphore, int cost) {
+      this.semaphore = semaphore;
+      this.cost = cost;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (closed) return;
+      closed = true;
+      semaphore.release(cost);
+    }
+  }
+
+  private class Budget {
+
+    private final QueryClass queryClass;
+
+    private final int capacity;
+
+    private final long timeout;
+
+    private final Semaphore semaphore;
+
+    private final Timer waitTimer;
+
+    private final Meter rejections;
+
+    Budget(QueryClass queryClass, int capacity, long timeout) {
+      this.queryClass = queryClass;
+      this.capacity = capacity;
+      this.timeout = timeout;
+      semaphore = new Semaphore(capacity, true);
+
+      String name = queryClass.name().toLowerCase();
+      waitTimer = metricRegistry.timer(MetricRegistry.name(QueryAdmissionScheduler.class, name, "wait"));
+      rejections = metricRegistry.meter(MetricRegistry.name(QueryAdmissionScheduler.class, name, "rejections"));
+      registerGauge(MetricRegistry.name(QueryAdmissionScheduler.class, name, "queue"), semaphore::getQueueLength);
+      registerGauge(MetricRegistry.name(QueryAdmissionScheduler.class, name, "used"),
+        () -> capacity - semaphore.availablePermits());
+    }
+
+    Admission admit(int cost) {
+      // a query that is more expensive than the budget would never be admitted
+      int permits = Math.min(Math.max(cost, 1), capacity);
+      boolean admitted;
+
+      Timer.Context context = waitTimer.time();
+      try {
+        admitted = semaphore.tryAcquire(permits, timeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e.getMessage(), e);
+      } finally {
+        context.stop();
+      }
+
+      if (!admitted) {
+        rejections.mark();
+        log.debug("Query of class {} with cost {} rejected after {}ms", queryClass, permits, timeout);
+        throw new UncheckedTimeoutException("Too many queries in a short time. Please retry later.");
+      }
+
+      return new Admission(semaphore, permits);
+    }
+
+    private void registerGauge(String name, Gauge<Integer> gauge) {
+      metricRegistry.remove(name);
+      metricRegistry.register(name, gauge);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.obiba.mica.spi.search.Searcher;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Suggestions of terms on several fields of an index: the fields are queried concurrently and the suggestions of the
+ * search box are cached for a short time, as the same prefixes are typed over and over again.
+ */
+@Component
+public class Suggester implements EnvironmentAware {
+
+  private static final long DEFAULT_CACHE_TTL = 30000;
+
+  private static final long DEFAULT_CACHE_MAX_SIZE = 10000;
+
+  @Inject
+  private Searcher searcher;
+
+  @Inject
+  private MetricRegistry metricRegistry;
+
+  @Inject
+  @Qualifier("esSuggestExecutor")
+  private AsyncTaskExecutor esSuggestExecutor;
+
+  private RelaxedPropertyResolver propertyResolver;
+
+  private Cache<String, ImmutableSet<String>> suggestions;
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    propertyResolver = new RelaxedPropertyResolver(environment, "elasticsearch.suggest.");
+  }
+
+  @PostConstruct
+  public void init() {
+    suggestions = CacheBuilder.newBuilder()
+      .maximumSize(propertyResolver.getProperty("cacheMaxSize", Long.class, DEFAULT_CACHE_MAX_SIZE))
+      .expireAfterWrite(propertyResolver.getProperty("cacheTtl", Long.class, DEFAULT_CACHE_TTL), TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  /**
+   * Get the suggestions of each field, in the order of the fields.
+   *
+   * @param indexName
+   * @param type
+   * @param limit
+   * @param locale
+   * @param queryString
+   * @param fields
+   * @param useCache whether the suggestions can be taken from the cache
+   * @return
+   */
+  public Set<String> suggest(String indexName, String type, int limit, String locale, String queryString,
+                             List<String> fields, boolean useCache) {
+    if (!useCache) return time(indexName, () -> suggestFields(indexName, type, limit, locale, queryString, fields));
+
+    String key = Joiner.on("|").useForNull("").join(indexName, type, locale, limit, Joiner.on(",").join(fields),
+      queryString);
+    ImmutableSet<String> cached = suggestions.getIfPresent(key);
+    if (cached != null) {
+      metricRegistry.meter(MetricRegistry.name(Suggester.class, indexName, "cacheHits")).mark();
+      return cached;
+    }
+
+    ImmutableSet<String> result = time(indexName, () -> suggestFields(indexName, type, limit, locale, queryString, fields));
+    suggestions.put(key, result);
+    return result;
+  }
+
+  //
+  // Private methods
+  //
+
+  private ImmutableSet<String> time(String indexName, Callable<ImmutableSet<String>> callable) {
+    Timer.Context context = metricRegistry.timer(MetricRegistry.name(Suggester.class, indexName, "latency")).time();
+    try {
+      return callable.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new UncheckedExecutionException(e);
+    } finally {
+      context.stop();
+    }
+  }
+
+  private ImmutableSet<String> suggestFields(String indexName, String type, int limit, String locale,
+                                             String queryString, List<String> fields) {
+    Set<String> result = Sets.newLinkedHashSet();
+
+    // query fields separately otherwise we do not know which field has matched and suggestion might not be correct
+    if (fields.size() == 1) {
+      result.addAll(searcher.suggest(indexName, type, limit, locale, queryString, fields.get(0)));
+      return ImmutableSet.copyOf(result);
+    }
+
+    Subject subject = SecurityUtils.getSubject();
+    List<Future<List<String>>> futures = Lists.newArrayList();
+    for (String field : fields) {
+      Callable<List<String>> task = () -> searcher.suggest(indexName, type, limit, locale, queryString, field);
+      futures.add(esSuggestExecutor.submit(subject.associateWith(task)));
+    }
+
+    try {
+      for (Future<List<String>> future : futures) {
+        result.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new UncheckedExecutionException(e.getCause());
+    }
+
+    return ImmutableSet.copyOf(result);
+  }
+}
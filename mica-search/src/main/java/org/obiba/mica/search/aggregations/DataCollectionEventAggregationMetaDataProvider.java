@@ -10,34 +10,23 @@
 
 package org.obiba.mica.search.aggregations;
 
-import java.util.Map;
-
 import javax.inject.Inject;
 
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
-import org.obiba.mica.micaConfig.service.helper.DceIdAggregationMetaDataHelper;
 import org.springframework.stereotype.Component;
 
 @Component
 public class DataCollectionEventAggregationMetaDataProvider implements AggregationMetaDataProvider {
 
-  private static final String AGGREGATION_NAME = "dceId";
+  private static final String AGGREGATION_NAME = AggregationMetaDataDictionary.DCE;
 
   @Inject
-  DceIdAggregationMetaDataHelper helper;
+  AggregationMetaDataDictionary dictionary;
 
   @Override
   public MetaData getMetadata(String aggregation, String termKey, String locale) {
-    Map<String, AggregationMetaDataProvider.LocalizedMetaData> dceDictionary = helper.getDces();
-
-    return AGGREGATION_NAME.equals(aggregation) && dceDictionary.containsKey(termKey) ? MetaData.newBuilder() //
-      .title(dceDictionary.get(termKey).getTitle().get(locale)) //
-      .description(dceDictionary.get(termKey).getDescription().get(locale)) //
-      .className(dceDictionary.get(termKey).getClassName()) //
-      .start(dceDictionary.get(termKey).getStart()) //
-      .end(dceDictionary.get(termKey).getEnd()) //
-      .sortField(dceDictionary.get(termKey).getSortField())
-      .build() : null;
+    return AGGREGATION_NAME.equals(aggregation) ? dictionary.getMetaData(aggregation, termKey, locale) : null;
   }
 
   @Override
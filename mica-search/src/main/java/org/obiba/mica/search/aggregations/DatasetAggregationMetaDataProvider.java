@@ -10,12 +10,10 @@
 
 package org.obiba.mica.search.aggregations;
 
-import java.util.Map;
-
 import javax.inject.Inject;
 
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
-import org.obiba.mica.micaConfig.service.helper.DatasetIdAggregationMetaDataHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -24,10 +22,10 @@ import org.springframework.stereotype.Component;
 public class DatasetAggregationMetaDataProvider implements AggregationMetaDataProvider {
 
   private static final Logger log = LoggerFactory.getLogger(DatasetAggregationMetaDataProvider.class);
-  private static final String AGGREGATION_NAME = "datasetId";
+  private static final String AGGREGATION_NAME = AggregationMetaDataDictionary.DATASET;
 
   @Inject
-  DatasetIdAggregationMetaDataHelper helper;
+  AggregationMetaDataDictionary dictionary;
 
   @Override
   public void refresh() {
@@ -35,15 +33,7 @@ public class DatasetAggregationMetaDataProvider implements AggregationMetaDataPr
 
   @Override
   public MetaData getMetadata(String aggregation, String termKey, String locale) {
-    Map<String, LocalizedMetaData> datasetsDictionary = helper.getDatasets();
-
-    return AGGREGATION_NAME.equals(aggregation) && datasetsDictionary.containsKey(termKey)
-      && datasetsDictionary.get(termKey).getTitle() != null
-      ? MetaData.newBuilder()
-        .title(datasetsDictionary.get(termKey).getTitle().get(locale))
-        .description(datasetsDictionary.get(termKey).getDescription().get(locale))
-        .className(datasetsDictionary.get(termKey).getClassName()).build()
-      : null;
+    return AGGREGATION_NAME.equals(aggregation) ? dictionary.getMetaData(aggregation, termKey, locale) : null;
   }
 
   @Override
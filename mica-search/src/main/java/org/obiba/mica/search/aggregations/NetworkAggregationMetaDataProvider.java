@@ -10,21 +10,19 @@
 
 package org.obiba.mica.search.aggregations;
 
-import java.util.Map;
-
 import javax.inject.Inject;
 
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
-import org.obiba.mica.micaConfig.service.helper.NetworkIdAggregationMetaDataHelper;
 import org.springframework.stereotype.Component;
 
 @Component
 public class NetworkAggregationMetaDataProvider implements AggregationMetaDataProvider {
 
-  private static final String AGGREGATION_NAME = "networkId";
+  private static final String AGGREGATION_NAME = AggregationMetaDataDictionary.NETWORK;
 
   @Inject
-  NetworkIdAggregationMetaDataHelper helper;
+  AggregationMetaDataDictionary dictionary;
 
   @Override
   public void refresh() {
@@ -32,13 +30,7 @@ public class NetworkAggregationMetaDataProvider implements AggregationMetaDataPr
 
   @Override
   public MetaData getMetadata(String aggregation, String termKey, String locale) {
-    Map<String, LocalizedMetaData> networks = helper.getNetworks();
-    return AGGREGATION_NAME.equals(aggregation) && networks.containsKey(termKey)
-      ? MetaData.newBuilder()
-        .title(networks.get(termKey).getTitle().get(locale))
-        .description(networks.get(termKey).getDescription().get(locale))
-        .className(networks.get(termKey).getClassName()).build()
-      : null;
+    return AGGREGATION_NAME.equals(aggregation) ? dictionary.getMetaData(aggregation, termKey, locale) : null;
   }
 
   @Override
@@ -1,33 +1,26 @@
 package org.obiba.mica.search.aggregations;
 
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
-import org.obiba.mica.micaConfig.service.helper.PopulationIdAggregationMetaDataHelper;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
-import java.util.Map;
 
 @Component
 public class PopulationAggregationMetaDataProvider implements AggregationMetaDataProvider {
 
-  private static final String AGGREGATION_NAME = "populationId";
+  private static final String AGGREGATION_NAME = AggregationMetaDataDictionary.POPULATION;
 
-  private final PopulationIdAggregationMetaDataHelper helper;
+  private final AggregationMetaDataDictionary dictionary;
 
   @Inject
-  public PopulationAggregationMetaDataProvider(PopulationIdAggregationMetaDataHelper helper) {
-    this.helper = helper;
+  public PopulationAggregationMetaDataProvider(AggregationMetaDataDictionary dictionary) {
+    this.dictionary = dictionary;
   }
 
   @Override
   public MetaData getMetadata(String aggregation, String termKey, String locale) {
-    Map<String, LocalizedMetaData> dataMap = helper.getPopulations();
-    return AGGREGATION_NAME.equals(aggregation) && dataMap.containsKey(termKey) ?
-      MetaData.newBuilder()
-        .title(dataMap.get(termKey).getTitle().get(locale))
-        .description(dataMap.get(termKey).getDescription().get(locale))
-        .className(dataMap.get(termKey).getClassName())
-        .build() : null;
+    return AGGREGATION_NAME.equals(aggregation) ? dictionary.getMetaData(aggregation, termKey, locale) : null;
   }
 
   @Override
@@ -1,32 +1,25 @@
 package org.obiba.mica.search.aggregations;
 
-import java.util.Map;
 import javax.inject.Inject;
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
-import org.obiba.mica.micaConfig.service.helper.SetsAggregationMetaDataHelper;
 import org.springframework.stereotype.Component;
 
 @Component
 public class SetsAggregationMetaDataProvider implements AggregationMetaDataProvider {
 
-  private static final String AGGREGATION_NAME = "sets";
+  private static final String AGGREGATION_NAME = AggregationMetaDataDictionary.SETS;
 
-  private SetsAggregationMetaDataHelper helper;
+  private AggregationMetaDataDictionary dictionary;
 
   @Inject
-  public SetsAggregationMetaDataProvider(SetsAggregationMetaDataHelper helper) {
-    this.helper = helper;
+  public SetsAggregationMetaDataProvider(AggregationMetaDataDictionary dictionary) {
+    this.dictionary = dictionary;
   }
 
   @Override
   public MetaData getMetadata(String aggregation, String termKey, String locale) {
-    Map<String, LocalizedMetaData> setIds = helper.getSetIds();
-
-    return AGGREGATION_NAME.equals(aggregation) && setIds.containsKey(termKey) ?
-      MetaData.newBuilder()
-        .title(setIds.get(termKey).getTitle().get(locale))
-        .className(setIds.get(termKey).getClassName())
-        .build() : null;
+    return AGGREGATION_NAME.equals(aggregation) ? dictionary.getMetaData(aggregation, termKey, locale) : null;
   }
 
   @Override
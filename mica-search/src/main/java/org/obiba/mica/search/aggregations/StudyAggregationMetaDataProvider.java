@@ -10,33 +10,23 @@
 
 package org.obiba.mica.search.aggregations;
 
-import java.util.Map;
-
 import javax.inject.Inject;
 
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
-import org.obiba.mica.micaConfig.service.helper.StudyIdAggregationMetaDataHelper;
 import org.springframework.stereotype.Component;
 
 @Component
 public class StudyAggregationMetaDataProvider implements AggregationMetaDataProvider {
 
-  private static final String AGGREGATION_NAME = "studyIds";
+  private static final String AGGREGATION_NAME = AggregationMetaDataDictionary.STUDY;
 
   @Inject
-  StudyIdAggregationMetaDataHelper helper;
+  AggregationMetaDataDictionary dictionary;
 
   @Override
   public MetaData getMetadata(String aggregation, String termKey, String locale) {
-    Map<String, LocalizedMetaData> studiesDictionary = helper.getStudies();
-    return AGGREGATION_NAME.equals(aggregation) && studiesDictionary.containsKey(termKey) ? MetaData.newBuilder() //
-      .title(studiesDictionary.get(termKey).getTitle().get(locale)) //
-      .description(studiesDictionary.get(termKey).getDescription().get(locale)) //
-      .className(studiesDictionary.get(termKey).getClassName())
-      .start(studiesDictionary.get(termKey).getStart()) //
-      .end(studiesDictionary.get(termKey).getEnd()) //
-      .sortField(studiesDictionary.get(termKey).getSortField())
-      .build() : null;
+    return AGGREGATION_NAME.equals(aggregation) ? dictionary.getMetaData(aggregation, termKey, locale) : null;
   }
 
   @Override
@@ -11,7 +11,6 @@
 package org.obiba.mica.search.aggregations;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -20,7 +19,7 @@ import javax.inject.Inject;
 
 import org.obiba.mica.spi.search.support.AttributeKey;
 import org.obiba.mica.core.domain.LocalizedString;
-import org.obiba.mica.micaConfig.service.OpalService;
+import org.obiba.mica.micaConfig.service.TaxonomyService;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
 import org.obiba.opal.core.domain.taxonomy.Taxonomy;
 import org.obiba.opal.core.domain.taxonomy.Term;
@@ -34,7 +33,7 @@ import com.google.common.collect.Maps;
 public class TaxonomyAggregationMetaDataProvider implements AggregationMetaDataProvider {
 
   @Inject
-  OpalService opalService;
+  TaxonomyService taxonomyService;
 
   Map<String, Map<String, LocalizedMetaData>> cache;
 
@@ -114,11 +113,6 @@ public class TaxonomyAggregationMetaDataProvider implements AggregationMetaDataP
   }
 
   protected List<Taxonomy> getTaxonomies() {
-    try {
-      return opalService.getTaxonomies();
-    } catch(Exception e) {
-      // ignore
-    }
-    return Collections.emptyList();
+    return taxonomyService.getOpalTaxonomies();
   }
 }
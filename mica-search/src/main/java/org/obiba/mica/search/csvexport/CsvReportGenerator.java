@@ -12,8 +12,18 @@ package org.obiba.mica.search.csvexport;
 
 import java.io.OutputStream;
 
+import au.com.bytecode.opencsv.CSVWriter;
+
 public interface CsvReportGenerator {
 
+  /**
+   * Write the lines to a writer that is shared by several reports, for instance the pages of an export.
+   *
+   * @param writer
+   * @param omitHeader
+   */
+  void write(CSVWriter writer, boolean omitHeader);
+
   void write(OutputStream outputStream, boolean omitHeader);
 
   void write(OutputStream outputStream);
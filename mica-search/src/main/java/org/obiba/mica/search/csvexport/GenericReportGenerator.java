@@ -10,26 +10,44 @@
 
 package org.obiba.mica.search.csvexport;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+
+import au.com.bytecode.opencsv.CSVWriter;
 import org.obiba.mica.search.JoinQueryExecutor;
 import org.obiba.mica.spi.search.QueryType;
 import org.obiba.mica.spi.search.Searcher;
 import org.obiba.mica.spi.search.support.JoinQuery;
 import org.obiba.mica.web.model.MicaSearch;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.List;
 
+/**
+ * Export of the search results in CSV: the results are read page by page, each page being written while the next one
+ * is queried, so that at most two pages are held in memory whatever the size of the export.
+ */
 @Component
 @Scope("request")
 public class GenericReportGenerator {
 
-  private static final int MAX_DOWNLOAD_STEP = 50000;
+  private static final Pattern LIMIT_PATTERN = Pattern.compile("limit\\((\\d+),(\\d+)\\)");
+
+  private static final long OFFER_TIMEOUT = 100;
 
   @Inject
   private JoinQueryExecutor joinQueryExecutor;
@@ -40,27 +58,111 @@ public class GenericReportGenerator {
   @Inject
   private CsvReportGeneratorFactory csvReportGeneratorFactory;
 
+  @Inject
+  @Qualifier("esExportExecutor")
+  private AsyncTaskExecutor esExportExecutor;
+
+  @Value("${elasticsearch.export.pageSize:5000}")
+  private int pageSize;
+
   public void generateCsv(QueryType exportType, String rqlQuery, List<String> columnsToHide, OutputStream outputStream) throws IOException {
-    final String limitRegex = "limit\\((\\d+),(\\d+)\\)";
-    Pattern pattern = Pattern.compile(limitRegex);
-    Matcher matcher = pattern.matcher(rqlQuery);
+    Matcher matcher = LIMIT_PATTERN.matcher(rqlQuery);
+    CSVWriter writer = new CSVWriter(new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8")));
 
     if (matcher.find()) {
-      int size = Integer.valueOf(matcher.group(2));
+      generateCsvPages(exportType, rqlQuery, matcher, columnsToHide, writer);
+    } else {
+      JoinQuery joinQuery = searcher.makeJoinQuery(rqlQuery);
+      MicaSearch.JoinQueryResultDto queryResult = joinQueryExecutor.queryExport(exportType, joinQuery);
+      csvReportGeneratorFactory.get(exportType, queryResult, columnsToHide, joinQuery.getLocale()).write(writer, false);
+    }
+
+    writer.flush();
+  }
 
-      int numberOfSteps = Double.valueOf(Math.ceil(size / (double) MAX_DOWNLOAD_STEP)).intValue();
+  //
+  // Private methods
+  //
 
-      for (int i = 0; i < numberOfSteps; i++) {
-        JoinQuery joinQuery = searcher.makeJoinQuery(rqlQuery.replace(matcher.group(), "limit(" + (MAX_DOWNLOAD_STEP * i) + "," + MAX_DOWNLOAD_STEP + ")"));
-        MicaSearch.JoinQueryResultDto queryResult = joinQueryExecutor.query(exportType, joinQuery);
-        CsvReportGenerator csvReportGenerator = csvReportGeneratorFactory.get(exportType, queryResult, columnsToHide, joinQuery.getLocale());
-        csvReportGenerator.write(outputStream, i > 0);
+  /**
+   * The pages are queried in the request thread (the queries are request scoped) and handed over to a writer thread.
+   */
+  private void generateCsvPages(QueryType exportType, String rqlQuery, Matcher limit, List<String> columnsToHide,
+                                CSVWriter writer) throws IOException {
+    int from = Integer.valueOf(limit.group(1));
+    int size = Integer.valueOf(limit.group(2));
+    int step = Math.max(pageSize, 1);
+
+    BlockingQueue<Page> pages = new ArrayBlockingQueue<>(1);
+    Future<Void> writing = esExportExecutor.submit(() -> {
+      boolean first = true;
+      for (Page page = pages.take(); page.result != null; page = pages.take()) {
+        csvReportGeneratorFactory.get(exportType, page.result, columnsToHide, page.locale).write(writer, !first);
+        writer.flush();
+        first = false;
       }
-    } else {
-      JoinQuery joinQuery = searcher.makeJoinQuery(rqlQuery);
-      MicaSearch.JoinQueryResultDto queryResult = joinQueryExecutor.query(exportType, joinQuery);
-      CsvReportGenerator csvReportGenerator = csvReportGeneratorFactory.get(exportType, queryResult, columnsToHide, joinQuery.getLocale());
-      csvReportGenerator.write(outputStream);
+      return null;
+    });
+
+    try {
+      for (int offset = 0; offset < size; offset += step) {
+        int count = Math.min(step, size - offset);
+        JoinQuery joinQuery = searcher
+          .makeJoinQuery(rqlQuery.replace(limit.group(), "limit(" + (from + offset) + "," + count + ")"));
+        MicaSearch.JoinQueryResultDto queryResult = joinQueryExecutor.queryExport(exportType, joinQuery);
+        if (!put(pages, new Page(queryResult, joinQuery.getLocale()), writing)) break;
+        if (from + offset + count >= getTotalHits(exportType, queryResult)) break;
+      }
+      put(pages, new Page(null, null), writing);
+      writing.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while exporting " + exportType, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    } finally {
+      writing.cancel(true);
+    }
+  }
+
+  /**
+   * Wait for the writer to take the previous page, unless it has stopped.
+   *
+   * @return false if the writer has stopped
+   */
+  private boolean put(BlockingQueue<Page> pages, Page page, Future<Void> writing) throws InterruptedException {
+    while (!pages.offer(page, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+      if (writing.isDone()) return false;
+    }
+    return true;
+  }
+
+  private int getTotalHits(QueryType exportType, MicaSearch.JoinQueryResultDto queryResult) {
+    switch (exportType) {
+      case VARIABLE:
+        return queryResult.getVariableResultDto().getTotalHits();
+      case DATASET:
+        return queryResult.getDatasetResultDto().getTotalHits();
+      case STUDY:
+        return queryResult.getStudyResultDto().getTotalHits();
+      case NETWORK:
+        return queryResult.getNetworkResultDto().getTotalHits();
+      default:
+        return Integer.MAX_VALUE;
+    }
+  }
+
+  private static class Page {
+
+    private final MicaSearch.JoinQueryResultDto result;
+
+    private final String locale;
+
+    Page(MicaSearch.JoinQueryResultDto result, String locale) {
+      this.result = result;
+      this.locale = locale;
     }
   }
 }
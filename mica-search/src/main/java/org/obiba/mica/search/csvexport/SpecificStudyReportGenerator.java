@@ -90,7 +90,7 @@ public class SpecificStudyReportGenerator extends CsvReportGeneratorImpl {
 
     JoinQuery joinQuery = searcher.makeJoinQuery(rqlQuery);
 
-    List<String> studyIds = joinQueryExecutor.query(QueryType.STUDY, joinQuery)
+    List<String> studyIds = joinQueryExecutor.queryExport(QueryType.STUDY, joinQuery)
         .getStudyResultDto()
         .getExtension(MicaSearch.StudyResultDto.result)
         .getSummariesList()
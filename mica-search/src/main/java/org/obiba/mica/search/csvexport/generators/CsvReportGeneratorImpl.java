@@ -28,8 +28,7 @@ public abstract class CsvReportGeneratorImpl implements CsvReportGenerator {
 
   public void write(OutputStream outputStream, boolean omitHeader) {
     try (CSVWriter writer = new CSVWriter(new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8")))) {
-      if (!omitHeader) writeHeader(writer);
-      writeEachLine(writer);
+      write(writer, omitHeader);
       outputStream.flush();
     } catch (IOException e) {
       log.error("CSV report extraction failed", e);
@@ -43,6 +42,12 @@ public abstract class CsvReportGeneratorImpl implements CsvReportGenerator {
     write(outputStream, false);
   }
 
+  @Override
+  public void write(CSVWriter writer, boolean omitHeader) {
+    if (!omitHeader) writeHeader(writer);
+    writeEachLine(writer);
+  }
+
   protected abstract void writeHeader(CSVWriter writer);
 
   protected abstract void writeEachLine(CSVWriter writer);
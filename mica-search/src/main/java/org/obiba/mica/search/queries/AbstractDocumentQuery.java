@@ -18,6 +18,7 @@ import com.google.common.collect.Maps;
 import org.obiba.mica.micaConfig.service.MicaConfigService;
 import org.obiba.mica.micaConfig.service.TaxonomyService;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
+import org.obiba.mica.search.AccessibleIdFilterCache;
 import org.obiba.mica.search.DocumentQueryHelper;
 import org.obiba.mica.search.aggregations.AggregationMetaDataResolver;
 import org.obiba.mica.security.service.SubjectAclService;
@@ -60,6 +61,9 @@ public abstract class AbstractDocumentQuery implements DocumentQueryInterface {
   @Inject
   protected SubjectAclService subjectAclService;
 
+  @Inject
+  protected AccessibleIdFilterCache accessibleIdFilterCache;
+
   @Inject
   private AggregationMetaDataResolver aggregationTitleResolver;
 
@@ -14,9 +14,8 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.obiba.mica.dataset.domain.Dataset;
-import org.obiba.mica.dataset.service.CollectedDatasetService;
-import org.obiba.mica.dataset.service.HarmonizedDatasetService;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
+import org.obiba.mica.search.AccessibleIdFilterCache;
 import org.obiba.mica.search.DocumentQueryHelper;
 import org.obiba.mica.search.DocumentQueryIdProvider;
 import org.obiba.mica.search.aggregations.DatasetTaxonomyMetaDataProvider;
@@ -60,15 +59,9 @@ public class DatasetQuery extends AbstractDocumentQuery {
   @Inject
   Dtos dtos;
 
-  @Inject
-  private CollectedDatasetService collectedDatasetService;
-
   @Inject
   private DatasetTaxonomyMetaDataProvider datasetTaxonomyMetaDataProvider;
 
-  @Inject
-  private HarmonizedDatasetService harmonizedDatasetService;
-
   private DocumentQueryIdProvider datasetIdProvider;
 
   @Override
@@ -85,16 +78,7 @@ public class DatasetQuery extends AbstractDocumentQuery {
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-      @Override
-      public Collection<String> getValues() {
-        List<String> ids = collectedDatasetService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/collected-dataset", s)).collect(Collectors.toList());
-        ids.addAll(harmonizedDatasetService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/harmonized-dataset", s)).collect(Collectors.toList()));
-        return ids;
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.DATASET);
   }
 
   @Override
@@ -14,7 +14,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
 import org.obiba.mica.network.domain.Network;
-import org.obiba.mica.network.service.PublishedNetworkService;
+import org.obiba.mica.search.AccessibleIdFilterCache;
 import org.obiba.mica.search.aggregations.NetworkAggregationMetaDataProvider;
 import org.obiba.mica.search.aggregations.NetworkTaxonomyMetaDataProvider;
 import org.obiba.mica.spi.search.CountStatsData;
@@ -36,12 +36,10 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 import static org.obiba.mica.search.CountStatsDtoBuilders.NetworkCountStatsBuilder;
 import static org.obiba.mica.web.model.MicaSearch.NetworkResultDto;
@@ -58,9 +56,6 @@ public class NetworkQuery extends AbstractDocumentQuery {
   @Inject
   Dtos dtos;
 
-  @Inject
-  PublishedNetworkService publishedNetworkService;
-
   @Inject
   private NetworkAggregationMetaDataProvider networkAggregationMetaDataProvider;
 
@@ -81,14 +76,7 @@ public class NetworkQuery extends AbstractDocumentQuery {
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-      @Override
-      public Collection<String> getValues() {
-        return publishedNetworkService.getNetworkService().findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/network", s))
-            .collect(Collectors.toList());
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.NETWORK);
   }
 
   @Override
@@ -12,13 +12,12 @@ package org.obiba.mica.search.queries;
 
 import com.google.common.collect.Lists;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
+import org.obiba.mica.search.AccessibleIdFilterCache;
 import org.obiba.mica.search.aggregations.StudyTaxonomyMetaDataProvider;
 import org.obiba.mica.spi.search.*;
 import org.obiba.mica.study.domain.BaseStudy;
 import org.obiba.mica.study.domain.HarmonizationStudy;
 import org.obiba.mica.study.domain.Study;
-import org.obiba.mica.study.service.IndividualStudyService;
-import org.obiba.mica.study.service.HarmonizationStudyService;
 import org.obiba.mica.web.model.Dtos;
 import org.obiba.mica.web.model.Mica;
 import org.obiba.mica.web.model.MicaSearch;
@@ -31,7 +30,6 @@ import javax.inject.Inject;
 import java.io.IOException;
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 import static org.obiba.mica.search.CountStatsDtoBuilders.StudyCountStatsBuilder;
 import static org.obiba.mica.web.model.MicaSearch.QueryResultDto;
@@ -41,12 +39,6 @@ import static org.obiba.mica.web.model.MicaSearch.StudyResultDto;
 @Scope("request")
 public class StudyQuery extends AbstractDocumentQuery {
 
-  @Inject
-  private IndividualStudyService individualStudyService;
-
-  @Inject
-  private HarmonizationStudyService harmonizationStudyService;
-
   @Inject
   private Dtos dtos;
 
@@ -69,16 +61,7 @@ public class StudyQuery extends AbstractDocumentQuery {
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-      @Override
-      public Collection<String> getValues() {
-        List<String> ids = individualStudyService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/individual-study", s)).collect(Collectors.toList());
-        ids.addAll(harmonizationStudyService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/harmonization-study", s)).collect(Collectors.toList()));
-        return ids;
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.STUDY);
   }
 
   @Override
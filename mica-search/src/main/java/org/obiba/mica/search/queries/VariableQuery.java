@@ -20,14 +20,14 @@ import org.obiba.mica.dataset.service.CollectedDatasetService;
 import org.obiba.mica.dataset.service.HarmonizedDatasetService;
 import org.obiba.mica.micaConfig.service.OpalService;
 import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataProvider;
-import org.obiba.mica.network.domain.Network;
+import org.obiba.mica.search.AccessibleIdFilterCache;
 import org.obiba.mica.search.DocumentQueryHelper;
 import org.obiba.mica.search.DocumentQueryIdProvider;
+import org.obiba.mica.search.DocumentSourceReader;
 import org.obiba.mica.search.aggregations.*;
 import org.obiba.mica.spi.search.*;
 import org.obiba.mica.spi.search.support.AttributeKey;
 import org.obiba.mica.spi.search.support.Query;
-import org.obiba.mica.study.NoSuchStudyException;
 import org.obiba.mica.study.domain.BaseStudy;
 import org.obiba.mica.study.domain.DataCollectionEvent;
 import org.obiba.mica.study.domain.Population;
@@ -87,8 +87,18 @@ public class VariableQuery extends AbstractDocumentQuery {
 
   private SetsAggregationMetaDataProvider setsAggregationMetaDataProvider;
 
+  private DocumentSourceReader documentSourceReader;
+
   private DocumentQueryIdProvider datasetIdProvider;
 
+  // lookups of the request, shared by the pages of an export
+  private final Map<String, BaseStudy> studyMap = Maps.newHashMap();
+
+  // populations by study:population id and data collection events by study:population:dce id
+  private final Map<String, Population> populationMap = Maps.newHashMap();
+
+  private final Map<String, DataCollectionEvent> dceMap = Maps.newHashMap();
+
   @Inject
   public VariableQuery(
     OpalService opalService,
@@ -102,7 +112,8 @@ public class VariableQuery extends AbstractDocumentQuery {
     DataCollectionEventAggregationMetaDataProvider dceAggregationMetaDataProvider,
     PopulationAggregationMetaDataProvider populationAggregationMetaDataProvider,
     StudyAggregationMetaDataProvider studyAggregationMetaDataProvider,
-    SetsAggregationMetaDataProvider setsAggregationMetaDataProvider) {
+    SetsAggregationMetaDataProvider setsAggregationMetaDataProvider,
+    DocumentSourceReader documentSourceReader) {
     this.opalService = opalService;
     this.publishedStudyService = publishedStudyService;
     this.dtos = dtos;
@@ -115,6 +126,7 @@ public class VariableQuery extends AbstractDocumentQuery {
     this.collectedDatasetService = collectedDatasetService;
     this.harmonizedDatasetService = harmonizedDatasetService;
     this.setsAggregationMetaDataProvider = setsAggregationMetaDataProvider;
+    this.documentSourceReader = documentSourceReader;
   }
 
   @Override
@@ -131,22 +143,7 @@ public class VariableQuery extends AbstractDocumentQuery {
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-
-      @Override
-      public String getField() {
-        return "datasetId";
-      }
-
-      @Override
-      public Collection<String> getValues() {
-        List<String> ids = collectedDatasetService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/collected-dataset", s)).collect(Collectors.toList());
-        ids.addAll(harmonizedDatasetService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/harmonized-dataset", s)).collect(Collectors.toList()));
-        return ids;
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.DATASET, "datasetId");
   }
 
   public void setDatasetIdProvider(DocumentQueryIdProvider provider) {
@@ -157,15 +154,15 @@ public class VariableQuery extends AbstractDocumentQuery {
   protected void processHits(MicaSearch.QueryResultDto.Builder builder, Searcher.DocumentResults results, QueryScope scope,
                              CountStatsData counts) throws IOException {
     MicaSearch.DatasetVariableResultDto.Builder resBuilder = MicaSearch.DatasetVariableResultDto.newBuilder();
-    Map<String, BaseStudy> studyMap = Maps.newHashMap();
-    Map<String, Network> networkMap = Maps.newHashMap();
-
-    for (Searcher.DocumentResult result : results.getDocuments()) {
-      if (result.hasSource()) {
-        DatasetVariable.IdResolver resolver = DatasetVariable.IdResolver.from(result.getId());
-        DatasetVariable variable = objectMapper.readValue(result.getSourceInputStream(), DatasetVariable.class);
-        resBuilder.addSummaries(processHit(resolver, variable, studyMap, networkMap));
-      }
+
+    List<Searcher.DocumentResult> documents = results.getDocuments().stream().filter(Searcher.DocumentResult::hasSource)
+      .collect(Collectors.toList());
+    List<DatasetVariable> variables = documentSourceReader.read(documents, DatasetVariable.class);
+    loadStudies(variables.stream().map(DatasetVariable::getStudyId).filter(Objects::nonNull).collect(Collectors.toSet()));
+
+    for (int i = 0; i < documents.size(); i++) {
+      DatasetVariable.IdResolver resolver = DatasetVariable.IdResolver.from(documents.get(i).getId());
+      resBuilder.addSummaries(processHit(resolver, variables.get(i)));
     }
 
     builder.setExtension(MicaSearch.DatasetVariableResultDto.result, resBuilder.build());
@@ -186,16 +183,38 @@ public class VariableQuery extends AbstractDocumentQuery {
     );
   }
 
+  /**
+   * Fetch the published studies not already known by this request, with one lookup, and index their populations and
+   * data collection events.
+   *
+   * @param studyIds
+   */
+  private void loadStudies(Set<String> studyIds) {
+    List<String> missing = studyIds.stream().filter(id -> !studyMap.containsKey(id)).collect(Collectors.toList());
+    if (missing.isEmpty()) return;
+
+    // not found studies are not looked up again
+    missing.forEach(id -> studyMap.put(id, null));
+    publishedStudyService.findByIds(missing).forEach(study -> {
+      studyMap.put(study.getId(), study);
+      if (study.getPopulations() == null) return;
+      study.getPopulations().forEach(population -> {
+        String populationKey = study.getId() + ":" + population.getId();
+        populationMap.put(populationKey, population);
+        if (population.getDataCollectionEvents() != null) population.getDataCollectionEvents()
+          .forEach(dce -> dceMap.put(populationKey + ":" + dce.getId(), dce));
+      });
+    });
+  }
+
   /**
    * Fill the variable resolver dto with user-friendly labels about the variable, the dataset and the study.
    *
    * @param resolver
    * @param variable
-   * @param studyMap study cache
    * @return
    */
-  private Mica.DatasetVariableResolverDto processHit(DatasetVariable.IdResolver resolver, DatasetVariable variable,
-                                                     Map<String, BaseStudy> studyMap, Map<String, Network> networkMap) {
+  private Mica.DatasetVariableResolverDto processHit(DatasetVariable.IdResolver resolver, DatasetVariable variable) {
     Mica.DatasetVariableResolverDto.Builder builder = dtos.asDto(resolver, variable);
 
     String studyId = resolver.hasStudyId() ? resolver.getStudyId() : null;
@@ -207,36 +226,29 @@ public class VariableQuery extends AbstractDocumentQuery {
     if (studyId != null) {
       builder.setStudyId(studyId);
 
-      try {
-        BaseStudy study;
-        if (studyMap.containsKey(studyId)) {
-          study = studyMap.get(studyId);
-        } else {
-          study = publishedStudyService.findById(studyId);
-          studyMap.put(studyId, study);
-        }
-
-        if (study != null) {
-          builder.addAllStudyName(dtos.asDto(study.getName()));
-          builder.addAllStudyAcronym(dtos.asDto(study.getAcronym()));
-
-          String dceId = variable.getDceId();
-          if (!Strings.isNullOrEmpty(dceId)) {
-            String[] parts = dceId.split(":");
-            if (parts.length > 1) {
-              Optional<Population> optionalPopulation = study.getPopulations().stream().filter(population -> population.getId().equals(parts[1])).findFirst();
-              if (optionalPopulation.isPresent()) {
-                Population population = optionalPopulation.get();
-                builder.addAllPopulationName(dtos.asDto(population.getName()));
-
-                if (parts.length > 2) {
-                  population.getDataCollectionEvents().stream().filter(dce -> dce.getId().equals(parts[2])).findFirst().ifPresent(dataCollectionEvent -> builder.addAllDceName(dtos.asDto(dataCollectionEvent.getName())));
-                }
+      if (!studyMap.containsKey(studyId)) loadStudies(Collections.singleton(studyId));
+      BaseStudy study = studyMap.get(studyId);
+
+      if (study != null) {
+        builder.addAllStudyName(dtos.asDto(study.getName()));
+        builder.addAllStudyAcronym(dtos.asDto(study.getAcronym()));
+
+        String dceId = variable.getDceId();
+        if (!Strings.isNullOrEmpty(dceId)) {
+          String[] parts = dceId.split(":");
+          if (parts.length > 1) {
+            String populationKey = studyId + ":" + parts[1];
+            Population population = populationMap.get(populationKey);
+            if (population != null) {
+              builder.addAllPopulationName(dtos.asDto(population.getName()));
+
+              if (parts.length > 2) {
+                DataCollectionEvent dataCollectionEvent = dceMap.get(populationKey + ":" + parts[2]);
+                if (dataCollectionEvent != null) builder.addAllDceName(dtos.asDto(dataCollectionEvent.getName()));
               }
             }
           }
         }
-      } catch (NoSuchStudyException e) {
       }
     }
 
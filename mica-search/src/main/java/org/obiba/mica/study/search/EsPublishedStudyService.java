@@ -14,13 +14,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.jsonwebtoken.lang.Assert;
 import org.obiba.mica.core.domain.DefaultEntityBase;
 import org.obiba.mica.dataset.search.AbstractEsStudyService;
+import org.obiba.mica.search.AccessibleIdFilterCache;
+import org.obiba.mica.search.PublishedDocumentCache;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.spi.search.Searcher;
 import org.obiba.mica.study.domain.BaseStudy;
 import org.obiba.mica.study.domain.HarmonizationStudy;
 import org.obiba.mica.study.domain.Study;
-import org.obiba.mica.study.service.IndividualStudyService;
-import org.obiba.mica.study.service.HarmonizationStudyService;
 import org.obiba.mica.study.service.PublishedStudyService;
 import org.springframework.stereotype.Service;
 
@@ -28,9 +28,7 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Service
 public class EsPublishedStudyService extends AbstractEsStudyService<BaseStudy> implements PublishedStudyService {
@@ -38,12 +36,6 @@ public class EsPublishedStudyService extends AbstractEsStudyService<BaseStudy> i
   @Inject
   private ObjectMapper objectMapper;
 
-  @Inject
-  private IndividualStudyService individualStudyService;
-
-  @Inject
-  private HarmonizationStudyService harmonizationStudyService;
-
   @Override
   public long getIndividualStudyCount() {
     return getCountByRql(String.format("in(className,%s)", Study.class.getSimpleName()));
@@ -78,20 +70,17 @@ public class EsPublishedStudyService extends AbstractEsStudyService<BaseStudy> i
     return Indexer.STUDY_TYPE;
   }
 
+  @Nullable
+  @Override
+  protected PublishedDocumentCache.Region getCacheRegion() {
+    return PublishedDocumentCache.Region.STUDY;
+  }
+
   @Nullable
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-      @Override
-      public Collection<String> getValues() {
-        List<String> ids = individualStudyService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/individual-study", s)).collect(Collectors.toList());
-        ids.addAll(harmonizationStudyService.findPublishedIds().stream()
-            .filter(s -> subjectAclService.isAccessible("/harmonization-study", s)).collect(Collectors.toList()));
-        return ids;
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.STUDY);
   }
 
   private Class getClass(String className) {
@@ -13,6 +13,9 @@ package org.obiba.mica.study.search;
 import com.google.common.eventbus.Subscribe;
 import org.obiba.mica.core.domain.Membership;
 import org.obiba.mica.core.service.PersonService;
+import org.obiba.mica.micaConfig.service.helper.AggregationMetaDataDictionary;
+import org.obiba.mica.search.CoverageResultCache;
+import org.obiba.mica.search.PublishedDocumentCache;
 import org.obiba.mica.spi.search.Indexable;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.study.domain.BaseStudy;
@@ -42,6 +45,15 @@ public class StudyIndexer {
   @Inject
   private PersonService personService;
 
+  @Inject
+  private AggregationMetaDataDictionary aggregationMetaDataDictionary;
+
+  @Inject
+  private PublishedDocumentCache publishedDocumentCache;
+
+  @Inject
+  private CoverageResultCache coverageResultCache;
+
   @Async
   @Subscribe
   public void studyUpdated(DraftStudyUpdatedEvent event) {
@@ -54,6 +66,8 @@ public class StudyIndexer {
   public void studyPublished(StudyPublishedEvent event) {
     log.info("Study {} was published", event.getPersistable());
     indexer.index(Indexer.PUBLISHED_STUDY_INDEX, (Indexable) addMemberships(event.getPersistable()));
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.STUDY, event.getPersistable().getId());
+    invalidateSearchResults();
   }
 
   @Async
@@ -62,6 +76,8 @@ public class StudyIndexer {
     log.info("Study {} was unpublished", event.getPersistable());
     indexer.delete(Indexer.PUBLISHED_STUDY_INDEX, (Indexable) event.getPersistable());
     indexer.index(Indexer.DRAFT_STUDY_INDEX, (Indexable) event.getPersistable());
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.STUDY, event.getPersistable().getId());
+    invalidateSearchResults();
   }
 
   @Async
@@ -70,6 +86,8 @@ public class StudyIndexer {
     log.info("Study {} was deleted", event.getPersistable());
     indexer.delete(Indexer.DRAFT_STUDY_INDEX, (Indexable) event.getPersistable());
     indexer.delete(Indexer.PUBLISHED_STUDY_INDEX, (Indexable) event.getPersistable());
+    publishedDocumentCache.evict(PublishedDocumentCache.Region.STUDY, event.getPersistable().getId());
+    invalidateSearchResults();
   }
 
   @Async
@@ -85,6 +103,15 @@ public class StudyIndexer {
       indexer.indexAllIndexables(Indexer.PUBLISHED_STUDY_INDEX, addMemberships(studyService.findAllPublishedStudies(studyIds)));
       indexer.indexAllIndexables(Indexer.DRAFT_STUDY_INDEX, addMemberships(studyService.findAllDraftStudies(studyIds)));
     }
+    publishedDocumentCache.evictAll(PublishedDocumentCache.Region.STUDY);
+    invalidateSearchResults();
+  }
+
+  private void invalidateSearchResults() {
+    aggregationMetaDataDictionary.invalidate(AggregationMetaDataDictionary.STUDY, AggregationMetaDataDictionary.POPULATION,
+      AggregationMetaDataDictionary.DCE);
+    // coverages computed while the studies were being indexed are discarded
+    coverageResultCache.advanceEpoch();
   }
 
   private void reIndexAllDraft(Iterable<BaseStudy> studies) {
@@ -14,9 +14,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import org.obiba.mica.dataset.domain.DatasetVariable;
-import org.obiba.mica.dataset.service.CollectedDatasetService;
-import org.obiba.mica.dataset.service.HarmonizedDatasetService;
 import org.obiba.mica.search.AbstractIdentifiedDocumentService;
+import org.obiba.mica.search.AccessibleIdFilterCache;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.spi.search.Searcher;
 import org.obiba.mica.study.service.PublishedDatasetVariableService;
@@ -27,7 +26,6 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -47,12 +45,6 @@ public class EsPublishedDatasetVariableService extends AbstractIdentifiedDocumen
   @Inject
   private ObjectMapper objectMapper;
 
-  @Inject
-  private CollectedDatasetService collectedDatasetService;
-
-  @Inject
-  private HarmonizedDatasetService harmonizedDatasetService;
-
   @Override
   public long getCountByStudyId(String studyId) {
     Searcher.DocumentResults results = executeCountQuery(buildStudyFilteredQuery(studyId));
@@ -131,21 +123,6 @@ public class EsPublishedDatasetVariableService extends AbstractIdentifiedDocumen
   @Override
   protected Searcher.IdFilter getAccessibleIdFilter() {
     if (isOpenAccess()) return null;
-    return new Searcher.IdFilter() {
-
-      @Override
-      public String getField() {
-        return "datasetId";
-      }
-
-      @Override
-      public Collection<String> getValues() {
-        List<String> ids = collectedDatasetService.findPublishedIds().stream()
-          .filter(s -> subjectAclService.isAccessible("/collected-dataset", s)).collect(Collectors.toList());
-        ids.addAll(harmonizedDatasetService.findPublishedIds().stream()
-          .filter(s -> subjectAclService.isAccessible("/harmonized-dataset", s)).collect(Collectors.toList()));
-        return ids;
-      }
-    };
+    return accessibleIdFilterCache.getIdFilter(AccessibleIdFilterCache.Kind.DATASET, "datasetId");
   }
 }
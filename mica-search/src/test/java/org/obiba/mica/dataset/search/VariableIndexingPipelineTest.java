@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.search;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.dataset.domain.DatasetVariable;
+import org.obiba.mica.spi.search.Indexer;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VariableIndexingPipelineTest {
+
+  private static final String INDEX = "variable-draft";
+
+  @InjectMocks
+  private VariableIndexingPipeline pipeline;
+
+  @Mock
+  private Indexer indexer;
+
+  @Spy
+  private MetricRegistry metricRegistry = new MetricRegistry();
+
+  private ThreadPoolTaskExecutor executor;
+
+  private final List<Integer> batchSizes = Collections.synchronizedList(Lists.newArrayList());
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(4);
+    executor.initialize();
+    ReflectionTestUtils.setField(pipeline, "esIndexingExecutor", executor);
+    pipeline.setEnvironment(new MockEnvironment().withProperty("elasticsearch.indexing.batchSize", "3")
+      .withProperty("elasticsearch.indexing.parallelism", "2"));
+
+    doAnswer(invocation -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(20);
+        batchSizes.add(Iterables.size((Iterable<?>) invocation.getArguments()[1]));
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      return null;
+    }).when(indexer).indexAllIndexables(eq(INDEX), any(Iterable.class));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void test_variables_are_indexed_in_batches() {
+    assertThat(pipeline.index(INDEX, newVariables(10))).isEqualTo(10);
+
+    assertThat(batchSizes).containsOnly(3, 1);
+    assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(10);
+    assertThat(metricRegistry.meter(MetricRegistry.name(VariableIndexingPipeline.class, INDEX, "variables"))
+      .getCount()).isEqualTo(10);
+  }
+
+  @Test
+  public void test_batches_in_flight_are_bounded() {
+    pipeline.index(INDEX, newVariables(30));
+
+    assertThat(batchSizes).hasSize(10);
+    assertThat(maxInFlight.get()).isLessThanOrEqualTo(2);
+    assertThat(metricRegistry.counter(MetricRegistry.name(VariableIndexingPipeline.class, INDEX, "inFlight"))
+      .getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void test_failed_batch_does_not_stop_the_others() {
+    AtomicInteger calls = new AtomicInteger();
+    doAnswer(invocation -> {
+      if (calls.incrementAndGet() == 2) throw new IllegalStateException("Index is read-only");
+      batchSizes.add(Iterables.size((Iterable<?>) invocation.getArguments()[1]));
+      return null;
+    }).when(indexer).indexAllIndexables(eq(INDEX), any(Iterable.class));
+
+    assertThat(pipeline.index(INDEX, newVariables(9))).isEqualTo(9);
+
+    assertThat(batchSizes).containsExactly(3, 3);
+    assertThat(metricRegistry.meter(MetricRegistry.name(VariableIndexingPipeline.class, INDEX, "failures"))
+      .getCount()).isEqualTo(1);
+    assertThat(metricRegistry.meter(MetricRegistry.name(VariableIndexingPipeline.class, INDEX, "variables"))
+      .getCount()).isEqualTo(6);
+  }
+
+  private List<DatasetVariable> newVariables(int count) {
+    return IntStream.range(0, count).mapToObj(i -> new DatasetVariable()).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.search;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.obiba.mica.core.domain.DocumentSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VariableSetMembershipIndexTest {
+
+  @Test
+  public void test_load() {
+    VariableSetMembershipIndex index = new VariableSetMembershipIndex();
+    assertThat(index.isLoaded()).isFalse();
+
+    index.load(Arrays.asList(newSet("set1", "v1", "v2"), newSet("set2", "v2", "v3")));
+    assertThat(index.isLoaded()).isTrue();
+    assertThat(index.getSetIds("v1")).containsOnly("set1");
+    assertThat(index.getSetIds("v2")).containsOnly("set1", "set2");
+    assertThat(index.getSetIds("v4")).isEmpty();
+  }
+
+  @Test
+  public void test_update() {
+    VariableSetMembershipIndex index = new VariableSetMembershipIndex();
+    index.load(Arrays.asList(newSet("set1", "v1", "v2"), newSet("set2", "v2", "v3")));
+
+    assertThat(index.update(newSet("set1", "v2", "v4"))).containsOnly("v1", "v2");
+    assertThat(index.getSetIds("v1")).isEmpty();
+    assertThat(index.getSetIds("v2")).containsOnly("set1", "set2");
+    assertThat(index.getSetIds("v4")).containsOnly("set1");
+
+    assertThat(index.update(newSet("set3", "v1"))).isEmpty();
+    assertThat(index.getSetIds("v1")).containsOnly("set3");
+  }
+
+  @Test
+  public void test_remove() {
+    VariableSetMembershipIndex index = new VariableSetMembershipIndex();
+    index.load(Arrays.asList(newSet("set1", "v1", "v2"), newSet("set2", "v2", "v3")));
+
+    assertThat(index.remove("set2")).containsOnly("v2", "v3");
+    assertThat(index.getSetIds("v2")).containsOnly("set1");
+    assertThat(index.getSetIds("v3")).isEmpty();
+    assertThat(index.remove("set2")).isEmpty();
+  }
+
+  private DocumentSet newSet(String id, String... identifiers) {
+    DocumentSet documentSet = new DocumentSet();
+    documentSet.setId(id);
+    documentSet.setIdentifiers(Arrays.asList(identifiers));
+    return documentSet;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.dataset.search.rest.harmonization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+import org.obiba.mica.dataset.domain.DatasetVariable;
+import org.obiba.mica.web.model.Mica;
+
+import com.google.common.collect.Maps;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ExcelContingencyWriterTest {
+
+  private static final int FIRST_VALUE_ROW = 4;
+
+  @Test
+  public void test_contingency_table_sheet() throws IOException {
+    XSSFWorkbook workbook = write(newContingency("v", 2));
+
+    assertThat(workbook.getNumberOfSheets()).isEqualTo(1);
+    Sheet sheet = workbook.getSheetAt(0);
+    assertThat(sheet.getSheetName()).isEqualTo("table1 dce1");
+    assertThat(sheet.getRow(0).getCell(0).getStringCellValue()).isEqualTo("table1 dce1");
+    assertThat(sheet.getRow(2).getCell(0).getStringCellValue()).isEqualTo("CROSS_VAR");
+    assertThat(sheet.getRow(2).getCell(1).getStringCellValue()).isEqualTo("VAR");
+    assertThat(sheet.getRow(3).getCell(1).getStringCellValue()).isEqualTo("A");
+
+    Map<String, Row> rows = getValueRows(sheet);
+    assertThat(rows.keySet()).containsOnly("v0", "v1", "Total");
+    assertThat(rows.get("v1").getCell(1).getNumericCellValue()).isEqualTo(1);
+    // term count and total
+    assertThat(rows.get("Total").getCell(1).getNumericCellValue()).isEqualTo(1);
+    assertThat(rows.get("Total").getCell(2).getNumericCellValue()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_rows_beyond_the_streaming_window_are_written() throws IOException {
+    int count = 350;
+    Sheet sheet = write(newContingency("v", count)).getSheetAt(0);
+
+    assertThat(sheet.getLastRowNum()).isEqualTo(FIRST_VALUE_ROW + count);
+    Map<String, Row> rows = getValueRows(sheet);
+    assertThat(rows).hasSize(count + 1);
+    IntStream.range(0, count)
+      .forEach(i -> assertThat(rows.get("v" + i).getCell(1).getNumericCellValue()).isEqualTo(i));
+  }
+
+  @Test
+  public void test_row_headers_column_is_sized_to_the_longest_header() throws IOException {
+    Sheet sheet = write(newContingency("value", 150)).getSheetAt(0);
+
+    // the rows are flushed to the temporary file while the width is computed
+    assertThat(sheet.getColumnWidth(0)).isEqualTo(("value149".length() + 2) * 256);
+  }
+
+  private XSSFWorkbook write(Mica.DatasetVariableContingencyDto dto) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new ExcelContingencyWriter(newVariable("VAR"), newVariable("CROSS_VAR")).write(dto, output);
+    return new XSSFWorkbook(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  private Map<String, Row> getValueRows(Sheet sheet) {
+    Map<String, Row> rows = Maps.newHashMap();
+    for (int i = FIRST_VALUE_ROW; i <= sheet.getLastRowNum(); i++) {
+      Row row = sheet.getRow(i);
+      rows.put(row.getCell(0).getStringCellValue(), row);
+    }
+    return rows;
+  }
+
+  private DatasetVariable newVariable(String name) {
+    DatasetVariable variable = mock(DatasetVariable.class);
+    when(variable.getName()).thenReturn(name);
+    when(variable.getNature()).thenReturn("CATEGORICAL");
+    return variable;
+  }
+
+  /**
+   * A single term "A", crossed with the values "{prefix}0".."{prefix}{count-1}": the value "{prefix}{i}" has count i.
+   */
+  private Mica.DatasetVariableContingencyDto newContingency(String prefix, int count) {
+    Mica.DatasetVariableAggregationDto.Builder term = Mica.DatasetVariableAggregationDto.newBuilder().setTerm("A")
+      .setTotal(1).setN(1);
+    Mica.DatasetVariableAggregationDto.Builder all = Mica.DatasetVariableAggregationDto.newBuilder().setTotal(1)
+      .setN(1);
+    IntStream.range(0, count).forEach(i -> {
+      Mica.FrequencyDto frequency = Mica.FrequencyDto.newBuilder().setValue(prefix + i).setCount(i).build();
+      term.addFrequencies(frequency);
+      all.addFrequencies(frequency);
+    });
+
+    return Mica.DatasetVariableContingencyDto.newBuilder()
+      .setStudyTable(Mica.DatasetDto.StudyTableDto.newBuilder().setProject("project1").setTable("table1")
+        .setStudyId("study1").setPopulationId("pop1").setDataCollectionEventId("dce1").setDceId("dce1"))
+      .addAggregations(term)
+      .setAll(all)
+      .build();
+  }
+}
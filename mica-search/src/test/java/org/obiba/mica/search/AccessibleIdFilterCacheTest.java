@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.network.domain.Network;
+import org.obiba.mica.network.event.NetworkPublishedEvent;
+import org.obiba.mica.network.service.NetworkService;
+import org.obiba.mica.security.service.SubjectAclService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AccessibleIdFilterCacheTest {
+
+  @InjectMocks
+  private AccessibleIdFilterCache accessibleIdFilterCache;
+
+  @Mock
+  private SubjectAclService subjectAclService;
+
+  @Mock
+  private NetworkService networkService;
+
+  @Before
+  public void setUp() {
+    when(subjectAclService.getSubjectKey()).thenReturn("alice:mica-user");
+    when(networkService.findPublishedIds()).thenReturn(Arrays.asList("net1", "net2"));
+    when(subjectAclService.isAccessible("/network", "net1")).thenReturn(true);
+  }
+
+  @Test
+  public void test_accessible_ids_are_cached() {
+    assertThat(accessibleIdFilterCache.getAccessibleIds(AccessibleIdFilterCache.Kind.NETWORK)).containsOnly("net1");
+    assertThat(accessibleIdFilterCache.getAccessibleIds(AccessibleIdFilterCache.Kind.NETWORK)).containsOnly("net1");
+
+    verify(networkService, times(1)).findPublishedIds();
+  }
+
+  @Test
+  public void test_role_or_group_change_is_not_served_a_stale_snapshot() {
+    assertThat(accessibleIdFilterCache.getAccessibleIds(AccessibleIdFilterCache.Kind.NETWORK)).containsOnly("net1");
+
+    // alice was added to a group, no event is fired
+    when(subjectAclService.getSubjectKey()).thenReturn("alice:mica-user,reviewers");
+    when(subjectAclService.isAccessible("/network", "net2")).thenReturn(true);
+
+    assertThat(accessibleIdFilterCache.getAccessibleIds(AccessibleIdFilterCache.Kind.NETWORK))
+      .containsOnly("net1", "net2");
+  }
+
+  @Test
+  public void test_publication_invalidates_the_snapshots() {
+    assertThat(accessibleIdFilterCache.getAccessibleIds(AccessibleIdFilterCache.Kind.NETWORK)).containsOnly("net1");
+
+    when(networkService.findPublishedIds()).thenReturn(Arrays.asList("net1", "net2", "net3"));
+    when(subjectAclService.isAccessible("/network", "net3")).thenReturn(true);
+    accessibleIdFilterCache.networkPublished(new NetworkPublishedEvent(new Network(), "admin"));
+
+    assertThat(accessibleIdFilterCache.getAccessibleIds(AccessibleIdFilterCache.Kind.NETWORK))
+      .containsOnly("net1", "net3");
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.obiba.mica.web.model.MicaSearch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoverageMatrixTest {
+
+  private static final String AREA = "attributes-Mlstr_area__Lifestyle_behaviours-und";
+
+  @Test
+  public void test_term_and_vocabulary_hits() {
+    CoverageMatrix matrix = CoverageMatrix.build(Collections.singletonList(
+      aggregation(AREA, term("Tobacco", 3), term("Alcohol", 2))), Collections.emptyList());
+
+    assertThat(matrix.getVocabularyHits("Mlstr_area", "Lifestyle_behaviours")).isEqualTo(5);
+    assertThat(matrix.getTermHits("Mlstr_area", "Lifestyle_behaviours", "Alcohol")).isEqualTo(2);
+    assertThat(matrix.getTermHits("Mlstr_area", "Lifestyle_behaviours", "Diet")).isEqualTo(0);
+    assertThat(matrix.getVocabularyHits("Mlstr_area", "Diseases")).isEqualTo(0);
+  }
+
+  @Test
+  public void test_bucket_hits() {
+    MicaSearch.AggregationResultDto studies = aggregation("studyIds",
+      bucket("s2", aggregation(AREA, term("Tobacco", 1), term("Alcohol", 4))),
+      bucket("s1", aggregation(AREA, term("Tobacco", 2))),
+      bucket("s3", aggregation(AREA, term("Alcohol", 0))));
+    CoverageMatrix matrix = CoverageMatrix.build(Collections.singletonList(studies),
+      Collections.singletonList("studyIds"));
+
+    List<String> buckets = Lists.newArrayList();
+    matrix.forEachTermBucket("Mlstr_area", "Lifestyle_behaviours", "Tobacco",
+      (bucket, hits) -> buckets.add(bucket.getValue() + "=" + hits));
+    assertThat(buckets).containsExactly("s1=2", "s2=1");
+
+    buckets.clear();
+    matrix.forEachVocabularyBucket("Mlstr_area", "Lifestyle_behaviours",
+      (bucket, hits) -> buckets.add(bucket.getValue() + "=" + hits));
+    assertThat(buckets).containsExactly("s1=2", "s2=5");
+
+    buckets.clear();
+    matrix.forEachTaxonomyBucket("Mlstr_area", (bucket, hits) -> buckets.add(bucket.getField() + ":" + bucket.getValue()));
+    assertThat(buckets).containsExactly("studyIds:s1", "studyIds:s2");
+  }
+
+  private MicaSearch.AggregationResultDto aggregation(String name, MicaSearch.TermsAggregationResultDto... terms) {
+    return MicaSearch.AggregationResultDto.newBuilder().setAggregation(name)
+      .setExtension(MicaSearch.TermsAggregationResultDto.terms, Arrays.asList(terms)).build();
+  }
+
+  private MicaSearch.TermsAggregationResultDto term(String key, int count) {
+    return MicaSearch.TermsAggregationResultDto.newBuilder().setKey(key).setCount(count).build();
+  }
+
+  private MicaSearch.TermsAggregationResultDto bucket(String key, MicaSearch.AggregationResultDto agg) {
+    return MicaSearch.TermsAggregationResultDto.newBuilder().setKey(key).setCount(1).addAggs(agg).build();
+  }
+}
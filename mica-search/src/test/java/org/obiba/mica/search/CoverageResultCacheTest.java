@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.micaConfig.domain.MicaConfig;
+import org.obiba.mica.micaConfig.service.MicaConfigService;
+import org.obiba.mica.security.service.SubjectAclService;
+import org.obiba.mica.web.model.MicaSearch;
+import org.springframework.mock.env.MockEnvironment;
+
+import com.codahale.metrics.MetricRegistry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CoverageResultCacheTest {
+
+  private static final String QUERY = "variable(and(in(Mlstr_area.Diseases,Cancer),in(Mlstr_area.Lifestyle_behaviours,Tobacco)))";
+
+  @InjectMocks
+  private CoverageResultCache coverageResultCache;
+
+  @Mock
+  private MicaConfigService micaConfigService;
+
+  @Mock
+  private SubjectAclService subjectAclService;
+
+  @Spy
+  private MetricRegistry metricRegistry = new MetricRegistry();
+
+  private final MicaConfig micaConfig = new MicaConfig();
+
+  private final AtomicInteger computed = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    coverageResultCache.setEnvironment(new MockEnvironment());
+    coverageResultCache.init();
+    micaConfig.setOpenAccess(false);
+    when(micaConfigService.getConfig()).thenReturn(micaConfig);
+    when(subjectAclService.getSubjectKey()).thenReturn("alice:mica-user");
+  }
+
+  @Test
+  public void test_coverage_is_cached() throws Exception {
+    MicaSearch.TaxonomiesCoverageDto coverage = get(QUERY);
+
+    assertThat(get("variable(and(in(Mlstr_area.Lifestyle_behaviours,Tobacco),in(Mlstr_area.Diseases,Cancer)))")).isSameAs(coverage);
+    assertThat(computed.get()).isEqualTo(1);
+    assertThat(get(QUERY, true)).isNotSameAs(coverage);
+    assertThat(computed.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_advance_epoch_evicts_the_coverages() throws Exception {
+    MicaSearch.TaxonomiesCoverageDto coverage = get(QUERY);
+
+    coverageResultCache.advanceEpoch();
+
+    assertThat(get(QUERY)).isNotSameAs(coverage);
+    assertThat(computed.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_coverages_are_cached_per_roles_and_groups() throws Exception {
+    MicaSearch.TaxonomiesCoverageDto coverage = get(QUERY);
+
+    // alice was added to a group, no event is fired
+    when(subjectAclService.getSubjectKey()).thenReturn("alice:mica-user,reviewers");
+    MicaSearch.TaxonomiesCoverageDto reviewerCoverage = get(QUERY);
+
+    assertThat(reviewerCoverage).isNotSameAs(coverage);
+    assertThat(computed.get()).isEqualTo(2);
+    assertThat(get(QUERY)).isSameAs(reviewerCoverage);
+  }
+
+  @Test
+  public void test_coverages_are_shared_when_open_access() throws Exception {
+    micaConfig.setOpenAccess(true);
+    MicaSearch.TaxonomiesCoverageDto coverage = get(QUERY);
+
+    when(subjectAclService.getSubjectKey()).thenReturn("bob:mica-user");
+
+    assertThat(get(QUERY)).isSameAs(coverage);
+    assertThat(computed.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_normalize_commutative_operators() {
+    assertThat(CoverageResultCache.normalize("variable(and(in(Mlstr_area.Lifestyle_behaviours,(Tobacco,Alcohol)),in(Mlstr_area.Diseases,Cancer))),locale(EN)"))
+      .isEqualTo(CoverageResultCache.normalize("locale(en),variable(and(in(Mlstr_area.Diseases,Cancer),in(Mlstr_area.Lifestyle_behaviours,(Alcohol,Tobacco))))"));
+  }
+
+  @Test
+  public void test_normalize_keeps_arguments_order() {
+    assertThat(CoverageResultCache.normalize("variable(limit(0,10))"))
+      .isNotEqualTo(CoverageResultCache.normalize("variable(limit(10,0))"));
+    assertThat(CoverageResultCache.normalize("variable(in(Mlstr_area.Diseases,Cancer))"))
+      .isNotEqualTo(CoverageResultCache.normalize("variable(in(Cancer,Mlstr_area.Diseases))"));
+    assertThat(CoverageResultCache.normalize("study(between(Mica_study.start,(2000,2010)))"))
+      .isNotEqualTo(CoverageResultCache.normalize("study(between(Mica_study.start,(2010,2000)))"));
+  }
+
+  private MicaSearch.TaxonomiesCoverageDto get(String query) throws Exception {
+    return get(query, false);
+  }
+
+  private MicaSearch.TaxonomiesCoverageDto get(String query, boolean strict) throws Exception {
+    return coverageResultCache.get(query, strict, () -> MicaSearch.TaxonomiesCoverageDto.newBuilder()
+      .setTotalHits(computed.incrementAndGet()).setTotalCount(0).build());
+  }
+}
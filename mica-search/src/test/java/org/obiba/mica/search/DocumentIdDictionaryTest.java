@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DocumentIdDictionaryTest {
+
+  @Test
+  public void test_encode_decode() {
+    DocumentIdDictionary dictionary = new DocumentIdDictionary();
+    BitSet bits = dictionary.encode(Arrays.asList("s3", "s1", "s2", "s1"));
+    assertThat(dictionary.size()).isEqualTo(3);
+    assertThat(bits.cardinality()).isEqualTo(3);
+    assertThat(dictionary.decode(bits)).containsExactly("s3", "s1", "s2");
+  }
+
+  @Test
+  public void test_intersect_keeps_first_order() {
+    DocumentIdDictionary dictionary = new DocumentIdDictionary();
+    assertThat(dictionary.intersect(Arrays.asList(
+      Arrays.asList("s4", "s2", "s1", "s3"),
+      Arrays.asList("s1", "s2", "s3", "s5"),
+      Arrays.asList("s3", "s2"))))
+      .containsExactly("s2", "s3");
+  }
+
+  @Test
+  public void test_intersect_empty() {
+    DocumentIdDictionary dictionary = new DocumentIdDictionary();
+    assertThat(dictionary.intersect(Collections.emptyList())).isEmpty();
+    assertThat(dictionary.intersect(Arrays.asList(
+      Arrays.asList("s1", "s2"),
+      Collections.emptyList(),
+      Arrays.asList("s1"))))
+      .isEmpty();
+  }
+}
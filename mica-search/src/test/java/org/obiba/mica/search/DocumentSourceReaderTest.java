@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.spi.search.Searcher;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DocumentSourceReaderTest {
+
+  @InjectMocks
+  private DocumentSourceReader reader;
+
+  @Spy
+  private ObjectMapper objectMapper = new ObjectMapper();
+
+  private ThreadPoolTaskExecutor executor;
+
+  private final Set<String> readingThreads = ConcurrentHashMap.newKeySet();
+
+  @Before
+  public void setUp() {
+    executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(4);
+    executor.setThreadNamePrefix("mica-es-read-");
+    executor.initialize();
+    ReflectionTestUtils.setField(reader, "esReadExecutor", executor);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void test_small_page_is_read_by_the_caller() throws IOException {
+    List<Map> hits = reader.read(newDocuments(DocumentSourceReader.PARALLEL_READ_THRESHOLD - 1), Map.class);
+
+    assertThat(hits.stream().map(hit -> hit.get("index")).collect(Collectors.toList()))
+      .isEqualTo(IntStream.range(0, DocumentSourceReader.PARALLEL_READ_THRESHOLD - 1).boxed()
+        .collect(Collectors.toList()));
+    assertThat(readingThreads).containsOnly(Thread.currentThread().getName());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void test_large_page_is_read_on_the_dedicated_executor_in_order() throws IOException {
+    int size = DocumentSourceReader.CHUNK_SIZE * 10 + 7;
+    List<Map> hits = reader.read(newDocuments(size), Map.class);
+
+    assertThat(hits.stream().map(hit -> hit.get("index")).collect(Collectors.toList()))
+      .isEqualTo(IntStream.range(0, size).boxed().collect(Collectors.toList()));
+    assertThat(readingThreads).isNotEmpty().allMatch(name -> name.startsWith("mica-es-read-"));
+  }
+
+  @Test
+  public void test_read_failure_is_reported() {
+    List<Searcher.DocumentResult> documents = newDocuments(DocumentSourceReader.PARALLEL_READ_THRESHOLD);
+    documents.set(150, newDocument("{\"index\":"));
+
+    try {
+      reader.read(documents, Map.class);
+      fail("Malformed source should have been reported");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private List<Searcher.DocumentResult> newDocuments(int count) {
+    return IntStream.range(0, count).mapToObj(i -> newDocument("{\"index\":" + i + "}")).collect(Collectors.toList());
+  }
+
+  private Searcher.DocumentResult newDocument(String source) {
+    Searcher.DocumentResult document = mock(Searcher.DocumentResult.class);
+    when(document.getSourceInputStream()).thenAnswer(invocation -> {
+      readingThreads.add(Thread.currentThread().getName());
+      return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+    });
+    return document;
+  }
+}
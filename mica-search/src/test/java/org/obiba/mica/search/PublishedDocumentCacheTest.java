@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.mica.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.spi.search.Identified;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PublishedDocumentCacheTest {
+
+  @InjectMocks
+  private PublishedDocumentCache cache;
+
+  @Spy
+  private CacheManager cacheManager = new ConcurrentMapCacheManager();
+
+  @Spy
+  private MetricRegistry metricRegistry = new MetricRegistry();
+
+  private final List<List<String>> loads = Lists.newArrayList();
+
+  @Before
+  public void setUp() {
+    cache.init();
+  }
+
+  @Test
+  public void test_only_missing_documents_are_loaded() {
+    cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1", "s2"), this::load);
+    List<TestDocument> documents = cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1", "s2", "s3"),
+      this::load);
+
+    assertThat(documents.stream().map(TestDocument::getId).collect(Collectors.toList())).containsOnly("s1", "s2", "s3");
+    assertThat(loads).containsExactly(Arrays.asList("s1", "s2"), Arrays.asList("s3"));
+  }
+
+  @Test
+  public void test_evict_one_document() {
+    cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1", "s2"), this::load);
+    cache.evict(PublishedDocumentCache.Region.STUDY, "s1");
+    cache.getAll(PublishedDocumentCache.Region.NETWORK, Arrays.asList("s1"), this::load);
+    cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1", "s2"), this::load);
+
+    assertThat(loads).containsExactly(Arrays.asList("s1", "s2"), Arrays.asList("s1"), Arrays.asList("s1"));
+  }
+
+  @Test
+  public void test_documents_loaded_while_evicted_are_not_cached() {
+    cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1"), ids -> {
+      cache.evict(PublishedDocumentCache.Region.STUDY, "s1");
+      return load(ids);
+    });
+    cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1"), this::load);
+
+    assertThat(loads).containsExactly(Arrays.asList("s1"), Arrays.asList("s1"));
+  }
+
+  @Test
+  public void test_cached_documents_are_not_copied() {
+    TestDocument document = cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1"), this::load).get(0);
+
+    assertThat(cache.getAll(PublishedDocumentCache.Region.STUDY, Arrays.asList("s1"), this::load)).containsExactly(document);
+    assertThat(loads).containsExactly(Arrays.asList("s1"));
+  }
+
+  private List<TestDocument> load(List<String> ids) {
+    loads.add(Lists.newArrayList(ids));
+    return ids.stream().map(TestDocument::new).collect(Collectors.toList());
+  }
+
+  public static class TestDocument implements Identified {
+
+    private String id;
+
+    private String name;
+
+    public TestDocument() {
+    }
+
+    TestDocument(String id) {
+      this.id = id;
+      name = "name-" + id;
+    }
+
+    @Override
+    public String getId() {
+      return id;
+    }
+
+    public void setId(String id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+}
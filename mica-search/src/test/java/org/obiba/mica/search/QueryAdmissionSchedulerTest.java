@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.env.MockEnvironment;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QueryAdmissionSchedulerTest {
+
+  private static final long TIMEOUT = 100;
+
+  @InjectMocks
+  private QueryAdmissionScheduler scheduler;
+
+  @Spy
+  private MetricRegistry metricRegistry = new MetricRegistry();
+
+  @Before
+  public void setUp() {
+    scheduler.setEnvironment(new MockEnvironment()
+      .withProperty("elasticsearch.maxConcurrentJoinQueries", "2")
+      .withProperty("elasticsearch.concurrentJoinQueriesWaitTimeout", String.valueOf(TIMEOUT))
+      .withProperty("elasticsearch.admission.coverage.capacity", "2"));
+    scheduler.init();
+  }
+
+  @Test
+  public void test_default_budget_is_the_max_concurrent_queries_of_the_class_cost() {
+    QueryAdmissionScheduler.QueryClass export = QueryAdmissionScheduler.QueryClass.EXPORT;
+    QueryAdmissionScheduler.Admission first = scheduler.admit(export, export.getCost());
+    scheduler.admit(export, export.getCost());
+
+    assertRejected(export, export.getCost());
+
+    first.close();
+    scheduler.admit(export, export.getCost());
+  }
+
+  @Test
+  public void test_configured_budget() {
+    QueryAdmissionScheduler.QueryClass coverage = QueryAdmissionScheduler.QueryClass.COVERAGE;
+    scheduler.admit(coverage, coverage.getCost());
+
+    assertRejected(coverage, coverage.getCost());
+  }
+
+  @Test
+  public void test_classes_have_their_own_budget() {
+    QueryAdmissionScheduler.QueryClass export = QueryAdmissionScheduler.QueryClass.EXPORT;
+    scheduler.admit(export, export.getCost() * 2);
+
+    scheduler.admit(QueryAdmissionScheduler.QueryClass.AGGREGATION, 1);
+    scheduler.admit(QueryAdmissionScheduler.QueryClass.DETAIL, 2);
+  }
+
+  @Test
+  public void test_query_more_expensive_than_the_budget_is_admitted_alone() {
+    QueryAdmissionScheduler.QueryClass detail = QueryAdmissionScheduler.QueryClass.DETAIL;
+    QueryAdmissionScheduler.Admission admission = scheduler.admit(detail, 100);
+
+    assertRejected(detail, 1);
+
+    admission.close();
+    // closing twice does not release more units than acquired
+    admission.close();
+    scheduler.admit(detail, 4);
+    assertRejected(detail, 1);
+  }
+
+  private void assertRejected(QueryAdmissionScheduler.QueryClass queryClass, int cost) {
+    long start = System.nanoTime();
+    try {
+      scheduler.admit(queryClass, cost);
+      fail("Query should have been rejected");
+    } catch (UncheckedTimeoutException e) {
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(TIMEOUT);
+    }
+    assertThat(metricRegistry.meter(MetricRegistry.name(QueryAdmissionScheduler.class,
+      queryClass.name().toLowerCase(), "rejections")).getCount()).isGreaterThan(0);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.spi.search.Searcher;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.codahale.metrics.MetricRegistry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SuggesterTest {
+
+  private static final String INDEX = "study-published";
+
+  private static final List<String> FIELDS = Arrays.asList("acronym.en.analyzed", "name.en.analyzed");
+
+  @InjectMocks
+  private Suggester suggester;
+
+  @Mock
+  private Searcher searcher;
+
+  @Mock
+  private Subject subject;
+
+  @Spy
+  private MetricRegistry metricRegistry = new MetricRegistry();
+
+  private ThreadPoolTaskExecutor executor;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(2);
+    executor.initialize();
+    ReflectionTestUtils.setField(suggester, "esSuggestExecutor", executor);
+    suggester.setEnvironment(new MockEnvironment());
+    suggester.init();
+
+    when(subject.associateWith(any(Callable.class))).thenAnswer(invocation -> invocation.getArguments()[0]);
+    ThreadContext.bind(subject);
+
+    when(searcher.suggest(INDEX, "Study", 10, "en", "can", FIELDS.get(0))).thenAnswer(invocation -> {
+      // the first field completes last
+      Thread.sleep(50);
+      return Arrays.asList("CANHEALTH", "CANPATH");
+    });
+    when(searcher.suggest(INDEX, "Study", 10, "en", "can", FIELDS.get(1)))
+      .thenReturn(Arrays.asList("CANPATH", "Canadian Longitudinal Study"));
+  }
+
+  @After
+  public void tearDown() {
+    ThreadContext.unbindSubject();
+    executor.shutdown();
+  }
+
+  @Test
+  public void test_suggestions_are_in_the_order_of_the_fields() {
+    assertThat(suggester.suggest(INDEX, "Study", 10, "en", "can", FIELDS, false))
+      .containsExactly("CANHEALTH", "CANPATH", "Canadian Longitudinal Study");
+  }
+
+  @Test
+  public void test_suggestions_are_cached() {
+    assertThat(suggester.suggest(INDEX, "Study", 10, "en", "can", FIELDS, true)).hasSize(3);
+    assertThat(suggester.suggest(INDEX, "Study", 10, "en", "can", FIELDS, true)).hasSize(3);
+
+    verify(searcher, times(1)).suggest(INDEX, "Study", 10, "en", "can", FIELDS.get(0));
+    assertThat(metricRegistry.meter(MetricRegistry.name(Suggester.class, INDEX, "cacheHits")).getCount())
+      .isEqualTo(1);
+
+    // other prefix
+    when(searcher.suggest(INDEX, "Study", 10, "en", "cana", FIELDS.get(1)))
+      .thenReturn(Collections.singletonList("Canadian Longitudinal Study"));
+    assertThat(suggester.suggest(INDEX, "Study", 10, "en", "cana", FIELDS, true))
+      .containsExactly("Canadian Longitudinal Study");
+  }
+
+  @Test
+  public void test_explicit_field_suggestions_are_not_cached() {
+    suggester.suggest(INDEX, "Study", 10, "en", "can", FIELDS, false);
+    suggester.suggest(INDEX, "Study", 10, "en", "can", FIELDS, false);
+
+    verify(searcher, times(2)).suggest(INDEX, "Study", 10, "en", "can", FIELDS.get(1));
+  }
+
+  @Test
+  public void test_field_failure_is_reported() {
+    when(searcher.suggest(INDEX, "Study", 10, "en", "can", FIELDS.get(1)))
+      .thenThrow(new IllegalStateException("Index is closed"));
+
+    try {
+      suggester.suggest(INDEX, "Study", 10, "en", "can", FIELDS, true);
+      fail("Suggestion failure should have been reported");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("Index is closed");
+    }
+
+    // a failure is not cached
+    doReturn(Collections.singletonList("CANPATH")).when(searcher)
+      .suggest(INDEX, "Study", 10, "en", "can", FIELDS.get(1));
+    assertThat(suggester.suggest(INDEX, "Study", 10, "en", "can", FIELDS, true))
+      .containsExactly("CANHEALTH", "CANPATH");
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.mica.search.csvexport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.obiba.mica.search.JoinQueryExecutor;
+import org.obiba.mica.spi.search.QueryType;
+import org.obiba.mica.spi.search.Searcher;
+import org.obiba.mica.spi.search.support.JoinQuery;
+import org.obiba.mica.web.model.MicaSearch;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GenericReportGeneratorTest {
+
+  private static final int TOTAL_HITS = 5;
+
+  @InjectMocks
+  private GenericReportGenerator generator;
+
+  @Mock
+  private JoinQueryExecutor joinQueryExecutor;
+
+  @Mock
+  private Searcher searcher;
+
+  @Mock
+  private CsvReportGeneratorFactory csvReportGeneratorFactory;
+
+  private ThreadPoolTaskExecutor executor;
+
+  private final List<String> queries = Lists.newArrayList();
+
+  private final Map<MicaSearch.JoinQueryResultDto, String> queryByResult = new IdentityHashMap<>();
+
+  @Before
+  public void setUp() {
+    executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(1);
+    executor.initialize();
+    ReflectionTestUtils.setField(generator, "esExportExecutor", executor);
+    ReflectionTestUtils.setField(generator, "pageSize", 2);
+
+    when(searcher.makeJoinQuery(anyString())).thenAnswer(invocation -> {
+      JoinQuery joinQuery = mock(JoinQuery.class);
+      when(joinQuery.getLocale()).thenReturn("en");
+      queries.add((String) invocation.getArguments()[0]);
+      return joinQuery;
+    });
+    when(joinQueryExecutor.queryExport(eq(QueryType.VARIABLE), any(JoinQuery.class))).thenAnswer(invocation -> {
+      MicaSearch.JoinQueryResultDto result = MicaSearch.JoinQueryResultDto.newBuilder()
+        .setVariableResultDto(MicaSearch.QueryResultDto.newBuilder().setTotalHits(TOTAL_HITS).setTotalCount(10))
+        .build();
+      queryByResult.put(result, queries.get(queries.size() - 1));
+      return result;
+    });
+    when(csvReportGeneratorFactory.get(eq(QueryType.VARIABLE), any(MicaSearch.JoinQueryResultDto.class),
+      anyListOf(String.class), eq("en"))).thenAnswer(invocation -> {
+      String query = queryByResult.get(invocation.getArguments()[1]);
+      CsvReportGenerator report = mock(CsvReportGenerator.class);
+      doAnswer(write -> {
+        CSVWriter writer = (CSVWriter) write.getArguments()[0];
+        if (!(Boolean) write.getArguments()[1]) writer.writeNext(new String[] { "query" });
+        writer.writeNext(new String[] { query });
+        return null;
+      }).when(report).write(any(CSVWriter.class), anyBoolean());
+      return report;
+    });
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void test_pages_are_written_in_order_until_the_last_hit() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    generator.generateCsv(QueryType.VARIABLE, "variable(limit(0,100))", Collections.emptyList(), output);
+
+    assertThat(queries).containsExactly("variable(limit(0,2))", "variable(limit(2,2))", "variable(limit(4,2))");
+    assertThat(lines(output)).containsExactly("\"query\"", "\"variable(limit(0,2))\"", "\"variable(limit(2,2))\"",
+      "\"variable(limit(4,2))\"");
+  }
+
+  @Test
+  public void test_requested_limit_is_honoured() throws IOException {
+    generator.generateCsv(QueryType.VARIABLE, "variable(limit(1,3))", Collections.emptyList(),
+      new ByteArrayOutputStream());
+
+    assertThat(queries).containsExactly("variable(limit(1,2))", "variable(limit(3,1))");
+  }
+
+  @Test
+  public void test_query_without_limit_is_exported_at_once() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    generator.generateCsv(QueryType.VARIABLE, "variable(exists(Mlstr_area.Diseases))", Collections.emptyList(),
+      output);
+
+    assertThat(queries).containsExactly("variable(exists(Mlstr_area.Diseases))");
+    assertThat(lines(output)).containsExactly("\"query\"", "\"variable(exists(Mlstr_area.Diseases))\"");
+  }
+
+  @Test
+  public void test_writer_failure_stops_the_export() {
+    doThrow(new IllegalStateException("Unknown column")).when(csvReportGeneratorFactory)
+      .get(eq(QueryType.VARIABLE), any(MicaSearch.JoinQueryResultDto.class), anyListOf(String.class), eq("en"));
+
+    try {
+      generator.generateCsv(QueryType.VARIABLE, "variable(limit(0,100))", Collections.emptyList(),
+        new ByteArrayOutputStream());
+      fail("Writer failure should have been reported");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("Unknown column");
+    } catch (IOException e) {
+      fail("Writer failure should have been reported as is", e);
+    }
+
+    // the writer stopped at the first page, while at most one more page was queried
+    assertThat(queries.size()).isLessThanOrEqualTo(3);
+  }
+
+  private List<String> lines(ByteArrayOutputStream output) {
+    return Lists.newArrayList(new String(output.toByteArray(), StandardCharsets.UTF_8).trim().split("\n"));
+  }
+}
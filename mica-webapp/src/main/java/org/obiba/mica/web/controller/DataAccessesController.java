@@ -3,6 +3,7 @@ package org.obiba.mica.web.controller;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.subject.Subject;
 import org.obiba.mica.access.service.DataAccessAmendmentService;
+import org.obiba.mica.access.service.DataAccessEntityQuery;
 import org.obiba.mica.access.service.DataAccessFeasibilityService;
 import org.obiba.mica.access.service.DataAccessRequestService;
 import org.obiba.mica.access.service.DataAccessRequestUtilService;
@@ -73,7 +74,9 @@ public class DataAccessesController extends BaseController {
   }
 
   private List<DataAccessRequestBundle> getDataAccessRequests(List<String> status) {
-    return dataAccessRequestService.findByStatus(status).stream() //
+    DataAccessEntityQuery query = DataAccessEntityQuery.newBuilder().status(status)
+      .ids(subjectAclService.findPermittedInstances("/data-access-request", "VIEW")).build();
+    return dataAccessRequestService.find(query).getItems().stream() //
       .filter(req -> isPermitted("/data-access-request", "VIEW", req.getId()))
       .map(req -> new DataAccessRequestBundle(req, dataAccessRequestUtilService.getRequestTitle(req),
         dataAccessAmendmentService.countByParentId(req.getId()), dataAccessAmendmentService.countPendingByParentId(req.getId()),
@@ -17,13 +17,15 @@
  * @param $route,
  * @param $rootScope,
  * @param $http
+ * @param $timeout
  * @constructor
  */
 mica.study.StudiesImportController = function (
 	$scope,
 	$route,
 	$rootScope,
-	$http) {
+	$http,
+	$timeout) {
 
   const CONNECTIONS_PARAMS_0 = 0;
   const DIFF_CUSTOM_FORM_1 = 1;
@@ -152,34 +154,59 @@ mica.study.StudiesImportController = function (
                    listDiffsForm: $scope.listDiffsForm
                    }
         }).then(function(response) {
-          var responseData = response.data;
-
-          $scope.idsSaved = Object.keys(responseData);
-          angular.forEach($scope.studiesToCreate, function(v) {
-        	if ($scope.idsSaved.includes(v.id)) {
-        		v.statusImport =  handleHTTPStatus( responseData[v.id] );
-        		v.operation = CREATE;
-        		$scope.studiesSaved.push(v);
-        	}
-	      });
-
-          angular.forEach($scope.studiesToReplace, function(v) {
-  	        if ($scope.idsSaved.includes(v.id)) {
-  	        	v.statusImport = handleHTTPStatus( responseData[v.id] );
-  	        	v.operation = REPLACE;
-  	        	$scope.studiesSaved.push(v);
-  	        }
-          });
-
-          $scope.studiesToReplace = [];
-          $scope.studiesToCreate = [];
-          $scope.studiesConflict = [];
-          $('body').css('cursor', 'default');
-          $scope.modalIndex = FINISH_RESPONSE_MESSAGES_4;
+          pollImportJob(response.data);
         });
     }
   };
 
+  function pollImportJob(job) {
+    if (typeof(job) === 'number') {
+      $scope.statusErrorImport = handleHTTPStatus(job);
+      $('body').css('cursor', 'default');
+      return;
+    }
+
+    if (!job.done) {
+      $timeout(function() {
+        $http({
+          url: contextPath + '/ws/draft/studies/import/job/' + job.id,
+          method: 'GET'
+        }).then(function(response) {
+          pollImportJob(response.data);
+        }, function(response) {
+          // the job is unknown or has expired
+          pollImportJob(response.status);
+        });
+      }, 1000);
+      return;
+    }
+
+    var responseData = job.status;
+
+    $scope.idsSaved = Object.keys(responseData);
+    angular.forEach($scope.studiesToCreate, function(v) {
+      if ($scope.idsSaved.includes(v.id)) {
+        v.statusImport = handleHTTPStatus( responseData[v.id] );
+        v.operation = CREATE;
+        $scope.studiesSaved.push(v);
+      }
+    });
+
+    angular.forEach($scope.studiesToReplace, function(v) {
+      if ($scope.idsSaved.includes(v.id)) {
+        v.statusImport = handleHTTPStatus( responseData[v.id] );
+        v.operation = REPLACE;
+        $scope.studiesSaved.push(v);
+      }
+    });
+
+    $scope.studiesToReplace = [];
+    $scope.studiesToCreate = [];
+    $scope.studiesConflict = [];
+    $('body').css('cursor', 'default');
+    $scope.modalIndex = FINISH_RESPONSE_MESSAGES_4;
+  }
+
   function nextConnectionParams() {
     $('body').css('cursor', 'progress');
     $http({
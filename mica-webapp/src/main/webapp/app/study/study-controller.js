@@ -263,5 +263,6 @@ mica.study
 	'$route',
 	'$rootScope',
 	'$http',
+	'$timeout',
 	mica.study.StudiesImportController
   ]);